@@ -11,12 +11,14 @@
 
 package nexusvault.export.m3.gltf.internal.vertex;
 
+import java.nio.FloatBuffer;
 import java.util.LinkedList;
 
 import kreed.io.util.BinaryWriter;
 import nexusvault.export.m3.gltf.internal.GlTFComponentType;
 import nexusvault.format.m3.Mesh;
 import nexusvault.format.m3.Model;
+import nexusvault.format.m3.VertexField;
 
 public final class MeshWriter {
 
@@ -59,7 +61,8 @@ public final class MeshWriter {
 
 		if (geometry.hasVertexLocation()) {
 			final var offset = getOffsetWithinVertex(vertexFields);
-			final var field = new VFWPosition(offset);
+			final var location = geometry.isVertexFieldAvailable(VertexField.LOCATION_B) ? VertexField.LOCATION_B : VertexField.LOCATION_A;
+			final var field = new VFWPosition(offset, location);
 			vertexFields.add(field);
 		}
 
@@ -100,13 +103,19 @@ public final class MeshWriter {
 	}
 
 	public void writeGeometry(Mesh mesh, BinaryWriter writer) {
-		for (final var accessors : this.fieldWriter) {
-			accessors.resetField();
+		final int vertexCount = (int) mesh.getVertexCount();
+		final var values = new float[this.fieldWriter.length][];
+		final var elements = new int[this.fieldWriter.length];
+		for (int i = 0; i < this.fieldWriter.length; ++i) {
+			final var vertexField = this.fieldWriter[i].getVertexField();
+			elements[i] = vertexField.getNumberOfElements();
+			values[i] = mesh.readField(vertexField, FloatBuffer.allocate(vertexCount * elements[i])).array();
+			this.fieldWriter[i].resetField();
 		}
 
-		for (final var vertex : mesh.getVertices()) {
-			for (final var accessors : this.fieldWriter) {
-				accessors.writeTo(writer, vertex);
+		for (int vertex = 0; vertex < vertexCount; ++vertex) {
+			for (int i = 0; i < this.fieldWriter.length; ++i) {
+				this.fieldWriter[i].writeTo(writer, values[i], vertex * elements[i]);
 			}
 		}
 	}
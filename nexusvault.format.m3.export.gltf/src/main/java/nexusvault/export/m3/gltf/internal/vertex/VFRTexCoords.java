@@ -3,12 +3,13 @@ package nexusvault.export.m3.gltf.internal.vertex;
 import nexusvault.export.m3.gltf.internal.GlTFComponentType;
 import nexusvault.export.m3.gltf.internal.GlTFMeshAttribute;
 import nexusvault.export.m3.gltf.internal.GlTFType;
+import nexusvault.format.m3.VertexField;
 
 public abstract class VFRTexCoords extends VertexFieldWriter {
 	private final int idx;
 
-	public VFRTexCoords(int offsetWithinVertex, int idx) {
-		super("TexCoord" + idx, GlTFComponentType.FLOAT, GlTFType.VEC2, GlTFMeshAttribute.TEXCOORD, offsetWithinVertex);
+	public VFRTexCoords(int offsetWithinVertex, int idx, VertexField vertexField) {
+		super("TexCoord" + idx, GlTFComponentType.FLOAT, GlTFType.VEC2, GlTFMeshAttribute.TEXCOORD, offsetWithinVertex, vertexField);
 		this.idx = idx;
 		resetField();
 	}
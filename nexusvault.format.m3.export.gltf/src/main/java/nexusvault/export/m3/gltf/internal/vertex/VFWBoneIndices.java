@@ -15,7 +15,7 @@ import kreed.io.util.BinaryWriter;
 import nexusvault.export.m3.gltf.internal.GlTFComponentType;
 import nexusvault.export.m3.gltf.internal.GlTFMeshAttribute;
 import nexusvault.export.m3.gltf.internal.GlTFType;
-import nexusvault.format.m3.Vertex;
+import nexusvault.format.m3.VertexField;
 
 public final class VFWBoneIndices extends VertexFieldWriter {
 
@@ -24,17 +24,17 @@ public final class VFWBoneIndices extends VertexFieldWriter {
 	private final int[] boneLookUp;
 
 	public VFWBoneIndices(int offsetWithinVertex, int[] boneLookUp) {
-		super("BoneIdx", GlTFComponentType.UINT16, GlTFType.VEC4, GlTFMeshAttribute.JOINTS, offsetWithinVertex);
+		super("BoneIdx", GlTFComponentType.UINT16, GlTFType.VEC4, GlTFMeshAttribute.JOINTS, offsetWithinVertex, VertexField.BONE_MAP);
 		resetField();
 		this.boneLookUp = boneLookUp;
 	}
 
 	@Override
-	public void writeTo(BinaryWriter writer, Vertex vertex) {
-		int a = vertex.getBoneIndex1();
-		int b = vertex.getBoneIndex2();
-		int c = vertex.getBoneIndex3();
-		int d = vertex.getBoneIndex4();
+	public void writeTo(BinaryWriter writer, float[] values, int offset) {
+		int a = (int) values[offset];
+		int b = (int) values[offset + 1];
+		int c = (int) values[offset + 2];
+		int d = (int) values[offset + 3];
 
 		a = this.boneLookUp[a];
 		b = b != 0 ? this.boneLookUp[b] : 0;
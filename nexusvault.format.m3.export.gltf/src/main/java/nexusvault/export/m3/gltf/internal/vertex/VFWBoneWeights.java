@@ -15,7 +15,7 @@ import kreed.io.util.BinaryWriter;
 import nexusvault.export.m3.gltf.internal.GlTFComponentType;
 import nexusvault.export.m3.gltf.internal.GlTFMeshAttribute;
 import nexusvault.export.m3.gltf.internal.GlTFType;
-import nexusvault.format.m3.Vertex;
+import nexusvault.format.m3.VertexField;
 
 public final class VFWBoneWeights extends VertexFieldWriter {
 
@@ -23,16 +23,16 @@ public final class VFWBoneWeights extends VertexFieldWriter {
 	private int[] max;
 
 	public VFWBoneWeights(int offsetWithinVertex) {
-		super("BoneWeight", GlTFComponentType.FLOAT, GlTFType.VEC4, GlTFMeshAttribute.WEIGHTS, offsetWithinVertex);
+		super("BoneWeight", GlTFComponentType.FLOAT, GlTFType.VEC4, GlTFMeshAttribute.WEIGHTS, offsetWithinVertex, VertexField.BONE_WEIGHTS);
 		resetField();
 	}
 
 	@Override
-	public void writeTo(BinaryWriter writer, Vertex vertex) {
-		final int a = vertex.getBoneWeight1();
-		final int b = vertex.getBoneWeight2();
-		final int c = vertex.getBoneWeight3();
-		final int d = vertex.getBoneWeight4();
+	public void writeTo(BinaryWriter writer, float[] values, int offset) {
+		final int a = (int) values[offset];
+		final int b = (int) values[offset + 1];
+		final int c = (int) values[offset + 2];
+		final int d = (int) values[offset + 3];
 		writer.writeFloat32(a / 255f);
 		writer.writeFloat32(b / 255f);
 		writer.writeFloat32(c / 255f);
@@ -15,23 +15,23 @@ import kreed.io.util.BinaryWriter;
 import nexusvault.export.m3.gltf.internal.GlTFComponentType;
 import nexusvault.export.m3.gltf.internal.GlTFMeshAttribute;
 import nexusvault.export.m3.gltf.internal.GlTFType;
-import nexusvault.format.m3.Vertex;
+import nexusvault.format.m3.VertexField;
 
 public final class VFWPosition extends VertexFieldWriter {
 
 	private float[] min;
 	private float[] max;
 
-	public VFWPosition(int offsetWithinVertex) {
-		super("Pos", GlTFComponentType.FLOAT, GlTFType.VEC3, GlTFMeshAttribute.POSITION, offsetWithinVertex);
+	public VFWPosition(int offsetWithinVertex, VertexField vertexField) {
+		super("Pos", GlTFComponentType.FLOAT, GlTFType.VEC3, GlTFMeshAttribute.POSITION, offsetWithinVertex, vertexField);
 		resetField();
 	}
 
 	@Override
-	public void writeTo(BinaryWriter writer, Vertex vertex) {
-		final float x = vertex.getLocationX();
-		final float y = vertex.getLocationY();
-		final float z = vertex.getLocationZ();
+	public void writeTo(BinaryWriter writer, float[] values, int offset) {
+		final float x = values[offset];
+		final float y = values[offset + 1];
+		final float z = values[offset + 2];
 		writer.writeFloat32(x);
 		writer.writeFloat32(y);
 		writer.writeFloat32(z);
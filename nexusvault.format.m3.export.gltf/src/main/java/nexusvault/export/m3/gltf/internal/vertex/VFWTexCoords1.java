@@ -12,18 +12,18 @@
 package nexusvault.export.m3.gltf.internal.vertex;
 
 import kreed.io.util.BinaryWriter;
-import nexusvault.format.m3.Vertex;
+import nexusvault.format.m3.VertexField;
 
 public final class VFWTexCoords1 extends VFRTexCoords {
 
 	public VFWTexCoords1(int offsetWithinVertex) {
-		super(offsetWithinVertex, 0);
+		super(offsetWithinVertex, 0, VertexField.UV_MAP_1);
 	}
 
 	@Override
-	public void writeTo(BinaryWriter writer, Vertex vertex) {
-		final float u = vertex.getTextureCoordU1();
-		final float v = vertex.getTextureCoordV1();
+	public void writeTo(BinaryWriter writer, float[] values, int offset) {
+		final float u = values[offset];
+		final float v = values[offset + 1];
 		writer.writeFloat32(u);
 		writer.writeFloat32(v);
 	}
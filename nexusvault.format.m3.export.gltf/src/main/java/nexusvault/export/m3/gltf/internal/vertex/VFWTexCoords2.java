@@ -12,18 +12,18 @@
 package nexusvault.export.m3.gltf.internal.vertex;
 
 import kreed.io.util.BinaryWriter;
-import nexusvault.format.m3.Vertex;
+import nexusvault.format.m3.VertexField;
 
 public final class VFWTexCoords2 extends VFRTexCoords {
 
 	public VFWTexCoords2(int offsetWithinVertex) {
-		super(offsetWithinVertex, 1);
+		super(offsetWithinVertex, 1, VertexField.UV_MAP_2);
 	}
 
 	@Override
-	public void writeTo(BinaryWriter writer, Vertex vertex) {
-		final float u = vertex.getTextureCoordU2();
-		final float v = vertex.getTextureCoordV2();
+	public void writeTo(BinaryWriter writer, float[] values, int offset) {
+		final float u = values[offset];
+		final float v = values[offset + 1];
 		writer.writeFloat32(u);
 		writer.writeFloat32(v);
 	}
@@ -15,7 +15,7 @@ import kreed.io.util.BinaryWriter;
 import nexusvault.export.m3.gltf.internal.GlTFComponentType;
 import nexusvault.export.m3.gltf.internal.GlTFMeshAttribute;
 import nexusvault.export.m3.gltf.internal.GlTFType;
-import nexusvault.format.m3.Vertex;
+import nexusvault.format.m3.VertexField;
 
 /**
  * Abstraction to access various fields of a vertex.
@@ -26,9 +26,12 @@ public abstract class VertexFieldWriter {
 	private final GlTFMeshAttribute attribute;
 	private final String nameShort;
 	private final int offsetWithinVertex;
+	private final VertexField vertexField;
 
-	public VertexFieldWriter(String nameShort, GlTFComponentType componentType, GlTFType type, GlTFMeshAttribute attribute, int offsetWithinVertex) {
+	public VertexFieldWriter(String nameShort, GlTFComponentType componentType, GlTFType type, GlTFMeshAttribute attribute, int offsetWithinVertex,
+			VertexField vertexField) {
 		super();
+		this.vertexField = vertexField;
 		this.nameShort = nameShort;
 		this.componentType = componentType;
 		this.type = type;
@@ -60,7 +63,22 @@ public abstract class VertexFieldWriter {
 		return this.offsetWithinVertex;
 	}
 
-	abstract protected void writeTo(BinaryWriter writer, Vertex vertex);
+	/**
+	 * @return the field of the model vertex, which is read by this writer
+	 */
+	public final VertexField getVertexField() {
+		return this.vertexField;
+	}
+
+	/**
+	 * @param writer
+	 *            destination
+	 * @param values
+	 *            the decoded {@link #getVertexField() vertex field} of all vertices of a mesh
+	 * @param offset
+	 *            index of the first value of the vertex to write
+	 */
+	abstract protected void writeTo(BinaryWriter writer, float[] values, int offset);
 
 	public void resetField() {
 
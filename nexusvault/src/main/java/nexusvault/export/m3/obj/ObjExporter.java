@@ -13,12 +13,14 @@ package nexusvault.export.m3.obj;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Locale;
 
 import nexusvault.format.m3.Model;
+import nexusvault.format.m3.VertexField;
 
 public class ObjExporter {
 
@@ -79,30 +81,27 @@ public class ObjExporter {
 		for (final var modelMesh : modelGeometry.getMeshes()) {
 			writer.append("g ").append(String.format(meshNamePattern, modelMesh.getMeshIndex())).append('\n');
 
-			final var vertices = modelMesh.getVertices();
+			final int vertexCount = (int) modelMesh.getVertexCount();
 
 			if (modelGeometry.hasVertexLocation()) {
-				for (final var vertex : vertices) {
-					final float x = vertex.getLocationX();
-					final float y = vertex.getLocationY();
-					final float z = vertex.getLocationZ();
-					writer.append(String.format(Locale.US, "v %f %f %f", x, y, z)).append('\n');
+				final var field = modelGeometry.isVertexFieldAvailable(VertexField.LOCATION_B) ? VertexField.LOCATION_B : VertexField.LOCATION_A;
+				final float[] xyz = modelMesh.readField(field, FloatBuffer.allocate(vertexCount * 3)).array();
+				for (int i = 0; i < xyz.length; i += 3) {
+					writer.append(String.format(Locale.US, "v %f %f %f", xyz[i], xyz[i + 1], xyz[i + 2])).append('\n');
 				}
 			}
 
 			if (modelGeometry.hasVertex1TextureCoords()) {
-				for (final var vertex : vertices) {
-					final float u = vertex.getTextureCoordU1();
-					final float v = vertex.getTextureCoordV1();
-					writer.append(String.format(Locale.US, "vt %f %f", u, v)).append('\n');
+				final float[] uv = modelMesh.readField(VertexField.UV_MAP_1, FloatBuffer.allocate(vertexCount * 2)).array();
+				for (int i = 0; i < uv.length; i += 2) {
+					writer.append(String.format(Locale.US, "vt %f %f", uv[i], uv[i + 1])).append('\n');
 				}
 			}
 
 			if (modelGeometry.hasVertex2TextureCoords()) {
-				for (final var vertex : vertices) {
-					final float u = vertex.getTextureCoordU2();
-					final float v = vertex.getTextureCoordV2();
-					writer.append(String.format(Locale.US, "vt %f %f", u, v)).append('\n');
+				final float[] uv = modelMesh.readField(VertexField.UV_MAP_2, FloatBuffer.allocate(vertexCount * 2)).array();
+				for (int i = 0; i < uv.length; i += 2) {
+					writer.append(String.format(Locale.US, "vt %f %f", uv[i], uv[i + 1])).append('\n');
 				}
 			}
 
@@ -11,9 +11,13 @@
 
 package nexusvault.format.m3;
 
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
 import java.util.List;
 import java.util.Set;
 
+import nexusvault.format.m3.struct.VertexBlockFieldNotFoundException;
+
 public interface Geometry {
 
 	/**
@@ -39,6 +43,24 @@ public interface Geometry {
 
 	boolean isVertexFieldAvailable(VertexField field);
 
+	/**
+	 * Decodes <code>field</code> of all vertices into <code>dst</code>, starting at its current position. Each vertex adds
+	 * {@link VertexField#getNumberOfElements()} values, converted in the same way as for {@link Vertex}. This avoids creating a {@link Vertex} for each
+	 * vertex.
+	 *
+	 * @param field
+	 *            field to decode
+	 * @param dst
+	 *            receives the decoded values
+	 * @return <code>dst</code>
+	 * @throws VertexBlockFieldNotFoundException
+	 *             if the field is not available
+	 * @throws BufferOverflowException
+	 *             if <code>dst</code> has not enough space left
+	 * @see Mesh#readField(VertexField, FloatBuffer)
+	 */
+	FloatBuffer readField(VertexField field, FloatBuffer dst);
+
 	/**
 	 * @return true if a vertex has location data
 	 * @see Vertex#getLocationX()
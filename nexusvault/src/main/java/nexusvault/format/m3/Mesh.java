@@ -11,8 +11,12 @@
 
 package nexusvault.format.m3;
 
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
 import java.util.List;
 
+import nexusvault.format.m3.struct.VertexBlockFieldNotFoundException;
+
 public interface Mesh {
 
 	/**
@@ -81,6 +85,23 @@ public interface Mesh {
 
 	VertexReader getVertexReader();
 
+	/**
+	 * Decodes <code>field</code> of all vertices of this mesh into <code>dst</code>, starting at its current position. Each vertex adds
+	 * {@link VertexField#getNumberOfElements()} values, converted in the same way as for {@link Vertex}.
+	 *
+	 * @param field
+	 *            field to decode
+	 * @param dst
+	 *            receives the decoded values
+	 * @return <code>dst</code>
+	 * @throws VertexBlockFieldNotFoundException
+	 *             if the field is not available
+	 * @throws BufferOverflowException
+	 *             if <code>dst</code> has not enough space left
+	 * @see Geometry#readField(VertexField, FloatBuffer)
+	 */
+	FloatBuffer readField(VertexField field, FloatBuffer dst);
+
 	@Deprecated
 	Iterable<Vertex> iterateVertices();
 
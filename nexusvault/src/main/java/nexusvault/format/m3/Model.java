@@ -11,14 +11,23 @@
 
 package nexusvault.format.m3;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
+/**
+ * A model read by {@link #read(ByteBuffer)}. Models are immutable and can be shared between threads. Each {@link VertexReader} is a cursor and should only
+ * be used by one thread.
+ */
 public interface Model {
 
 	public static Model read(byte[] data) {
 		return ModelReader.read(data);
 	}
 
+	public static Model read(ByteBuffer data) {
+		return ModelReader.read(data);
+	}
+
 	Geometry getGeometry();
 
 	List<Material> getMaterials();
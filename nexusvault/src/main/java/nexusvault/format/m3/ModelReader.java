@@ -14,10 +14,8 @@ package nexusvault.format.m3;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
-import kreed.io.util.ByteArrayUtil;
 import nexusvault.format.m3.impl.BytePositionTracker;
 import nexusvault.format.m3.impl.InMemoryModel;
-import nexusvault.format.m3.impl.ReferenceUpdater;
 import nexusvault.format.m3.struct.StructM3Header;
 import nexusvault.shared.exception.SignatureMismatchException;
 import nexusvault.shared.exception.VersionMismatchException;
@@ -28,24 +26,35 @@ public final class ModelReader {
 
 	private static final int VERSION = 100;
 
+	/**
+	 * Reads the model lazily, see {@link #read(ByteBuffer)}. The array is not modified and can back multiple models.
+	 */
 	public static Model read(byte[] data) {
-		return read(data, ByteOrder.LITTLE_ENDIAN);
+		return read(ByteBuffer.wrap(data));
 	}
 
-	private static Model read(byte[] data, ByteOrder order) {
-		final var signature = ByteArrayUtil.getInt32(data, 0, order);
+	/**
+	 * Only the header of the model is read immediately, everything else is read when it is accessed. The content of <code>data</code> is not modified, but
+	 * must not change as long as the model is in use. The position of <code>data</code> marks the start of the model, the same buffer can back multiple
+	 * models.
+	 *
+	 * @param data
+	 *            the model data, for example a mapped file
+	 * @return the model
+	 */
+	public static Model read(ByteBuffer data) {
+		final var modelData = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+		final var signature = modelData.getInt(0);
 		if (signature != StructM3Header.SIGNATURE) {
 			throw new SignatureMismatchException("m3", StructM3Header.SIGNATURE, signature);
 		}
 
-		final var version = ByteArrayUtil.getInt32(data, 4, order);
+		final var version = modelData.getInt(4);
 		if (version != VERSION) {
 			throw new VersionMismatchException("m3", VERSION, version);
 		}
 
-		final var tracker = new BytePositionTracker(0, data.length, ByteBuffer.wrap(data).order(order));
-		final var entry = ReferenceUpdater.update(tracker, StructM3Header.class);
-		return new InMemoryModel(entry, tracker);
+		return new InMemoryModel(new BytePositionTracker(0, modelData.limit(), modelData));
 	}
 
 }
@@ -33,6 +33,15 @@ public final class BytePositionTracker {
 		return this.end;
 	}
 
+	/**
+	 * @return a new tracker over the same data, with its own position
+	 */
+	public BytePositionTracker duplicate() {
+		final var view = this.buffer.duplicate().order(this.buffer.order());
+		view.position(this.start);
+		return new BytePositionTracker(this.start, this.end, view);
+	}
+
 	public ByteBuffer getData() {
 		return this.buffer;
 	}
@@ -31,12 +31,12 @@ public final class InMemoryBone implements Bone {
 
 	@Override
 	public float[] getTransformationMatrix() {
-		return this.struct.matrix_0D0;
+		return this.struct.matrix_0D0.clone();
 	}
 
 	@Override
 	public float[] getInverseTransformationMatrix() {
-		return this.struct.matrix_110;
+		return this.struct.matrix_110.clone();
 	}
 
 	@Override
@@ -11,6 +11,7 @@
 
 package nexusvault.format.m3.impl;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -24,6 +25,7 @@ import nexusvault.format.m3.VertexField;
 import nexusvault.format.m3.VertexReader;
 import nexusvault.format.m3.struct.StructGeometry;
 import nexusvault.format.m3.struct.StructMesh;
+import nexusvault.format.m3.struct.VertexBlockFieldNotFoundException;
 
 /**
  * Internal implementation. May change without notice.
@@ -33,6 +35,7 @@ public final class InMemoryGeometry implements Geometry {
 	private final InMemoryModel model;
 	private final StructGeometry struct;
 	private final ModelVertexBuilder vertexReader;
+	private volatile List<Mesh> meshes;
 
 	public InMemoryGeometry(InMemoryModel model, StructGeometry geometry) {
 		this.model = model;
@@ -55,13 +58,16 @@ public final class InMemoryGeometry implements Geometry {
 
 	@Override
 	public List<Mesh> getMeshes() {
-		return this.model.getAllStructsPacked(this.struct.meshes, (idx, struct) -> new InMemoryMesh(idx, struct, this));
+		var meshes = this.meshes;
+		if (meshes == null) {
+			this.meshes = meshes = this.model.getAllStructsPacked(this.struct.meshes, (idx, struct) -> new InMemoryMesh(idx, struct, this));
+		}
+		return meshes;
 	}
 
 	@Override
 	public Mesh getMesh(int idx) {
-		final StructMesh struct = this.model.getStruct(getStructGeometry().meshes, idx);
-		return new InMemoryMesh(idx, struct, this);
+		return getMeshes().get(idx);
 	}
 
 	@Override
@@ -152,18 +158,14 @@ public final class InMemoryGeometry implements Geometry {
 	protected Vertex getVertex(long vertexIndex) {
 		final long vertexStart = computeVertexOffset(vertexIndex);
 		final BytePositionTracker memory = this.model.getMemory();
-		if (memory.getPosition() != vertexStart) {
-			memory.setPosition(vertexStart);
-		}
+		memory.setPosition(vertexStart);
 		return this.vertexReader.read(memory);
 	}
 
 	protected List<Vertex> getVertices(long startVertex, long vertexCount) {
 		final long vertexStart = computeVertexOffset(startVertex);
 		final BytePositionTracker memory = this.model.getMemory();
-		if (memory.getPosition() != vertexStart) {
-			memory.setPosition(vertexStart);
-		}
+		memory.setPosition(vertexStart);
 		final var result = new ArrayList<Vertex>((int) vertexCount);
 		for (int i = 0; i < vertexCount; ++i) {
 			result.add(this.vertexReader.read(memory));
@@ -181,6 +183,21 @@ public final class InMemoryGeometry implements Geometry {
 		return getStructGeometry().isVertexFieldAvailable(field);
 	}
 
+	@Override
+	public FloatBuffer readField(VertexField field, FloatBuffer dst) {
+		return readField(field, 0, getVertexCount(), dst);
+	}
+
+	protected FloatBuffer readField(VertexField field, long startVertex, long vertexCount, FloatBuffer dst) {
+		if (!isVertexFieldAvailable(field)) {
+			throw new VertexBlockFieldNotFoundException(String.format("Vertex field %s not available.", field.name()));
+		}
+		final BytePositionTracker memory = this.model.getMemory();
+		final long fieldStart = memory.getDataStart() + computeVertexOffset(startVertex) + getStructGeometry().getVertexFieldPosition(field);
+		VertexFieldDecoder.decode(memory.getData(), (int) fieldStart, this.struct.vertexBlockSizeInBytes, (int) vertexCount, field, dst);
+		return dst;
+	}
+
 	public VertexReader getVertexReader(StructMesh mesh) {
 		return new InMemoryVertexReader(getStructGeometry(), mesh, getModel().getMemory());
 	}
@@ -198,6 +215,7 @@ public final class InMemoryGeometry implements Geometry {
 		return new VertexIterator() {
 			private final long vertexSize = InMemoryGeometry.this.struct.vertexBlockSizeInBytes;
 			private final long vertexStart = vertexDataOffset + startVertex * this.vertexSize;
+			private final BytePositionTracker memory = InMemoryGeometry.this.model.getMemory();
 
 			private long idx = startIdx;
 
@@ -231,12 +249,11 @@ public final class InMemoryGeometry implements Geometry {
 			}
 
 			private Vertex getVertex() {
-				final BytePositionTracker memory = InMemoryGeometry.this.model.getMemory();
 				final long nPos = this.vertexStart + this.idx * this.vertexSize;
-				if (memory.getPosition() != nPos) {
-					memory.setPosition(nPos);
+				if (this.memory.getPosition() != nPos) {
+					this.memory.setPosition(nPos);
 				}
-				return InMemoryGeometry.this.vertexReader.read(memory);
+				return InMemoryGeometry.this.vertexReader.read(this.memory);
 			}
 
 		};
@@ -25,6 +25,7 @@ public final class InMemoryMaterial implements Material {
 	private final int idx;
 	private final StructMaterial struct;
 	private final InMemoryModel parent;
+	private volatile List<MaterialDescription> descriptions;
 
 	public InMemoryMaterial(int idx, StructMaterial struct, InMemoryModel model) {
 		this.idx = idx;
@@ -43,14 +44,17 @@ public final class InMemoryMaterial implements Material {
 
 	@Override
 	public MaterialDescription getMaterialDescription(int idx) {
-		final var struct = this.parent.getStruct(this.struct.materialDescription, idx);
-		final var model = new InMemoryMaterialDescription(idx, struct, this);
-		return model;
+		return getMaterialDescriptions().get(idx);
 	}
 
 	@Override
 	public List<MaterialDescription> getMaterialDescriptions() {
-		return this.parent.getAllStructsPacked(this.struct.materialDescription, (idx, struct) -> new InMemoryMaterialDescription(idx, struct, this));
+		var descriptions = this.descriptions;
+		if (descriptions == null) {
+			this.descriptions = descriptions = this.parent.getAllStructsPacked(this.struct.materialDescription,
+					(idx, struct) -> new InMemoryMaterialDescription(idx, struct, this));
+		}
+		return descriptions;
 	}
 
 }
@@ -11,11 +11,13 @@
 
 package nexusvault.format.m3.impl;
 
+import java.nio.FloatBuffer;
 import java.util.Iterator;
 import java.util.List;
 
 import nexusvault.format.m3.Mesh;
 import nexusvault.format.m3.Vertex;
+import nexusvault.format.m3.VertexField;
 import nexusvault.format.m3.VertexReader;
 import nexusvault.format.m3.struct.StructMesh;
 
@@ -92,6 +94,11 @@ public final class InMemoryMesh implements Mesh {
 		return this.model.getVertexReader(this.structMesh);
 	}
 
+	@Override
+	public FloatBuffer readField(VertexField field, FloatBuffer dst) {
+		return this.model.readField(field, this.structMesh.startVertex, this.structMesh.vertexCount, dst);
+	}
+
 	@Override
 	@Deprecated
 	public Iterable<Vertex> iterateVertices() {
@@ -11,71 +11,81 @@
 
 package nexusvault.format.m3.impl;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.BiFunction;
 
-import kreed.reflection.struct.DataReadDelegator;
-import kreed.reflection.struct.StructFactory;
-import kreed.reflection.struct.StructReader;
-import kreed.reflection.struct.reader.ByteBufferReader;
 import nexusvault.format.m3.Bone;
 import nexusvault.format.m3.Geometry;
 import nexusvault.format.m3.Material;
 import nexusvault.format.m3.Model;
 import nexusvault.format.m3.TextureReference;
 import nexusvault.format.m3.pointer.ArrayTypePointer;
-import nexusvault.format.m3.struct.StructGeometry;
 import nexusvault.format.m3.struct.StructM3Header;
-import nexusvault.format.m3.struct.StructMaterial;
-import nexusvault.format.m3.struct.StructTexture;
+import nexusvault.shared.StructCodec;
 
 /**
  * Internal implementation. May change without notice.
+ * <p>
+ * The model is immutable after it is read and can be used by multiple threads at once. Each access reads from its own view of the model data, decoded
+ * structs are kept once they are read the first time.
  */
 public final class InMemoryModel implements Model {
 
-	private final static StructReader<ByteBuffer> structBuilder = StructReader.build(StructFactory.build(), DataReadDelegator.build(new ByteBufferReader()),
-			false);
-
 	protected final StructM3Header header;
 	protected final BytePositionTracker modelData;
 
-	public InMemoryModel(StructM3Header header, BytePositionTracker data) {
-		this.header = header;
-		this.modelData = data;
-	}
-
-	protected <T extends VisitableStruct> T getStruct(Class<T> element) {
-		return structBuilder.read(element, this.modelData.getData());
+	private volatile InMemoryGeometry geometry;
+	private volatile List<TextureReference> textures;
+	private volatile List<Material> materials;
+	private volatile List<Bone> bones;
+	private volatile int[] boneLookUp;
+
+	/**
+	 * Reads the header of the model. All other structs are read when they are accessed. The relative pointers of each struct are resolved as it is read,
+	 * <code>data</code> is never modified.
+	 *
+	 * @param data
+	 *            the model data, starting with the header
+	 */
+	public InMemoryModel(BytePositionTracker data) {
+		this.modelData = data.duplicate();
+		final var memory = getMemory();
+		this.header = PointerResolver.resolve(StructCodec.of(StructM3Header.class).read(memory.getData()), memory,
+				PointerResolver.getDataPosition(memory, StructM3Header.class));
 	}
 
 	protected <T extends VisitableStruct> T getStruct(ArrayTypePointer<T> pointer) {
-		this.modelData.setPosition(pointer.getOffset());
-		return getStruct(pointer.getTypeOfElement());
+		return getStruct(pointer, 0);
 	}
 
 	protected <T extends VisitableStruct> T getStruct(ArrayTypePointer<T> pointer, int idx) {
 		if (idx < 0 || pointer.getArrayLength() <= idx) {
 			throw new IndexOutOfBoundsException();
 		}
-		final int position = (int) (pointer.getOffset() + pointer.getSizeOfElement() * idx);
-		this.modelData.setPosition(position);
-		return getStruct(pointer.getTypeOfElement());
+		final var memory = getMemory();
+		memory.setPosition(pointer.getOffset() + pointer.getSizeOfElement() * idx);
+		final var struct = StructCodec.of(pointer.getTypeOfElement()).read(memory.getData());
+		return PointerResolver.resolve(struct, memory, PointerResolver.getDataPosition(pointer));
 	}
 
 	protected <T extends VisitableStruct> List<T> getAllStructs(ArrayTypePointer<T> pointer) {
-		this.modelData.setPosition(pointer.getOffset());
 		final int count = pointer.getArrayLength();
+		final int dataPosition = PointerResolver.getDataPosition(pointer);
+		final var codec = StructCodec.of(pointer.getTypeOfElement());
+		final var memory = getMemory();
 		final List<T> result = new ArrayList<>(count);
 		for (int i = 0; i < count; ++i) {
-			final T struct = getStruct(pointer.getTypeOfElement());
-			result.add(struct);
+			memory.setPosition(pointer.getOffset() + pointer.getSizeOfElement() * i);
+			result.add(PointerResolver.resolve(codec.read(memory.getData()), memory, dataPosition));
 		}
 		return result;
 	}
 
+	/**
+	 * @return an immutable list
+	 */
 	protected <T extends VisitableStruct, R> List<R> getAllStructsPacked(ArrayTypePointer<T> pointer, BiFunction<Integer, T, R> packer) {
 		final List<T> structs = getAllStructs(pointer);
 		final List<R> result = new ArrayList<>(structs.size());
@@ -83,66 +93,80 @@ public final class InMemoryModel implements Model {
 		for (final T struct : structs) {
 			result.add(packer.apply(idx++, struct));
 		}
-		return result;
+		return Collections.unmodifiableList(result);
 	}
 
+	/**
+	 * @return a new view of the model data, which can be positioned freely by the caller
+	 */
 	protected BytePositionTracker getMemory() {
-		return this.modelData;
-	}
-
-	protected StructGeometry getStructGeometry() {
-		return getStruct(this.header.geometry, 0);
+		return this.modelData.duplicate();
 	}
 
 	@Override
 	public List<TextureReference> getTextures() {
-		return getAllStructsPacked(this.header.textures, (idx, struct) -> new InMemoryTextureReference(struct, this));
+		var textures = this.textures;
+		if (textures == null) {
+			this.textures = textures = getAllStructsPacked(this.header.textures, (idx, struct) -> new InMemoryTextureReference(struct, this));
+		}
+		return textures;
 	}
 
 	@Override
 	public TextureReference getTextures(int idx) {
-		final StructTexture struct = getStruct(this.header.textures, idx);
-		final InMemoryTextureReference model = new InMemoryTextureReference(struct, this);
-		return model;
+		return getTextures().get(idx);
 	}
 
 	@Override
 	public Geometry getGeometry() {
-		return new InMemoryGeometry(this, getStructGeometry());
+		var geometry = this.geometry;
+		if (geometry == null) {
+			this.geometry = geometry = new InMemoryGeometry(this, getStruct(this.header.geometry, 0));
+		}
+		return geometry;
 	}
 
 	@Override
 	public Material getMaterial(int idx) {
-		final StructMaterial struct = getStruct(this.header.material, idx);
-		final InMemoryMaterial model = new InMemoryMaterial(idx, struct, this);
-		return model;
+		return getMaterials().get(idx);
 	}
 
 	@Override
 	public List<Material> getMaterials() {
-		return getAllStructsPacked(this.header.material, (idx, struct) -> new InMemoryMaterial(idx, struct, this));
+		var materials = this.materials;
+		if (materials == null) {
+			this.materials = materials = getAllStructsPacked(this.header.material, (idx, struct) -> new InMemoryMaterial(idx, struct, this));
+		}
+		return materials;
 	}
 
 	@Override
 	public List<Bone> getBones() {
-		return getAllStructsPacked(this.header.bones, (idx, struct) -> new InMemoryBone(idx, struct, this));
+		var bones = this.bones;
+		if (bones == null) {
+			this.bones = bones = getAllStructsPacked(this.header.bones, (idx, struct) -> new InMemoryBone(idx, struct, this));
+		}
+		return bones;
 	}
 
 	@Override
 	public int[] getBoneLookUp() {
-		this.modelData.setPosition(this.header.boneMapping.getOffset());
-		final int[] lookUp = new int[this.header.boneMapping.getArrayLength()];
-		for (int i = 0; i < lookUp.length; ++i) {
-			lookUp[i] = this.modelData.getData().getShort() & 0xFFFF;
+		var lookUp = this.boneLookUp;
+		if (lookUp == null) {
+			final var memory = getMemory();
+			memory.setPosition(this.header.boneMapping.getOffset());
+			lookUp = new int[this.header.boneMapping.getArrayLength()];
+			for (int i = 0; i < lookUp.length; ++i) {
+				lookUp[i] = memory.getData().getShort() & 0xFFFF;
+			}
+			this.boneLookUp = lookUp;
 		}
-		return lookUp;
+		return lookUp.clone();
 	}
 
 	@Override
 	public Bone getBone(int idx) {
-		final var struct = getStruct(this.header.bones, idx);
-		final var model = new InMemoryBone(idx, struct, this);
-		return model;
+		return getBones().get(idx);
 	}
 
 }
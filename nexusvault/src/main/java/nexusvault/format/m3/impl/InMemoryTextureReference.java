@@ -22,7 +22,7 @@ public final class InMemoryTextureReference implements TextureReference {
 	private final StructTexture texture;
 	private final InMemoryModel model;
 
-	private String name;
+	private volatile String name;
 
 	public InMemoryTextureReference(StructTexture texture, InMemoryModel model) {
 		super();
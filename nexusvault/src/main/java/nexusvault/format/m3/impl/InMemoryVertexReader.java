@@ -23,6 +23,7 @@ import nexusvault.format.m3.VertexField;
 import nexusvault.format.m3.VertexReader;
 import nexusvault.format.m3.struct.StructGeometry;
 import nexusvault.format.m3.struct.StructMesh;
+import nexusvault.shared.FloatConversion;
 
 // TODO not good enough
 public final class InMemoryVertexReader implements VertexReader {
@@ -157,7 +158,7 @@ public final class InMemoryVertexReader implements VertexReader {
 					store[idx + offset] = ByteBufferUtil.getInt32(data);
 					break;
 				case FLOAT16:
-					store[idx + offset] = Math.round(ByteBufferUtil.getFloat16(data));
+					store[idx + offset] = Math.round(FloatConversion.halfToFloat(data.getShort()));
 					break;
 				case FLOAT32:
 					store[idx + offset] = Math.round(ByteBufferUtil.getFloat32(data));
@@ -196,7 +197,7 @@ public final class InMemoryVertexReader implements VertexReader {
 					store[idx + offset] = ByteBufferUtil.getInt32(data);
 					break;
 				case FLOAT16:
-					store[idx + offset] = ByteBufferUtil.getFloat16(data);
+					store[idx + offset] = FloatConversion.halfToFloat(data.getShort());
 					break;
 				case FLOAT32:
 					store[idx + offset] = ByteBufferUtil.getFloat32(data);
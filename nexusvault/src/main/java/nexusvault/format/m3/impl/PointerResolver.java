@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.format.m3.impl;
+
+import nexusvault.format.m3.pointer.ArrayTypePointer;
+import nexusvault.format.m3.pointer.DoubleArrayTypePointer;
+import nexusvault.shared.StructCodec;
+import nexusvault.shared.exception.IntegerOverflowException;
+
+/**
+ * Converts the relative offsets of all pointers of a single struct to absolute offsets. Unlike {@link ReferenceUpdater}, only the given struct is changed,
+ * neither the structs it points to nor the underlying data are touched.
+ * <p>
+ * Pointers of a struct are relative to the data which follows the array that contains the struct, padded to 16 bytes. This position can be computed with
+ * {@link #getDataPosition(ArrayTypePointer)} from the (already absolute) pointer to that array.
+ */
+public final class PointerResolver implements StructVisitor {
+
+	private static final PointerResolver INSTANCE = new PointerResolver();
+
+	/**
+	 * @param struct
+	 *            the struct to resolve, will be modified
+	 * @param data
+	 *            the model data, used to check the bounds of each pointer
+	 * @param dataPosition
+	 *            position to which the pointers of the struct are relative
+	 * @return <code>struct</code>
+	 */
+	public static <T extends VisitableStruct> T resolve(T struct, BytePositionTracker data, int dataPosition) {
+		struct.visit(INSTANCE, data, dataPosition);
+		return struct;
+	}
+
+	/**
+	 * @return the position to which the pointers of the root struct are relative
+	 */
+	public static int getDataPosition(BytePositionTracker data, Class<? extends VisitableStruct> rootStruct) {
+		return padPosition(data.getDataStart(), 1, StructCodec.sizeOf(rootStruct));
+	}
+
+	/**
+	 * @param pointer
+	 *            an absolute pointer
+	 * @return the position to which the pointers of the structs in the array are relative
+	 */
+	public static int getDataPosition(ArrayTypePointer<?> pointer) {
+		return padPosition(pointer.getOffset(), pointer.getArrayLength(), pointer.getSizeOfElement());
+	}
+
+	private static int padPosition(long offset, int units, int sizeInBytes) {
+		final long paddedPosition = offset + (units * sizeInBytes + 15 & 0xFFFFFFFFFFFFF0L);
+		if (paddedPosition > Integer.MAX_VALUE || paddedPosition < 0) {
+			throw new IntegerOverflowException();
+		}
+		return (int) paddedPosition;
+	}
+
+	private PointerResolver() {
+	}
+
+	@Override
+	public void process(BytePositionTracker data, int dataPosition, ArrayTypePointer<?> pointer) {
+		if (!pointer.hasElements()) {
+			pointer.setOffset(0);
+			return;
+		}
+		pointer.setOffset(resolve(data, dataPosition, pointer.getOffset(), pointer.getArrayLength() * pointer.getSizeOfElement(), pointer));
+	}
+
+	@Override
+	public void process(BytePositionTracker data, int dataPosition, DoubleArrayTypePointer<?, ?> pointer) {
+		if (!pointer.hasElements()) {
+			pointer.setOffsetA(0);
+			pointer.setOffsetB(0);
+			return;
+		}
+		pointer.setOffsetA(resolve(data, dataPosition, pointer.getOffsetA(), pointer.getArraySize() * pointer.getElementSizeA(), pointer));
+		pointer.setOffsetB(resolve(data, dataPosition, pointer.getOffsetB(), pointer.getArraySize() * pointer.getElementSizeB(), pointer));
+	}
+
+	private static long resolve(BytePositionTracker data, int dataPosition, long offset, int size, Object pointer) {
+		final long blockStart = offset + dataPosition;
+		final long blockEnd = blockStart + size;
+		if (blockStart < data.getDataStart()) {
+			throw new IndexOutOfBoundsException("Pointer is below file start: Start at: " + data.getDataStart() + " Pointer: " + pointer + " -> " + blockStart);
+		}
+		if (blockEnd > data.getDataEnd()) {
+			throw new IndexOutOfBoundsException("Pointer is above file end: End at: " + data.getDataEnd() + " Pointer: " + pointer + " -> " + blockEnd);
+		}
+		return blockStart;
+	}
+
+}
@@ -11,44 +11,32 @@
 
 package nexusvault.format.m3.impl;
 
-import java.nio.ByteBuffer;
-
-import kreed.reflection.struct.DataReadDelegator;
-import kreed.reflection.struct.DataWriteDelegator;
-import kreed.reflection.struct.StructFactory;
-import kreed.reflection.struct.StructReader;
-import kreed.reflection.struct.StructUtil;
-import kreed.reflection.struct.StructWriter;
-import kreed.reflection.struct.reader.ByteBufferReader;
-import kreed.reflection.struct.writer.ByteBufferWriter;
 import nexusvault.format.m3.pointer.ArrayTypePointer;
 import nexusvault.format.m3.pointer.DoubleArrayTypePointer;
+import nexusvault.shared.StructCodec;
 import nexusvault.shared.exception.IntegerOverflowException;
 
 public final class ReferenceUpdater implements StructVisitor {
 
-	private final StructReader<ByteBuffer> structBuilder;
-	private final StructWriter<ByteBuffer> structSaver;
-
 	public static <T extends VisitableStruct> T update(BytePositionTracker tracker, Class<? extends T> initialStruct) {
 		final var updater = new ReferenceUpdater();
 		return updater.start(tracker, initialStruct);
 	}
 
 	public ReferenceUpdater() {
-		this.structBuilder = StructReader.build(StructFactory.build(), DataReadDelegator.build(new ByteBufferReader()), true);
-		this.structSaver = StructWriter.build(StructFactory.build(), DataWriteDelegator.build(new ByteBufferWriter()), true);
 	}
 
+	@SuppressWarnings("unchecked")
 	public <T extends VisitableStruct> T start(BytePositionTracker fileReader, Class<? extends T> initialStruct) {
-		final int nextDataPosition = padPosition(fileReader.getDataStart(), 1, StructUtil.sizeOf(initialStruct));
+		final int nextDataPosition = padPosition(fileReader.getDataStart(), 1, StructCodec.sizeOf(initialStruct));
 
 		fileReader.resetPosition();
-		final T struct = this.structBuilder.read(initialStruct, fileReader.getData());
+		final var codec = (StructCodec<T>) StructCodec.of(initialStruct);
+		final T struct = codec.read(fileReader.getData());
 		struct.visit(this, fileReader, nextDataPosition);
 
 		fileReader.resetPosition();
-		this.structSaver.write(struct, fileReader.getData());
+		codec.write(struct, fileReader.getData());
 
 		return struct;
 	}
@@ -116,15 +104,17 @@ public final class ReferenceUpdater implements StructVisitor {
 		}
 	}
 
+	@SuppressWarnings("unchecked")
 	private void visitStruct(int structStart, int structSize, int structCount, Class<? extends VisitableStruct> structType, BytePositionTracker data,
 			int dataOffset) {
+		final var codec = (StructCodec<VisitableStruct>) StructCodec.of(structType);
 		for (int idx = 0; idx < structCount; ++idx) {
 			final int structPosition = structStart + idx * structSize;
 			data.setPosition(structPosition);
-			final VisitableStruct struct = this.structBuilder.read(structType, data.getData());
+			final VisitableStruct struct = codec.read(data.getData());
 			struct.visit(this, data, dataOffset);
 			data.setPosition(structPosition);
-			this.structSaver.write(struct, data.getData());
+			codec.write(struct, data.getData());
 		}
 	}
 
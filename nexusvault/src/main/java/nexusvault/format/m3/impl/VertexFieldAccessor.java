@@ -14,6 +14,7 @@ package nexusvault.format.m3.impl;
 import java.nio.ByteBuffer;
 
 import kreed.io.util.ByteBufferUtil;
+import nexusvault.shared.FloatConversion;
 
 public interface VertexFieldAccessor<T> {
 	T current(ByteBuffer buffer);
@@ -104,7 +105,7 @@ class VertexFieldUVMapAccessor extends AbstVertexFieldAccessor<float[]> {
 
 	@Override
 	public float[] current(ByteBuffer buffer) {
-		return new float[] { ByteBufferUtil.getFloat16(buffer), ByteBufferUtil.getFloat16(buffer) };
+		return new float[] { FloatConversion.halfToFloat(buffer.getShort()), FloatConversion.halfToFloat(buffer.getShort()) };
 	}
 
 }
@@ -198,15 +199,15 @@ class VertexFieldSetF4U4 implements VertexFieldSetter {
 class VertexFieldSetUVMap1 implements VertexFieldSetter {
 	@Override
 	public void set(DefaultModelVertex vertex, ByteBuffer buffer) {
-		vertex.textureCoord = new float[] { ByteBufferUtil.getFloat16(buffer), ByteBufferUtil.getFloat16(buffer) };
+		vertex.textureCoord = new float[] { FloatConversion.halfToFloat(buffer.getShort()), FloatConversion.halfToFloat(buffer.getShort()) };
 	}
 }
 
 class VertexFieldSetUVMap2 implements VertexFieldSetter {
 	@Override
 	public void set(DefaultModelVertex vertex, ByteBuffer buffer) {
-		vertex.textureCoord = new float[] { ByteBufferUtil.getFloat16(buffer), ByteBufferUtil.getFloat16(buffer), ByteBufferUtil.getFloat16(buffer),
-				ByteBufferUtil.getFloat16(buffer) };
+		vertex.textureCoord = new float[] { FloatConversion.halfToFloat(buffer.getShort()), FloatConversion.halfToFloat(buffer.getShort()), FloatConversion.halfToFloat(buffer.getShort()),
+				FloatConversion.halfToFloat(buffer.getShort()) };
 	}
 }
 
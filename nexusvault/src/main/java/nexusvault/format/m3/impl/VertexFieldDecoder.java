@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.format.m3.impl;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import nexusvault.format.m3.VertexField;
+import nexusvault.shared.FloatConversion;
+
+/**
+ * Decodes a single {@link VertexField} of consecutive vertices, with one loop per data format and without creating a vertex object per vertex. Values are
+ * converted in the same way as by {@link ModelVertexBuilder}.
+ */
+final class VertexFieldDecoder {
+
+	/** {@link VertexField#LOCATION_B} is stored as fixed point with 10 fractional bits */
+	private static final float LOCATION_SCALE = 1f / (1 << 10);
+
+	private VertexFieldDecoder() {
+	}
+
+	/**
+	 * @param data
+	 *            vertex data
+	 * @param fieldStart
+	 *            absolute position of the field in the first vertex
+	 * @param vertexSize
+	 *            size of a vertex in bytes
+	 * @param vertexCount
+	 *            number of vertices to decode
+	 * @param field
+	 *            field to decode
+	 * @param dst
+	 *            receives {@link VertexField#getNumberOfElements()} values per vertex
+	 * @throws BufferOverflowException
+	 *             if <code>dst</code> has not enough space left
+	 */
+	public static void decode(ByteBuffer data, int fieldStart, int vertexSize, int vertexCount, VertexField field, FloatBuffer dst) {
+		final int length = vertexCount * field.getNumberOfElements();
+		if (dst.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+
+		if (dst.hasArray()) {
+			decode(data, fieldStart, vertexSize, vertexCount, field, dst.array(), dst.arrayOffset() + dst.position());
+			dst.position(dst.position() + length);
+		} else {
+			final var values = new float[length];
+			decode(data, fieldStart, vertexSize, vertexCount, field, values, 0);
+			dst.put(values);
+		}
+	}
+
+	private static void decode(ByteBuffer data, int fieldStart, int vertexSize, int vertexCount, VertexField field, float[] dst, int dstOffset) {
+		final int elements = field.getNumberOfElements();
+		switch (field.getFormat()) {
+			case FLOAT16:
+				FloatConversion.halfToFloat(data, fieldStart, vertexSize, elements, vertexCount, dst, dstOffset);
+				break;
+			case INT16: {
+				final float scale = field == VertexField.LOCATION_B ? LOCATION_SCALE : 1f;
+				FloatConversion.int16ToFloat(data, fieldStart, vertexSize, elements, vertexCount, scale, dst, dstOffset);
+				break;
+			}
+			case UINT8:
+				FloatConversion.uint8ToFloat(data, fieldStart, vertexSize, elements, vertexCount, false, dst, dstOffset);
+				break;
+			case FLOAT32: {
+				int idx = dstOffset;
+				for (int i = 0, position = fieldStart; i < vertexCount; ++i, position += vertexSize) {
+					for (int c = 0; c < elements; ++c) {
+						dst[idx++] = data.getFloat(position + c * 4);
+					}
+				}
+				break;
+			}
+			case INT32: {
+				int idx = dstOffset;
+				for (int i = 0, position = fieldStart; i < vertexCount; ++i, position += vertexSize) {
+					for (int c = 0; c < elements; ++c) {
+						dst[idx++] = data.getInt(position + c * 4);
+					}
+				}
+				break;
+			}
+			case UINT16: {
+				int idx = dstOffset;
+				for (int i = 0, position = fieldStart; i < vertexCount; ++i, position += vertexSize) {
+					for (int c = 0; c < elements; ++c) {
+						dst[idx++] = data.getShort(position + c * 2) & 0xFFFF;
+					}
+				}
+				break;
+			}
+			default:
+				throw new IllegalArgumentException(String.format("Vertex field %s has no known data format", field.name()));
+		}
+	}
+
+}
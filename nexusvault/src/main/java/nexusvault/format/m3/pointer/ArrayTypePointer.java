@@ -18,6 +18,7 @@ import kreed.reflection.struct.Order;
 import kreed.reflection.struct.StructField;
 import kreed.reflection.struct.StructUtil;
 import nexusvault.format.m3.impl.VisitableStruct;
+import nexusvault.shared.StructCodec;
 
 public class ArrayTypePointer<T extends VisitableStruct> {
 	public static final int SIZE_IN_BYTES = StructUtil.sizeOf(ArrayTypePointer.class);
@@ -40,12 +41,12 @@ public class ArrayTypePointer<T extends VisitableStruct> {
 
 	public ArrayTypePointer(Class<T> type) {
 		this.typeOf = type;
-		this.byteSize = StructUtil.sizeOf(type);
+		this.byteSize = StructCodec.sizeOf(type);
 	}
 
 	public ArrayTypePointer(Class<T> type, int elements, long offset) {
 		this.typeOf = type;
-		this.byteSize = StructUtil.sizeOf(type);
+		this.byteSize = StructCodec.sizeOf(type);
 		this.elements = elements;
 		this.offset = offset;
 	}
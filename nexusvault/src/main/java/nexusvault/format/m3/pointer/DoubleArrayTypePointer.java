@@ -18,6 +18,7 @@ import kreed.reflection.struct.Order;
 import kreed.reflection.struct.StructField;
 import kreed.reflection.struct.StructUtil;
 import nexusvault.format.m3.impl.VisitableStruct;
+import nexusvault.shared.StructCodec;
 
 public class DoubleArrayTypePointer<A extends VisitableStruct, B extends VisitableStruct> {
 	public static final int SIZE_IN_BYTES = StructUtil.sizeOf(DoubleArrayTypePointer.class);
@@ -49,9 +50,9 @@ public class DoubleArrayTypePointer<A extends VisitableStruct, B extends Visitab
 
 	public DoubleArrayTypePointer(Class<A> typeOfA, Class<B> typeOfB) {
 		this.typeOfA = typeOfA;
-		this.byteSizeA = StructUtil.sizeOf(this.typeOfA);
+		this.byteSizeA = StructCodec.sizeOf(this.typeOfA);
 		this.typeOfB = typeOfB;
-		this.byteSizeB = StructUtil.sizeOf(this.typeOfB);
+		this.byteSizeB = StructCodec.sizeOf(this.typeOfB);
 	}
 
 	public boolean hasElements() {
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import kreed.io.util.ByteBufferUtil;
+
+/**
+ * Converts streams of packed numbers, like half floats or 16 bit integers, to float arrays. Each stream is described by the position of its first value,
+ * the distance in bytes between two consecutive elements (<code>stride</code>) and the number of values per element (<code>components</code>), which allows
+ * to convert a single field of interleaved vertex data.
+ * <p>
+ * Half floats are converted with a precomputed table of all 65536 values, which returns the same results as {@link ByteBufferUtil#getFloat16(ByteBuffer)}.
+ * Values are read with absolute positions and respect the byte order of the buffer, the position of the buffer is not changed.
+ * <p>
+ * This class is thread safe.
+ */
+public final class FloatConversion {
+
+	private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+	static {
+		final var buffer = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < HALF_TO_FLOAT.length; ++i) {
+			buffer.putShort(0, (short) i);
+			buffer.position(0);
+			HALF_TO_FLOAT[i] = ByteBufferUtil.getFloat16(buffer);
+		}
+	}
+
+	private FloatConversion() {
+	}
+
+	/**
+	 * @param bits
+	 *            bits of a half float
+	 * @return the half float as float
+	 */
+	public static float halfToFloat(short bits) {
+		return HALF_TO_FLOAT[bits & 0xFFFF];
+	}
+
+	/**
+	 * Converts <code>count * components</code> half floats.
+	 *
+	 * @param src
+	 *            source
+	 * @param position
+	 *            absolute position of the first value in <code>src</code>
+	 * @param stride
+	 *            distance in bytes between the first values of two consecutive elements
+	 * @param components
+	 *            number of values per element
+	 * @param count
+	 *            number of elements
+	 * @param dst
+	 *            destination
+	 * @param dstOffset
+	 *            index of the first converted value in <code>dst</code>
+	 * @throws IndexOutOfBoundsException
+	 *             if <code>src</code> or <code>dst</code> are too small
+	 */
+	public static void halfToFloat(ByteBuffer src, int position, int stride, int components, int count, float[] dst, int dstOffset) {
+		checkBounds(src, position, stride, components * 2, count, dst, dstOffset, components);
+		final float[] table = HALF_TO_FLOAT;
+		int idx = dstOffset;
+		for (int i = 0, element = position; i < count; ++i, element += stride) {
+			for (int c = 0; c < components; ++c) {
+				dst[idx++] = table[src.getShort(element + c * 2) & 0xFFFF];
+			}
+		}
+	}
+
+	/**
+	 * Converts <code>count * components</code> signed 16 bit integers and multiplies them by <code>scale</code>. A scale of <code>1f / 32767</code> decodes
+	 * snorm16 values (without clamping -32768), a power of two decodes fixed point values.
+	 *
+	 * @param src
+	 *            source
+	 * @param position
+	 *            absolute position of the first value in <code>src</code>
+	 * @param stride
+	 *            distance in bytes between the first values of two consecutive elements
+	 * @param components
+	 *            number of values per element
+	 * @param count
+	 *            number of elements
+	 * @param scale
+	 *            factor applied to each value
+	 * @param dst
+	 *            destination
+	 * @param dstOffset
+	 *            index of the first converted value in <code>dst</code>
+	 * @throws IndexOutOfBoundsException
+	 *             if <code>src</code> or <code>dst</code> are too small
+	 */
+	public static void int16ToFloat(ByteBuffer src, int position, int stride, int components, int count, float scale, float[] dst, int dstOffset) {
+		checkBounds(src, position, stride, components * 2, count, dst, dstOffset, components);
+		int idx = dstOffset;
+		for (int i = 0, element = position; i < count; ++i, element += stride) {
+			for (int c = 0; c < components; ++c) {
+				dst[idx++] = src.getShort(element + c * 2) * scale;
+			}
+		}
+	}
+
+	/**
+	 * Converts <code>count * components</code> unsigned 8 bit integers. With <code>normalize</code> each value is divided by 255, which decodes unorm8 values.
+	 *
+	 * @param src
+	 *            source
+	 * @param position
+	 *            absolute position of the first value in <code>src</code>
+	 * @param stride
+	 *            distance in bytes between the first values of two consecutive elements
+	 * @param components
+	 *            number of values per element
+	 * @param count
+	 *            number of elements
+	 * @param normalize
+	 *            true to map the values to [0, 1]
+	 * @param dst
+	 *            destination
+	 * @param dstOffset
+	 *            index of the first converted value in <code>dst</code>
+	 * @throws IndexOutOfBoundsException
+	 *             if <code>src</code> or <code>dst</code> are too small
+	 */
+	public static void uint8ToFloat(ByteBuffer src, int position, int stride, int components, int count, boolean normalize, float[] dst, int dstOffset) {
+		checkBounds(src, position, stride, components, count, dst, dstOffset, components);
+		final float divisor = normalize ? 255f : 1f;
+		int idx = dstOffset;
+		for (int i = 0, element = position; i < count; ++i, element += stride) {
+			for (int c = 0; c < components; ++c) {
+				dst[idx++] = (src.get(element + c) & 0xFF) / divisor;
+			}
+		}
+	}
+
+	private static void checkBounds(ByteBuffer src, int position, int stride, int elementSize, int count, float[] dst, int dstOffset, int components) {
+		if (count <= 0) {
+			return;
+		}
+		final long last = position + (long) stride * (count - 1) + elementSize;
+		if (position < 0 || src.limit() < last) {
+			throw new IndexOutOfBoundsException(String.format("[%d; %d) out of range, limit is %d", position, last, src.limit()));
+		}
+		final long dstEnd = dstOffset + (long) components * count;
+		if (dstOffset < 0 || dst.length < dstEnd) {
+			throw new IndexOutOfBoundsException(String.format("[%d; %d) out of range, length is %d", dstOffset, dstEnd, dst.length));
+		}
+	}
+
+}
@@ -0,0 +1,522 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.shared;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import kreed.io.util.ByteBufferUtil;
+import kreed.reflection.struct.DataType;
+import kreed.reflection.struct.FieldExtractor;
+import kreed.reflection.struct.StructField;
+import kreed.reflection.struct.StructUtil;
+import nexusvault.shared.exception.StructException;
+
+/**
+ * Reads and writes classes with {@link StructField} annotated fields, like {@link kreed.reflection.struct.StructReader StructReader} and
+ * {@link kreed.reflection.struct.StructWriter StructWriter} do.
+ * <p>
+ * The fields of a class are analyzed only once. For each field a method handle is created, which reads or writes the field directly, and all handles of a
+ * class are combined into a single handle. Decoding a struct does not need reflection and no lookups of data types or field types, which allows the JIT to
+ * compile it into a sequence of plain field reads and writes.
+ * <p>
+ * Values are converted the same way as by {@link kreed.reflection.struct.DataReadDelegator DataReadDelegator} and
+ * {@link kreed.reflection.struct.DataWriteDelegator DataWriteDelegator}, data is read and written with {@link ByteBufferUtil} and respects the byte order of
+ * the buffer. Supported are fields of primitive types, arrays of primitive types and nested structs or arrays of nested structs.
+ * <p>
+ * This class is thread safe.
+ */
+public final class StructCodec<T> {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final MethodType CODEC_TYPE = MethodType.methodType(void.class, Object.class, ByteBuffer.class);
+
+	private static final ClassValue<StructCodec<?>> CODECS = new ClassValue<>() {
+		@Override
+		protected StructCodec<?> computeValue(Class<?> type) {
+			return new StructCodec<>(type);
+		}
+	};
+
+	private static final ClassValue<Integer> SIZES = new ClassValue<>() {
+		@Override
+		protected Integer computeValue(Class<?> type) {
+			return StructUtil.sizeOf(type);
+		}
+	};
+
+	/**
+	 * Same as {@link StructUtil#sizeOf(Class)}, but the size of each class is only computed once.
+	 *
+	 * @param type
+	 *            a class with {@link StructField} annotated fields
+	 * @return size of the struct in bytes
+	 */
+	public static int sizeOf(Class<?> type) {
+		return SIZES.get(Objects.requireNonNull(type, "type"));
+	}
+
+	/**
+	 * @param type
+	 *            a class with {@link StructField} annotated fields and a constructor without arguments
+	 * @return the codec for the given class, which is created on first use
+	 * @throws StructException
+	 *             if the class can not be read or written
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> StructCodec<T> of(Class<T> type) {
+		return (StructCodec<T>) CODECS.get(Objects.requireNonNull(type, "type"));
+	}
+
+	private final Class<T> type;
+	private final MethodHandle constructor;
+	/** (Object, ByteBuffer)void */
+	private final MethodHandle reader;
+	/** (Object, ByteBuffer)void */
+	private final MethodHandle writer;
+
+	private StructCodec(Class<T> type) {
+		this.type = type;
+		try {
+			final var constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			this.constructor = LOOKUP.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+
+			MethodHandle reader = MethodHandles.empty(CODEC_TYPE);
+			MethodHandle writer = MethodHandles.empty(CODEC_TYPE);
+			final var fields = FieldExtractor.getStructFields(type, false);
+			for (var i = fields.size() - 1; 0 <= i; --i) {
+				final var field = fields.get(i);
+				field.setAccessible(true);
+				reader = MethodHandles.foldArguments(reader, buildFieldReader(field));
+				writer = MethodHandles.foldArguments(writer, buildFieldWriter(field));
+			}
+			this.reader = reader;
+			this.writer = writer;
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			throw new StructException(String.format("Unable to create codec for %s", type.getName()), e);
+		}
+	}
+
+	public Class<T> getType() {
+		return this.type;
+	}
+
+	/**
+	 * Creates a new instance and reads its fields from the current position of <code>data</code>.
+	 *
+	 * @param data
+	 *            the position is advanced by the size of the struct
+	 * @return the new struct
+	 */
+	public T read(ByteBuffer data) {
+		return read(newInstance(), data);
+	}
+
+	/**
+	 * Reads the fields of the given struct from the current position of <code>data</code>. Nested structs and arrays, which are already set, are reused.
+	 *
+	 * @param struct
+	 *            struct to read into
+	 * @param data
+	 *            the position is advanced by the size of the struct
+	 * @return <code>struct</code>
+	 */
+	public T read(T struct, ByteBuffer data) {
+		Objects.requireNonNull(struct, "struct");
+		Objects.requireNonNull(data, "data");
+		try {
+			this.reader.invokeExact((Object) struct, data);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (final Throwable e) {
+			throw new StructException(e);
+		}
+		return struct;
+	}
+
+	/**
+	 * Writes the fields of the given struct at the current position of <code>data</code>.
+	 *
+	 * @param struct
+	 *            struct to write
+	 * @param data
+	 *            the position is advanced by the size of the struct
+	 */
+	public void write(T struct, ByteBuffer data) {
+		Objects.requireNonNull(struct, "struct");
+		Objects.requireNonNull(data, "data");
+		try {
+			this.writer.invokeExact((Object) struct, data);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (final Throwable e) {
+			throw new StructException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T newInstance() {
+		try {
+			return (T) this.constructor.invokeExact();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (final Throwable e) {
+			throw new StructException(e);
+		}
+	}
+
+	private static MethodHandle buildFieldReader(Field field) throws ReflectiveOperationException {
+		final var info = field.getAnnotation(StructField.class);
+		final var getter = LOOKUP.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+		final var setter = LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+
+		if (field.getType().isArray()) {
+			final var componentType = field.getType().getComponentType();
+			final MethodHandle elementReader;
+			if (info.value() == DataType.STRUCT) {
+				elementReader = MethodHandles.insertArguments(READ_STRUCT_ELEMENT, 0, of(componentType));
+			} else if (componentType == byte.class && (info.value() == DataType.BIT_8 || info.value() == DataType.UBIT_8)) {
+				elementReader = null; // bulk read
+			} else {
+				final var store = MethodHandles.arrayElementSetter(field.getType());
+				elementReader = MethodHandles.filterArguments(store, 2, buildValueReader(info.value(), componentType))
+						.asType(MethodType.methodType(void.class, Object.class, int.class, ByteBuffer.class));
+			}
+			final var arrayFactory = MethodHandles.insertArguments(NEW_ARRAY, 0, componentType, info.length());
+			return MethodHandles.insertArguments(READ_ARRAY, 0, field.getName(), info.length(), getter, setter, arrayFactory, elementReader);
+		}
+
+		if (info.value() == DataType.STRUCT) {
+			return MethodHandles.insertArguments(READ_STRUCT, 0, getter, setter, of(field.getType()));
+		}
+
+		final var typedSetter = LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, field.getType()));
+		return MethodHandles.filterArguments(typedSetter, 1, buildValueReader(info.value(), field.getType()));
+	}
+
+	private static MethodHandle buildFieldWriter(Field field) throws ReflectiveOperationException {
+		final var info = field.getAnnotation(StructField.class);
+		final var getter = LOOKUP.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+
+		if (field.getType().isArray()) {
+			final var componentType = field.getType().getComponentType();
+			final MethodHandle elementWriter;
+			if (info.value() == DataType.STRUCT) {
+				elementWriter = MethodHandles.insertArguments(WRITE_STRUCT_ELEMENT, 0, of(componentType));
+			} else if (componentType == byte.class && (info.value() == DataType.BIT_8 || info.value() == DataType.UBIT_8)) {
+				elementWriter = null; // bulk write
+			} else {
+				// (ByteBuffer, value) -> (ByteBuffer, array, index)
+				final var load = MethodHandles.arrayElementGetter(field.getType());
+				elementWriter = MethodHandles.collectArguments(buildValueWriter(info.value(), componentType), 1, load)
+						.asType(MethodType.methodType(void.class, ByteBuffer.class, Object.class, int.class));
+			}
+			return MethodHandles.insertArguments(WRITE_ARRAY, 0, field.getName(), info.length(), getter, elementWriter);
+		}
+
+		if (info.value() == DataType.STRUCT) {
+			return MethodHandles.insertArguments(WRITE_STRUCT, 0, field.getName(), getter, of(field.getType()));
+		}
+
+		final var typedGetter = LOOKUP.unreflectGetter(field).asType(MethodType.methodType(field.getType(), Object.class));
+		final var writer = MethodHandles.filterArguments(buildValueWriter(info.value(), field.getType()), 1, typedGetter); // (ByteBuffer, Object)void
+		return MethodHandles.permuteArguments(writer, CODEC_TYPE, 1, 0);
+	}
+
+	/**
+	 * @return (ByteBuffer)<code>valueType</code>
+	 */
+	private static MethodHandle buildValueReader(DataType dataType, Class<?> valueType) throws ReflectiveOperationException {
+		final String method;
+		if (valueType == float.class || valueType == double.class) {
+			method = getFloatReader(dataType);
+		} else if (valueType == boolean.class) {
+			final var signed = findReader(getIntegerReader(toSigned(dataType), long.class));
+			return MethodHandles.filterReturnValue(MethodHandles.explicitCastArguments(signed, MethodType.methodType(long.class, ByteBuffer.class)),
+					IS_NOT_ZERO);
+		} else if (valueType.isPrimitive()) {
+			method = getIntegerReader(dataType, valueType == char.class ? short.class : valueType);
+		} else {
+			throw new StructException(String.format("Unsupported field type %s", valueType.getName()));
+		}
+		final var reader = findReader(method);
+		return MethodHandles.explicitCastArguments(reader, MethodType.methodType(valueType, ByteBuffer.class));
+	}
+
+	/**
+	 * Selects the same method of {@link ByteBufferUtil}, which {@link kreed.reflection.struct.DataReadDelegator DataReadDelegator} uses for the given
+	 * combination of data type and field type
+	 */
+	private static String getIntegerReader(DataType dataType, Class<?> valueType) {
+		final var wide = valueType == int.class || valueType == long.class;
+		switch (dataType) {
+			case BIT_8:
+				return "getInt8";
+			case UBIT_8:
+				return valueType == byte.class ? "getInt8" : "getUInt8";
+			case BIT_16:
+				return "getInt16";
+			case UBIT_16:
+				return wide ? "getUInt16" : "getInt16";
+			case BIT_24:
+				return wide ? "getInt24" : "getUInt24";
+			case UBIT_24:
+				return "getUInt24";
+			case BIT_32:
+				return "getInt32";
+			case UBIT_32:
+				return valueType == long.class ? "getUInt32" : "getInt32";
+			case BIT_64:
+			case UBIT_64:
+				return "getInt64";
+			default:
+				throw new StructException(String.format("Unsupported data type %s", dataType));
+		}
+	}
+
+	private static String getFloatReader(DataType dataType) {
+		switch (dataType) {
+			case BIT_16:
+			case UBIT_16:
+				return "getFloat16";
+			case BIT_32:
+			case UBIT_32:
+				return "getFloat32";
+			case BIT_64:
+			case UBIT_64:
+				return "getFloat64";
+			default:
+				throw new StructException(String.format("Unsupported data type %s for floating point values", dataType));
+		}
+	}
+
+	private static DataType toSigned(DataType dataType) {
+		switch (dataType) {
+			case UBIT_8:
+				return DataType.BIT_8;
+			case UBIT_16:
+				return DataType.BIT_16;
+			case UBIT_24:
+				return DataType.BIT_24;
+			case UBIT_32:
+				return DataType.BIT_32;
+			case UBIT_64:
+				return DataType.BIT_64;
+			default:
+				return dataType;
+		}
+	}
+
+	private static MethodHandle findReader(String method) throws ReflectiveOperationException {
+		for (final var candidate : ByteBufferUtil.class.getMethods()) {
+			if (candidate.getName().equals(method) && candidate.getParameterCount() == 1 && candidate.getParameterTypes()[0] == ByteBuffer.class) {
+				return LOOKUP.unreflect(candidate);
+			}
+		}
+		throw new NoSuchMethodException(method);
+	}
+
+	/**
+	 * @return (ByteBuffer, <code>valueType</code>)void
+	 */
+	private static MethodHandle buildValueWriter(DataType dataType, Class<?> valueType) throws ReflectiveOperationException {
+		if (valueType == float.class || valueType == double.class) {
+			final String method;
+			final Class<?> parameter;
+			switch (dataType) {
+				case BIT_16:
+				case UBIT_16:
+					method = "setFloat16";
+					parameter = float.class;
+					break;
+				case BIT_32:
+				case UBIT_32:
+					method = "setFloat32";
+					parameter = float.class;
+					break;
+				case BIT_64:
+				case UBIT_64:
+					method = "setFloat64";
+					parameter = double.class;
+					break;
+				default:
+					throw new StructException(String.format("Unsupported data type %s for floating point values", dataType));
+			}
+			final var writer = LOOKUP.findStatic(ByteBufferUtil.class, method, MethodType.methodType(void.class, ByteBuffer.class, parameter));
+			return MethodHandles.explicitCastArguments(writer, MethodType.methodType(void.class, ByteBuffer.class, valueType));
+		}
+
+		final String method;
+		switch (dataType) {
+			case BIT_8:
+			case UBIT_8:
+				method = "setInt8";
+				break;
+			case BIT_16:
+			case UBIT_16:
+				method = "setInt16";
+				break;
+			case BIT_24:
+			case UBIT_24:
+				method = "setInt24";
+				break;
+			case BIT_32:
+			case UBIT_32:
+				method = "setInt32";
+				break;
+			case BIT_64:
+			case UBIT_64:
+				method = "setInt64";
+				break;
+			default:
+				throw new StructException(String.format("Unsupported data type %s", dataType));
+		}
+
+		if (valueType == boolean.class) {
+			final var writer = LOOKUP.findStatic(ByteBufferUtil.class, method, MethodType.methodType(void.class, ByteBuffer.class, int.class));
+			return MethodHandles.filterArguments(writer, 1, TO_INT);
+		}
+		if (valueType == char.class) {
+			final var writer = LOOKUP.findStatic(ByteBufferUtil.class, method, MethodType.methodType(void.class, ByteBuffer.class, short.class));
+			return MethodHandles.explicitCastArguments(writer, MethodType.methodType(void.class, ByteBuffer.class, char.class));
+		}
+		if (!valueType.isPrimitive()) {
+			throw new StructException(String.format("Unsupported field type %s", valueType.getName()));
+		}
+		return LOOKUP.findStatic(ByteBufferUtil.class, method, MethodType.methodType(void.class, ByteBuffer.class, valueType));
+	}
+
+	private static final MethodHandle READ_STRUCT;
+	private static final MethodHandle READ_STRUCT_ELEMENT;
+	private static final MethodHandle READ_ARRAY;
+	private static final MethodHandle NEW_ARRAY;
+	private static final MethodHandle WRITE_STRUCT;
+	private static final MethodHandle WRITE_STRUCT_ELEMENT;
+	private static final MethodHandle WRITE_ARRAY;
+	private static final MethodHandle IS_NOT_ZERO;
+	private static final MethodHandle TO_INT;
+
+	static {
+		try {
+			READ_STRUCT = LOOKUP.findStatic(StructCodec.class, "readStruct", MethodType.methodType(void.class, MethodHandle.class, MethodHandle.class,
+					StructCodec.class, Object.class, ByteBuffer.class));
+			READ_STRUCT_ELEMENT = LOOKUP.findStatic(StructCodec.class, "readStructElement",
+					MethodType.methodType(void.class, StructCodec.class, Object.class, int.class, ByteBuffer.class));
+			READ_ARRAY = LOOKUP.findStatic(StructCodec.class, "readArray", MethodType.methodType(void.class, String.class, int.class, MethodHandle.class,
+					MethodHandle.class, MethodHandle.class, MethodHandle.class, Object.class, ByteBuffer.class));
+			NEW_ARRAY = LOOKUP.findStatic(Array.class, "newInstance", MethodType.methodType(Object.class, Class.class, int.class));
+			WRITE_STRUCT = LOOKUP.findStatic(StructCodec.class, "writeStruct",
+					MethodType.methodType(void.class, String.class, MethodHandle.class, StructCodec.class, Object.class, ByteBuffer.class));
+			WRITE_STRUCT_ELEMENT = LOOKUP.findStatic(StructCodec.class, "writeStructElement",
+					MethodType.methodType(void.class, StructCodec.class, ByteBuffer.class, Object.class, int.class));
+			WRITE_ARRAY = LOOKUP.findStatic(StructCodec.class, "writeArray",
+					MethodType.methodType(void.class, String.class, int.class, MethodHandle.class, MethodHandle.class, Object.class, ByteBuffer.class));
+			IS_NOT_ZERO = LOOKUP.findStatic(StructCodec.class, "isNotZero", MethodType.methodType(boolean.class, long.class));
+			TO_INT = LOOKUP.findStatic(StructCodec.class, "toInt", MethodType.methodType(int.class, boolean.class));
+		} catch (final ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static void readStruct(MethodHandle getter, MethodHandle setter, StructCodec<Object> codec, Object struct, ByteBuffer data) throws Throwable {
+		var value = (Object) getter.invokeExact(struct);
+		if (value == null) {
+			value = codec.newInstance();
+			setter.invokeExact(struct, value);
+		}
+		codec.read(value, data);
+	}
+
+	@SuppressWarnings("unused")
+	private static void readStructElement(StructCodec<Object> codec, Object array, int index, ByteBuffer data) {
+		final var elements = (Object[]) array;
+		if (elements[index] == null) {
+			elements[index] = codec.newInstance();
+		}
+		codec.read(elements[index], data);
+	}
+
+	@SuppressWarnings("unused")
+	private static void readArray(String name, int length, MethodHandle getter, MethodHandle setter, MethodHandle arrayFactory, MethodHandle elementReader,
+			Object struct, ByteBuffer data) throws Throwable {
+		var array = (Object) getter.invokeExact(struct);
+		if (array == null) {
+			array = (Object) arrayFactory.invokeExact();
+			setter.invokeExact(struct, array);
+		} else if (Array.getLength(array) != length) {
+			throw new StructException(String.format("Field '%s' expects an array of length %d, but was %d", name, length, Array.getLength(array)));
+		}
+
+		if (elementReader == null) {
+			data.get((byte[]) array);
+		} else {
+			for (var i = 0; i < length; ++i) {
+				elementReader.invokeExact(array, i, data);
+			}
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static void writeStruct(String name, MethodHandle getter, StructCodec<Object> codec, Object struct, ByteBuffer data) throws Throwable {
+		final var value = (Object) getter.invokeExact(struct);
+		if (value == null) {
+			throw new StructException(String.format("Field '%s' is not set", name));
+		}
+		codec.write(value, data);
+	}
+
+	@SuppressWarnings("unused")
+	private static void writeStructElement(StructCodec<Object> codec, ByteBuffer data, Object array, int index) {
+		final var value = ((Object[]) array)[index];
+		if (value == null) {
+			throw new StructException(String.format("Element %d of %s[] is not set", index, codec.getType().getName()));
+		}
+		codec.write(value, data);
+	}
+
+	@SuppressWarnings("unused")
+	private static void writeArray(String name, int length, MethodHandle getter, MethodHandle elementWriter, Object struct, ByteBuffer data) throws Throwable {
+		final var array = (Object) getter.invokeExact(struct);
+		if (array == null) {
+			throw new StructException(String.format("Field '%s' is not set", name));
+		}
+		if (Array.getLength(array) != length) {
+			throw new StructException(String.format("Field '%s' expects an array of length %d, but was %d", name, length, Array.getLength(array)));
+		}
+
+		if (elementWriter == null) {
+			data.put((byte[]) array);
+		} else {
+			for (var i = 0; i < length; ++i) {
+				elementWriter.invokeExact(data, array, i);
+			}
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean isNotZero(long value) {
+		return value != 0;
+	}
+
+	@SuppressWarnings("unused")
+	private static int toInt(boolean value) {
+		return value ? 1 : 0;
+	}
+
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.vault;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import nexusvault.vault.IdxEntry.IdxFileLink;
+import nexusvault.vault.index.IndexException.IndexEntryNotFoundException;
+
+/**
+ * Non-blocking facade for reading files of a {@link NexusArchive}.
+ * <p>
+ * Reads are split into two stages. The stored data is read by a small pool of reader threads, which are the only threads that wait for the disk. Decoding
+ * is done by a separate, bounded pool. Callers are never blocked, they receive a {@link CompletableFuture} which completes with the decoded content.
+ * <p>
+ * Concurrent reads of files with the same {@link IdxFileLink#getHash() hash} are coalesced: as long as a read is in progress, further requests for the same
+ * content wait for it instead of reading the data again. If the archive has a {@link NexusArchive#getDataCache() data cache}, it is consulted before
+ * reading and filled afterwards.
+ * <p>
+ * Closing this facade does not close the archive.
+ * <p>
+ * This class is thread safe.
+ */
+public final class AsyncNexusArchive implements AutoCloseable {
+
+	private static final int DEFAULT_READ_THREADS = 2;
+
+	private static ThreadFactory newThreadFactory(String name) {
+		final var counter = new AtomicInteger();
+		return runnable -> {
+			final var thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private final NexusArchive archive;
+	private final ExecutorService readExecutor;
+	private final ExecutorService decodeExecutor;
+	private final boolean ownsExecutors;
+
+	/** Reads which are in progress, keyed by the hash of their content */
+	private final ConcurrentHashMap<ByteBuffer, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong diskReads = new AtomicLong();
+	private final AtomicLong coalescedReads = new AtomicLong();
+
+	/**
+	 * Creates a facade with its own reader and decoder threads. Data is decoded by one thread per available processor. The threads are stopped when this
+	 * facade is {@link #close() closed}.
+	 *
+	 * @param archive
+	 *            archive to read from
+	 */
+	public AsyncNexusArchive(NexusArchive archive) {
+		this(archive, Executors.newFixedThreadPool(DEFAULT_READ_THREADS, newThreadFactory("nexusvault-async-read")),
+				Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), newThreadFactory("nexusvault-async-decode")), true);
+	}
+
+	/**
+	 * @param archive
+	 *            archive to read from
+	 * @param readExecutor
+	 *            reads the stored data from disk. The executor will not be shut down.
+	 * @param decodeExecutor
+	 *            decodes the stored data. The number of its threads bounds the number of files decoded at once. The executor will not be shut down.
+	 */
+	public AsyncNexusArchive(NexusArchive archive, ExecutorService readExecutor, ExecutorService decodeExecutor) {
+		this(archive, readExecutor, decodeExecutor, false);
+	}
+
+	private AsyncNexusArchive(NexusArchive archive, ExecutorService readExecutor, ExecutorService decodeExecutor, boolean ownsExecutors) {
+		this.archive = Objects.requireNonNull(archive, "archive");
+		this.readExecutor = Objects.requireNonNull(readExecutor, "readExecutor");
+		this.decodeExecutor = Objects.requireNonNull(decodeExecutor, "decodeExecutor");
+		this.ownsExecutors = ownsExecutors;
+	}
+
+	public NexusArchive getArchive() {
+		return this.archive;
+	}
+
+	/**
+	 * Looks up the file at the given path and reads it, see {@link #readAsync(IdxFileLink)}.
+	 * <p>
+	 * The returned future completes exceptionally with an {@link IndexEntryNotFoundException} if no entry exists at the given path, or with an
+	 * {@link nexusvault.vault.index.IndexException.IndexEntryNotAFileException IndexEntryNotAFileException} if the entry is a directory.
+	 *
+	 * @param path
+	 *            path of the file to read
+	 * @return a future which completes with the decoded content of the file
+	 */
+	public CompletableFuture<ByteBuffer> readAsync(IdxPath path) {
+		Objects.requireNonNull(path, "path");
+		return supplyAsync(() -> {
+			try {
+				return this.archive.find(path)
+						.orElseThrow(() -> new IndexEntryNotFoundException(String.format("%s not found", path.getFullName())))
+						.asFile();
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, this.readExecutor).thenCompose(this::readAsync);
+	}
+
+	/**
+	 * Reads and decodes the given file without blocking the calling thread. Each caller receives its own read-only buffer, buffers of coalesced reads share
+	 * their content.
+	 *
+	 * @param file
+	 *            file to read, must belong to the archive of this facade
+	 * @return a future which completes with the decoded content of the file
+	 * @throws IllegalArgumentException
+	 *             if the file does not belong to the archive of this facade
+	 */
+	public CompletableFuture<ByteBuffer> readAsync(IdxFileLink file) {
+		Objects.requireNonNull(file, "file");
+		if (file.getArchive() != this.archive) {
+			throw new IllegalArgumentException(String.format("%s does not belong to this archive", file.getFullName()));
+		}
+
+		final var key = ByteBuffer.wrap(file.getHash().clone());
+		final var read = new CompletableFuture<byte[]>();
+		final var existing = this.inFlight.putIfAbsent(key, read);
+		if (existing != null) {
+			this.coalescedReads.incrementAndGet();
+			return existing.thenApply(AsyncNexusArchive::wrap);
+		}
+
+		startRead(file, key, read);
+		return read.thenApply(AsyncNexusArchive::wrap);
+	}
+
+	private static ByteBuffer wrap(byte[] data) {
+		return ByteBuffer.wrap(data).asReadOnlyBuffer();
+	}
+
+	private void startRead(IdxFileLink file, ByteBuffer key, CompletableFuture<byte[]> read) {
+		final var cache = this.archive.getDataCache();
+		final CompletableFuture<byte[]> decoded;
+		if (this.archive instanceof NexusArchiveImpl) {
+			final var archive = (NexusArchiveImpl) this.archive;
+			decoded = supplyAsync(() -> {
+				try {
+					if (cache != null) {
+						final var cached = cache.get(file.getHash());
+						if (cached != null) {
+							return CompletableFuture.completedFuture(cached);
+						}
+					}
+					final var data = archive.leaseData(file);
+					this.diskReads.incrementAndGet();
+					try {
+						return CompletableFuture.supplyAsync(() -> {
+							final byte[] content;
+							try (data) {
+								content = NexusArchiveImpl.decode(file, data.getBuffer());
+							}
+							if (cache != null) {
+								cache.put(file.getHash(), content);
+							}
+							return content;
+						}, this.decodeExecutor);
+					} catch (final RejectedExecutionException e) {
+						data.close();
+						return CompletableFuture.<byte[]>failedFuture(e);
+					}
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, this.readExecutor).thenCompose(future -> future);
+		} else { // unknown implementation, read and decode in one step
+			decoded = supplyAsync(() -> {
+				try {
+					this.diskReads.incrementAndGet();
+					return file.getData();
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, this.readExecutor);
+		}
+
+		decoded.whenComplete((data, error) -> {
+			// remove first, requests which arrive after completion must not join a finished read
+			this.inFlight.remove(key, read);
+			if (error != null) {
+				read.completeExceptionally(unwrap(error));
+			} else {
+				read.complete(data);
+			}
+		});
+	}
+
+	/**
+	 * Same as {@link CompletableFuture#supplyAsync(Supplier, Executor)}, but a task rejected by the executor, e.g. because it was shut down, is reported
+	 * through the returned future instead of being thrown.
+	 */
+	private static <T> CompletableFuture<T> supplyAsync(Supplier<T> task, Executor executor) {
+		try {
+			return CompletableFuture.supplyAsync(task, executor);
+		} catch (final RejectedExecutionException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private static Throwable unwrap(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		if (error instanceof UncheckedIOException) {
+			return error.getCause();
+		}
+		return error;
+	}
+
+	/**
+	 * @return number of reads from disk. Coalesced reads and reads served by the data cache are not counted.
+	 */
+	public long getDiskReadCount() {
+		return this.diskReads.get();
+	}
+
+	/**
+	 * @return number of reads which waited for a read of the same content, which was already in progress
+	 */
+	public long getCoalescedReadCount() {
+		return this.coalescedReads.get();
+	}
+
+	/**
+	 * Stops the reader and decoder threads, if they were created by this facade. Reads which are already in progress are completed, reads requested
+	 * afterwards complete exceptionally with a {@link RejectedExecutionException}.
+	 */
+	@Override
+	public void close() {
+		if (this.ownsExecutors) {
+			this.readExecutor.shutdown();
+			this.decodeExecutor.shutdown();
+		}
+	}
+
+}
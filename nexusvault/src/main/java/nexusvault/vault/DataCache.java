@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache for decoded file content, which can be attached to a {@link NexusArchive} with {@link NexusArchive#setDataCache(DataCache)}.
+ * <p>
+ * Entries are keyed by the SHA-1 hash of their content, see {@link IdxEntry.IdxFileLink#getHash()}. Identical files share one entry, even if they are stored
+ * under different paths or in different archives, so one cache can be shared by multiple archives.
+ * <p>
+ * The cache is bounded by the number of bytes it holds and evicts the least recently used entries first. It consists of two tiers. The heap tier keeps the
+ * content as byte arrays. The optional off-heap tier keeps the content in direct buffers outside of the java heap, entries evicted from the heap tier are moved
+ * to it. Entries which are too large for the heap tier are put into the off-heap tier directly.
+ * <p>
+ * This class is thread safe.
+ */
+public final class DataCache {
+
+	private static final class HashKey {
+		private final byte[] value;
+		private final int computed;
+
+		public HashKey(byte[] hash) {
+			this.value = Objects.requireNonNull(hash, "argument: 'hash'");
+			this.computed = Arrays.hashCode(hash);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.computed;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			return Arrays.equals(this.value, ((HashKey) obj).value);
+		}
+	}
+
+	private final Object lock = new Object();
+
+	private final long maxHeapSize;
+	private final long maxOffHeapSize;
+
+	/** iteration order is from least to most recently used */
+	private final LinkedHashMap<HashKey, byte[]> heapTier = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<HashKey, ByteBuffer> offHeapTier = new LinkedHashMap<>(16, 0.75f, true);
+	private long heapSize;
+	private long offHeapSize;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a cache without an off-heap tier
+	 *
+	 * @param maxHeapSize
+	 *            maximal number of bytes kept on the heap
+	 */
+	public DataCache(long maxHeapSize) {
+		this(maxHeapSize, 0);
+	}
+
+	/**
+	 * @param maxHeapSize
+	 *            maximal number of bytes kept on the heap
+	 * @param maxOffHeapSize
+	 *            maximal number of bytes kept off the heap, 0 disables the off-heap tier
+	 */
+	public DataCache(long maxHeapSize, long maxOffHeapSize) {
+		if (maxHeapSize < 0) {
+			throw new IllegalArgumentException("'maxHeapSize' must not be negative");
+		}
+		if (maxOffHeapSize < 0) {
+			throw new IllegalArgumentException("'maxOffHeapSize' must not be negative");
+		}
+		this.maxHeapSize = maxHeapSize;
+		this.maxOffHeapSize = maxOffHeapSize;
+	}
+
+	/**
+	 * @param hash
+	 *            SHA-1 hash of the content
+	 * @return a copy of the cached content or <code>null</code> if no content is cached for the given hash
+	 */
+	public byte[] get(byte[] hash) {
+		final var key = new HashKey(hash);
+		final byte[] onHeap;
+		final ByteBuffer offHeap;
+		synchronized (this.lock) {
+			onHeap = this.heapTier.get(key);
+			offHeap = onHeap == null ? this.offHeapTier.get(key) : null;
+		}
+
+		// cached content is never modified, so it can be copied outside of the lock
+		if (onHeap != null) {
+			this.hits.incrementAndGet();
+			return onHeap.clone();
+		}
+		if (offHeap != null) {
+			this.hits.incrementAndGet();
+			final var result = new byte[offHeap.remaining()];
+			offHeap.duplicate().get(result);
+			return result;
+		}
+		this.misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Adds the given content to this cache. The content is copied. If the content does not fit into any tier, it is not cached.
+	 *
+	 * @param hash
+	 *            SHA-1 hash of the content
+	 * @param data
+	 *            content to cache
+	 */
+	public void put(byte[] hash, byte[] data) {
+		final var key = new HashKey(hash.clone());
+		if (data.length <= this.maxHeapSize) {
+			final var copy = data.clone();
+			synchronized (this.lock) {
+				removeEntry(key);
+				this.heapTier.put(key, copy);
+				this.heapSize += copy.length;
+				evictHeapTier();
+			}
+		} else if (data.length <= this.maxOffHeapSize) {
+			final var copy = ByteBuffer.allocateDirect(data.length).put(data).flip().asReadOnlyBuffer();
+			synchronized (this.lock) {
+				removeEntry(key);
+				putOffHeap(key, copy);
+			}
+		}
+	}
+
+	/**
+	 * Removes the content for the given hash from this cache, if present
+	 *
+	 * @param hash
+	 *            SHA-1 hash of the content
+	 */
+	public void invalidate(byte[] hash) {
+		final var key = new HashKey(hash);
+		synchronized (this.lock) {
+			removeEntry(key);
+		}
+	}
+
+	/**
+	 * Removes all entries. Does not reset the statistics.
+	 */
+	public void clear() {
+		synchronized (this.lock) {
+			this.heapTier.clear();
+			this.offHeapTier.clear();
+			this.heapSize = 0;
+			this.offHeapSize = 0;
+		}
+	}
+
+	private void removeEntry(HashKey key) {
+		final var onHeap = this.heapTier.remove(key);
+		if (onHeap != null) {
+			this.heapSize -= onHeap.length;
+		}
+		final var offHeap = this.offHeapTier.remove(key);
+		if (offHeap != null) {
+			this.offHeapSize -= offHeap.capacity();
+		}
+	}
+
+	private void evictHeapTier() {
+		final Iterator<Map.Entry<HashKey, byte[]>> it = this.heapTier.entrySet().iterator();
+		while (this.heapSize > this.maxHeapSize && it.hasNext()) {
+			final var eldest = it.next();
+			it.remove();
+			this.heapSize -= eldest.getValue().length;
+
+			final var data = eldest.getValue();
+			if (data.length <= this.maxOffHeapSize) {
+				putOffHeap(eldest.getKey(), ByteBuffer.allocateDirect(data.length).put(data).flip().asReadOnlyBuffer());
+			} else {
+				this.evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private void putOffHeap(HashKey key, ByteBuffer data) {
+		this.offHeapTier.put(key, data);
+		this.offHeapSize += data.capacity();
+
+		final Iterator<ByteBuffer> it = this.offHeapTier.values().iterator();
+		while (this.offHeapSize > this.maxOffHeapSize && it.hasNext()) {
+			final var eldest = it.next();
+			it.remove();
+			this.offHeapSize -= eldest.capacity();
+			this.evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return number of calls to {@link #get(byte[])} which returned cached content
+	 */
+	public long getHitCount() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return number of calls to {@link #get(byte[])} which found no cached content
+	 */
+	public long getMissCount() {
+		return this.misses.get();
+	}
+
+	/**
+	 * @return number of entries which were removed from this cache to free space. Entries which are moved from the heap to the off-heap tier are not counted.
+	 */
+	public long getEvictionCount() {
+		return this.evictions.get();
+	}
+
+	/**
+	 * @return the ratio of hits to all requests, or 0 if nothing was requested yet
+	 */
+	public double getHitRate() {
+		final var hits = getHitCount();
+		final var requests = hits + getMissCount();
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	public void resetStatistics() {
+		this.hits.set(0);
+		this.misses.set(0);
+		this.evictions.set(0);
+	}
+
+	public int getEntryCount() {
+		synchronized (this.lock) {
+			return this.heapTier.size() + this.offHeapTier.size();
+		}
+	}
+
+	/**
+	 * @return number of bytes currently cached on the heap
+	 */
+	public long getHeapSize() {
+		synchronized (this.lock) {
+			return this.heapSize;
+		}
+	}
+
+	/**
+	 * @return number of bytes currently cached off the heap
+	 */
+	public long getOffHeapSize() {
+		synchronized (this.lock) {
+			return this.offHeapSize;
+		}
+	}
+
+	public long getMaxHeapSize() {
+		return this.maxHeapSize;
+	}
+
+	public long getMaxOffHeapSize() {
+		return this.maxOffHeapSize;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("DataCache [entries=%d, heap=%d/%d bytes, offHeap=%d/%d bytes, hits=%d, misses=%d, evictions=%d]", getEntryCount(),
+				getHeapSize(), this.maxHeapSize, getOffHeapSize(), this.maxOffHeapSize, getHitCount(), getMissCount(), getEvictionCount());
+	}
+
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Configures {@link NexusArchive#extract(java.util.Collection, ExtractSink, ExtractOptions)}.
+ * <p>
+ * By default, files are decoded on the {@link ForkJoinPool#commonPool() common pool} and at most 256MB of data are in flight at any time.
+ */
+public final class ExtractOptions {
+
+	private static final int DEFAULT_MAX_BYTES_IN_FLIGHT = 256 << 20;
+
+	private ExecutorService executor;
+	private int maxBytesInFlight = DEFAULT_MAX_BYTES_IN_FLIGHT;
+
+	public ExtractOptions() {
+	}
+
+	/**
+	 * @param executor
+	 *            executes the decoding of files, if <code>null</code> the {@link ForkJoinPool#commonPool() common pool} is used. The executor will not be shut
+	 *            down.
+	 * @return this
+	 */
+	public ExtractOptions setExecutor(ExecutorService executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	public ExecutorService getExecutor() {
+		return this.executor != null ? this.executor : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Limits the number of bytes, compressed and decoded, which are read but not yet passed to the {@link ExtractSink sink}. Reading pauses until enough
+	 * memory is released. A single file, which exceeds this limit, is still processed, but on its own.
+	 *
+	 * @param maxBytesInFlight
+	 *            maximal number of bytes in flight, must be greater than 0
+	 * @return this
+	 */
+	public ExtractOptions setMaxBytesInFlight(int maxBytesInFlight) {
+		if (maxBytesInFlight <= 0) {
+			throw new IllegalArgumentException("'maxBytesInFlight' must be greater than 0");
+		}
+		this.maxBytesInFlight = maxBytesInFlight;
+		return this;
+	}
+
+	public int getMaxBytesInFlight() {
+		return this.maxBytesInFlight;
+	}
+
+}
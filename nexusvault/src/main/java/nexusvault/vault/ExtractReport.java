@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault;
+
+import java.util.Collections;
+import java.util.Map;
+
+import nexusvault.vault.IdxEntry.IdxFileLink;
+
+/**
+ * Summary of a call to {@link NexusArchive#extract(java.util.Collection, ExtractSink, ExtractOptions)}.
+ * <p>
+ * Extraction is split into two stages. The read stage reads the stored bytes of each file, ordered by their position in the archive. The decode stage
+ * decompresses the data and passes it to the {@link ExtractSink sink}. The time of the decode stage is the sum over all workers, its throughput is the
+ * throughput of a single worker.
+ */
+public final class ExtractReport {
+
+	private final int extractedFiles;
+	private final long readBytes;
+	private final long decodedBytes;
+	private final long readNanos;
+	private final long decodeNanos;
+	private final long totalNanos;
+	private final Map<IdxFileLink, Exception> failures;
+
+	public ExtractReport(int extractedFiles, long readBytes, long decodedBytes, long readNanos, long decodeNanos, long totalNanos,
+			Map<IdxFileLink, Exception> failures) {
+		this.extractedFiles = extractedFiles;
+		this.readBytes = readBytes;
+		this.decodedBytes = decodedBytes;
+		this.readNanos = readNanos;
+		this.decodeNanos = decodeNanos;
+		this.totalNanos = totalNanos;
+		this.failures = Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * @return number of files which were passed to the sink
+	 */
+	public int getExtractedFiles() {
+		return this.extractedFiles;
+	}
+
+	/**
+	 * @return number of bytes read from the archive
+	 */
+	public long getReadBytes() {
+		return this.readBytes;
+	}
+
+	/**
+	 * @return number of bytes passed to the sink
+	 */
+	public long getDecodedBytes() {
+		return this.decodedBytes;
+	}
+
+	public long getReadNanos() {
+		return this.readNanos;
+	}
+
+	public long getDecodeNanos() {
+		return this.decodeNanos;
+	}
+
+	public long getTotalNanos() {
+		return this.totalNanos;
+	}
+
+	/**
+	 * @return read throughput in bytes per second
+	 */
+	public double getReadThroughput() {
+		return throughput(this.readBytes, this.readNanos);
+	}
+
+	/**
+	 * @return decode throughput of a single worker in bytes per second
+	 */
+	public double getDecodeThroughput() {
+		return throughput(this.decodedBytes, this.decodeNanos);
+	}
+
+	/**
+	 * @return number of decoded bytes per second, measured from start to end
+	 */
+	public double getTotalThroughput() {
+		return throughput(this.decodedBytes, this.totalNanos);
+	}
+
+	/**
+	 * @return all files which could not be extracted and the reason why
+	 */
+	public Map<IdxFileLink, Exception> getFailures() {
+		return this.failures;
+	}
+
+	public boolean hasFailures() {
+		return !this.failures.isEmpty();
+	}
+
+	private static double throughput(long bytes, long nanos) {
+		return nanos <= 0 ? 0 : bytes / (nanos / 1e9);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("ExtractReport [extractedFiles=").append(this.extractedFiles);
+		builder.append(", failures=").append(this.failures.size());
+		builder.append(String.format(", read=%.1fMB/s", getReadThroughput() / (1 << 20)));
+		builder.append(String.format(", decode=%.1fMB/s", getDecodeThroughput() / (1 << 20)));
+		builder.append(String.format(", total=%.1fMB/s", getTotalThroughput() / (1 << 20)));
+		builder.append("]");
+		return builder.toString();
+	}
+
+}
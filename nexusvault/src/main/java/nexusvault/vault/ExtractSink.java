@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault;
+
+import java.io.IOException;
+
+import nexusvault.vault.IdxEntry.IdxFileLink;
+
+/**
+ * Receives the decoded content of files, which are extracted by {@link NexusArchive#extract(java.util.Collection, ExtractSink, ExtractOptions)}.
+ * <p>
+ * Files are decoded in parallel, so a sink needs to be thread-safe. Files are passed to the sink in no particular order.
+ */
+@FunctionalInterface
+public interface ExtractSink {
+
+	/**
+	 * @param file
+	 *            the extracted file
+	 * @param data
+	 *            the decoded content of <code>file</code>
+	 * @throws IOException
+	 *             if an I/O error occurs. The error will be reported as a failure for <code>file</code>
+	 */
+	void accept(IdxFileLink file, byte[] data) throws IOException;
+
+}
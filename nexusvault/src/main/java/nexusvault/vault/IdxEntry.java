@@ -12,9 +12,13 @@
 package nexusvault.vault;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import nexusvault.vault.index.IndexException.IndexEntryNotADirectoryException;
 import nexusvault.vault.index.IndexException.IndexEntryNotAFileException;
@@ -90,12 +94,58 @@ public interface IdxEntry {
 		 */
 		byte[] getData() throws IOException;
 
+		/**
+		 * Opens a stream over the decoded resource. The data is read and decoded lazily, which allows to process resources without loading them into memory at
+		 * once. The stream needs to be closed. Changes to the archive while the stream is open result in undefined behavior, unless the archive uses
+		 * {@link NexusArchive#setMemoryMappedReads(boolean) memory mapped reads}: then the stream keeps its content until it is closed.
+		 *
+		 * @return a stream which returns the decoded data of this {@link IdxFileLink}
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		InputStream openStream() throws IOException;
+
+		/**
+		 * Same as {@link #openStream()}, but as a {@link ReadableByteChannel}
+		 *
+		 * @return a channel which returns the decoded data of this {@link IdxFileLink}
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 * @see #openStream()
+		 */
+		default ReadableByteChannel openChannel() throws IOException {
+			return Channels.newChannel(openStream());
+		}
+
+		/**
+		 * Decodes the linked resource directly into the given buffer, without allocating an intermediate array.
+		 *
+		 * @param dst
+		 *            buffer to decode into, needs at least {@link #getUncompressedSize()} bytes remaining. On return, its position is advanced by the number of
+		 *            decoded bytes.
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 * @throws java.nio.BufferOverflowException
+		 *             if <code>dst</code> has not enough space left
+		 */
+		void decodeInto(ByteBuffer dst) throws IOException;
+
 	}
 
 	public static interface IdxDirectory extends IdxEntry {
 
 		List<IdxEntry> getEntries() throws IOException;
 
+		/**
+		 * Passes each entry of this directory to <code>action</code>. Unlike {@link #getEntries()}, no intermediate list is built.
+		 *
+		 * @param action
+		 *            called for each entry, in no particular order
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		void forEachEntry(Consumer<? super IdxEntry> action) throws IOException;
+
 		List<IdxDirectory> getDirectories() throws IOException;
 
 		List<IdxFileLink> getFiles() throws IOException;
@@ -112,6 +162,16 @@ public interface IdxEntry {
 
 		int countNodesInSubTree() throws IOException;
 
+		/**
+		 * Returns the block, in which this directory is stored by the index file. Two directories with identical blocks contain the same files, with the same
+		 * hashes, sizes and write times, without the need to look at each file.
+		 *
+		 * @return the stored block, or empty if this directory was modified and not yet written to the index file
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		Optional<ByteBuffer> readStoredBlock() throws IOException;
+
 	}
 
 }
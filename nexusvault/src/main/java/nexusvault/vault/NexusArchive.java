@@ -12,10 +12,20 @@
 package nexusvault.vault;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 import nexusvault.vault.IdxEntry.IdxDirectory;
+import nexusvault.vault.IdxEntry.IdxFileLink;
+import nexusvault.vault.index.IndexException.IndexEntryNotADirectoryException;
+import nexusvault.vault.index.IndexException.IndexEntryNotAFileException;
+import nexusvault.vault.index.IndexException.IndexEntryNotFoundException;
+import nexusvault.vault.util.ArchivePathLocator;
 import nexusvault.vault.util.IdxFileCollector;
 
 public interface NexusArchive {
@@ -83,6 +93,147 @@ public interface NexusArchive {
 	 */
 	void close() throws IOException;
 
+	/**
+	 * Enables or disables memory mapped reads. If enabled, the index and archive files are mapped into memory and file content is decoded directly from the
+	 * mapping, which avoids a system call and a copy for each read. Large files are mapped in chunks.
+	 * <p>
+	 * Content is leased from the mapping until it is decoded, or until the stream returned by {@link IdxFileLink#openStream()} is closed. While content is
+	 * leased, the space of deleted or overwritten files is not reused and {@link #compact()} waits, so the mapped region is neither overwritten nor
+	 * truncated. Because of this, a stream which is kept open delays {@link #compact()}, and a thread which calls {@link #compact()} while it has a stream
+	 * open waits forever.
+	 * <p>
+	 * Memory mapped reads are disabled by default. This setting is kept if the archive is {@link #reload() reloaded} or a different archive is
+	 * {@link #load(Path) loaded}.
+	 *
+	 * @param enable
+	 *            <code>true</code> to enable memory mapped reads
+	 */
+	void setMemoryMappedReads(boolean enable);
+
+	boolean isMemoryMappedReads();
+
+	/**
+	 * Enables or disables the path index. If enabled, all directories are read once and {@link #find(IdxPath)} resolves a path with a single hash lookup,
+	 * instead of walking the tree and loading each directory on the way. Paths which do not exist are rejected without any read.
+	 * <p>
+	 * The index is stored in a sidecar file next to the index file, see {@link ArchivePathLocator#getPathIndexPath(Path)}, so later calls can skip reading
+	 * the directories, as long as the index file was not changed in between.
+	 * <p>
+	 * The path index is disabled by default. Modifying the archive discards the index, it is rebuilt the next time the archive is {@link #reload()
+	 * reloaded} or {@link #load(Path) loaded}, as long as this setting is enabled.
+	 *
+	 * @param enable
+	 *            <code>true</code> to enable the path index
+	 * @throws IOException
+	 *             if an I/O error occurs while building the index
+	 */
+	void setPathIndexEnabled(boolean enable) throws IOException;
+
+	boolean isPathIndexEnabled();
+
+	/**
+	 * Enables or disables the compact index. If enabled, all directories are read once into a compact, read-only representation, which keeps the names and
+	 * file records in flat arrays and the records outside of the java heap. {@link IdxEntry Entries} are lightweight views into these arrays. This reduces the
+	 * memory needed to hold a complete index by a large margin.
+	 * <p>
+	 * The compact index is disabled by default. It only lasts until the archive is modified: the first modification discards the compact index and continues
+	 * with the regular index. It is rebuilt by calling this method again, or the next time the archive is {@link #reload() reloaded} or {@link #load(Path)
+	 * loaded}, as long as this setting is enabled.
+	 *
+	 * @param enable
+	 *            <code>true</code> to enable the compact index
+	 * @throws IOException
+	 *             if an I/O error occurs while building the index
+	 */
+	void setCompactIndexEnabled(boolean enable) throws IOException;
+
+	/**
+	 * @return <code>true</code> if the compact index is enabled. This is the setting, the compact index itself is discarded by the first modification, see
+	 *         {@link #setCompactIndexEnabled(boolean)}
+	 */
+	boolean isCompactIndexEnabled();
+
+	/**
+	 * Enables or disables preloading of reference counts. Files with identical content share their stored data, so modifications need to know how many
+	 * files refer to each data block. These counts are read from a sidecar file next to the index file, see
+	 * {@link ArchivePathLocator#getReferencesPath(Path)}. If the sidecar is missing or was written for a different state of the index file, they are
+	 * determined by reading all directories, which takes time proportional to the size of the index.
+	 * <p>
+	 * If enabled, this is done when the archive is loaded, or right away if the archive is already loaded. Otherwise it is done by the first modification
+	 * which needs the counts. Preloading is disabled by default. This setting is kept if the archive is {@link #reload() reloaded} or a different archive is
+	 * {@link #load(Path) loaded}.
+	 *
+	 * @param enable
+	 *            <code>true</code> to determine reference counts on load
+	 * @throws IOException
+	 *             if an I/O error occurs while determining the counts
+	 * @see #write(IdxPath, byte[], CompressionType)
+	 */
+	void setPreloadReferenceCounts(boolean enable) throws IOException;
+
+	boolean isPreloadReferenceCounts();
+
+	/**
+	 * Enables or disables the journal. If enabled, modifications are not written to the index and archive file right away. Instead they are recorded in a
+	 * journal next to the index file, see {@link ArchivePathLocator#getJournalPath(Path)}. A modification is stored once its method returns, modifications
+	 * of concurrent threads are forced to the storage device together. The index and archive file are updated by a checkpoint, which is done in the
+	 * background as soon as the journal exceeds the {@link #setCheckpointThreshold(long) threshold}, by {@link #checkpoint()} and by {@link #close()}.
+	 * <p>
+	 * If an archive is not closed, e.g. due to a crash, the recorded modifications are replayed the next time the archive is {@link #load(Path) loaded},
+	 * regardless of this setting.
+	 * <p>
+	 * If a checkpoint in the background fails, the journal keeps all records and the checkpoint is tried again with the next modification. Until a
+	 * checkpoint succeeds, each modification throws an {@link IOException} caused by the failure, after the modification itself was recorded.
+	 * <p>
+	 * The journal is disabled by default. This setting is kept if the archive is {@link #reload() reloaded} or a different archive is {@link #load(Path)
+	 * loaded}.
+	 *
+	 * @param enable
+	 *            <code>true</code> to enable the journal
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void setJournalEnabled(boolean enable) throws IOException;
+
+	boolean isJournalEnabled();
+
+	/**
+	 * Sets the size of the journal in bytes, after which a checkpoint is started in the background. Defaults to 64 MB.
+	 *
+	 * @param bytes
+	 *            size of the journal, must be greater than 0
+	 * @see #setJournalEnabled(boolean)
+	 */
+	void setCheckpointThreshold(long bytes);
+
+	long getCheckpointThreshold();
+
+	/**
+	 * Writes all modifications, which were recorded by the journal, to the index and archive file and clears the journal. Does nothing if the journal is
+	 * disabled.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see #setJournalEnabled(boolean)
+	 */
+	void checkpoint() throws IOException;
+
+	/**
+	 * Sets a cache for decoded file content, which is used by {@link IdxFileLink#getData()}. Since the cache is keyed by content, it can be shared by
+	 * multiple archives.
+	 * <p>
+	 * No cache is set by default. This setting is kept if the archive is {@link #reload() reloaded} or a different archive is {@link #load(Path) loaded}.
+	 *
+	 * @param cache
+	 *            the cache to use, <code>null</code> to disable caching
+	 */
+	void setDataCache(DataCache cache);
+
+	/**
+	 * @return the cache for decoded file content, or <code>null</code> if no cache is set
+	 */
+	DataCache getDataCache();
+
 	/**
 	 * @return <code>true</code> - if this archive was disposed. Calls to a disposed archive will have undefined behavior
 	 */
@@ -111,14 +262,153 @@ public interface NexusArchive {
 
 	int getNumberOfFiles() throws IOException;
 
+	/**
+	 * Creates or overwrites the file at the given path. Files with identical content share their stored data, which is deleted once no file refers to it
+	 * anymore.
+	 * <p>
+	 * To know how many files refer to each data block, all directories are read once by the first modification of a session, unless this was already done
+	 * on load, see {@link #setPreloadReferenceCounts(boolean)}. The result is stored in a sidecar file next to the index file on {@link #close()}, see
+	 * {@link ArchivePathLocator#getReferencesPath(Path)}, so later sessions can skip reading the directories, as long as the index file was not changed in
+	 * between.
+	 *
+	 * @param path
+	 *            path of the file
+	 * @param data
+	 *            content of the file
+	 * @param compression
+	 *            compression of the stored data, unless the content is already stored
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
 	void write(IdxPath path, byte[] data, CompressionType compression) throws IOException;
 
+	/**
+	 * Same as {@link #beginBatch(ExecutorService)}, but uses the {@link ForkJoinPool#commonPool() common pool} to hash and compress files.
+	 *
+	 * @return a new batch
+	 */
+	WriteBatch beginBatch();
+
+	/**
+	 * Starts a new {@link WriteBatch}, which writes many files at once. Compared to {@link #write(IdxPath, byte[], CompressionType)}, files are hashed and
+	 * compressed in parallel, their data is appended to the archive in one go and the index is only updated and flushed once.
+	 *
+	 * @param executor
+	 *            used to hash and compress files on commit
+	 * @return a new batch
+	 */
+	WriteBatch beginBatch(ExecutorService executor);
+
+	/**
+	 * Deletes the file at the given path. Its data is deleted as well, as soon as no other file refers to it. Directories can only be deleted if they are
+	 * empty.
+	 *
+	 * @param path
+	 *            path of the file or empty directory to delete
+	 * @throws IndexEntryNotFoundException
+	 *             if no entry exists at the given path
+	 * @throws IndexEntryNotAFileException
+	 *             if the entry is a directory, which is not empty
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
 	void delete(IdxPath path) throws IOException;
 
 	void move(IdxPath from, IdxPath to) throws IOException;
 
+	/**
+	 * Copies a file, which may belong to a different archive, to the given path. Unlike reading its data and {@link #write(IdxPath, byte[], CompressionType)
+	 * writing} it, the stored data is copied as it is, without decompressing, hashing or compressing it again. Flags, sizes, hash and write time are taken
+	 * from <code>source</code>. If this archive already stores data with the same hash, no data is copied at all.
+	 *
+	 * @param source
+	 *            file to copy
+	 * @param target
+	 *            path of the copy, an existing file is overwritten
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalArgumentException
+	 *             if <code>target</code> is a directory
+	 */
+	void copyRaw(IdxFileLink source, IdxPath target) throws IOException;
+
+	/**
+	 * Copies multiple files at once, see {@link #copyRaw(IdxFileLink, IdxPath)}. The stored data is transferred from archive file to archive file by the
+	 * operating system, without reading it into memory, in the order it is stored in the source archive. Data shared by multiple files is only copied once.
+	 * <p>
+	 * All targets are validated before this archive is modified.
+	 *
+	 * @param files
+	 *            maps the path of each copy to the file to copy, files may belong to different archives
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalArgumentException
+	 *             if a target is a directory
+	 * @throws IndexEntryNotADirectoryException
+	 *             if a target is inside of a file
+	 */
+	void copyRaw(Map<IdxPath, IdxFileLink> files) throws IOException;
+
 	Optional<IdxEntry> find(IdxPath path) throws IOException;
 
+	/**
+	 * Extracts the given files in bulk and passes their decoded content to <code>sink</code>.
+	 * <p>
+	 * Files are read by the calling thread, ordered by their position in the archive to keep reads sequential. Decompression and calls to <code>sink</code>
+	 * are distributed to the {@link ExtractOptions#getExecutor() executor}. Reading pauses whenever more than {@link ExtractOptions#getMaxBytesInFlight()}
+	 * bytes are waiting to be decoded or consumed.
+	 * <p>
+	 * Files which can not be extracted do not stop the extraction, instead they are listed as {@link ExtractReport#getFailures() failures}. If the executor
+	 * rejects a task, e.g. because it was shut down, the remaining files are listed as failures without being read. Tasks which are still running when this
+	 * method throws are cancelled.
+	 *
+	 * @param files
+	 *            files to extract, all files need to belong to this archive
+	 * @param sink
+	 *            receives the decoded content of each file, needs to be thread-safe
+	 * @param options
+	 *            configures the extraction, may be <code>null</code> to use the default options
+	 * @return a report with the number of extracted files, failures and throughput of each stage
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws InterruptedIOException
+	 *             if the calling thread is interrupted while waiting
+	 */
+	ExtractReport extract(Collection<IdxFileLink> files, ExtractSink sink, ExtractOptions options) throws IOException;
+
 	void validateArchive() throws VaultException, IOException;
 
+	/**
+	 * Checks that the stored data of all files is intact. Each data block is read, decoded and its SHA-1 hash is compared with the hash of the files which
+	 * refer to it. Data is read sequentially in the order it is stored, while decoding and hashing is done by <code>parallelism</code> threads.
+	 * <p>
+	 * Like {@link #extract(Collection, ExtractSink, ExtractOptions)}, this method does not stop at the first problem. All problems are listed in the returned
+	 * report.
+	 *
+	 * @param parallelism
+	 *            number of threads which decode and hash data, must be greater than 0
+	 * @return a report with the number of verified data blocks, corrupt or missing data and the throughput
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws InterruptedIOException
+	 *             if the calling thread is interrupted while waiting
+	 */
+	VerifyReport verifyContents(int parallelism) throws IOException;
+
+	/**
+	 * Writes all changes and removes the space left behind by deleted or overwritten files. All files are moved towards the start of their file and the
+	 * index and archive files are truncated.
+	 * <p>
+	 * Files which need to be moved are first copied behind the end of their file, which is synced before their old region is overwritten. If this operation
+	 * is interrupted, each file refers either to its old or its new location, but the index and archive file may temporarily grow by the size of all moved
+	 * files. Data returned by {@link IdxFileLink#getData()} is not affected. If {@link #setMemoryMappedReads(boolean) memory mapped reads} are enabled, this
+	 * method waits until all content leased from the mapping is released, e.g. by closing each stream returned by {@link IdxFileLink#openStream()},
+	 * otherwise file content which is still being read is invalidated.
+	 *
+	 * @return number of bytes reclaimed
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long compact() throws IOException;
+
 }
@@ -12,23 +12,60 @@
 package nexusvault.vault;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import kreed.io.util.BinaryIOException;
 import nexusvault.vault.IdxEntry.IdxDirectory;
 import nexusvault.vault.IdxEntry.IdxFileLink;
+import nexusvault.vault.archive.ArchiveException.ArchiveHashException;
 import nexusvault.vault.archive.ArchiveException.ArchiveHashNotFoundException;
 import nexusvault.vault.archive.Hash;
+import nexusvault.vault.archive.HexToString;
 import nexusvault.vault.archive.PackedArchiveFile;
 import nexusvault.vault.codec.DecodeException;
 import nexusvault.vault.codec.LzmaCodec;
 import nexusvault.vault.codec.ZipCodec;
+import nexusvault.vault.file.RegionLease;
 import nexusvault.vault.index.IndexException.IndexEntryNotADirectoryException;
 import nexusvault.vault.index.IndexException.IndexEntryNotAFileException;
 import nexusvault.vault.index.IndexException.IndexEntryNotFoundException;
@@ -36,6 +73,7 @@ import nexusvault.vault.index.Node;
 import nexusvault.vault.index.Node.DirectoryNode;
 import nexusvault.vault.index.Node.FileNode;
 import nexusvault.vault.index.PackedIndexFile;
+import nexusvault.vault.journal.Journal;
 import nexusvault.vault.util.ArchivePathLocator;
 
 final class NexusArchiveImpl implements NexusArchive {
@@ -119,7 +157,12 @@ final class NexusArchiveImpl implements NexusArchive {
 			}
 
 			final var otherEntry = (IdxEntryImpl) obj;
-			return otherEntry.getArchive() == getArchive() && otherEntry.node == this.node;
+			return otherEntry.getArchive() == getArchive() && otherEntry.node.equals(this.node);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.node.hashCode();
 		}
 
 	}
@@ -170,6 +213,16 @@ final class NexusArchiveImpl implements NexusArchive {
 			return this.node.countNodesInSubTree();
 		}
 
+		@Override
+		public void forEachEntry(Consumer<? super IdxEntry> action) throws IOException {
+			this.node.forEachChild(child -> action.accept(decorate(child)));
+		}
+
+		@Override
+		public Optional<ByteBuffer> readStoredBlock() throws IOException {
+			return this.node.readStoredBlock();
+		}
+
 		@Override
 		public List<IdxDirectory> getDirectories() throws IOException {
 			return this.node.getDirectories().stream().map(node -> new IdxDirectoryImpl(getArchive(), node)).collect(Collectors.toList());
@@ -281,16 +334,67 @@ final class NexusArchiveImpl implements NexusArchive {
 		public byte[] getData() throws IOException {
 			return getArchive().getData(this);
 		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			return getArchive().openStream(this);
+		}
+
+		@Override
+		public void decodeInto(ByteBuffer dst) throws IOException {
+			getArchive().decodeInto(this, dst);
+		}
 	}
 
-	private final Object synchronizationLock = new Object();
+	/**
+	 * Reads are shared, only operations which modify the archive are exclusive. Relies on {@link PackedArchiveFile} and {@link PackedIndexFile} being safe
+	 * for concurrent reads.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** Checkpoints of all archives are written by a single background thread */
+	private static final ExecutorService CHECKPOINT_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+		final var thread = new Thread(runnable, "nexusvault-journal-checkpoint");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final long DEFAULT_CHECKPOINT_THRESHOLD = 64 << 20;
+
+	private static final int REFERENCES_SIGNATURE = 0x52454653; // REFS
+	private static final int REFERENCES_VERSION = 1;
+	private static final int REFERENCES_HEADER_SIZE = 2 * Integer.BYTES + 3 * Long.BYTES + Integer.BYTES;
+	private static final int REFERENCE_RECORD_SIZE = Hash.HASH_LENGTH + Integer.BYTES + Long.BYTES + Integer.BYTES;
 
 	private final PackedIndexFile indexFile = new PackedIndexFile();
 	private final PackedArchiveFile archiveFile = new PackedArchiveFile();
+	/** Is open while modifications are journaled */
+	private final Journal journal = new Journal();
 	private NexusArchiveFiles files;
-	private boolean isDisposed = true;
-
-	private IdxDirectory rootDirectory;
+	private volatile boolean isDisposed = true;
+	private volatile DataCache dataCache;
+	private volatile boolean pathIndexEnabled;
+	private volatile boolean compactIndexEnabled;
+	private volatile boolean preloadReferenceCounts;
+	private volatile boolean journalEnabled;
+	private volatile long checkpointThreshold = DEFAULT_CHECKPOINT_THRESHOLD;
+	/** Needs the write lock */
+	private boolean checkpointScheduled;
+	/** Failure of the last checkpoint in the background, reported to the following modifications until a checkpoint succeeds */
+	private volatile IOException checkpointFailure;
+	/**
+	 * Read on load if {@link #preloadReferenceCounts} is set, otherwise on first use. Read from the sidecar, see
+	 * {@link ArchivePathLocator#getReferencesPath(Path)}, or built by visiting each file of the index. Afterwards kept up to date by each modification and
+	 * written back to the sidecar on close. Needs the write lock
+	 */
+	private Map<ByteBuffer, HashReference> references;
+	/** State of the index file when it was loaded, which the sidecar of {@link #references} needs to match. Needs the write lock */
+	private long[] loadedIndexVersion;
+	/**
+	 * Data which is no longer referenced while the journal is open or while data is leased from the memory mapping. The last checkpoint may still refer to
+	 * it, or a reader may still decode it, so it is only deleted by the next checkpoint or modification after all leases are released. Needs the write lock
+	 */
+	private final Set<ByteBuffer> pendingReleases = new HashSet<>();
 
 	public NexusArchiveImpl(Path archiveOrIndex) throws IOException {
 		this();
@@ -314,19 +418,42 @@ final class NexusArchiveImpl implements NexusArchive {
 	}
 
 	private void load(Path idxPath, Path arcPath) throws IOException {
-		synchronized (this.synchronizationLock) {
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
 			close();
+			this.checkpointFailure = null;
 			this.files = new NexusArchiveFiles(idxPath, arcPath);
 			this.indexFile.open(idxPath);
 			this.archiveFile.open(arcPath);
 			this.isDisposed = false;
-			this.rootDirectory = new IdxDirectoryImpl(this, this.indexFile.getRoot());
+			final var journalPath = ArchivePathLocator.getJournalPath(idxPath);
+			if (Files.exists(journalPath)) {
+				recover(journalPath);
+			}
+			if (this.journalEnabled) {
+				this.journal.open(journalPath);
+			}
+			this.loadedIndexVersion = this.indexFile.getFileVersion();
+			if (this.preloadReferenceCounts) {
+				getReferences();
+			}
+			if (this.compactIndexEnabled) {
+				this.indexFile.loadCompactTree();
+			}
+			if (this.pathIndexEnabled) {
+				this.indexFile.buildPathIndex(ArchivePathLocator.getPathIndexPath(idxPath));
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	@Override
 	public void close() throws IOException {
-		synchronized (this.synchronizationLock) {
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
 			if (this.isDisposed) {
 				return;
 			}
@@ -334,6 +461,37 @@ final class NexusArchiveImpl implements NexusArchive {
 
 			final var excepetions = new LinkedList<IOException>();
 
+			if (this.journal.isOpen()) {
+				try {
+					checkpointJournal();
+					this.journal.close();
+					Files.delete(this.journal.getPath());
+				} catch (final IOException e) { // the journal is kept and replayed on the next load
+					excepetions.add(e);
+					try {
+						this.journal.close();
+					} catch (final IOException e2) {
+						e.addSuppressed(e2);
+					}
+				}
+			}
+			if (!this.journal.isOpen() && excepetions.isEmpty()) {
+				try { // data which is still leased is left over without reference
+					deletePendingReleases();
+				} catch (final IOException e) {
+					excepetions.add(e);
+				}
+			}
+			if (this.references != null && excepetions.isEmpty()) {
+				try { // spares the next session from visiting each file
+					writeReferences(ArchivePathLocator.getReferencesPath(getFiles().getIndexFile()), this.indexFile.getFileVersion());
+				} catch (final IOException e) {
+					excepetions.add(e);
+				}
+			}
+			this.references = null;
+			this.pendingReleases.clear();
+
 			try {
 				this.indexFile.close();
 			} catch (final IOException e1) {
@@ -353,9 +511,297 @@ final class NexusArchiveImpl implements NexusArchive {
 				}
 				throw first;
 			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void setMemoryMappedReads(boolean enable) {
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
+			this.indexFile.setMemoryMapped(enable);
+			this.archiveFile.setMemoryMapped(enable);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isMemoryMappedReads() {
+		return this.archiveFile.isMemoryMapped();
+	}
+
+	@Override
+	public void setPathIndexEnabled(boolean enable) throws IOException {
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
+			this.pathIndexEnabled = enable;
+			if (this.isDisposed) {
+				return;
+			}
+			if (enable) {
+				this.indexFile.buildPathIndex(ArchivePathLocator.getPathIndexPath(getFiles().getIndexFile()));
+			} else {
+				this.indexFile.clearPathIndex();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isPathIndexEnabled() {
+		return this.pathIndexEnabled;
+	}
+
+	@Override
+	public void setCompactIndexEnabled(boolean enable) throws IOException {
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
+			this.compactIndexEnabled = enable;
+			if (this.isDisposed) {
+				return;
+			}
+			if (enable) {
+				this.indexFile.loadCompactTree();
+			} else {
+				this.indexFile.clearCompactTree();
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
+	@Override
+	public boolean isCompactIndexEnabled() {
+		return this.compactIndexEnabled;
+	}
+
+	@Override
+	public void setPreloadReferenceCounts(boolean enable) throws IOException {
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
+			this.preloadReferenceCounts = enable;
+			if (enable && !this.isDisposed) {
+				getReferences();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isPreloadReferenceCounts() {
+		return this.preloadReferenceCounts;
+	}
+
+	@Override
+	public void setJournalEnabled(boolean enable) throws IOException {
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
+			this.journalEnabled = enable;
+			if (this.isDisposed || enable == this.journal.isOpen()) {
+				return;
+			}
+			if (enable) { // the journal only records modifications from now on
+				this.archiveFile.sync();
+				this.indexFile.sync();
+				this.journal.open(ArchivePathLocator.getJournalPath(getFiles().getIndexFile()));
+			} else {
+				checkpointJournal();
+				this.journal.close();
+				Files.delete(this.journal.getPath());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isJournalEnabled() {
+		return this.journalEnabled;
+	}
+
+	@Override
+	public void setCheckpointThreshold(long bytes) {
+		if (bytes <= 0) {
+			throw new IllegalArgumentException("'bytes' must be greater than 0");
+		}
+		this.checkpointThreshold = bytes;
+	}
+
+	@Override
+	public long getCheckpointThreshold() {
+		return this.checkpointThreshold;
+	}
+
+	@Override
+	public void checkpoint() throws IOException {
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
+			assertArchiveIsOpen();
+			checkpointJournal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes all modifications to the index and archive file, before the journal is cleared. Data which is no longer referenced is deleted afterwards, a crash
+	 * in between only leaves unreferenced data behind. Needs the write lock.
+	 */
+	private void checkpointJournal() throws IOException {
+		if (!this.journal.isOpen()) {
+			return;
+		}
+
+		this.archiveFile.sync(); // the index may only refer to stored data
+		this.indexFile.sync();
+		this.journal.clear();
+
+		deletePendingReleases();
+		this.archiveFile.flush();
+		this.checkpointFailure = null;
+	}
+
+	/**
+	 * Deletes the data of {@link #pendingReleases} which is still not referenced, unless data is leased from the memory mapping. The journal needs to be
+	 * closed or cleared. Needs the write lock.
+	 */
+	private void deletePendingReleases() throws IOException {
+		if (this.pendingReleases.isEmpty() || this.archiveFile.hasLeasedData()) {
+			return;
+		}
+
+		for (final var key : this.pendingReleases) {
+			final var reference = this.references.get(key);
+			if (reference != null && reference.count > 0) { // referenced again
+				continue;
+			}
+			this.references.remove(key);
+			final var hash = key.array();
+			if (this.archiveFile.hasData(hash)) {
+				this.archiveFile.deleteData(hash);
+			}
+		}
+		this.pendingReleases.clear();
+	}
+
+	/**
+	 * Appends the record to the journal, if it is open. Needs the write lock.
+	 *
+	 * @return position to pass to {@link #awaitJournal(long)}
+	 */
+	private long appendToJournal(Journal.Record record) throws IOException {
+		if (!this.journal.isOpen()) {
+			return -1;
+		}
+		final var position = this.journal.append(record);
+		if (!this.checkpointScheduled && this.journal.size() >= this.checkpointThreshold) {
+			this.checkpointScheduled = true;
+			CHECKPOINT_EXECUTOR.execute(() -> {
+				final var lock = this.lock.writeLock();
+				lock.lock();
+				try {
+					this.checkpointScheduled = false;
+					if (!this.isDisposed) {
+						checkpointJournal();
+					}
+				} catch (final IOException e) { // the journal keeps all records, the next checkpoint will try again
+					this.checkpointFailure = e;
+				} finally {
+					lock.unlock();
+				}
+			});
+		}
+		return position;
+	}
+
+	/**
+	 * Waits until the record at the given position is stored. Should be called without holding the lock, so records of other threads can be forced to the
+	 * storage device at the same time.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs or the last checkpoint in the background failed. In the latter case the record is stored nonetheless
+	 */
+	private void awaitJournal(long position) throws IOException {
+		if (position < 0) {
+			return;
+		}
+		this.journal.sync(position);
+		final var failure = this.checkpointFailure;
+		if (failure != null) {
+			throw new IOException("Checkpoint failed, the journal keeps all modifications until a checkpoint succeeds", failure);
+		}
+	}
+
+	/**
+	 * Replays all modifications, which were recorded before the archive was closed the last time, and writes them to the index and archive file. Needs the
+	 * write lock.
+	 */
+	private void recover(Path journalPath) throws IOException {
+		this.journal.open(journalPath);
+		try {
+			this.journal.replay(new Journal.Replay() {
+				@Override
+				public void write(IdxPath path, int flags, long writeTime, long uncompressedSize, long compressedSize, byte[] hash, byte[] data)
+						throws IOException {
+					if (data != null) {
+						if (getSharedData(hash) == null) {
+							NexusArchiveImpl.this.archiveFile.writeData(hash, data, true);
+						}
+					} else if (!NexusArchiveImpl.this.archiveFile.hasData(hash)) {
+						throw new ArchiveHashNotFoundException(String.format("No data found for %s", path.getFullName()));
+					}
+					linkFile(path, flags, writeTime, uncompressedSize, compressedSize, hash);
+				}
+
+				@Override
+				public void delete(IdxPath path) throws IOException {
+					final var node = NexusArchiveImpl.this.indexFile.findForUpdate(path);
+					if (node.isEmpty()) { // may already be part of the last checkpoint
+						return;
+					}
+					if (node.get().isFile()) {
+						deleteFile(path, node.get().asFile());
+					} else if (node.get().asDirectory().getChilds().isEmpty()) {
+						NexusArchiveImpl.this.indexFile.delete(path);
+					}
+				}
+
+				@Override
+				public void move(IdxPath from, IdxPath to) throws IOException {
+					if (NexusArchiveImpl.this.indexFile.findForUpdate(from).isPresent()) { // may already be part of the last checkpoint
+						NexusArchiveImpl.this.indexFile.move(from, to);
+					}
+				}
+			});
+			checkpointJournal();
+		} finally {
+			this.journal.close();
+		}
+		if (!this.journalEnabled) {
+			Files.delete(journalPath);
+		}
+	}
+
+	@Override
+	public void setDataCache(DataCache cache) {
+		this.dataCache = cache;
+	}
+
+	@Override
+	public DataCache getDataCache() {
+		return this.dataCache;
+	}
+
 	@Override
 	public boolean isDisposed() {
 		return this.isDisposed;
@@ -369,7 +815,7 @@ final class NexusArchiveImpl implements NexusArchive {
 	@Override
 	public IdxDirectory getRootDirectory() throws IOException {
 		assertArchiveIsOpen();
-		return this.rootDirectory;
+		return new IdxDirectoryImpl(this, this.indexFile.getRoot());
 	}
 
 	@Override
@@ -383,77 +829,741 @@ final class NexusArchiveImpl implements NexusArchive {
 
 	@Override
 	public void write(IdxPath path, byte[] data, CompressionType compression) throws IOException {
-		synchronized (this.synchronizationLock) {
+		final long journalPosition;
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
 			assertArchiveIsOpen();
 
 			final var hash = Hash.computeHash(data);
 			final var uncompressedSize = data.length;
-			switch (compression) {
-				case LZMA:
-					data = LzmaCodec.encode(data);
-					break;
-				case ZIP:
-					data = ZipCodec.encode(data);
-					break;
-				default:
-					break;
-			}
-			final var compressedSize = data.length;
 
 			final var parentDirectory = this.indexFile.findOrCreateDirectory(path.getParent());
 			final var optional = parentDirectory.getChild(path.getLastName());
-			if (optional.isPresent()) {
-				if (!optional.get().isFile()) {
-					throw new IllegalArgumentException(); // TODO
-				}
-				final var file = optional.get().asFile();
-				this.archiveFile.deleteData(file.getHash());
+			if (optional.isPresent() && !optional.get().isFile()) {
+				throw new IllegalArgumentException(); // TODO
+			}
 
-				file.overwrite(null, compression.flag, new Date().getTime(), (long) uncompressedSize, (long) compressedSize, hash, null);
-				this.archiveFile.writeData(hash, data, false);
+			final int flags;
+			final long compressedSize;
+			final byte[] encoded;
+			final var shared = getSharedData(hash);
+			if (shared != null) {
+				flags = shared.flags;
+				compressedSize = shared.compressedSize;
+				encoded = null;
 			} else {
-				parentDirectory.newFile(path.getLastName(), compression.flag, new Date().getTime(), uncompressedSize, compressedSize, hash, 0);
-				this.archiveFile.writeData(hash, data, false);
+				encoded = encode(data, compression);
+				flags = compression.flag;
+				compressedSize = encoded.length;
+				// data without any reference is left over and can be overwritten
+				this.archiveFile.writeData(hash, encoded, true);
+			}
+
+			final var writeTime = new Date().getTime();
+			linkFile(path, flags, writeTime, uncompressedSize, compressedSize, hash);
+			journalPosition = appendToJournal(new Journal.Record().write(path, flags, writeTime, uncompressedSize, compressedSize, hash, encoded));
+		} finally {
+			lock.unlock();
+		}
+		awaitJournal(journalPosition);
+	}
+
+	/**
+	 * Creates or overwrites the file at the given path, its data needs to be stored already. Needs the write lock.
+	 */
+	private void linkFile(IdxPath path, int flags, long writeTime, long uncompressedSize, long compressedSize, byte[] hash) throws IOException {
+		getReferences();
+		final var parentDirectory = this.indexFile.findOrCreateDirectory(path.getParent());
+		final var optional = parentDirectory.getChild(path.getLastName());
+		if (optional.isPresent()) {
+			final var file = optional.get().asFile();
+			final var oldHash = file.getHash();
+			file.overwrite(null, flags, writeTime, uncompressedSize, compressedSize, hash, null);
+			addReference(hash, flags, compressedSize);
+			removeReference(oldHash);
+		} else {
+			parentDirectory.newFile(path.getLastName(), flags, writeTime, uncompressedSize, compressedSize, hash, 0);
+			addReference(hash, flags, compressedSize);
+		}
+	}
+
+	/**
+	 * Counts how many files share the same data. The archive stores data only once for each hash, but files only know their own hash and the archive does not
+	 * store which files refer to its data.
+	 */
+	private static final class HashReference {
+		private final int flags;
+		private final long compressedSize;
+		private int count;
+
+		public HashReference(int flags, long compressedSize) {
+			this.flags = flags;
+			this.compressedSize = compressedSize;
+		}
+	}
+
+	/**
+	 * Needs to be called before a modification changes which data the files of the index refer to, because the references are read or counted for the state
+	 * before the first of these modifications.
+	 */
+	private Map<ByteBuffer, HashReference> getReferences() throws IOException {
+		if (this.references == null) {
+			var references = readReferences(ArchivePathLocator.getReferencesPath(getFiles().getIndexFile()), this.loadedIndexVersion);
+			if (references == null) {
+				final var counted = new HashMap<ByteBuffer, HashReference>();
+				forEachFile(file -> {
+					counted.computeIfAbsent(toReferenceKey(file.getHash()), k -> new HashReference(file.getFlags(), file.getCompressedSize())).count += 1;
+				});
+				references = counted;
+			}
+			this.references = references;
+		}
+		return this.references;
+	}
+
+	/**
+	 * @return the references or <code>null</code> if the file does not exist, is not a valid sidecar or was written for a different state of the index file
+	 */
+	private static Map<ByteBuffer, HashReference> readReferences(Path path, long[] version) throws IOException {
+		if (version == null || !Files.exists(path)) {
+			return null;
+		}
+
+		final ByteBuffer buffer;
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < REFERENCES_HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+		}
+
+		if (buffer.getInt() != REFERENCES_SIGNATURE || buffer.getInt() != REFERENCES_VERSION) {
+			return null;
+		}
+		if (buffer.getLong() != version[0] || buffer.getLong() != version[1] || buffer.getLong() != version[2]) {
+			return null;
+		}
+		final var count = buffer.getInt();
+		if (count < 0 || buffer.remaining() != (long) count * REFERENCE_RECORD_SIZE) {
+			return null;
+		}
+
+		final var references = new HashMap<ByteBuffer, HashReference>(count * 4 / 3 + 1);
+		for (var i = 0; i < count; ++i) {
+			final var hash = new byte[Hash.HASH_LENGTH];
+			buffer.get(hash);
+			final var reference = new HashReference(buffer.getInt(), buffer.getLong());
+			reference.count = buffer.getInt();
+			references.put(ByteBuffer.wrap(hash), reference);
+		}
+		return references;
+	}
+
+	/**
+	 * Writes all references, which are in use, to the given file. <code>version</code> identifies the state of the index file the references belong to and
+	 * is checked by {@link #readReferences(Path, long[])}.
+	 */
+	private void writeReferences(Path path, long[] version) throws IOException {
+		var count = 0;
+		for (final var reference : this.references.values()) {
+			if (reference.count > 0) {
+				count += 1;
+			}
+		}
+
+		final var buffer = ByteBuffer.allocate(REFERENCES_HEADER_SIZE + count * REFERENCE_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(REFERENCES_SIGNATURE).putInt(REFERENCES_VERSION);
+		buffer.putLong(version[0]).putLong(version[1]).putLong(version[2]);
+		buffer.putInt(count);
+		for (final var entry : this.references.entrySet()) {
+			final var reference = entry.getValue();
+			if (reference.count > 0) {
+				buffer.put(entry.getKey().duplicate()).putInt(reference.flags).putLong(reference.compressedSize).putInt(reference.count);
+			}
+		}
+		buffer.flip();
+
+		try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	private void forEachFile(Consumer<FileNode> action) throws IOException {
+		final var fringe = new ArrayDeque<DirectoryNode>();
+		fringe.add(this.indexFile.getRoot());
+		while (!fringe.isEmpty()) {
+			fringe.poll().forEachChild(child -> {
+				if (child.isDirectory()) {
+					fringe.add(child.asDirectory());
+				} else {
+					action.accept(child.asFile());
+				}
+			});
+		}
+	}
+
+	private static ByteBuffer toReferenceKey(byte[] hash) {
+		return ByteBuffer.wrap(hash.clone());
+	}
+
+	/**
+	 * @return the reference of data, which is already stored and in use, or <code>null</code>
+	 */
+	private HashReference getSharedData(byte[] hash) throws IOException {
+		final var reference = getReferences().get(toReferenceKey(hash));
+		if (reference != null && this.archiveFile.hasData(hash)) {
+			return reference;
+		}
+		return null;
+	}
+
+	private void addReference(byte[] hash, int flags, long compressedSize) throws IOException {
+		getReferences().computeIfAbsent(toReferenceKey(hash), k -> new HashReference(flags, compressedSize)).count += 1;
+	}
+
+	/**
+	 * Removes a reference to the data of the given hash. The data is deleted, if it is not referenced anymore. While the journal is open, the deletion is
+	 * postponed to the next checkpoint, until then the data can be referenced again.
+	 */
+	private void removeReference(byte[] hash) throws IOException {
+		final var references = getReferences();
+		final var key = toReferenceKey(hash);
+		final var reference = references.get(key);
+		if (reference != null && --reference.count > 0) {
+			return;
+		}
+		if (this.journal.isOpen() || this.archiveFile.hasLeasedData()) { // the region must not be reused yet
+			this.pendingReleases.add(key);
+			return;
+		}
+		references.remove(key);
+		if (this.archiveFile.hasData(hash)) {
+			this.archiveFile.deleteData(hash);
+		}
+		deletePendingReleases();
+	}
+
+	private static byte[] encode(byte[] data, CompressionType compression) {
+		switch (compression) {
+			case LZMA:
+				return LzmaCodec.encode(data);
+			case ZIP:
+				return ZipCodec.encode(data);
+			default:
+				return data;
+		}
+	}
+
+	@Override
+	public WriteBatch beginBatch() {
+		return beginBatch(ForkJoinPool.commonPool());
+	}
+
+	@Override
+	public WriteBatch beginBatch(ExecutorService executor) {
+		return new WriteBatchImpl(Objects.requireNonNull(executor, "executor"));
+	}
+
+	private static final class PendingWrite {
+		private final IdxPath path;
+		private final byte[] data;
+		private final CompressionType compression;
+		private byte[] hash;
+		private byte[] encoded;
+		private int flags;
+		private long compressedSize;
+		private FileNode replaces;
+		private byte[] replacedHash;
+
+		public PendingWrite(IdxPath path, byte[] data, CompressionType compression) {
+			this.path = path;
+			this.data = data;
+			this.compression = compression;
+		}
+
+		private void storedAs(int flags, long compressedSize) {
+			this.flags = flags;
+			this.compressedSize = compressedSize;
+		}
+	}
+
+	private final class WriteBatchImpl implements WriteBatch {
+		private final ExecutorService executor;
+		/** {@link IdxPath} is case insensitive, so a later write to the same file replaces the earlier one */
+		private final Map<IdxPath, PendingWrite> writes = new LinkedHashMap<>();
+		private boolean closed;
+
+		public WriteBatchImpl(ExecutorService executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public void write(IdxPath path, byte[] data, CompressionType compression) {
+			Objects.requireNonNull(path, "path");
+			Objects.requireNonNull(data, "data");
+			Objects.requireNonNull(compression, "compression");
+			assertBatchIsOpen();
+			if (path.isRoot()) {
+				throw new IllegalArgumentException("root is not a file");
+			}
+			this.writes.put(path, new PendingWrite(path, data, compression));
+		}
+
+		@Override
+		public int size() {
+			return this.writes.size();
+		}
+
+		@Override
+		public void commit() throws IOException {
+			assertBatchIsOpen();
+			this.closed = true;
+			try {
+				final var writes = new ArrayList<>(this.writes.values());
+				runAll(writes, write -> write.hash = Hash.computeHash(write.data));
+				runAll(findNewData(writes), write -> write.encoded = encode(write.data, write.compression));
+				awaitJournal(commit(writes));
+			} finally {
+				this.writes.clear();
+			}
+		}
+
+		/**
+		 * @return writes which need to be compressed, because their data is not stored yet. Only one write is returned for each hash
+		 */
+		private List<PendingWrite> findNewData(List<PendingWrite> writes) throws IOException {
+			final var lock = NexusArchiveImpl.this.lock.writeLock();
+			lock.lock();
+			try {
+				assertArchiveIsOpen();
+				final var newData = new ArrayList<PendingWrite>();
+				final var seen = new HashSet<ByteBuffer>();
+				for (final var write : writes) {
+					if (seen.add(toReferenceKey(write.hash)) && getSharedData(write.hash) == null) {
+						newData.add(write);
+					}
+				}
+				return newData;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void runAll(List<PendingWrite> writes, Consumer<PendingWrite> task) throws IOException {
+			final var tasks = new ArrayList<Callable<Void>>(writes.size());
+			for (final var write : writes) {
+				tasks.add(() -> {
+					task.accept(write);
+					return null;
+				});
+			}
+
+			try {
+				for (final var future : this.executor.invokeAll(tasks)) {
+					future.get();
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("batch was interrupted");
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new VaultException(e.getCause());
+			}
+		}
+
+		/**
+		 * @return position of the batch in the journal, or -1 if the journal is disabled
+		 */
+		private long commit(List<PendingWrite> writes) throws IOException {
+			final var lock = NexusArchiveImpl.this.lock.writeLock();
+			lock.lock();
+			try {
+				assertArchiveIsOpen();
+				final var indexFile = NexusArchiveImpl.this.indexFile;
+				final var archiveFile = NexusArchiveImpl.this.archiveFile;
+
+				// validate everything before the archive is modified
+				for (final var write : writes) {
+					for (var parent = write.path.getParent(); !parent.isRoot(); parent = parent.getParent()) {
+						if (this.writes.containsKey(parent)) {
+							throw new IndexEntryNotADirectoryException(parent.getFullName());
+						}
+					}
+
+					final var node = indexFile.findLastForUpdate(write.path);
+					final var nodePath = node.toPath();
+					if (nodePath.length() == write.path.length()) {
+						if (!node.isFile()) {
+							throw new IllegalArgumentException(String.format("%s is a directory", nodePath.getFullName()));
+						}
+						write.replaces = node.asFile();
+						write.replacedHash = write.replaces.getHash();
+					} else if (node.isFile()) {
+						throw new IndexEntryNotADirectoryException(nodePath.getFullName());
+					}
+				}
+
+				// data is only written once for each hash, all other writes share it
+				final var newData = new HashMap<ByteBuffer, PendingWrite>();
+				final var hashes = new ArrayList<byte[]>();
+				final var data = new ArrayList<byte[]>();
+				final var replacedHashes = new ArrayList<byte[]>();
+				for (final var write : writes) {
+					final var source = newData.get(toReferenceKey(write.hash));
+					if (source != null) {
+						write.storedAs(source.flags, source.compressedSize);
+						continue;
+					}
+					final var shared = getSharedData(write.hash);
+					if (shared != null) {
+						write.storedAs(shared.flags, shared.compressedSize);
+						continue;
+					}
+					if (write.encoded == null) { // data was deleted after the batch checked for it
+						write.encoded = encode(write.data, write.compression);
+					}
+					write.storedAs(write.compression.flag, write.encoded.length);
+					newData.put(toReferenceKey(write.hash), write);
+					hashes.add(write.hash);
+					data.add(write.encoded);
+					if (archiveFile.hasData(write.hash)) { // left over data without reference
+						replacedHashes.add(write.hash);
+					}
+				}
+
+				archiveFile.writeData(hashes, data, replacedHashes);
+
+				final var writeTime = new Date().getTime();
+				for (final var write : writes) {
+					final long uncompressedSize = write.data.length;
+					if (write.replaces != null) {
+						write.replaces.overwrite(null, write.flags, writeTime, uncompressedSize, write.compressedSize, write.hash, null);
+					} else {
+						final var parent = indexFile.findOrCreateDirectory(write.path.getParent());
+						parent.newFile(write.path.getLastName(), write.flags, writeTime, uncompressedSize, write.compressedSize, write.hash, 0);
+					}
+					addReference(write.hash, write.flags, write.compressedSize);
+				}
+				// data of replaced files is released only after the index refers to the new data
+				for (final var write : writes) {
+					if (write.replaces != null) {
+						removeReference(write.replacedHash);
+					}
+				}
+
+				if (NexusArchiveImpl.this.journal.isOpen()) { // the batch is recorded as a whole
+					final var record = new Journal.Record();
+					for (final var write : writes) {
+						final var encoded = newData.get(toReferenceKey(write.hash)) == write ? write.encoded : null;
+						record.write(write.path, write.flags, writeTime, write.data.length, write.compressedSize, write.hash, encoded);
+					}
+					return appendToJournal(record);
+				}
+
+				archiveFile.flush();
+				indexFile.writeToFile();
+				return -1;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void abort() {
+			this.closed = true;
+			this.writes.clear();
+		}
+
+		@Override
+		public void close() {
+			if (!this.closed) {
+				abort();
+			}
+		}
+
+		private void assertBatchIsOpen() {
+			if (this.closed) {
+				throw new IllegalStateException("batch was already committed or aborted");
 			}
 		}
 	}
 
 	@Override
 	public void validateArchive() throws BinaryIOException, IOException {
-		synchronized (this.synchronizationLock) {
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
 			assertArchiveIsOpen();
 			this.indexFile.validateFile();
 			this.archiveFile.validateFile();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public VerifyReport verifyContents(int parallelism) throws IOException {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("'parallelism' must be greater than 0");
+		}
+
+		final var files = new ArrayList<IdxFileLink>();
+		final int unreferencedBlobs;
+		{
+			final var lock = this.lock.readLock();
+			lock.lock();
+			try {
+				assertArchiveIsOpen();
+				final var hashes = new HashSet<ByteBuffer>();
+				forEachFile(file -> {
+					if (hashes.add(ByteBuffer.wrap(file.getHash()))) { // verify shared data only once
+						files.add(new IdxFileLinkImpl(this, file));
+					}
+				});
+
+				var referencedBlobs = 0;
+				for (final var file : files) {
+					if (this.archiveFile.hasData(file.getHash())) {
+						referencedBlobs += 1;
+					}
+				}
+				unreferencedBlobs = this.archiveFile.getNumberOfEntries() - referencedBlobs;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		final var executor = new ForkJoinPool(parallelism);
+		try {
+			final var report = extract(files, (file, data) -> {
+				final var hash = Hash.computeHash(data);
+				if (!Arrays.equals(file.getHash(), hash)) {
+					throw new ArchiveHashException(String.format("Content of %s does not match its hash. Expected %s, was %s", file.getFullName(),
+							HexToString.byteToHex(file.getHash()), HexToString.byteToHex(hash)));
+				}
+			}, new ExtractOptions().setExecutor(executor));
+
+			final var corrupt = new HashMap<IdxFileLink, Exception>();
+			final var missing = new HashMap<IdxFileLink, Exception>();
+			for (final var failure : report.getFailures().entrySet()) {
+				if (failure.getValue() instanceof ArchiveHashNotFoundException) {
+					missing.put(failure.getKey(), failure.getValue());
+				} else {
+					corrupt.put(failure.getKey(), failure.getValue());
+				}
+			}
+			return new VerifyReport(report.getExtractedFiles(), unreferencedBlobs, report.getReadBytes(), report.getDecodedBytes(), report.getTotalNanos(),
+					corrupt, missing);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public long compact() throws IOException {
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
+			assertArchiveIsOpen();
+			this.archiveFile.awaitLeasedData();
+			checkpointJournal();
+			if (!this.journal.isOpen()) {
+				deletePendingReleases();
+			}
+			final var reclaimed = this.indexFile.compact() + this.archiveFile.compact();
+			if (this.journal.isOpen()) { // following records are replayed on top of the compacted files
+				this.archiveFile.sync();
+				this.indexFile.sync();
+			}
+			return reclaimed;
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	@Override
 	public void delete(IdxPath path) throws IOException {
-		synchronized (this.synchronizationLock) {
+		final long journalPosition;
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
 			assertArchiveIsOpen();
 
-			final var optional = this.indexFile.find(path);
+			final var optional = this.indexFile.findForUpdate(path);
 			if (optional.isEmpty()) {
 				throw new IndexEntryNotFoundException(path.getFullName()); // TODO
 			}
 
-			final var file = optional.get().asFile();
-			this.archiveFile.deleteData(file.getHash());
-			file.getParent().delete(file.getName());
+			final var node = optional.get();
+			if (node.isDirectory() && node.asDirectory().getChilds().isEmpty()) {
+				this.indexFile.delete(path);
+			} else {
+				deleteFile(path, node.asFile());
+			}
+			journalPosition = appendToJournal(new Journal.Record().delete(path));
+		} finally {
+			lock.unlock();
 		}
+		awaitJournal(journalPosition);
+	}
+
+	private void deleteFile(IdxPath path, FileNode file) throws IOException {
+		final var hash = file.getHash();
+		getReferences();
+		this.indexFile.delete(path);
+		removeReference(hash);
 	}
 
 	@Override
 	public void move(IdxPath from, IdxPath to) throws IOException {
-		synchronized (this.synchronizationLock) {
+		final long journalPosition;
+		final var lock = this.lock.writeLock();
+		lock.lock();
+		try {
 			assertArchiveIsOpen();
 			this.indexFile.move(from, to);
+			journalPosition = appendToJournal(new Journal.Record().move(from, to));
+		} finally {
+			lock.unlock();
 		}
+		awaitJournal(journalPosition);
+	}
+
+	@Override
+	public void copyRaw(IdxFileLink source, IdxPath target) throws IOException {
+		Objects.requireNonNull(source, "source");
+		Objects.requireNonNull(target, "target");
+		copyRaw(Map.of(target, source));
+	}
+
+	@Override
+	public void copyRaw(Map<IdxPath, IdxFileLink> files) throws IOException {
+		Objects.requireNonNull(files, "files");
+		final var filesBySource = new LinkedHashMap<NexusArchiveImpl, Map<IdxPath, IdxFileLink>>();
+		for (final var file : files.entrySet()) {
+			final var target = Objects.requireNonNull(file.getKey(), "target");
+			final var source = Objects.requireNonNull(file.getValue(), "source");
+			if (target.isRoot()) {
+				throw new IllegalArgumentException("root is not a file");
+			}
+			if (!(source.getArchive() instanceof NexusArchiveImpl)) {
+				throw new IllegalArgumentException(String.format("%s does not belong to a supported archive", source.getFullName()));
+			}
+			filesBySource.computeIfAbsent((NexusArchiveImpl) source.getArchive(), k -> new LinkedHashMap<>()).put(target, source);
+		}
+
+		for (final var group : filesBySource.entrySet()) {
+			copyRaw(group.getKey(), group.getValue());
+		}
+	}
+
+	/** Used to lock two archives in a consistent order, if their identity hash codes are equal */
+	private static final Object COPY_TIE_LOCK = new Object();
+
+	private void copyRaw(NexusArchiveImpl sourceArchive, Map<IdxPath, IdxFileLink> files) throws IOException {
+		final long journalPosition;
+		// both archives are always locked in the same order, which avoids a deadlock with a copy in the opposite direction
+		final var locks = new ArrayList<Lock>(2);
+		if (sourceArchive == this) {
+			locks.add(this.lock.writeLock());
+		} else if (System.identityHashCode(this) < System.identityHashCode(sourceArchive)) {
+			locks.add(this.lock.writeLock());
+			locks.add(sourceArchive.lock.readLock());
+		} else {
+			locks.add(sourceArchive.lock.readLock());
+			locks.add(this.lock.writeLock());
+		}
+
+		if (sourceArchive != this && System.identityHashCode(this) == System.identityHashCode(sourceArchive)) {
+			synchronized (COPY_TIE_LOCK) {
+				locks.forEach(Lock::lock);
+			}
+		} else {
+			locks.forEach(Lock::lock);
+		}
+		try {
+			assertArchiveIsOpen();
+			sourceArchive.assertArchiveIsOpen();
+
+			// validate everything before the archive is modified
+			final var transfers = new LinkedHashMap<ByteBuffer, IdxFileLink>();
+			for (final var file : files.entrySet()) {
+				final var target = file.getKey();
+				final var source = file.getValue();
+				for (var parent = target.getParent(); !parent.isRoot(); parent = parent.getParent()) {
+					if (files.containsKey(parent)) {
+						throw new IndexEntryNotADirectoryException(parent.getFullName());
+					}
+				}
+				final var node = this.indexFile.findLastForUpdate(target);
+				final var nodePath = node.toPath();
+				if (nodePath.length() == target.length()) {
+					if (!node.isFile()) {
+						throw new IllegalArgumentException(String.format("%s is a directory", nodePath.getFullName()));
+					}
+				} else if (node.isFile()) {
+					throw new IndexEntryNotADirectoryException(nodePath.getFullName());
+				}
+
+				final var key = toReferenceKey(source.getHash());
+				if (transfers.containsKey(key) || getSharedData(source.getHash()) != null) {
+					continue;
+				}
+				if (!sourceArchive.archiveFile.hasData(source.getHash())) {
+					throw new ArchiveHashNotFoundException(String.format("No data found for %s", source.getFullName()));
+				}
+				transfers.put(key, source);
+			}
+
+			// read sequentially
+			final var orderedTransfers = new ArrayList<>(transfers.values());
+			final var offsets = new HashMap<IdxFileLink, Long>();
+			for (final var source : orderedTransfers) {
+				offsets.put(source, sourceArchive.archiveFile.getDataOffset(source.getHash()));
+			}
+			orderedTransfers.sort((a, b) -> Long.compare(offsets.get(a), offsets.get(b)));
+			for (final var source : orderedTransfers) {
+				// data without any reference is left over and can be overwritten
+				this.archiveFile.transferData(sourceArchive.archiveFile, source.getHash(), true);
+			}
+
+			final var record = new Journal.Record();
+			for (final var file : files.entrySet()) {
+				final var source = file.getValue();
+				final var stored = transfers.get(toReferenceKey(source.getHash()));
+				final var shared = stored == null ? getSharedData(source.getHash()) : null;
+				final var flags = shared != null ? shared.flags : stored.getFlags();
+				final var compressedSize = shared != null ? shared.compressedSize : stored.getCompressedSize();
+				linkFile(file.getKey(), flags, source.getWriteTime(), source.getUncompressedSize(), compressedSize, source.getHash());
+				record.write(file.getKey(), flags, source.getWriteTime(), source.getUncompressedSize(), compressedSize, source.getHash(), null);
+			}
+
+			if (this.journal.isOpen() && !transfers.isEmpty()) {
+				// the journal refers to the copied data, instead of storing it a second time
+				this.archiveFile.sync();
+			}
+			journalPosition = appendToJournal(record);
+		} finally {
+			for (var i = locks.size() - 1; i >= 0; --i) {
+				locks.get(i).unlock();
+			}
+		}
+		awaitJournal(journalPosition);
 	}
 
 	@Override
 	public Optional<IdxEntry> find(IdxPath path) throws IOException {
-		synchronized (this.synchronizationLock) {
+		final var lock = this.lock.readLock();
+		lock.lock();
+		try {
 			assertArchiveIsOpen();
 
 			final var entry = this.indexFile.find(path);
@@ -465,27 +1575,251 @@ final class NexusArchiveImpl implements NexusArchive {
 				return Optional.of(new IdxDirectoryImpl(this, node.asDirectory()));
 			}
 			return Optional.of(new IdxFileLinkImpl(this, node.asFile()));
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	protected byte[] getData(IdxFileLink fileLink) throws IOException, ArchiveHashNotFoundException, DecodeException {
-		byte[] data;
-		synchronized (this.synchronizationLock) {
+		final var cache = this.dataCache;
+		if (cache != null) {
+			final var cached = cache.get(fileLink.getHash());
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		final byte[] data;
+		try (var lease = leaseData(fileLink)) {
+			data = decode(fileLink, lease.getBuffer());
+		}
+		if (cache != null) {
+			cache.put(fileLink.getHash(), data);
+		}
+		return data;
+	}
+
+	protected InputStream openStream(IdxFileLink fileLink) throws IOException, ArchiveHashNotFoundException, DecodeException {
+		final var encoded = openDataStream(fileLink);
+		try {
+			switch (fileLink.getFlags()) {
+				case 4 | 1:
+					return LzmaCodec.decodeStream(encoded, fileLink.getUncompressedSize());
+				case 2 | 1:
+					return ZipCodec.decodeStream(encoded, fileLink.getUncompressedSize());
+				default: // none
+					return encoded;
+			}
+		} catch (final RuntimeException e) { // releases the data, if it is leased
+			encoded.close();
+			throw e;
+		}
+	}
+
+	protected void decodeInto(IdxFileLink fileLink, ByteBuffer dst) throws IOException, ArchiveHashNotFoundException, DecodeException {
+		if (dst.remaining() < fileLink.getUncompressedSize()) {
+			throw new BufferOverflowException();
+		}
+
+		switch (fileLink.getFlags()) {
+			case 4 | 1:
+				try (var encoded = openDataStream(fileLink)) {
+					LzmaCodec.decodeInto(encoded, fileLink.getUncompressedSize(), dst);
+				}
+				break;
+			case 2 | 1:
+				try (var encoded = openDataStream(fileLink)) {
+					ZipCodec.decodeInto(encoded, fileLink.getUncompressedSize(), dst);
+				}
+				break;
+			default: // none
+				final var lock = this.lock.readLock();
+				lock.lock();
+				try {
+					assertArchiveIsOpen();
+					this.archiveFile.getData(fileLink.getHash(), dst);
+				} finally {
+					lock.unlock();
+				}
+				break;
+		}
+	}
+
+	private InputStream openDataStream(IdxFileLink fileLink) throws IOException, ArchiveHashNotFoundException {
+		final var lock = this.lock.readLock();
+		lock.lock();
+		try {
+			assertArchiveIsOpen();
+			return this.archiveFile.openDataStream(fileLink.getHash()); // leases the data, if it is memory mapped
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the stored bytes of a file. The returned buffer can be used after the lock is released, until the lease is released: if the archive is memory
+	 * mapped, the buffer is a slice of the mapping. While it is leased, deleted data is not freed and {@link #compact()} waits, so the region is neither
+	 * reused nor truncated. The lease can be released by any thread, but must be released before the same thread calls {@link #compact()}.
+	 */
+	RegionLease leaseData(IdxFileLink fileLink) throws IOException, ArchiveHashNotFoundException {
+		final var lock = this.lock.readLock();
+		lock.lock();
+		try {
 			assertArchiveIsOpen();
-			data = this.archiveFile.getData(fileLink.getHash());
+			return this.archiveFile.leaseData(fileLink.getHash());
+		} finally {
+			lock.unlock();
 		}
+	}
 
+	static byte[] decode(IdxFileLink fileLink, ByteBuffer data) throws DecodeException {
 		switch (fileLink.getFlags()) {
 			case 4 | 1:
 				return LzmaCodec.decode(data, fileLink.getUncompressedSize());
 			case 2 | 1:
 				return ZipCodec.decode(data, fileLink.getUncompressedSize());
 			default: // none
-				if (data.length != fileLink.getUncompressedSize()) {
+				if (data.remaining() != fileLink.getUncompressedSize()) {
 					throw new VaultException(); // TODO
 				}
-				return data;
+				final var result = new byte[data.remaining()];
+				data.get(result);
+				return result;
+		}
+	}
+
+	private static final class ExtractRequest {
+		private final IdxFileLink file;
+		private final long offset;
+		private RegionLease data;
+		/** Set by either the task which decodes the data or by the caller, if the task is cancelled before it starts. The winner releases the lease */
+		private final AtomicBoolean claimed = new AtomicBoolean();
+
+		public ExtractRequest(IdxFileLink file, long offset) {
+			this.file = file;
+			this.offset = offset;
+		}
+	}
+
+	@Override
+	public ExtractReport extract(Collection<IdxFileLink> files, ExtractSink sink, ExtractOptions options) throws IOException {
+		Objects.requireNonNull(files, "files");
+		Objects.requireNonNull(sink, "sink");
+		if (options == null) {
+			options = new ExtractOptions();
 		}
+
+		final var startTime = System.nanoTime();
+		final var failures = new ConcurrentHashMap<IdxFileLink, Exception>();
+
+		final var requests = new ArrayList<ExtractRequest>(files.size());
+		{
+			final var lock = this.lock.readLock();
+			lock.lock();
+			try {
+				assertArchiveIsOpen();
+				for (final var file : files) {
+					if (file.getArchive() != this) {
+						throw new IllegalArgumentException(String.format("%s does not belong to this archive", file.getFullName()));
+					}
+					final var offset = this.archiveFile.getDataOffset(file.getHash());
+					if (offset < 0) {
+						failures.put(file, new ArchiveHashNotFoundException(String.format("No data found for %s", file.getFullName())));
+					} else {
+						requests.add(new ExtractRequest(file, offset));
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		requests.sort((a, b) -> Long.compare(a.offset, b.offset)); // read sequentially
+
+		final var executor = options.getExecutor();
+		final var maxBytesInFlight = options.getMaxBytesInFlight();
+		final var bytesInFlight = new Semaphore(maxBytesInFlight);
+		final var tasks = new ArrayList<Future<?>>(requests.size());
+
+		final var extractedFiles = new AtomicInteger();
+		final var decodedBytes = new AtomicLong();
+		final var decodeNanos = new AtomicLong();
+		long readBytes = 0;
+		long readNanos = 0;
+
+		var completed = false;
+		try {
+			for (var i = 0; i < requests.size(); ++i) {
+				final var request = requests.get(i);
+				final var file = request.file;
+				final var cost = (int) Math.min(maxBytesInFlight, file.getCompressedSize() + file.getUncompressedSize());
+				bytesInFlight.acquire(cost);
+
+				final var readStart = System.nanoTime();
+				try {
+					request.data = leaseData(file);
+				} catch (final IOException | VaultException e) {
+					failures.put(file, e);
+					bytesInFlight.release(cost);
+					continue;
+				} finally {
+					readNanos += System.nanoTime() - readStart;
+				}
+				readBytes += request.data.getBuffer().remaining();
+
+				try {
+					tasks.add(executor.submit(() -> {
+						if (!request.claimed.compareAndSet(false, true)) {
+							return; // cancelled, the lease is already released
+						}
+						try {
+							final var decodeStart = System.nanoTime();
+							final byte[] decoded;
+							try (var data = request.data) {
+								decoded = decode(file, data.getBuffer());
+							}
+							decodeNanos.addAndGet(System.nanoTime() - decodeStart);
+							sink.accept(file, decoded);
+							extractedFiles.incrementAndGet();
+							decodedBytes.addAndGet(decoded.length);
+						} catch (final Exception e) {
+							failures.put(file, e);
+						} finally {
+							bytesInFlight.release(cost);
+						}
+					}));
+				} catch (final RejectedExecutionException e) { // e.g. the executor was shut down, the remaining files are not read
+					request.data.close();
+					bytesInFlight.release(cost);
+					for (var j = i; j < requests.size(); ++j) {
+						failures.put(requests.get(j).file, e);
+					}
+					break;
+				}
+			}
+
+			for (final var task : tasks) {
+				task.get();
+			}
+			completed = true;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("extraction was interrupted");
+		} catch (final ExecutionException e) {
+			throw new VaultException(e.getCause());
+		} finally {
+			if (!completed) { // tasks must not outlive this call
+				for (final var task : tasks) {
+					task.cancel(true);
+				}
+				for (final var request : requests) { // tasks which did not start won't release their lease
+					if (request.data != null && request.claimed.compareAndSet(false, true)) {
+						request.data.close();
+					}
+				}
+			}
+		}
+
+		return new ExtractReport(extractedFiles.get(), readBytes, decodedBytes.get(), readNanos, decodeNanos.get(), System.nanoTime() - startTime, failures);
 	}
 
 	private void assertArchiveIsOpen() throws IOException {
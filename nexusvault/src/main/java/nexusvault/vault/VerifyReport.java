@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault;
+
+import java.util.Collections;
+import java.util.Map;
+
+import nexusvault.vault.IdxEntry.IdxFileLink;
+
+/**
+ * Summary of a call to {@link NexusArchive#verifyContents(int)}.
+ * <p>
+ * Data which is shared by multiple files is only verified once. Problems are reported for one of the files which refer to the data.
+ */
+public final class VerifyReport {
+
+	private final int verifiedBlobs;
+	private final int unreferencedBlobs;
+	private final long readBytes;
+	private final long verifiedBytes;
+	private final long totalNanos;
+	private final Map<IdxFileLink, Exception> corrupt;
+	private final Map<IdxFileLink, Exception> missing;
+
+	public VerifyReport(int verifiedBlobs, int unreferencedBlobs, long readBytes, long verifiedBytes, long totalNanos, Map<IdxFileLink, Exception> corrupt,
+			Map<IdxFileLink, Exception> missing) {
+		this.verifiedBlobs = verifiedBlobs;
+		this.unreferencedBlobs = unreferencedBlobs;
+		this.readBytes = readBytes;
+		this.verifiedBytes = verifiedBytes;
+		this.totalNanos = totalNanos;
+		this.corrupt = Collections.unmodifiableMap(corrupt);
+		this.missing = Collections.unmodifiableMap(missing);
+	}
+
+	/**
+	 * @return number of stored data blocks whose decoded content matched their hash
+	 */
+	public int getVerifiedBlobs() {
+		return this.verifiedBlobs;
+	}
+
+	/**
+	 * @return number of stored data blocks which are not referenced by any file. Those can not be decoded and are not verified
+	 */
+	public int getUnreferencedBlobs() {
+		return this.unreferencedBlobs;
+	}
+
+	/**
+	 * @return number of bytes read from the archive
+	 */
+	public long getReadBytes() {
+		return this.readBytes;
+	}
+
+	/**
+	 * @return number of decoded bytes which matched their hash
+	 */
+	public long getVerifiedBytes() {
+		return this.verifiedBytes;
+	}
+
+	public long getTotalNanos() {
+		return this.totalNanos;
+	}
+
+	/**
+	 * @return number of verified bytes per second, measured from start to end
+	 */
+	public double getThroughput() {
+		return this.totalNanos <= 0 ? 0 : this.verifiedBytes / (this.totalNanos / 1e9);
+	}
+
+	/**
+	 * @return files whose data could not be read or decoded, or whose decoded content does not match their hash, and the reason why
+	 */
+	public Map<IdxFileLink, Exception> getCorrupt() {
+		return this.corrupt;
+	}
+
+	/**
+	 * @return files whose data is not stored in the archive
+	 */
+	public Map<IdxFileLink, Exception> getMissing() {
+		return this.missing;
+	}
+
+	/**
+	 * @return <code>true</code> if no data is corrupt or missing
+	 */
+	public boolean isValid() {
+		return this.corrupt.isEmpty() && this.missing.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("VerifyReport [verifiedBlobs=").append(this.verifiedBlobs);
+		builder.append(", corrupt=").append(this.corrupt.size());
+		builder.append(", missing=").append(this.missing.size());
+		builder.append(", unreferenced=").append(this.unreferencedBlobs);
+		builder.append(String.format(", throughput=%.1fMB/s", getThroughput() / (1 << 20)));
+		builder.append("]");
+		return builder.toString();
+	}
+
+}
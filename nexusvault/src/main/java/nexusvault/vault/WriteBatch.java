@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault;
+
+import java.io.IOException;
+
+import nexusvault.vault.NexusArchive.CompressionType;
+
+/**
+ * Collects writes to a {@link NexusArchive}, which are applied together by {@link #commit()}.
+ * <p>
+ * Until the batch is committed, the archive is not modified. On commit, all files are hashed and compressed in parallel, their data is appended to the
+ * archive and the index is updated and flushed once. If the commit fails before the archive is modified, or the batch is {@link #abort() aborted}, the
+ * archive stays as it was.
+ * <p>
+ * A batch is not thread-safe and can only be committed once.
+ *
+ * @see NexusArchive#beginBatch()
+ */
+public interface WriteBatch extends AutoCloseable {
+
+	/**
+	 * Adds a file to this batch. If the batch already contains a file with the same path, it will be replaced.
+	 *
+	 * @param path
+	 *            of the file
+	 * @param data
+	 *            uncompressed content of the file, will not be copied and should not be modified until the batch is committed
+	 * @param compression
+	 *            used to store the file
+	 * @throws IllegalStateException
+	 *             if this batch was already committed or aborted
+	 */
+	void write(IdxPath path, byte[] data, CompressionType compression);
+
+	/**
+	 * @return number of files in this batch
+	 */
+	int size();
+
+	/**
+	 * Writes all files of this batch to the archive.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalStateException
+	 *             if this batch was already committed or aborted
+	 */
+	void commit() throws IOException;
+
+	/**
+	 * Discards all files of this batch. Does nothing, if the batch was already committed or aborted.
+	 */
+	void abort();
+
+	/**
+	 * Same as {@link #abort()}, if this batch was not committed.
+	 */
+	@Override
+	void close();
+
+}
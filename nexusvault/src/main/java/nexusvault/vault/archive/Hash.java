@@ -9,8 +9,11 @@
  * SPDX-License-Identifier: AGPL-3.0-or-later
  *******************************************************************************/
 
+
 package nexusvault.vault.archive;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -18,38 +21,83 @@ import java.security.NoSuchAlgorithmException;
 import kreed.io.util.BinaryReader;
 import nexusvault.vault.archive.ArchiveException.ArchiveHashException;
 
+/**
+ * Computes the SHA-1 hash which is used to address data within a {@link PackedArchiveFile}.
+ * <p>
+ * Each thread reuses its own {@link MessageDigest} and read buffer, so hashes can be computed by multiple threads at once without creating a new digest for
+ * each call.
+ */
 public final class Hash {
 	private Hash() {
 	}
 
+	public static final int HASH_LENGTH = 20;
+
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new ArchiveHashException(e);
+		}
+	});
+
+	private static final ThreadLocal<byte[]> READ_BUFFER = ThreadLocal.withInitial(() -> new byte[READ_BUFFER_SIZE]);
+
+	private static MessageDigest getDigest() throws ArchiveHashException {
+		final var md = DIGEST.get();
+		md.reset();
+		return md;
+	}
+
 	private static byte[] returnHash(MessageDigest md) throws ArchiveHashException {
 		final byte[] hash = md.digest();
-		if (hash.length != 20) {
+		if (hash.length != HASH_LENGTH) {
 			throw new ArchiveHashException(String.format("hash result needs to be exactly 20 bytes long, was %d", hash.length));
 		}
 		return hash;
 	}
 
+	/**
+	 * Computes the hash of all bytes from the current position of <code>data</code> up to its end
+	 */
 	public static byte[] computeHash(BinaryReader data) throws ArchiveHashException {
-		try {
-			final var md = MessageDigest.getInstance("SHA-1");
-			while (!data.isEndOfData()) {
-				md.update(data.readInt8());
-			}
-			return returnHash(md);
-		} catch (final NoSuchAlgorithmException e) {
-			throw new ArchiveHashException(e);
+		final var md = getDigest();
+		final var buffer = READ_BUFFER.get();
+		var remaining = data.size() - data.position();
+		while (remaining > 0) {
+			final var length = (int) Math.min(buffer.length, remaining);
+			data.readInt8(buffer, 0, length);
+			md.update(buffer, 0, length);
+			remaining -= length;
 		}
+		return returnHash(md);
 	}
 
-	public static byte[] computeHash(ByteBuffer data) throws ArchiveHashException {
-		try {
-			final var md = MessageDigest.getInstance("SHA-1");
-			md.update(data);
-			return returnHash(md);
-		} catch (final NoSuchAlgorithmException e) {
-			throw new ArchiveHashException(e);
+	/**
+	 * Computes the hash of all bytes up to the end of <code>data</code>. The stream is not closed.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static byte[] computeHash(InputStream data) throws ArchiveHashException, IOException {
+		final var md = getDigest();
+		final var buffer = READ_BUFFER.get();
+		int read;
+		while ((read = data.read(buffer)) >= 0) {
+			md.update(buffer, 0, read);
 		}
+		return returnHash(md);
+	}
+
+	/**
+	 * Computes the hash of the remaining bytes of <code>data</code>. Afterwards, the position of <code>data</code> is equal to its limit.
+	 */
+	public static byte[] computeHash(ByteBuffer data) throws ArchiveHashException {
+		final var md = getDigest();
+		md.update(data);
+		return returnHash(md);
 	}
 
 	public static byte[] computeHash(byte[] data) throws ArchiveHashException {
@@ -57,13 +105,9 @@ public final class Hash {
 	}
 
 	public static byte[] computeHash(byte[] data, int offset, int length) throws ArchiveHashException {
-		try {
-			final var md = MessageDigest.getInstance("SHA-1");
-			md.update(data, offset, length);
-			return returnHash(md);
-		} catch (final NoSuchAlgorithmException e) {
-			throw new ArchiveHashException(e);
-		}
+		final var md = getDigest();
+		md.update(data, offset, length);
+		return returnHash(md);
 	}
 
 }
@@ -13,11 +13,22 @@ package nexusvault.vault.archive;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import kreed.io.util.BinaryIOException;
 import nexusvault.shared.exception.IntegerOverflowException;
@@ -26,14 +37,23 @@ import nexusvault.shared.exception.VersionMismatchException;
 import nexusvault.vault.FileClosedIOException;
 import nexusvault.vault.archive.ArchiveException.ArchiveHashCollisionException;
 import nexusvault.vault.archive.ArchiveException.ArchiveHashNotFoundException;
+import nexusvault.vault.file.RegionLease;
 import nexusvault.vault.pack.PackedFile;
 import nexusvault.vault.struct.StructArchiveEntry;
 import nexusvault.vault.struct.StructArchiveRootElement;
 
+/**
+ * Stores data blocks in a {@link PackedFile}, each block is identified by the SHA-1 hash of its uncompressed content.
+ * <p>
+ * {@link #getData(byte[])}, {@link #getDataAsBuffer(byte[])}, {@link #openDataStream(byte[])} and {@link #hasData(byte[])} can be called by multiple
+ * threads at once, as long as no thread modifies this file at the same time.
+ */
 public final class PackedArchiveFile implements Closeable {
 
 	private static final int SIGNATURE = StructArchiveRootElement.SIGNATURE_AARC;
 	private static final int VERSION = 2;
+	/** Number of hash table slots which are written at once */
+	private static final int FLUSH_BATCH_SIZE = 2048;
 
 	private static final class HashKey {
 		private final byte[] value;
@@ -70,9 +90,10 @@ public final class PackedArchiveFile implements Closeable {
 		}
 	}
 
+	/** Entries are immutable, which allows to read them without holding a lock */
 	private static final class Entry {
-		long index;
-		int size;
+		final long index;
+		final int size;
 
 		public Entry(long index, int size) {
 			this.index = index;
@@ -81,7 +102,12 @@ public final class PackedArchiveFile implements Closeable {
 	}
 
 	private final PackedFile file = new PackedFile();
-	private final Map<HashKey, Entry> entries = new HashMap<>();
+	private final Map<HashKey, Entry> entries = new ConcurrentHashMap<>();
+	/** Position of each hash within the hash table of the file. The table is kept dense, the last hash fills the slot of a removed hash */
+	private final Map<HashKey, Integer> slots = new HashMap<>();
+	private final List<HashKey> slotKeys = new ArrayList<>();
+	/** Slots which need to be written */
+	private final BitSet dirtySlots = new BitSet();
 	private StructArchiveRootElement rootElement;
 	private boolean dirty;
 
@@ -114,6 +140,9 @@ public final class PackedArchiveFile implements Closeable {
 		}
 
 		this.entries.clear();
+		this.slots.clear();
+		this.slotKeys.clear();
+		this.dirtySlots.clear();
 		try (var reader = this.file.readEntry(this.rootElement.headerIdx)) {
 			for (var i = 0; i < this.rootElement.entryCount; ++i) {
 				final var index = reader.readUInt32();
@@ -130,6 +159,8 @@ public final class PackedArchiveFile implements Closeable {
 				if (oldEntry != null) {
 					throw new ArchiveHashCollisionException(hash.toString()); // TODO
 				}
+				this.slots.put(hash, this.slotKeys.size());
+				this.slotKeys.add(hash);
 			}
 		}
 	}
@@ -146,6 +177,9 @@ public final class PackedArchiveFile implements Closeable {
 		} finally {
 			this.dirty = false;
 			this.entries.clear();
+			this.slots.clear();
+			this.slotKeys.clear();
+			this.dirtySlots.clear();
 			this.rootElement = null;
 		}
 	}
@@ -154,39 +188,86 @@ public final class PackedArchiveFile implements Closeable {
 		return this.file.isOpen();
 	}
 
+	/**
+	 * @see PackedFile#setMemoryMapped(boolean)
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.file.setMemoryMapped(memoryMapped);
+	}
+
+	/**
+	 * @see PackedFile#isMemoryMapped()
+	 */
+	public boolean isMemoryMapped() {
+		return this.file.isMemoryMapped();
+	}
+
+	/**
+	 * @see PackedFile#hasLeasedEntries()
+	 */
+	public boolean hasLeasedData() {
+		return this.file.hasLeasedEntries();
+	}
+
+	/**
+	 * @see PackedFile#awaitLeasedEntries()
+	 */
+	public void awaitLeasedData() throws InterruptedIOException {
+		this.file.awaitLeasedEntries();
+	}
+
 	private void assertFileIsOpen() throws IOException {
 		if (!isOpen()) {
 			throw new FileClosedIOException();
 		}
 	}
 
+	/**
+	 * Writes all changes. Only slots of the hash table which changed since the last flush are written, unless the table needs to be moved to a larger
+	 * region.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
 	public void flush() throws IOException {
 		assertFileIsOpen();
 		if (!this.dirty) {
 			return;
 		}
 
+		final var entryCount = this.slotKeys.size();
 		if (this.rootElement.headerIdx <= 0) {
-			final var capacity = (int) Math.max(1000, this.entries.size() * 1.50f) * StructArchiveEntry.SIZE_IN_BYTES;
+			final var capacity = (int) Math.max(1000, entryCount * 1.50f) * StructArchiveEntry.SIZE_IN_BYTES;
 			this.rootElement.headerIdx = (int) this.file.newEntry(capacity);
+			this.dirtySlots.set(0, entryCount);
 		} else {
 			var capacity = this.file.entryCapacity(this.rootElement.headerIdx);
-			if (capacity < this.entries.size() * StructArchiveEntry.SIZE_IN_BYTES) {
+			if (capacity < entryCount * StructArchiveEntry.SIZE_IN_BYTES) {
 				this.file.releaseEntry(this.rootElement.headerIdx);
-				capacity = (int) Math.max(1000, this.entries.size() * 1.50f) * StructArchiveEntry.SIZE_IN_BYTES;
+				capacity = (int) Math.max(1000, entryCount * 1.50f) * StructArchiveEntry.SIZE_IN_BYTES;
 				this.rootElement.headerIdx = (int) this.file.newEntry(capacity);
+				this.dirtySlots.set(0, entryCount);
 			}
 		}
 
-		try (var writer = this.file.writeEntry(this.rootElement.headerIdx)) {
-			for (final var entry : this.entries.entrySet()) {
-				writer.writeInt32(entry.getValue().index);
-				writer.writeInt8(entry.getKey().value, 0, 20);
-				writer.writeInt64(entry.getValue().size);
+		final var buffer = ByteBuffer.allocate(FLUSH_BATCH_SIZE * StructArchiveEntry.SIZE_IN_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		for (var slot = this.dirtySlots.nextSetBit(0); slot >= 0 && slot < entryCount;) {
+			final var end = Math.min(Math.min(this.dirtySlots.nextClearBit(slot), entryCount), slot + FLUSH_BATCH_SIZE);
+			buffer.clear();
+			for (var i = slot; i < end; ++i) {
+				final var key = this.slotKeys.get(i);
+				final var entry = this.entries.get(key);
+				buffer.putInt((int) entry.index);
+				buffer.put(key.value);
+				buffer.putLong(entry.size);
 			}
+			this.file.writeEntry(this.rootElement.headerIdx, (long) slot * StructArchiveEntry.SIZE_IN_BYTES, buffer.array(), 0, buffer.position());
+			slot = this.dirtySlots.nextSetBit(end);
 		}
+		this.file.setEntrySize(this.rootElement.headerIdx, (long) entryCount * StructArchiveEntry.SIZE_IN_BYTES);
+		this.dirtySlots.clear();
 
-		this.rootElement.entryCount = this.entries.size();
+		this.rootElement.entryCount = entryCount;
 		try (var writer = this.file.writeEntry(this.file.getRootIndex())) {
 			this.rootElement.write(writer);
 		}
@@ -195,6 +276,60 @@ public final class PackedArchiveFile implements Closeable {
 		this.file.flush();
 	}
 
+	/**
+	 * {@link #flush() Flushes} all changes and forces them to the storage device, so they are not lost if the system crashes.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void sync() throws IOException {
+		flush();
+		this.file.sync();
+	}
+
+	private void putEntry(HashKey key, Entry entry) {
+		this.entries.put(key, entry);
+		var slot = this.slots.get(key);
+		if (slot == null) {
+			slot = this.slotKeys.size();
+			this.slotKeys.add(key);
+			this.slots.put(key, slot);
+		}
+		this.dirtySlots.set(slot);
+		this.dirty = true;
+	}
+
+	private Entry removeEntry(HashKey key) {
+		final var entry = this.entries.remove(key);
+		if (entry == null) {
+			return null;
+		}
+
+		final int slot = this.slots.remove(key);
+		final var lastSlot = this.slotKeys.size() - 1;
+		final var lastKey = this.slotKeys.remove(lastSlot);
+		if (slot != lastSlot) {
+			this.slotKeys.set(slot, lastKey);
+			this.slots.put(lastKey, slot);
+			this.dirtySlots.set(slot);
+		}
+		this.dirty = true;
+		return entry;
+	}
+
+	/**
+	 * Writes all changes and compacts the underlying file.
+	 *
+	 * @return number of bytes reclaimed
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see PackedFile#compact()
+	 */
+	public long compact() throws IOException {
+		flush();
+		return this.file.compact();
+	}
+
 	public void writeData(byte[] hash, byte[] data, boolean allowOverwrite) throws ArchiveHashCollisionException, IOException {
 		assertFileIsOpen();
 
@@ -203,23 +338,147 @@ public final class PackedArchiveFile implements Closeable {
 		var entry = this.entries.get(hashKey);
 		if (entry == null) {
 			entry = new Entry(this.file.newEntry(length), length);
-			this.entries.put(hashKey, entry);
+			putEntry(hashKey, entry);
 		} else {
 			if (!allowOverwrite) {
 				throw new ArchiveHashCollisionException(); // TODO
 			}
 
-			final var capacity = this.file.entryCapacity(entry.index);
+			var index = entry.index;
+			final var capacity = this.file.entryCapacity(index);
 			if (capacity < length) {
-				this.file.releaseEntry(entry.index);
-				entry.index = this.file.newEntry(length);
+				this.file.releaseEntry(index);
+				index = this.file.newEntry(length);
 			}
-			entry.size = length;
+			entry = new Entry(index, length);
+			putEntry(hashKey, entry);
 		}
 		this.file.writeEntry(entry.index, data, 0, length);
 		this.dirty = true;
 	}
 
+	/**
+	 * Copies the data of the given hash from <code>source</code> into this file. The data is transferred from file to file, without reading it into memory.
+	 *
+	 * @param source
+	 *            file to copy from, may not be modified at the same time
+	 * @param hash
+	 *            of the data
+	 * @param allowOverwrite
+	 *            if <code>true</code>, data which is already stored for the hash is overwritten
+	 * @throws ArchiveHashNotFoundException
+	 *             if <code>source</code> contains no data for the hash
+	 * @throws ArchiveHashCollisionException
+	 *             if data is already stored for the hash and <code>allowOverwrite</code> is <code>false</code>
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void transferData(PackedArchiveFile source, byte[] hash, boolean allowOverwrite)
+			throws ArchiveHashNotFoundException, ArchiveHashCollisionException, IOException {
+		assertFileIsOpen();
+		source.assertFileIsOpen();
+
+		final var hashKey = new HashKey(hash);
+		final var sourceEntry = source.entries.get(hashKey);
+		if (sourceEntry == null) {
+			throw new ArchiveHashNotFoundException(String.format("No entry found for hash %s", hashKey));
+		}
+
+		final var length = source.file.entrySize(sourceEntry.index);
+		var entry = this.entries.get(hashKey);
+		if (entry == null) {
+			entry = new Entry(this.file.newEntry(length), (int) length);
+		} else {
+			if (!allowOverwrite) {
+				throw new ArchiveHashCollisionException(hashKey.toString());
+			}
+			var index = entry.index;
+			if (this.file.entryCapacity(index) < length) {
+				this.file.releaseEntry(index);
+				index = this.file.newEntry(length);
+			}
+			entry = new Entry(index, (int) length);
+		}
+		source.file.transferEntry(sourceEntry.index, this.file, entry.index);
+		putEntry(hashKey, entry);
+	}
+
+	/**
+	 * Writes multiple data blocks at once. All blocks are appended one after another to the end of the file, which keeps the writes sequential, and are only
+	 * added to this file after all of them were written. Data blocks of <code>replacedHashes</code> are deleted afterwards.
+	 * <p>
+	 * If a hash collides with a hash already stored in this file, which is not replaced, or with another hash of the batch, nothing is written.
+	 *
+	 * @param hashes
+	 *            of the data blocks
+	 * @param data
+	 *            blocks to write, one for each hash
+	 * @param replacedHashes
+	 *            data blocks to delete, may contain hashes of <code>hashes</code>
+	 * @throws ArchiveHashCollisionException
+	 *             if a hash is already in use
+	 * @throws ArchiveHashNotFoundException
+	 *             if no data is stored for a replaced hash
+	 * @throws IOException
+	 *             if an I/O error occurs. Data blocks which were already written are released
+	 */
+	public void writeData(List<byte[]> hashes, List<byte[]> data, Collection<byte[]> replacedHashes)
+			throws ArchiveHashCollisionException, ArchiveHashNotFoundException, IOException {
+		assertFileIsOpen();
+		if (hashes.size() != data.size()) {
+			throw new IllegalArgumentException("Number of hashes and data blocks do not match");
+		}
+
+		final var replacedKeys = new HashSet<HashKey>();
+		for (final var hash : replacedHashes) {
+			final var key = new HashKey(hash);
+			if (!this.entries.containsKey(key)) {
+				throw new ArchiveHashNotFoundException(String.format("No entry found for hash %s", key));
+			}
+			replacedKeys.add(key);
+		}
+
+		final var keys = new ArrayList<HashKey>(hashes.size());
+		final var uniqueKeys = new HashSet<HashKey>();
+		for (final var hash : hashes) {
+			final var key = new HashKey(hash);
+			if (!uniqueKeys.add(key) || this.entries.containsKey(key) && !replacedKeys.contains(key)) {
+				throw new ArchiveHashCollisionException(key.toString());
+			}
+			keys.add(key);
+		}
+
+		final var written = new ArrayList<Entry>(keys.size());
+		try {
+			for (final var block : data) {
+				final long index;
+				if (block.length == 0) {
+					index = this.file.newEntry(0);
+				} else {
+					index = this.file.writeNewEntry(writer -> writer.writeInt8(block, 0, block.length));
+				}
+				written.add(new Entry(index, block.length));
+			}
+		} catch (final IOException e) {
+			for (final var entry : written) {
+				try {
+					this.file.releaseEntry(entry.index);
+				} catch (final IOException e1) {
+					e.addSuppressed(e1);
+				}
+			}
+			throw e;
+		}
+
+		for (final var key : replacedKeys) {
+			this.file.releaseEntry(removeEntry(key).index);
+		}
+		for (var i = 0; i < keys.size(); ++i) {
+			putEntry(keys.get(i), written.get(i));
+		}
+		this.dirty = true;
+	}
+
 	public void replaceHash(byte[] oldHash, byte[] newHash) throws ArchiveHashCollisionException, ArchiveHashNotFoundException, IOException {
 		assertFileIsOpen();
 
@@ -228,11 +487,11 @@ public final class PackedArchiveFile implements Closeable {
 		if (this.entries.containsKey(newKey)) {
 			throw new ArchiveHashCollisionException(); // TODO
 		}
-		final var entry = this.entries.remove(oldKey);
+		final var entry = removeEntry(oldKey);
 		if (entry == null) {
 			throw new ArchiveHashNotFoundException(String.format("No entry found for hash %s", oldKey));
 		}
-		this.entries.put(newKey, entry);
+		putEntry(newKey, entry);
 		this.dirty = true;
 	}
 
@@ -240,7 +499,7 @@ public final class PackedArchiveFile implements Closeable {
 		assertFileIsOpen();
 
 		final var key = new HashKey(hash);
-		final var entry = this.entries.remove(key);
+		final var entry = removeEntry(key);
 		if (entry == null) {
 			throw new ArchiveHashNotFoundException(String.format("No entry found for hash %s", key));
 		}
@@ -259,6 +518,127 @@ public final class PackedArchiveFile implements Closeable {
 		return this.file.readEntry(entry.index, null, 0, entry.size);
 	}
 
+	/**
+	 * Same as {@link #getData(byte[])}, but returns the stored bytes as a read-only {@link ByteBuffer}. If this file is {@link #setMemoryMapped(boolean) memory
+	 * mapped}, no data is copied.
+	 *
+	 * @param hash
+	 *            of the data
+	 * @return a read-only buffer with the stored bytes
+	 * @throws ArchiveHashNotFoundException
+	 *             if no data is stored for the given hash
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see PackedFile#readEntryAsBuffer(long)
+	 */
+	public ByteBuffer getDataAsBuffer(byte[] hash) throws ArchiveHashNotFoundException, IOException {
+		assertFileIsOpen();
+
+		final var key = new HashKey(hash);
+		final var entry = this.entries.get(key);
+		if (entry == null) {
+			throw new ArchiveHashNotFoundException(String.format("No entry found for hash %s", key));
+		}
+		final var buffer = this.file.readEntryAsBuffer(entry.index);
+		return buffer.limit(Math.min(buffer.limit(), entry.size));
+	}
+
+	/**
+	 * Same as {@link #getDataAsBuffer(byte[])}, but if the buffer is a slice of the mapping, {@link #compact()} waits until the returned lease is released.
+	 * The caller still needs to make sure the data is not deleted while the lease is held, its region could be reused.
+	 *
+	 * @param hash
+	 *            of the data
+	 * @return a lease on a read-only buffer with the stored bytes, which needs to be released by the caller
+	 * @throws ArchiveHashNotFoundException
+	 *             if no data is stored for the given hash
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see PackedFile#leaseEntry(long)
+	 */
+	public RegionLease leaseData(byte[] hash) throws ArchiveHashNotFoundException, IOException {
+		assertFileIsOpen();
+
+		final var entry = getEntry(hash);
+		final var lease = this.file.leaseEntry(entry.index);
+		final var buffer = lease.getBuffer();
+		buffer.limit(Math.min(buffer.limit(), entry.size));
+		return lease;
+	}
+
+	/**
+	 * Reads the stored bytes for the given hash into <code>dst</code>, without an intermediate buffer.
+	 *
+	 * @param hash
+	 *            of the data
+	 * @param dst
+	 *            buffer to read into, needs enough space for all stored bytes
+	 * @throws ArchiveHashNotFoundException
+	 *             if no data is stored for the given hash
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void getData(byte[] hash, ByteBuffer dst) throws ArchiveHashNotFoundException, IOException {
+		assertFileIsOpen();
+
+		final var entry = getEntry(hash);
+		if (dst.remaining() < entry.size) {
+			throw new BufferOverflowException();
+		}
+		final var view = dst.duplicate();
+		view.limit(view.position() + entry.size);
+		this.file.readEntry(entry.index, view);
+		dst.position(view.position());
+	}
+
+	/**
+	 * Returns a stream over the stored bytes for the given hash. The bytes are read lazily. If this file is {@link #setMemoryMapped(boolean) memory mapped},
+	 * {@link #compact()} waits until the stream is closed.
+	 *
+	 * @param hash
+	 *            of the data
+	 * @return a stream over the stored bytes
+	 * @throws ArchiveHashNotFoundException
+	 *             if no data is stored for the given hash
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see PackedFile#openEntryStream(long)
+	 */
+	public InputStream openDataStream(byte[] hash) throws ArchiveHashNotFoundException, IOException {
+		assertFileIsOpen();
+		final var entry = getEntry(hash);
+		return this.file.openEntryStream(entry.index, entry.size);
+	}
+
+	private Entry getEntry(byte[] hash) throws ArchiveHashNotFoundException {
+		final var key = new HashKey(hash);
+		final var entry = this.entries.get(key);
+		if (entry == null) {
+			throw new ArchiveHashNotFoundException(String.format("No entry found for hash %s", key));
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns the position of the stored bytes for the given hash within the underlying {@link PackedFile}.
+	 *
+	 * @param hash
+	 *            of the data
+	 * @return the offset (in bytes) or -1, if no data is stored for the given hash
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see PackedFile#entryOffset(long)
+	 */
+	public long getDataOffset(byte[] hash) throws IOException {
+		assertFileIsOpen();
+
+		final var entry = this.entries.get(new HashKey(hash));
+		if (entry == null) {
+			return -1;
+		}
+		return this.file.entryOffset(entry.index);
+	}
+
 	public boolean hasData(byte[] hash) throws IOException {
 		assertFileIsOpen();
 		return this.entries.containsKey(new HashKey(hash));
@@ -15,13 +15,22 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 import kreed.io.util.BinaryReader;
 import kreed.io.util.ByteBufferInputStream;
 import nexusvault.shared.exception.IntegerOverflowException;
 
 public final class LzmaCodec {
+	private static final LzmaEncoderOptions DEFAULT_OPTIONS = new LzmaEncoderOptions();
+
 	private LzmaCodec() {
 	}
 
@@ -50,25 +59,119 @@ public final class LzmaCodec {
 			throw new IntegerOverflowException();
 		}
 
+		final var decoded = new byte[(int) uncompressedSize];
+		decodeInto(lzmaProperties, encoded, uncompressedSize, ByteBuffer.wrap(decoded));
+		return decoded;
+	}
+
+	/**
+	 * Decodes the given LZMA stream, which starts with 5 bytes of LZMA properties, directly into <code>dst</code>. <code>dst</code> needs at least
+	 * <code>uncompressedSize</code> bytes remaining, its position is advanced by <code>uncompressedSize</code>.
+	 *
+	 * @param encoded
+	 *            LZMA properties, followed by the encoded data
+	 * @param uncompressedSize
+	 *            size of the decoded data
+	 * @param dst
+	 *            buffer to decode into
+	 * @throws DecodeException
+	 *             if the data can not be decoded or <code>dst</code> is too small
+	 */
+	public static void decodeInto(InputStream encoded, long uncompressedSize, ByteBuffer dst) throws DecodeException {
+		decodeInto(readProperties(encoded), encoded, uncompressedSize, dst);
+	}
+
+	public static void decodeInto(byte[] lzmaProperties, InputStream encoded, long uncompressedSize, ByteBuffer dst) throws DecodeException {
+		if (uncompressedSize < 0) {
+			throw new IntegerOverflowException();
+		}
+		if (dst.remaining() < uncompressedSize) {
+			throw new DecodeException(String.format("LZMA: Buffer too small. Needs %d bytes, has %d", uncompressedSize, dst.remaining()));
+		}
+
 		final var decoder = new SevenZip.Compression.LZMA.Decoder();
 		decoder.SetDecoderProperties(lzmaProperties);
 
-		final var decoded = new ByteArrayOutputStream();
-
+		final var start = dst.position();
 		try {
-			final var success = decoder.Code(encoded, decoded, uncompressedSize);
+			final var success = decoder.Code(encoded, new ByteBufferOutputStream(dst), uncompressedSize);
 			if (!success) {
 				throw new DecodeException("LZMA uncompression error");
 			}
+		} catch (final IOException | BufferOverflowException e) {
+			throw new DecodeException(e);
+		}
+
+		if (dst.position() - start != uncompressedSize) {
+			throw new DecodeException("LZMA: Uncompressed Size does not match expecations. Got " + (dst.position() - start) + " expected " + uncompressedSize);
+		}
+	}
+
+	/**
+	 * Returns a stream, which decodes the given LZMA stream incrementally. Only the LZMA dictionary is kept in memory.
+	 *
+	 * @param encoded
+	 *            LZMA properties, followed by the encoded data. Will be closed, when the returned stream is closed.
+	 * @param uncompressedSize
+	 *            size of the decoded data
+	 * @return a stream of the decoded data
+	 * @throws DecodeException
+	 *             if the LZMA properties are invalid
+	 */
+	public static InputStream decodeStream(InputStream encoded, long uncompressedSize) throws DecodeException {
+		if (uncompressedSize < 0) {
+			throw new IntegerOverflowException();
+		}
+		try {
+			return new LzmaInputStream(readProperties(encoded), encoded, uncompressedSize);
+		} catch (final DecodeException e) {
+			throw e;
+		} catch (final IOException e) {
+			throw new DecodeException(e);
+		}
+	}
+
+	private static byte[] readProperties(InputStream encoded) throws DecodeException {
+		final var lzmaProperties = new byte[5];
+		try {
+			var read = 0;
+			while (read < lzmaProperties.length) {
+				final var count = encoded.read(lzmaProperties, read, lzmaProperties.length - read);
+				if (count < 0) {
+					throw new DecodeException("LZMA: Missing properties");
+				}
+				read += count;
+			}
 		} catch (final IOException e) {
 			throw new DecodeException(e);
 		}
+		return lzmaProperties;
+	}
+
+	private static final class ByteBufferOutputStream extends OutputStream {
+		private final ByteBuffer dst;
+
+		public ByteBufferOutputStream(ByteBuffer dst) {
+			this.dst = dst;
+		}
+
+		@Override
+		public void write(int b) {
+			this.dst.put((byte) b);
+		}
 
-		return decoded.toByteArray();
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.dst.put(b, off, len);
+		}
 	}
 
 	public static byte[] encode(byte[] data) throws EncodeException {
-		return encode(new ByteArrayInputStream(data), data.length);
+		return encode(data, DEFAULT_OPTIONS);
+	}
+
+	public static byte[] encode(byte[] data, LzmaEncoderOptions options) throws EncodeException {
+		return encode(new ByteArrayInputStream(data), data.length, options);
 	}
 
 	public static byte[] encode(ByteBuffer data) throws EncodeException {
@@ -82,9 +185,26 @@ public final class LzmaCodec {
 	}
 
 	public static byte[] encode(InputStream decoded, int inputLength) throws EncodeException {
+		return encode(decoded, inputLength, DEFAULT_OPTIONS);
+	}
+
+	/**
+	 * Encodes <code>inputLength</code> bytes of <code>decoded</code>. The result starts with 5 bytes of LZMA properties, followed by the encoded data.
+	 *
+	 * @param decoded
+	 *            data to encode
+	 * @param inputLength
+	 *            number of bytes to encode
+	 * @param options
+	 *            configures the encoder
+	 * @return the encoded data
+	 * @throws EncodeException
+	 *             if the data can not be encoded
+	 */
+	public static byte[] encode(InputStream decoded, int inputLength, LzmaEncoderOptions options) throws EncodeException {
 		final var encoded = new ByteArrayOutputStream(inputLength);
 		try {
-			final var encoder = new SevenZip.Compression.LZMA.Encoder();
+			final var encoder = options.createEncoder(inputLength);
 			encoder.WriteCoderProperties(encoded);
 			encoder.Code(decoded, encoded, -1, -1, null);
 		} catch (final IOException e) {
@@ -93,4 +213,40 @@ public final class LzmaCodec {
 		return encoded.toByteArray();
 	}
 
+	/**
+	 * Encodes multiple blocks of data in parallel. Each block is encoded on its own, as by {@link #encode(byte[], LzmaEncoderOptions)}.
+	 *
+	 * @param data
+	 *            blocks to encode
+	 * @param options
+	 *            configures the encoder, is not modified
+	 * @param executor
+	 *            encodes the blocks, will not be shut down
+	 * @return the encoded blocks, in the same order as <code>data</code>
+	 * @throws EncodeException
+	 *             if a block can not be encoded, or the calling thread is interrupted
+	 */
+	public static List<byte[]> encode(List<byte[]> data, LzmaEncoderOptions options, ExecutorService executor) throws EncodeException {
+		final var tasks = new ArrayList<Callable<byte[]>>(data.size());
+		for (final var block : data) {
+			tasks.add(() -> encode(block, options));
+		}
+
+		final var results = new ArrayList<byte[]>(data.size());
+		try {
+			for (final var result : executor.invokeAll(tasks)) {
+				results.add(result.get());
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EncodeException("LZMA: Encoding was interrupted", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof EncodeException) {
+				throw (EncodeException) e.getCause();
+			}
+			throw new EncodeException(e.getCause());
+		}
+		return results;
+	}
+
 }
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault.codec;
+
+/**
+ * Configures the LZMA encoder used by {@link LzmaCodec#encode(byte[], LzmaEncoderOptions)}. A new instance uses the default settings of the LZMA SDK, which
+ * is also used by {@link LzmaCodec#encode(byte[])}.
+ * <p>
+ * The {@link #setDictionarySize(int) dictionary size} is an upper bound. The encoder never uses a dictionary larger than the data to encode, which keeps the
+ * memory and setup costs for small files low, without changing the result.
+ */
+public final class LzmaEncoderOptions {
+
+	public static enum MatchFinder {
+		/** Binary tree with 2 byte hashing. Faster, but finds less matches */
+		BT2(SevenZip.Compression.LZMA.Encoder.EMatchFinderTypeBT2),
+		/** Binary tree with 4 byte hashing */
+		BT4(SevenZip.Compression.LZMA.Encoder.EMatchFinderTypeBT4);
+
+		final int id;
+
+		private MatchFinder(int id) {
+			this.id = id;
+		}
+	}
+
+	public static final int MIN_LEVEL = 0;
+	public static final int MAX_LEVEL = 9;
+
+	public static final int MIN_DICTIONARY_SIZE = 1 << 12;
+	public static final int MAX_DICTIONARY_SIZE = 1 << 28;
+
+	public static final int MIN_FAST_BYTES = 5;
+	public static final int MAX_FAST_BYTES = 273;
+
+	private int dictionarySize = 1 << 22;
+	private int fastBytes = 0x20;
+	private MatchFinder matchFinder = MatchFinder.BT4;
+	private int literalContextBits = 3;
+	private int literalPositionBits = 0;
+	private int positionBits = 2;
+
+	public LzmaEncoderOptions() {
+	}
+
+	/**
+	 * Returns new options, which follow the compression levels of 7-Zip. Lower levels use a smaller dictionary, less fast bytes and from level 4 and below
+	 * the faster {@link MatchFinder#BT2} match finder. Level 5 equals the default settings.
+	 *
+	 * @param level
+	 *            from {@value #MIN_LEVEL} (fastest) to {@value #MAX_LEVEL} (best compression)
+	 * @return new options for the given level
+	 */
+	public static LzmaEncoderOptions preset(int level) {
+		if (level < MIN_LEVEL || MAX_LEVEL < level) {
+			throw new IllegalArgumentException(String.format("'level' must be between %d and %d", MIN_LEVEL, MAX_LEVEL));
+		}
+
+		final var options = new LzmaEncoderOptions();
+		if (level <= 5) {
+			options.setDictionarySize(1 << level * 2 + 12);
+		} else if (level <= 7) {
+			options.setDictionarySize(1 << 25);
+		} else {
+			options.setDictionarySize(1 << 26);
+		}
+		options.setFastBytes(level < 7 ? 0x20 : 0x40);
+		options.setMatchFinder(level < 5 ? MatchFinder.BT2 : MatchFinder.BT4);
+		return options;
+	}
+
+	/**
+	 * @param dictionarySize
+	 *            maximal size of the dictionary in bytes, from {@value #MIN_DICTIONARY_SIZE} to {@value #MAX_DICTIONARY_SIZE}. A larger dictionary finds
+	 *            matches further back, but needs more memory to encode and decode.
+	 * @return this
+	 */
+	public LzmaEncoderOptions setDictionarySize(int dictionarySize) {
+		if (dictionarySize < MIN_DICTIONARY_SIZE || MAX_DICTIONARY_SIZE < dictionarySize) {
+			throw new IllegalArgumentException(String.format("'dictionarySize' must be between %d and %d", MIN_DICTIONARY_SIZE, MAX_DICTIONARY_SIZE));
+		}
+		this.dictionarySize = dictionarySize;
+		return this;
+	}
+
+	public int getDictionarySize() {
+		return this.dictionarySize;
+	}
+
+	/**
+	 * @param fastBytes
+	 *            number of bytes, from {@value #MIN_FAST_BYTES} to {@value #MAX_FAST_BYTES}, a match needs to be accepted without looking further. Higher
+	 *            values improve the compression of repetitive data, but are slower.
+	 * @return this
+	 */
+	public LzmaEncoderOptions setFastBytes(int fastBytes) {
+		if (fastBytes < MIN_FAST_BYTES || MAX_FAST_BYTES < fastBytes) {
+			throw new IllegalArgumentException(String.format("'fastBytes' must be between %d and %d", MIN_FAST_BYTES, MAX_FAST_BYTES));
+		}
+		this.fastBytes = fastBytes;
+		return this;
+	}
+
+	public int getFastBytes() {
+		return this.fastBytes;
+	}
+
+	public LzmaEncoderOptions setMatchFinder(MatchFinder matchFinder) {
+		if (matchFinder == null) {
+			throw new IllegalArgumentException("'matchFinder' must not be null");
+		}
+		this.matchFinder = matchFinder;
+		return this;
+	}
+
+	public MatchFinder getMatchFinder() {
+		return this.matchFinder;
+	}
+
+	/**
+	 * @param literalContextBits
+	 *            lc, from 0 to 8
+	 * @param literalPositionBits
+	 *            lp, from 0 to 4
+	 * @param positionBits
+	 *            pb, from 0 to 4
+	 * @return this
+	 */
+	public LzmaEncoderOptions setLcLpPb(int literalContextBits, int literalPositionBits, int positionBits) {
+		if (literalContextBits < 0 || 8 < literalContextBits || literalPositionBits < 0 || 4 < literalPositionBits || positionBits < 0 || 4 < positionBits) {
+			throw new IllegalArgumentException("'lc' must be between 0 and 8, 'lp' and 'pb' between 0 and 4");
+		}
+		this.literalContextBits = literalContextBits;
+		this.literalPositionBits = literalPositionBits;
+		this.positionBits = positionBits;
+		return this;
+	}
+
+	public int getLiteralContextBits() {
+		return this.literalContextBits;
+	}
+
+	public int getLiteralPositionBits() {
+		return this.literalPositionBits;
+	}
+
+	public int getPositionBits() {
+		return this.positionBits;
+	}
+
+	/**
+	 * @param inputLength
+	 *            number of bytes to encode
+	 * @return the dictionary size used to encode <code>inputLength</code> bytes
+	 */
+	int getDictionarySize(long inputLength) {
+		var size = MIN_DICTIONARY_SIZE;
+		while (size < inputLength && size < this.dictionarySize) {
+			size <<= 1;
+		}
+		return Math.min(size, this.dictionarySize);
+	}
+
+	SevenZip.Compression.LZMA.Encoder createEncoder(long inputLength) {
+		final var encoder = new SevenZip.Compression.LZMA.Encoder();
+		encoder.SetDictionarySize(getDictionarySize(inputLength));
+		encoder.SetNumFastBytes(this.fastBytes);
+		encoder.SetMatchFinder(this.matchFinder.id);
+		encoder.SetLcLpPb(this.literalContextBits, this.literalPositionBits, this.positionBits);
+		return encoder;
+	}
+
+	@Override
+	public String toString() {
+		return "LzmaEncoderOptions [dictionarySize=" + this.dictionarySize + ", fastBytes=" + this.fastBytes + ", matchFinder=" + this.matchFinder + ", lc="
+				+ this.literalContextBits + ", lp=" + this.literalPositionBits + ", pb=" + this.positionBits + "]";
+	}
+
+}
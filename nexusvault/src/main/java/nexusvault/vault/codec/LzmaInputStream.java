@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Pull based LZMA decoder, which decodes only as many bytes as are requested. The decoder state follows {@link SevenZip.Compression.LZMA.Decoder}, which only
+ * supports pushing the whole content into an output stream.
+ * <p>
+ * Memory usage is bounded by the dictionary size of the encoded data.
+ */
+final class LzmaInputStream extends InputStream {
+
+	private static final int NUM_STATES = 12;
+	private static final int NUM_POS_STATES_BITS_MAX = 4;
+	private static final int NUM_LEN_TO_POS_STATES = 4;
+	private static final int NUM_ALIGN_BITS = 4;
+	private static final int START_POS_MODEL_INDEX = 4;
+	private static final int END_POS_MODEL_INDEX = 14;
+	private static final int NUM_FULL_DISTANCES = 1 << (END_POS_MODEL_INDEX / 2);
+	private static final int MATCH_MIN_LEN = 2;
+
+	private static final int TOP_MASK = ~((1 << 24) - 1);
+	private static final int NUM_BIT_MODEL_TOTAL_BITS = 11;
+	private static final int BIT_MODEL_TOTAL = 1 << NUM_BIT_MODEL_TOTAL_BITS;
+	private static final int NUM_MOVE_BITS = 5;
+
+	private final InputStream encoded;
+	private final long uncompressedSize;
+
+	// range decoder
+	private int range;
+	private int code;
+
+	// probability models
+	private final short[] isMatch = new short[NUM_STATES << NUM_POS_STATES_BITS_MAX];
+	private final short[] isRep = new short[NUM_STATES];
+	private final short[] isRepG0 = new short[NUM_STATES];
+	private final short[] isRepG1 = new short[NUM_STATES];
+	private final short[] isRepG2 = new short[NUM_STATES];
+	private final short[] isRep0Long = new short[NUM_STATES << NUM_POS_STATES_BITS_MAX];
+	private final short[][] posSlot = new short[NUM_LEN_TO_POS_STATES][1 << 6];
+	private final short[] posDecoders = new short[NUM_FULL_DISTANCES - END_POS_MODEL_INDEX];
+	private final short[] posAlign = new short[1 << NUM_ALIGN_BITS];
+	private final LengthDecoder lenDecoder;
+	private final LengthDecoder repLenDecoder;
+	private final short[][] literals;
+	private final int literalContextBits;
+	private final int literalPosMask;
+	private final int posStateMask;
+	private final int dictionarySizeCheck;
+
+	// decoder state
+	private int state;
+	private int rep0, rep1, rep2, rep3;
+	private long decodedBytes;
+	private byte prevByte;
+	private boolean endOfStream;
+
+	// output window, bytes in [unreadPos, unreadPos + unread) are decoded but not yet read
+	private final byte[] window;
+	private int windowPos;
+	private int unreadPos;
+	private int unread;
+
+	/**
+	 * @param properties
+	 *            5 bytes of LZMA properties
+	 * @param encoded
+	 *            the LZMA stream which follows the properties
+	 * @param uncompressedSize
+	 *            number of decoded bytes
+	 */
+	public LzmaInputStream(byte[] properties, InputStream encoded, long uncompressedSize) throws IOException {
+		if (properties.length < 5) {
+			throw new DecodeException("LZMA properties need to be 5 bytes long");
+		}
+
+		final var lc = (properties[0] & 0xFF) % 9;
+		final var remainder = (properties[0] & 0xFF) / 9;
+		final var lp = remainder % 5;
+		final var pb = remainder / 5;
+		if (pb > NUM_POS_STATES_BITS_MAX) {
+			throw new DecodeException("Invalid LZMA properties");
+		}
+
+		var dictionarySize = 0;
+		for (var i = 0; i < 4; i++) {
+			dictionarySize += (properties[1 + i] & 0xFF) << i * 8;
+		}
+		if (dictionarySize < 0) {
+			throw new DecodeException("Invalid LZMA dictionary size");
+		}
+
+		this.encoded = encoded;
+		this.uncompressedSize = uncompressedSize;
+
+		this.dictionarySizeCheck = Math.max(dictionarySize, 1);
+		// the window never needs to be larger than the decoded content
+		final var windowSize = (int) Math.max(1 << 12, Math.min(this.dictionarySizeCheck, uncompressedSize));
+		this.window = new byte[windowSize];
+
+		this.literalContextBits = lc;
+		this.literalPosMask = (1 << lp) - 1;
+		this.literals = new short[1 << lc + lp][0x300];
+		this.posStateMask = (1 << pb) - 1;
+		this.lenDecoder = new LengthDecoder(1 << pb);
+		this.repLenDecoder = new LengthDecoder(1 << pb);
+
+		initModels(this.isMatch);
+		initModels(this.isRep);
+		initModels(this.isRepG0);
+		initModels(this.isRepG1);
+		initModels(this.isRepG2);
+		initModels(this.isRep0Long);
+		for (final var models : this.posSlot) {
+			initModels(models);
+		}
+		initModels(this.posDecoders);
+		initModels(this.posAlign);
+		for (final var models : this.literals) {
+			initModels(models);
+		}
+
+		this.range = -1;
+		for (var i = 0; i < 5; i++) {
+			this.code = this.code << 8 | nextByte();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		final var value = this.window[this.unreadPos] & 0xFF;
+		consume(1);
+		return value;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		var total = 0;
+		while (total < len && fill()) {
+			final var count = Math.min(len - total, Math.min(this.unread, this.window.length - this.unreadPos));
+			System.arraycopy(this.window, this.unreadPos, b, off + total, count);
+			consume(count);
+			total += count;
+		}
+		return total == 0 ? -1 : total;
+	}
+
+	@Override
+	public int available() {
+		return this.unread;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.encoded.close();
+	}
+
+	private void consume(int count) {
+		this.unread -= count;
+		this.unreadPos += count;
+		if (this.unreadPos >= this.window.length) {
+			this.unreadPos -= this.window.length;
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if no more bytes can be decoded
+	 */
+	private boolean fill() throws IOException {
+		while (this.unread == 0) {
+			if (this.endOfStream || this.decodedBytes >= this.uncompressedSize) {
+				return false;
+			}
+			this.unreadPos = this.windowPos;
+			decodeNext();
+		}
+		return true;
+	}
+
+	private void decodeNext() throws IOException {
+		final var posState = (int) this.decodedBytes & this.posStateMask;
+
+		if (decodeBit(this.isMatch, (this.state << NUM_POS_STATES_BITS_MAX) + posState) == 0) {
+			final var literal = this.literals[(((int) this.decodedBytes & this.literalPosMask) << this.literalContextBits)
+					+ ((this.prevByte & 0xFF) >>> 8 - this.literalContextBits)];
+			if (this.state < 7) {
+				this.prevByte = decodeLiteral(literal);
+			} else {
+				this.prevByte = decodeLiteralWithMatchByte(literal, getByte(this.rep0));
+			}
+			putByte(this.prevByte);
+			this.state = this.state < 4 ? 0 : this.state < 10 ? this.state - 3 : this.state - 6;
+			this.decodedBytes++;
+			return;
+		}
+
+		int len;
+		if (decodeBit(this.isRep, this.state) == 1) {
+			len = 0;
+			if (decodeBit(this.isRepG0, this.state) == 0) {
+				if (decodeBit(this.isRep0Long, (this.state << NUM_POS_STATES_BITS_MAX) + posState) == 0) {
+					this.state = this.state < 7 ? 9 : 11;
+					len = 1;
+				}
+			} else {
+				int distance;
+				if (decodeBit(this.isRepG1, this.state) == 0) {
+					distance = this.rep1;
+				} else {
+					if (decodeBit(this.isRepG2, this.state) == 0) {
+						distance = this.rep2;
+					} else {
+						distance = this.rep3;
+						this.rep3 = this.rep2;
+					}
+					this.rep2 = this.rep1;
+				}
+				this.rep1 = this.rep0;
+				this.rep0 = distance;
+			}
+			if (len == 0) {
+				len = this.repLenDecoder.decode(posState) + MATCH_MIN_LEN;
+				this.state = this.state < 7 ? 8 : 11;
+			}
+		} else {
+			this.rep3 = this.rep2;
+			this.rep2 = this.rep1;
+			this.rep1 = this.rep0;
+			len = MATCH_MIN_LEN + this.lenDecoder.decode(posState);
+			this.state = this.state < 7 ? 7 : 10;
+
+			final var lenToPosState = len - MATCH_MIN_LEN < NUM_LEN_TO_POS_STATES ? len - MATCH_MIN_LEN : NUM_LEN_TO_POS_STATES - 1;
+			final var slot = decodeBitTree(this.posSlot[lenToPosState], 6);
+			if (slot >= START_POS_MODEL_INDEX) {
+				final var numDirectBits = (slot >> 1) - 1;
+				this.rep0 = (2 | slot & 1) << numDirectBits;
+				if (slot < END_POS_MODEL_INDEX) {
+					this.rep0 += decodeReverseBitTree(this.posDecoders, this.rep0 - slot - 1, numDirectBits);
+				} else {
+					this.rep0 += decodeDirectBits(numDirectBits - NUM_ALIGN_BITS) << NUM_ALIGN_BITS;
+					this.rep0 += decodeReverseBitTree(this.posAlign, 0, NUM_ALIGN_BITS);
+					if (this.rep0 < 0) {
+						if (this.rep0 == -1) { // end marker
+							this.endOfStream = true;
+							return;
+						}
+						throw new DecodeException("LZMA uncompression error");
+					}
+				}
+			} else {
+				this.rep0 = slot;
+			}
+		}
+
+		if (this.rep0 >= this.decodedBytes || this.rep0 >= this.dictionarySizeCheck) {
+			throw new DecodeException("LZMA uncompression error");
+		}
+
+		len = (int) Math.min(len, this.uncompressedSize - this.decodedBytes);
+		var pos = this.windowPos - this.rep0 - 1;
+		if (pos < 0) {
+			pos += this.window.length;
+		}
+		for (var i = 0; i < len; ++i) {
+			if (pos >= this.window.length) {
+				pos = 0;
+			}
+			putByte(this.window[pos++]);
+		}
+		this.decodedBytes += len;
+		this.prevByte = getByte(0);
+	}
+
+	private byte getByte(int distance) {
+		var pos = this.windowPos - distance - 1;
+		if (pos < 0) {
+			pos += this.window.length;
+		}
+		return this.window[pos];
+	}
+
+	private void putByte(byte value) {
+		this.window[this.windowPos++] = value;
+		if (this.windowPos >= this.window.length) {
+			this.windowPos = 0;
+		}
+		this.unread++;
+	}
+
+	private byte decodeLiteral(short[] models) throws IOException {
+		var symbol = 1;
+		do {
+			symbol = symbol << 1 | decodeBit(models, symbol);
+		} while (symbol < 0x100);
+		return (byte) symbol;
+	}
+
+	private byte decodeLiteralWithMatchByte(short[] models, byte matchByte) throws IOException {
+		var symbol = 1;
+		do {
+			final var matchBit = matchByte >> 7 & 1;
+			matchByte <<= 1;
+			final var bit = decodeBit(models, (1 + matchBit << 8) + symbol);
+			symbol = symbol << 1 | bit;
+			if (matchBit != bit) {
+				while (symbol < 0x100) {
+					symbol = symbol << 1 | decodeBit(models, symbol);
+				}
+				break;
+			}
+		} while (symbol < 0x100);
+		return (byte) symbol;
+	}
+
+	private int decodeBitTree(short[] models, int numBitLevels) throws IOException {
+		var m = 1;
+		for (var i = numBitLevels; i != 0; i--) {
+			m = (m << 1) + decodeBit(models, m);
+		}
+		return m - (1 << numBitLevels);
+	}
+
+	private int decodeReverseBitTree(short[] models, int startIndex, int numBitLevels) throws IOException {
+		var m = 1;
+		var symbol = 0;
+		for (var i = 0; i < numBitLevels; i++) {
+			final var bit = decodeBit(models, startIndex + m);
+			m = (m << 1) + bit;
+			symbol |= bit << i;
+		}
+		return symbol;
+	}
+
+	private int decodeDirectBits(int numTotalBits) throws IOException {
+		var result = 0;
+		for (var i = numTotalBits; i != 0; i--) {
+			this.range >>>= 1;
+			final var t = this.code - this.range >>> 31;
+			this.code -= this.range & t - 1;
+			result = result << 1 | 1 - t;
+			if ((this.range & TOP_MASK) == 0) {
+				this.code = this.code << 8 | nextByte();
+				this.range <<= 8;
+			}
+		}
+		return result;
+	}
+
+	private int decodeBit(short[] models, int index) throws IOException {
+		final var prob = models[index];
+		final var newBound = (this.range >>> NUM_BIT_MODEL_TOTAL_BITS) * prob;
+		if ((this.code ^ 0x80000000) < (newBound ^ 0x80000000)) {
+			this.range = newBound;
+			models[index] = (short) (prob + (BIT_MODEL_TOTAL - prob >>> NUM_MOVE_BITS));
+			if ((this.range & TOP_MASK) == 0) {
+				this.code = this.code << 8 | nextByte();
+				this.range <<= 8;
+			}
+			return 0;
+		} else {
+			this.range -= newBound;
+			this.code -= newBound;
+			models[index] = (short) (prob - (prob >>> NUM_MOVE_BITS));
+			if ((this.range & TOP_MASK) == 0) {
+				this.code = this.code << 8 | nextByte();
+				this.range <<= 8;
+			}
+			return 1;
+		}
+	}
+
+	private int nextByte() throws IOException {
+		final var value = this.encoded.read();
+		if (value < 0) {
+			throw new EOFException("Unexpected end of LZMA stream");
+		}
+		return value;
+	}
+
+	private static void initModels(short[] models) {
+		Arrays.fill(models, (short) (BIT_MODEL_TOTAL >>> 1));
+	}
+
+	private final class LengthDecoder {
+		private final short[] choice = new short[2];
+		private final short[][] low;
+		private final short[][] mid;
+		private final short[] high = new short[1 << 8];
+
+		LengthDecoder(int numPosStates) {
+			this.low = new short[numPosStates][1 << 3];
+			this.mid = new short[numPosStates][1 << 3];
+			initModels(this.choice);
+			for (var i = 0; i < numPosStates; ++i) {
+				initModels(this.low[i]);
+				initModels(this.mid[i]);
+			}
+			initModels(this.high);
+		}
+
+		int decode(int posState) throws IOException {
+			if (decodeBit(this.choice, 0) == 0) {
+				return decodeBitTree(this.low[posState], 3);
+			}
+			if (decodeBit(this.choice, 1) == 0) {
+				return 8 + decodeBitTree(this.mid[posState], 3);
+			}
+			return 16 + decodeBitTree(this.high, 8);
+		}
+	}
+
+}
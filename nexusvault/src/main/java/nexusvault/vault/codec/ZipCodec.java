@@ -12,14 +12,20 @@
 package nexusvault.vault.codec;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import kreed.io.util.BinaryReader;
 import nexusvault.shared.exception.IntegerOverflowException;
 
 public final class ZipCodec {
+	private static final int STREAM_BUFFER_SIZE = 8 << 10;
+
 	private ZipCodec() {
 	}
 
@@ -47,6 +53,30 @@ public final class ZipCodec {
 		}
 	}
 
+	public static byte[] decode(ByteBuffer data, long uncompressedSize) throws DecodeException {
+		if (uncompressedSize < 0 || uncompressedSize > Integer.MAX_VALUE) {
+			throw new IntegerOverflowException();
+		}
+
+		try {
+			final var inflater = new java.util.zip.Inflater();
+			inflater.setInput(data);
+
+			final byte[] output = new byte[(int) uncompressedSize];
+			final int resultLength = inflater.inflate(output);
+
+			inflater.end();
+
+			if (output.length != resultLength) {
+				throw new DecodeException("ZLIB: Uncompressed Size does not match expecations. Got " + resultLength + " expected " + output.length);
+			}
+
+			return output;
+		} catch (final DataFormatException e) {
+			throw new DecodeException(e);
+		}
+	}
+
 	public static byte[] decode(BinaryReader reader, int inputLength, long uncompressedSize) throws DecodeException {
 		try {
 			if (uncompressedSize < 0 || uncompressedSize > Integer.MAX_VALUE) {
@@ -74,36 +104,133 @@ public final class ZipCodec {
 		}
 	}
 
-	public static byte[] encode(byte[] data) throws EncodeException {
-		final var deflater = new java.util.zip.Deflater();
-		deflater.setInput(data);
-		deflater.finish();
+	/**
+	 * Decodes the given zlib stream directly into <code>dst</code>. The stream is read in small blocks, so the encoded data never needs to be fully in
+	 * memory. <code>dst</code> needs at least <code>uncompressedSize</code> bytes remaining, its position is advanced by <code>uncompressedSize</code>.
+	 *
+	 * @param encoded
+	 *            the encoded data
+	 * @param uncompressedSize
+	 *            size of the decoded data
+	 * @param dst
+	 *            buffer to decode into
+	 * @throws DecodeException
+	 *             if the data can not be decoded or <code>dst</code> is too small
+	 */
+	public static void decodeInto(InputStream encoded, long uncompressedSize, ByteBuffer dst) throws DecodeException {
+		if (uncompressedSize < 0) {
+			throw new IntegerOverflowException();
+		}
+		if (dst.remaining() < uncompressedSize) {
+			throw new DecodeException(String.format("ZLIB: Buffer too small. Needs %d bytes, has %d", uncompressedSize, dst.remaining()));
+		}
 
-		final var encoded = new ByteArrayOutputStream(Math.min(data.length, 2 << 10));
-		final byte[] buffer = new byte[Math.min(data.length, 2 << 10)];
+		final var inflater = new Inflater();
+		final var input = new byte[STREAM_BUFFER_SIZE];
+		final var output = dst.duplicate();
+		output.limit((int) (output.position() + uncompressedSize));
+		try {
+			while (!inflater.finished() && output.hasRemaining()) {
+				if (inflater.needsInput()) {
+					final var count = encoded.read(input);
+					if (count < 0) {
+						throw new DecodeException("ZLIB: Unexpected end of data");
+					}
+					inflater.setInput(input, 0, count);
+				} else if (inflater.needsDictionary()) {
+					throw new DecodeException("ZLIB: Preset dictionaries are not supported");
+				}
+				inflater.inflate(output);
+			}
+		} catch (final IOException | DataFormatException e) {
+			throw new DecodeException(e);
+		} finally {
+			inflater.end();
+		}
 
-		while (!deflater.finished()) {
-			final int writtenBytes = deflater.deflate(buffer);
-			encoded.write(buffer, 0, writtenBytes);
+		final var resultLength = output.position() - dst.position();
+		if (resultLength != uncompressedSize) {
+			throw new DecodeException("ZLIB: Uncompressed Size does not match expecations. Got " + resultLength + " expected " + uncompressedSize);
 		}
+		dst.position(output.position());
+	}
 
-		return encoded.toByteArray();
+	/**
+	 * Returns a stream, which decodes the given zlib stream incrementally.
+	 *
+	 * @param encoded
+	 *            the encoded data. Will be closed, when the returned stream is closed.
+	 * @param uncompressedSize
+	 *            size of the decoded data
+	 * @return a stream of the decoded data
+	 */
+	public static InputStream decodeStream(InputStream encoded, long uncompressedSize) {
+		if (uncompressedSize < 0) {
+			throw new IntegerOverflowException();
+		}
+		return new InflaterInputStream(encoded, new Inflater(), STREAM_BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					this.inf.end();
+				}
+			}
+		};
 	}
 
-	public static byte[] encode(ByteBuffer data) throws EncodeException {
-		final var deflater = new java.util.zip.Deflater();
+	public static byte[] encode(byte[] data) throws EncodeException {
+		return encode(data, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param data
+	 *            data to encode
+	 * @param level
+	 *            compression level of the {@link Deflater}, from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @return the encoded data
+	 * @throws EncodeException
+	 *             if the data can not be encoded
+	 */
+	public static byte[] encode(byte[] data, int level) throws EncodeException {
+		final var deflater = newDeflater(level);
 		deflater.setInput(data);
-		deflater.finish();
+		return deflate(deflater, data.length);
+	}
 
-		final var encoded = new ByteArrayOutputStream(Math.min(data.remaining(), 2 << 10));
-		final byte[] buffer = new byte[Math.min(data.remaining(), 2 << 10)];
+	public static byte[] encode(ByteBuffer data) throws EncodeException {
+		return encode(data, Deflater.DEFAULT_COMPRESSION);
+	}
 
-		while (!deflater.finished()) {
-			final int writtenBytes = deflater.deflate(buffer);
-			encoded.write(buffer, 0, writtenBytes);
+	public static byte[] encode(ByteBuffer data, int level) throws EncodeException {
+		final var deflater = newDeflater(level);
+		final var inputLength = data.remaining();
+		deflater.setInput(data);
+		return deflate(deflater, inputLength);
+	}
+
+	private static Deflater newDeflater(int level) {
+		if ((level < Deflater.NO_COMPRESSION || Deflater.BEST_COMPRESSION < level) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException(String.format("'level' must be between %d and %d", Deflater.NO_COMPRESSION, Deflater.BEST_COMPRESSION));
 		}
+		return new Deflater(level);
+	}
 
-		return encoded.toByteArray();
+	private static byte[] deflate(Deflater deflater, int inputLength) {
+		try {
+			deflater.finish();
+			final var encoded = new ByteArrayOutputStream(Math.max(64, inputLength / 2));
+			final var buffer = new byte[Math.max(64, Math.min(inputLength, STREAM_BUFFER_SIZE))];
+			while (!deflater.finished()) {
+				final int writtenBytes = deflater.deflate(buffer);
+				encoded.write(buffer, 0, writtenBytes);
+			}
+			return encoded.toByteArray();
+		} finally {
+			deflater.end();
+		}
 	}
 
 	public static byte[] encode(BinaryReader reader, int inputLength) throws EncodeException {
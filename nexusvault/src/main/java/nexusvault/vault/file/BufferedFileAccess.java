@@ -11,9 +11,14 @@
 
 package nexusvault.vault.file;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
@@ -23,12 +28,15 @@ import kreed.io.util.BinaryReader;
 import kreed.io.util.BinaryReaderDelegate;
 import kreed.io.util.BinaryWriter;
 import kreed.io.util.BinaryWriterDelegate;
+import kreed.io.util.Seek;
 import kreed.io.util.SeekableByteChannelBinaryReader;
 import kreed.io.util.SeekableByteChannelBinaryWriter;
 
 public final class BufferedFileAccess {
 
 	private static final int SIZE_2_MB = 2 << 20;
+	/** Files are mapped in chunks of this size, a single mapping is limited to 2GB */
+	private static final long MAPPING_CHUNK_SIZE = 1L << 30;
 
 	private static ByteBuffer createByteBuffer() {
 		return ByteBuffer.allocate(SIZE_2_MB).order(ByteOrder.LITTLE_ENDIAN);
@@ -43,9 +51,42 @@ public final class BufferedFileAccess {
 	private ByteBuffer writeBuffer;
 	private BinaryWriter writer;
 
+	private volatile boolean memoryMapped;
+	private volatile MappedByteBuffer[] mappedChunks;
+	private final Object mappingLock = new Object();
+	/** Number of leased regions which are served from a mapping and not yet released. Guarded by {@link #mappingLock} */
+	private int leases;
+
 	public BufferedFileAccess() {
 	}
 
+	/**
+	 * If enabled, {@link #getMappedRegion(long, long)} and {@link #leaseRegion(long, long)} will serve regions directly from a memory mapping of the file
+	 * instead of copying them through a read buffer. Disabling it will release all mappings, regions which were already handed out stay valid.
+	 *
+	 * @param memoryMapped
+	 *            <code>true</code> to enable memory mapped reads
+	 * @see #isMemoryMapped()
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+		if (!memoryMapped) {
+			this.mappedChunks = null;
+		}
+	}
+
+	/**
+	 * Memory mapped regions are not copied, but they share their content with the file: a later write to the region is visible through the buffer and a
+	 * region beyond the end of a {@link #truncate(long) truncated} file can not be accessed anymore. Buffers which are used after the caller stops writing to
+	 * the file need to be obtained by {@link #leaseRegion(long, long)}, which blocks {@link #truncate(long)} until the lease is released. The caller is
+	 * responsible to not overwrite a leased region, and a lease which is held for long delays any truncation.
+	 *
+	 * @return <code>true</code> if regions are served from a memory mapping
+	 */
+	public boolean isMemoryMapped() {
+		return this.memoryMapped;
+	}
+
 	public boolean isOpen() {
 		return getPath() != null;
 	}
@@ -58,7 +99,7 @@ public final class BufferedFileAccess {
 			close();
 		}
 		this.path = path;
-		this.fileCache = new FileAccessCache(60000, path, openOptions);
+		this.fileCache = new FileAccessCache(path, openOptions, FileHandleManager.getDefault());
 	}
 
 	public void close() throws IOException {
@@ -67,6 +108,7 @@ public final class BufferedFileAccess {
 		}
 
 		this.path = null;
+		this.mappedChunks = null;
 
 		final var exceptions = new ArrayList<Throwable>();
 
@@ -127,18 +169,26 @@ public final class BufferedFileAccess {
 			this.readBuffer = createByteBuffer();
 		}
 
+		final var cache = this.fileCache;
+		final var channel = cache.acquireFileAccess();
 		if (this.reader == null || !this.reader.isOpen()) {
 			// for some reason it is really really expensive to build those
-			this.reader = new SeekableByteChannelBinaryReader(this.fileCache.getFileAccess(), this.readBuffer, false);
+			this.reader = new SeekableByteChannelBinaryReader(channel, this.readBuffer, false);
 		}
 
 		final BinaryReader delegate = new BinaryReaderDelegate(this.reader) {
+			private boolean released;
+
 			@Override
 			public void close() throws IOException {
-				if (isOpen()) {
-					BufferedFileAccess.this.fileCache.startExpiring();
+				try {
+					super.close();
+				} finally {
+					if (!this.released) {
+						this.released = true;
+						cache.releaseFileAccess();
+					}
 				}
-				super.close();
 			}
 		};
 		return delegate;
@@ -153,22 +203,455 @@ public final class BufferedFileAccess {
 			this.writeBuffer = createByteBuffer();
 		}
 
-		this.fileCache.getFileAccess();
+		final var cache = this.fileCache;
+		final var channel = cache.acquireFileAccess();
 		if (this.writer == null || !this.writer.isOpen()) {
 			// for some reason it is really really expensive to build those
-			this.writer = new SeekableByteChannelBinaryWriter(this.fileCache.getFileAccess(), this.writeBuffer, false);
+			this.writer = new SeekableByteChannelBinaryWriter(channel, this.writeBuffer, false);
 		}
 
 		final BinaryWriter delegate = new BinaryWriterDelegate(this.writer) {
+			private boolean released;
+
 			@Override
 			public void close() throws IOException {
-				if (isOpen()) {
-					BufferedFileAccess.this.fileCache.startExpiring();
+				try {
+					super.close(); // flushes pending writes, the handle is released afterwards
+				} finally {
+					if (!this.released) {
+						this.released = true;
+						cache.releaseFileAccess();
+					}
 				}
-				super.close();
 			}
 		};
 		return delegate;
 	}
 
+	/**
+	 * Returns a read-only view of <code>length</code> bytes, starting at <code>offset</code>. The returned buffer uses little endian byte order.
+	 * <p>
+	 * If {@link #isMemoryMapped() memory mapping} is enabled, the buffer is a slice of a mapping of the file, otherwise the region is read into a new buffer.
+	 * Mappings are created in chunks of 1GB, regions which cross a chunk boundary are mapped individually.
+	 * <p>
+	 * Unlike {@link #getFileReader()}, this method does not depend on a shared read position and can be called by multiple threads at once, as long as no
+	 * other thread writes to the file. A mapped buffer is only valid until the next write or truncation, see {@link #leaseRegion(long, long)} to keep it.
+	 *
+	 * @param offset
+	 *            position of the first byte within the file
+	 * @param length
+	 *            number of bytes
+	 * @return a read-only buffer with the requested region
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public ByteBuffer getMappedRegion(long offset, long length) throws IOException {
+		if (this.fileCache == null) {
+			throw new IllegalStateException("No file open");
+		}
+		if (offset < 0 || length < 0 || length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("Invalid region: offset=%d, length=%d", offset, length));
+		}
+
+		if (!this.memoryMapped) {
+			final var buffer = ByteBuffer.allocate((int) length);
+			read(buffer, offset);
+			return buffer.flip().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		final var chunkIndex = offset / MAPPING_CHUNK_SIZE;
+		final var chunkStart = chunkIndex * MAPPING_CHUNK_SIZE;
+		if (offset + length > chunkStart + MAPPING_CHUNK_SIZE) { // crosses a chunk boundary
+			final var cache = this.fileCache;
+			final var channel = acquireFileChannel(cache);
+			try {
+				return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+			} finally {
+				cache.releaseFileAccess();
+			}
+		}
+
+		final var slice = getMappedChunk((int) chunkIndex, offset + length - chunkStart);
+		slice.position((int) (offset - chunkStart));
+		slice.limit((int) (offset - chunkStart + length));
+		return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Same as {@link #getMappedRegion(long, long)}, but if the region is served from a memory mapping, {@link #truncate(long)} blocks until the returned
+	 * lease is released. A region which is read into a new buffer is not counted.
+	 *
+	 * @param offset
+	 *            position of the first byte within the file
+	 * @param length
+	 *            number of bytes
+	 * @return a lease on a read-only buffer with the requested region, which needs to be released by the caller
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see #isMemoryMapped()
+	 */
+	public RegionLease leaseRegion(long offset, long length) throws IOException {
+		if (!this.memoryMapped) {
+			return new RegionLease(getMappedRegion(offset, length), null);
+		}
+
+		synchronized (this.mappingLock) {
+			this.leases += 1;
+		}
+		try {
+			return new RegionLease(getMappedRegion(offset, length), this::releaseLease);
+		} catch (final Throwable e) {
+			releaseLease();
+			throw e;
+		}
+	}
+
+	private void releaseLease() {
+		synchronized (this.mappingLock) {
+			this.leases -= 1;
+			if (this.leases == 0) {
+				this.mappingLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if a region, which is served from a memory mapping, is leased and not yet released
+	 */
+	public boolean hasLeasedRegions() {
+		synchronized (this.mappingLock) {
+			return this.leases > 0;
+		}
+	}
+
+	/**
+	 * Waits until all {@link #leaseRegion(long, long) leased} regions are released. A thread which holds a lease itself will wait forever.
+	 *
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while waiting
+	 */
+	public void awaitLeasedRegions() throws InterruptedIOException {
+		synchronized (this.mappingLock) {
+			while (this.leases > 0) {
+				try {
+					this.mappingLock.wait();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for leased regions");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads bytes from the file into <code>dst</code>, until <code>dst</code> has no bytes remaining. Uses positional reads, which do not depend on a shared
+	 * read position. Because of this, this method can be called by multiple threads at once, as long as no other thread writes to the file.
+	 *
+	 * @param dst
+	 *            buffer to read into
+	 * @param position
+	 *            position within the file to start reading from
+	 * @throws IOException
+	 *             if an I/O error occurs or the end of file is reached before <code>dst</code> is filled
+	 */
+	public void read(ByteBuffer dst, long position) throws IOException {
+		if (this.fileCache == null) {
+			throw new IllegalStateException("No file open");
+		}
+
+		final var cache = this.fileCache;
+		final var channel = cache.acquireFileAccess();
+		if (!(channel instanceof FileChannel)) {
+			try {
+				synchronized (this) { // fallback to the shared reader
+					try (var reader = getFileReader()) {
+						reader.seek(Seek.BEGIN, position);
+						reader.readTo(dst);
+					}
+				}
+			} finally {
+				cache.releaseFileAccess();
+			}
+			return;
+		}
+
+		try {
+			flushPendingWrites(); // reads need to see all pending writes
+			while (dst.hasRemaining()) {
+				final var read = ((FileChannel) channel).read(dst, position);
+				if (read < 0) {
+					throw new EOFException(String.format("Reached end of file %s at %d", this.path, position));
+				}
+				position += read;
+			}
+		} finally {
+			cache.releaseFileAccess();
+		}
+	}
+
+	/**
+	 * Returns a stream over <code>length</code> bytes, starting at <code>offset</code>. The region is read lazily in windows of up to
+	 * <code>windowSize</code> bytes, so at no point the whole region needs to be in memory. If {@link #isMemoryMapped() memory mapping} is enabled, the
+	 * stream reads directly from the mapping and holds a {@link #leaseRegion(long, long) lease} on it until the stream is closed.
+	 * <p>
+	 * Like {@link #read(ByteBuffer, long)}, the stream does not depend on a shared read position.
+	 *
+	 * @param offset
+	 *            position of the first byte within the file
+	 * @param length
+	 *            number of bytes
+	 * @param windowSize
+	 *            maximal number of bytes read at once
+	 * @return a stream over the requested region
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public InputStream newInputStream(long offset, long length, int windowSize) throws IOException {
+		if (this.fileCache == null) {
+			throw new IllegalStateException("No file open");
+		}
+		if (offset < 0 || length < 0 || windowSize <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid region: offset=%d, length=%d, windowSize=%d", offset, length, windowSize));
+		}
+
+		if (this.memoryMapped && length <= Integer.MAX_VALUE) {
+			return leaseRegion(offset, length).openStream();
+		}
+		return new RegionInputStream(offset, length, (int) Math.min(windowSize, Math.max(1, length)));
+	}
+
+	private final class RegionInputStream extends InputStream {
+		private final ByteBuffer window;
+		private long position;
+		private long remaining;
+		private boolean closed;
+
+		public RegionInputStream(long offset, long length, int windowSize) {
+			this.window = ByteBuffer.allocate(windowSize);
+			this.window.limit(0);
+			this.position = offset;
+			this.remaining = length;
+		}
+
+		private boolean fill() throws IOException {
+			if (this.closed) {
+				throw new IOException("Stream closed");
+			}
+			if (this.window.hasRemaining()) {
+				return true;
+			}
+			if (this.remaining == 0) {
+				return false;
+			}
+
+			this.window.clear();
+			this.window.limit((int) Math.min(this.window.capacity(), this.remaining));
+			BufferedFileAccess.this.read(this.window, this.position);
+			this.window.flip();
+			this.position += this.window.limit();
+			this.remaining -= this.window.limit();
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return this.window.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			final var count = Math.min(len, this.window.remaining());
+			this.window.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return this.window.remaining();
+		}
+
+		@Override
+		public void close() {
+			this.closed = true;
+		}
+	}
+
+	/**
+	 * @return the current size of the file in bytes, including all pending writes
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public long size() throws IOException {
+		if (this.fileCache == null) {
+			throw new IllegalStateException("No file open");
+		}
+		flushPendingWrites();
+		final var cache = this.fileCache;
+		final var channel = cache.acquireFileAccess();
+		try {
+			return channel.size();
+		} finally {
+			cache.releaseFileAccess();
+		}
+	}
+
+	/**
+	 * Truncates the file to the given size. Waits until all {@link #leaseRegion(long, long) leased} regions are released. All mappings are released, buffers
+	 * previously returned by {@link #getMappedRegion(long, long)} must no longer be used.
+	 *
+	 * @param size
+	 *            new size of the file in bytes
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while waiting for leased regions
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void truncate(long size) throws IOException {
+		if (this.fileCache == null) {
+			throw new IllegalStateException("No file open");
+		}
+		flushPendingWrites();
+		synchronized (this.mappingLock) {
+			awaitLeasedRegions();
+			this.mappedChunks = null;
+		}
+		final var cache = this.fileCache;
+		final var channel = cache.acquireFileAccess();
+		try {
+			channel.truncate(size);
+		} finally {
+			cache.releaseFileAccess();
+		}
+	}
+
+	/**
+	 * Copies <code>count</code> bytes, starting at <code>position</code>, into <code>target</code> at <code>targetPosition</code>. The bytes are transferred
+	 * from file to file by the operating system, without copying them into the java heap.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs or the region exceeds the end of this file
+	 */
+	public void transferTo(long position, long count, BufferedFileAccess target, long targetPosition) throws IOException {
+		if (this.fileCache == null || target.fileCache == null) {
+			throw new IllegalStateException("No file open");
+		}
+		final var sourceCache = this.fileCache;
+		final var targetCache = target.fileCache;
+		final var source = acquireFileChannel(sourceCache);
+		try {
+			final var destination = target.acquireFileChannel(targetCache);
+			try {
+				transfer(source, position, count, destination, targetPosition);
+			} finally {
+				targetCache.releaseFileAccess();
+			}
+		} finally {
+			sourceCache.releaseFileAccess();
+		}
+	}
+
+	private void transfer(FileChannel source, long position, long count, FileChannel destination, long targetPosition) throws IOException {
+		destination.position(targetPosition);
+		while (count > 0) {
+			final var transferred = source.transferTo(position, count, destination);
+			if (transferred <= 0) {
+				throw new IOException(String.format("Region exceeds end of file %s", this.path));
+			}
+			position += transferred;
+			count -= transferred;
+		}
+	}
+
+	/**
+	 * Writes all pending writes and forces them to the storage device, so they are not lost if the system crashes.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void force() throws IOException {
+		if (this.fileCache == null) {
+			throw new IllegalStateException("No file open");
+		}
+		flushPendingWrites();
+		final var cache = this.fileCache;
+		final var channel = cache.acquireFileAccess();
+		try {
+			if (channel instanceof FileChannel) {
+				((FileChannel) channel).force(false);
+			}
+		} finally {
+			cache.releaseFileAccess();
+		}
+	}
+
+	private void flushPendingWrites() {
+		final var writer = this.writer;
+		if (writer != null && writer.isOpen()) {
+			writer.flush();
+		}
+	}
+
+	private ByteBuffer getMappedChunk(int chunkIndex, long minimalSize) throws IOException {
+		final var chunks = this.mappedChunks;
+		if (chunks != null && chunkIndex < chunks.length) {
+			final var chunk = chunks[chunkIndex];
+			if (chunk != null && minimalSize <= chunk.capacity()) {
+				return chunk.asReadOnlyBuffer();
+			}
+		}
+
+		synchronized (this.mappingLock) {
+			var mapping = this.mappedChunks;
+			if (mapping == null || mapping.length <= chunkIndex) {
+				final var newMapping = new MappedByteBuffer[chunkIndex + 1];
+				if (mapping != null) {
+					System.arraycopy(mapping, 0, newMapping, 0, mapping.length);
+				}
+				mapping = newMapping;
+			}
+
+			var chunk = mapping[chunkIndex];
+			if (chunk == null || chunk.capacity() < minimalSize) { // file may have grown since the chunk was mapped
+				final var cache = this.fileCache;
+				final var channel = acquireFileChannel(cache);
+				try {
+					final var chunkStart = chunkIndex * MAPPING_CHUNK_SIZE;
+					final var chunkSize = Math.min(MAPPING_CHUNK_SIZE, channel.size() - chunkStart);
+					if (chunkSize < minimalSize) {
+						throw new IOException(String.format("Region exceeds end of file %s", this.path));
+					}
+					chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkSize); // the mapping stays valid after the handle is closed
+				} finally {
+					cache.releaseFileAccess();
+				}
+				mapping[chunkIndex] = chunk;
+			}
+
+			this.mappedChunks = mapping;
+			return chunk.asReadOnlyBuffer();
+		}
+	}
+
+	/**
+	 * Acquires the handle of the given cache. Unless this method fails, the handle needs to be released by the caller.
+	 */
+	private FileChannel acquireFileChannel(FileAccessCache cache) throws IOException {
+		flushPendingWrites(); // reads need to see all pending writes
+		final var channel = cache.acquireFileAccess();
+		if (!(channel instanceof FileChannel)) {
+			cache.releaseFileAccess();
+			throw new IOException(String.format("Memory mapping is not supported for %s", this.path));
+		}
+		return (FileChannel) channel;
+	}
+
 }
@@ -9,6 +9,7 @@
  * SPDX-License-Identifier: AGPL-3.0-or-later
  *******************************************************************************/
 
+
 package nexusvault.vault.file;
 
 import java.io.IOException;
@@ -18,46 +19,84 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.EnumSet;
 
+/**
+ * Keeps a file handle open between accesses. Each call to {@link #acquireFileAccess()} needs to be followed by a call to {@link #releaseFileAccess()}, once
+ * the handle is no longer used by the caller. The handle is in use as long as at least one caller has not released it. Once all callers released it, the
+ * handle counts as idle and may be closed by its {@link FileHandleManager}, either because it expired or to stay within the limit of open handles.
+ * {@link #acquireFileAccess()} reopens the handle if necessary.
+ */
 public final class FileAccessCache {
 
+	/** no timeout of its own, the timeout of the manager is used */
+	private static final long MANAGER_TIMEOUT = -1;
+
 	private final long cacheTime;
 	private final Path filePath;
-
-	private Thread thread;
+	private final FileHandleManager manager;
 
 	private volatile long lastUsed;
-	private volatile boolean expiring;
 	private volatile boolean dispose;
+	/** number of callers which acquired the handle and did not release it yet, guarded by {@link #lock} */
+	private int users;
 
 	private final Object lock = new Object();
 
 	private SeekableByteChannel stream;
 	private final EnumSet<StandardOpenOption> fileAccessOption;
 
+	/**
+	 * Creates a cache which is managed by the {@link FileHandleManager#getDefault() default manager}, but uses its own idle timeout
+	 *
+	 * @param cacheTime
+	 *            time in ms after which an idle handle is closed
+	 * @param filePath
+	 *            file to open
+	 * @param fileAccessOption
+	 *            options used to open the file
+	 */
 	public FileAccessCache(long cacheTime, Path filePath, EnumSet<StandardOpenOption> fileAccessOption) {
+		this(cacheTime, filePath, fileAccessOption, FileHandleManager.getDefault());
 		if (cacheTime <= 0) {
 			throw new IllegalArgumentException();
 		}
+	}
+
+	/**
+	 * Creates a cache which uses the idle timeout of the given manager
+	 *
+	 * @param filePath
+	 *            file to open
+	 * @param fileAccessOption
+	 *            options used to open the file
+	 * @param manager
+	 *            closes the handle of this cache
+	 */
+	public FileAccessCache(Path filePath, EnumSet<StandardOpenOption> fileAccessOption, FileHandleManager manager) {
+		this(MANAGER_TIMEOUT, filePath, fileAccessOption, manager);
+	}
+
+	private FileAccessCache(long cacheTime, Path filePath, EnumSet<StandardOpenOption> fileAccessOption, FileHandleManager manager) {
 		if (filePath == null) {
 			throw new IllegalArgumentException();
 		}
 		if (fileAccessOption == null) {
 			throw new IllegalArgumentException();
 		}
+		if (manager == null) {
+			throw new IllegalArgumentException();
+		}
 
 		this.cacheTime = cacheTime;
 		this.filePath = filePath;
 		this.fileAccessOption = fileAccessOption;
+		this.manager = manager;
 	}
 
 	public void dispose() throws IOException {
 		try {
 			synchronized (this.lock) {
-				closeChannel();
 				this.dispose = true;
-				if (this.thread != null) {
-					this.thread.interrupt();
-				}
+				closeChannel();
 			}
 		} catch (final Throwable e) {
 			throw new IOException(e);
@@ -65,10 +104,16 @@ public final class FileAccessCache {
 	}
 
 	private void closeChannel() {
+		if (this.stream == null) {
+			return;
+		}
 		try {
 			this.stream.close();
 		} catch (final Throwable e) {
 
+		} finally {
+			this.stream = null;
+			this.manager.handleClosed(this);
 		}
 	}
 
@@ -76,16 +121,25 @@ public final class FileAccessCache {
 		return this.dispose;
 	}
 
-	public SeekableByteChannel getFileAccess() throws IOException {
+	/**
+	 * Returns the handle and marks it as in use, until {@link #releaseFileAccess()} is called. A handle which is in use is never closed by the manager.
+	 *
+	 * @return the open handle
+	 * @throws IOException
+	 *             if the handle can not be opened or this cache was disposed
+	 */
+	public SeekableByteChannel acquireFileAccess() throws IOException {
+		var opened = false;
+		final SeekableByteChannel stream;
 		synchronized (this.lock) {
 			if (this.dispose) {
 				throw new IOException("disposed");
 			}
 
 			this.lastUsed = System.currentTimeMillis();
-			this.expiring = false;
 
 			if (this.stream == null || !this.stream.isOpen()) {
+				closeChannel(); // may have been closed by an interrupt
 				if (this.fileAccessOption.contains(StandardOpenOption.CREATE) || this.fileAccessOption.contains(StandardOpenOption.CREATE_NEW)) {
 					final var parent = this.filePath.getParent();
 					if (parent != null && !Files.exists(parent)) {
@@ -93,64 +147,75 @@ public final class FileAccessCache {
 					}
 				}
 				this.stream = Files.newByteChannel(this.filePath, this.fileAccessOption);
+				opened = true;
 			}
+			stream = this.stream;
+			this.users += 1;
 		}
-		return this.stream;
-	}
 
-	public void startExpiring() {
-		if (this.expiring || this.dispose) {
-			return;
+		if (opened) { // outside of the lock, the manager may close other caches
+			this.manager.handleOpened(this);
 		}
+		return stream;
+	}
 
+	/**
+	 * Releases a handle previously returned by {@link #acquireFileAccess()}. If no other caller uses the handle, it counts as idle and is closed, if it is
+	 * not acquired again before it expires.
+	 */
+	public void releaseFileAccess() {
 		synchronized (this.lock) {
-			if (this.expiring || this.dispose) {
-				return;
+			if (this.users == 0) {
+				throw new IllegalStateException("Handle was not acquired");
 			}
-
+			this.users -= 1;
 			this.lastUsed = System.currentTimeMillis();
-			this.expiring = true;
-
-			if (this.thread != null && this.thread.isAlive()) {
-				return;
-			}
+		}
+	}
 
-			this.thread = new Thread(() -> {
-				boolean active = true;
-				try {
-					while (active && !this.dispose) {
-						synchronized (this.lock) {
-							if (this.expiring) {
-								if (System.currentTimeMillis() > this.lastUsed + this.cacheTime) {
-									active = false;
-								}
-							}
-						}
-
-						try {
-							if (active) {
-								Thread.sleep(1000);
-							}
-						} catch (final InterruptedException e1) {
-							if (this.dispose) {
-								break;
-							}
-						}
-					}
-				} finally {
-					try {
-						this.stream.close();
-					} catch (final Throwable e) {
+	/**
+	 * @return number of callers which acquired the handle and did not release it yet
+	 */
+	public int getUsers() {
+		synchronized (this.lock) {
+			return this.users;
+		}
+	}
 
-					}
+	/**
+	 * @param idleTime
+	 *            minimal time in ms the handle needs to be idle
+	 * @return <code>true</code> if the handle was closed
+	 */
+	boolean closeIfIdle(long idleTime) {
+		synchronized (this.lock) {
+			if (this.stream == null) {
+				return false;
+			}
+			if (this.stream.isOpen()) {
+				if (this.users > 0 || System.currentTimeMillis() < this.lastUsed + idleTime) {
+					return false;
 				}
-			}, "fileaccesscache-timer-" + this.filePath.getFileName().toString());
-			this.thread.start();
+			}
+			closeChannel();
+			return true;
 		}
 	}
 
+	long getLastUsed() {
+		return this.lastUsed;
+	}
+
+	long getIdleTimeout(long managerTimeout) {
+		return this.cacheTime == MANAGER_TIMEOUT ? managerTimeout : this.cacheTime;
+	}
+
+	public FileHandleManager getManager() {
+		return this.manager;
+	}
+
 	public Path getFile() {
 		return this.filePath;
 	}
 
-}
\ No newline at end of file
+}
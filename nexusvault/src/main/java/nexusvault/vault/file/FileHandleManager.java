@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault.file;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closes file handles of {@link FileAccessCache FileAccessCaches} which are not in use. All caches of a manager share one daemon thread, which checks every
+ * second for handles which were idle for longer than the {@link #getIdleTimeout() idle timeout}. The thread only runs while handles are open.
+ * <p>
+ * The number of open handles is limited by {@link #getMaxOpenHandles()}. If a cache opens a handle and the limit is exceeded, idle handles are closed in
+ * least recently used order. Handles which are in use, i.e. {@link FileAccessCache#acquireFileAccess() acquired} by at least one caller who did not
+ * release them yet, are never closed, so the limit may be exceeded temporarily. A closed handle is reopened by its cache
+ * the next time it is needed.
+ * <p>
+ * By default, all caches use the {@link #getDefault() default manager}. This class is thread safe.
+ */
+public final class FileHandleManager {
+
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+	public static final int DEFAULT_MAX_OPEN_HANDLES = 256;
+
+	private static final long SWEEP_INTERVAL = 1000;
+
+	private static final FileHandleManager DEFAULT = new FileHandleManager();
+
+	/**
+	 * @return the manager which is used by all {@link FileAccessCache caches}, if no other manager is set
+	 */
+	public static FileHandleManager getDefault() {
+		return DEFAULT;
+	}
+
+	private final Object lock = new Object();
+	private final Set<FileAccessCache> openHandles = ConcurrentHashMap.newKeySet();
+
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private volatile int maxOpenHandles = DEFAULT_MAX_OPEN_HANDLES;
+
+	private final AtomicLong openCount = new AtomicLong();
+	private final AtomicLong closeCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private ScheduledThreadPoolExecutor executor;
+	private ScheduledFuture<?> sweeper;
+
+	/**
+	 * Creates a manager with an idle timeout of {@value #DEFAULT_IDLE_TIMEOUT}ms and at most {@value #DEFAULT_MAX_OPEN_HANDLES} open handles
+	 */
+	public FileHandleManager() {
+	}
+
+	/**
+	 * @param idleTimeout
+	 *            time in ms after which an idle handle is closed, needs to be greater than 0
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		if (idleTimeout <= 0) {
+			throw new IllegalArgumentException("'idleTimeout' must be greater than 0");
+		}
+		this.idleTimeout = idleTimeout;
+	}
+
+	public long getIdleTimeout() {
+		return this.idleTimeout;
+	}
+
+	/**
+	 * @param maxOpenHandles
+	 *            maximal number of open handles, needs to be greater than 0
+	 */
+	public void setMaxOpenHandles(int maxOpenHandles) {
+		if (maxOpenHandles <= 0) {
+			throw new IllegalArgumentException("'maxOpenHandles' must be greater than 0");
+		}
+		this.maxOpenHandles = maxOpenHandles;
+		evictHandles();
+	}
+
+	public int getMaxOpenHandles() {
+		return this.maxOpenHandles;
+	}
+
+	/**
+	 * @return number of handles which are currently open
+	 */
+	public int getOpenHandles() {
+		return this.openHandles.size();
+	}
+
+	/**
+	 * @return number of handles which were opened by the caches of this manager
+	 */
+	public long getOpenCount() {
+		return this.openCount.get();
+	}
+
+	/**
+	 * @return number of handles which were closed, this includes handles closed because they expired or were evicted
+	 */
+	public long getCloseCount() {
+		return this.closeCount.get();
+	}
+
+	/**
+	 * @return number of idle handles which were closed to stay within {@link #getMaxOpenHandles()}
+	 */
+	public long getEvictionCount() {
+		return this.evictionCount.get();
+	}
+
+	/**
+	 * Closes all handles which are not in use, regardless of how long they were idle
+	 */
+	public void closeIdleHandles() {
+		for (final var cache : new ArrayList<>(this.openHandles)) {
+			cache.closeIfIdle(0);
+		}
+	}
+
+	void handleOpened(FileAccessCache cache) {
+		this.openCount.incrementAndGet();
+		this.openHandles.add(cache);
+		startSweeper();
+		evictHandles();
+	}
+
+	void handleClosed(FileAccessCache cache) {
+		this.closeCount.incrementAndGet();
+		this.openHandles.remove(cache);
+	}
+
+	private void evictHandles() {
+		if (this.openHandles.size() <= this.maxOpenHandles) {
+			return;
+		}
+
+		final var candidates = new ArrayList<FileAccessCache>(this.openHandles);
+		candidates.sort(Comparator.comparingLong(FileAccessCache::getLastUsed));
+		for (final var cache : candidates) {
+			if (this.openHandles.size() <= this.maxOpenHandles) {
+				break;
+			}
+			if (cache.closeIfIdle(0)) {
+				this.evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	private void sweep() {
+		final var idleTimeout = this.idleTimeout;
+		for (final var cache : this.openHandles) {
+			cache.closeIfIdle(cache.getIdleTimeout(idleTimeout));
+		}
+		if (this.openHandles.isEmpty()) {
+			stopSweeper();
+		}
+	}
+
+	private void startSweeper() {
+		synchronized (this.lock) {
+			if (this.sweeper != null) {
+				return;
+			}
+			if (this.executor == null) {
+				this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+					final var thread = new Thread(runnable, "nexusvault-file-handle-expiry");
+					thread.setDaemon(true);
+					return thread;
+				});
+				this.executor.setRemoveOnCancelPolicy(true);
+			}
+			this.sweeper = this.executor.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void stopSweeper() {
+		synchronized (this.lock) {
+			if (this.sweeper == null || !this.openHandles.isEmpty()) { // a handle may have been opened in between
+				return;
+			}
+			this.sweeper.cancel(false);
+			this.sweeper = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("FileHandleManager [openHandles=%d/%d, idleTimeout=%dms, opened=%d, closed=%d, evictions=%d]", getOpenHandles(),
+				this.maxOpenHandles, this.idleTimeout, getOpenCount(), getCloseCount(), getEvictionCount());
+	}
+
+}
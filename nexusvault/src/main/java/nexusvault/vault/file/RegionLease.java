@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.vault.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A read-only region of a file, returned by {@link BufferedFileAccess#leaseRegion(long, long)}. If the region is served from a memory mapping, the file can
+ * not be {@link BufferedFileAccess#truncate(long) truncated} until the lease is {@link #close() released}. After it is released, the buffer must no longer be
+ * used.
+ * <p>
+ * A lease can be released by any thread, but only once. Further calls to {@link #close()} have no effect.
+ */
+public final class RegionLease implements AutoCloseable {
+
+	private final ByteBuffer buffer;
+	private final Runnable release;
+	private final AtomicBoolean released = new AtomicBoolean();
+
+	RegionLease(ByteBuffer buffer, Runnable release) {
+		this.buffer = buffer;
+		this.release = release;
+	}
+
+	/**
+	 * @return a read-only buffer with the content of the region, in little endian byte order
+	 */
+	public ByteBuffer getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * @return a stream over the remaining bytes of {@link #getBuffer()}, which releases this lease when it is closed
+	 */
+	public InputStream openStream() {
+		return new LeasedInputStream();
+	}
+
+	@Override
+	public void close() {
+		if (this.released.compareAndSet(false, true) && this.release != null) {
+			this.release.run();
+		}
+	}
+
+	private final class LeasedInputStream extends InputStream {
+		private boolean closed;
+
+		private ByteBuffer buffer() throws IOException {
+			if (this.closed) {
+				throw new IOException("Stream closed");
+			}
+			return RegionLease.this.buffer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final var buffer = buffer();
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			return buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final var buffer = buffer();
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final var count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final var buffer = buffer();
+			final var count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return this.closed ? 0 : RegionLease.this.buffer.remaining();
+		}
+
+		@Override
+		public void close() {
+			this.closed = true;
+			RegionLease.this.close();
+		}
+	}
+
+}
@@ -0,0 +1,391 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import nexusvault.vault.IdxPath;
+import nexusvault.vault.index.IndexException.IndexEntryNotADirectoryException;
+import nexusvault.vault.index.IndexException.IndexEntryNotAFileException;
+import nexusvault.vault.index.Node.DirectoryNode;
+import nexusvault.vault.index.Node.FileNode;
+import nexusvault.vault.pack.PackedFile;
+
+/**
+ * A read-only representation of a complete index file, which stores all entries in a {@link PathIndex} with file records. Nodes are created on demand as
+ * lightweight views, which consist only of an id, so the heap usage does not grow with the number of entries.
+ * <p>
+ * All modifying methods throw an {@link UnsupportedOperationException}.
+ * <p>
+ * Instances are immutable and can be used by multiple threads.
+ */
+final class CompactIndexTree {
+
+	private static UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException("compact index is read-only");
+	}
+
+	private abstract class CompactNode implements Node {
+		protected final int id;
+
+		protected CompactNode(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public final String getName() {
+			return this.id == PathIndex.ROOT ? "" : CompactIndexTree.this.index.getName(this.id);
+		}
+
+		@Override
+		public final void setName(String name) {
+			throw readOnly();
+		}
+
+		@Override
+		public final DirectoryNode getParent() {
+			return this.id == PathIndex.ROOT ? null : new CompactDirectoryNode(CompactIndexTree.this.index.getParent(this.id));
+		}
+
+		@Override
+		public final void moveTo(DirectoryNode parent) {
+			throw readOnly();
+		}
+
+		@Override
+		public final IdxPath toPath() {
+			if (this.id == PathIndex.ROOT) {
+				return IdxPath.createPath(getName());
+			}
+			final var names = new ArrayList<String>();
+			for (var id = this.id; id != PathIndex.ROOT; id = CompactIndexTree.this.index.getParent(id)) {
+				names.add(CompactIndexTree.this.index.getName(id));
+			}
+			final var path = new String[names.size()];
+			for (var i = 0; i < path.length; ++i) {
+				path[i] = names.get(path.length - 1 - i);
+			}
+			return IdxPath.createPath(path);
+		}
+
+		@Override
+		public final FileNode asFile() {
+			if (!isFile()) {
+				throw new IndexEntryNotAFileException(toPath().getFullName());
+			}
+			return (FileNode) this;
+		}
+
+		@Override
+		public final DirectoryNode asDirectory() {
+			if (!isDirectory()) {
+				throw new IndexEntryNotADirectoryException(toPath().getFullName());
+			}
+			return (DirectoryNode) this;
+		}
+
+		private CompactIndexTree getTree() {
+			return CompactIndexTree.this;
+		}
+
+		@Override
+		public final int hashCode() {
+			return Objects.hash(CompactIndexTree.this, this.id);
+		}
+
+		@Override
+		public final boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof CompactNode)) {
+				return false;
+			}
+			final var other = (CompactNode) obj;
+			return other.getTree() == getTree() && other.id == this.id;
+		}
+	}
+
+	private final class CompactDirectoryNode extends CompactNode implements DirectoryNode {
+
+		public CompactDirectoryNode(int id) {
+			super(id);
+		}
+
+		@Override
+		public DirectoryNode newDirectory(String name) {
+			throw readOnly();
+		}
+
+		@Override
+		public FileNode newFile(String name, int flags, long writeTime, long uncompressedSize, long compressedSize, byte[] hash, int unk_034) {
+			throw readOnly();
+		}
+
+		@Override
+		public void delete(String name) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean hasChild(String name) throws IOException {
+			return getChild(name).isPresent();
+		}
+
+		@Override
+		public Optional<Node> getChild(String name) throws IOException {
+			final var child = lookupChild(this.id, name);
+			return child < 0 ? Optional.empty() : Optional.of(node(child));
+		}
+
+		@Override
+		public List<Node> getChilds() {
+			final var first = CompactIndexTree.this.index.getFirstChild(this.id);
+			final var count = CompactIndexTree.this.index.getChildCount(this.id);
+			final var result = new ArrayList<Node>(count);
+			for (var i = 0; i < count; ++i) {
+				result.add(node(first + i));
+			}
+			return result;
+		}
+
+		@Override
+		public void forEachChild(Consumer<? super Node> action) {
+			final var first = CompactIndexTree.this.index.getFirstChild(this.id);
+			final var count = CompactIndexTree.this.index.getChildCount(this.id);
+			for (var i = 0; i < count; ++i) {
+				action.accept(node(first + i));
+			}
+		}
+
+		@Override
+		public List<DirectoryNode> getDirectories() {
+			final var first = CompactIndexTree.this.index.getFirstChild(this.id);
+			final var count = CompactIndexTree.this.index.getDirectoryCount(this.id);
+			final var result = new ArrayList<DirectoryNode>(count);
+			for (var i = 0; i < count; ++i) {
+				result.add(new CompactDirectoryNode(first + i));
+			}
+			return result;
+		}
+
+		@Override
+		public List<FileNode> getFiles() {
+			final var first = CompactIndexTree.this.index.getFirstChild(this.id) + CompactIndexTree.this.index.getDirectoryCount(this.id);
+			final var count = CompactIndexTree.this.index.getChildCount(this.id) - CompactIndexTree.this.index.getDirectoryCount(this.id);
+			final var result = new ArrayList<FileNode>(count);
+			for (var i = 0; i < count; ++i) {
+				result.add(new CompactFileNode(first + i));
+			}
+			return result;
+		}
+
+		@Override
+		public Optional<Node> find(IdxPath path) throws IOException {
+			Objects.requireNonNull(path, "path");
+
+			var id = this.id;
+			for (final String name : path) {
+				if (!CompactIndexTree.this.index.isDirectory(id)) {
+					return Optional.empty();
+				}
+				id = lookupChild(id, name);
+				if (id < 0) {
+					return Optional.empty();
+				}
+			}
+			return Optional.of(node(id));
+		}
+
+		@Override
+		public Node findLast(IdxPath path) throws IOException {
+			Objects.requireNonNull(path, "path");
+
+			var id = this.id;
+			for (final String name : path) {
+				if (!CompactIndexTree.this.index.isDirectory(id)) {
+					break;
+				}
+				final var next = lookupChild(id, name);
+				if (next < 0) {
+					break;
+				}
+				id = next;
+			}
+			return node(id);
+		}
+
+		@Override
+		public int countNodesInSubTree() {
+			var result = 1;
+			final var fringe = new ArrayList<Integer>();
+			fringe.add(this.id);
+			while (!fringe.isEmpty()) {
+				final int id = fringe.remove(fringe.size() - 1);
+				final var first = CompactIndexTree.this.index.getFirstChild(id);
+				result += CompactIndexTree.this.index.getChildCount(id);
+				for (var i = 0; i < CompactIndexTree.this.index.getDirectoryCount(id); ++i) {
+					fringe.add(first + i);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public boolean isDirectory() {
+			return true;
+		}
+
+		@Override
+		public boolean isFile() {
+			return false;
+		}
+	}
+
+	private final class CompactFileNode extends CompactNode implements FileNode {
+
+		public CompactFileNode(int id) {
+			super(id);
+		}
+
+		@Override
+		public int getFlags() {
+			return CompactIndexTree.this.index.getFlags(this.id);
+		}
+
+		@Override
+		public long getWriteTime() {
+			return CompactIndexTree.this.index.getWriteTime(this.id);
+		}
+
+		@Override
+		public long getUncompressedSize() {
+			return CompactIndexTree.this.index.getUncompressedSize(this.id);
+		}
+
+		@Override
+		public long getCompressedSize() {
+			return CompactIndexTree.this.index.getCompressedSize(this.id);
+		}
+
+		@Override
+		public byte[] getHash() {
+			return CompactIndexTree.this.index.getHash(this.id);
+		}
+
+		@Override
+		public int getUnk_034() {
+			return CompactIndexTree.this.index.getUnk_034(this.id);
+		}
+
+		@Override
+		public void overwrite(String name, Integer flags, Long writeTime, Long uncompressedSize, Long compressedSize, byte[] hash, Integer unk_034) {
+			throw readOnly();
+		}
+
+		@Override
+		public void setFlags(int flags) {
+			throw readOnly();
+		}
+
+		@Override
+		public void setWriteTime(long writeTime) {
+			throw readOnly();
+		}
+
+		@Override
+		public void setUncompressedSize(long uncompressedSize) {
+			throw readOnly();
+		}
+
+		@Override
+		public void setCompressedSize(long compressedSize) {
+			throw readOnly();
+		}
+
+		@Override
+		public void setHash(byte[] hash) {
+			throw readOnly();
+		}
+
+		@Override
+		public void setUnk_034(int unk_034) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean isDirectory() {
+			return false;
+		}
+
+		@Override
+		public boolean isFile() {
+			return true;
+		}
+	}
+
+	private final PathIndex index;
+	private final DirectoryNode root;
+
+	/**
+	 * Reads all directories of the given file
+	 *
+	 * @param file
+	 *            the file which contains the directory blocks
+	 * @param rootDirectoryIndex
+	 *            index of the root directory block
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public CompactIndexTree(PackedFile file, int rootDirectoryIndex) throws IOException {
+		this.index = PathIndex.build(file, rootDirectoryIndex, true);
+		this.root = new CompactDirectoryNode(PathIndex.ROOT);
+	}
+
+	public DirectoryNode getRoot() {
+		return this.root;
+	}
+
+	/**
+	 * @return number of entries, including the root
+	 */
+	public int size() {
+		return this.index.size();
+	}
+
+	private Node node(int id) {
+		return this.index.isDirectory(id) ? new CompactDirectoryNode(id) : new CompactFileNode(id);
+	}
+
+	private int lookupChild(int parent, String name) throws IOException {
+		final var id = this.index.lookupChild(parent, name);
+		if (id != PathIndex.UNKNOWN) {
+			return id;
+		}
+
+		// non-ascii names can only be compared after decoding
+		final var first = this.index.getFirstChild(parent);
+		for (var i = 0; i < this.index.getChildCount(parent); ++i) {
+			if (this.index.getName(first + i).equalsIgnoreCase(name)) {
+				return first + i;
+			}
+		}
+		return PathIndex.NOT_FOUND;
+	}
+
+}
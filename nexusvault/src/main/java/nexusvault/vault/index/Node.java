@@ -12,8 +12,10 @@
 package nexusvault.vault.index;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import nexusvault.vault.IdxPath;
 import nexusvault.vault.index.IndexException.IndexNameCollisionException;
@@ -34,6 +36,15 @@ public interface Node {
 
 		List<Node> getChilds() throws IOException;
 
+		/**
+		 * Passes each child to <code>action</code>, without building an intermediate list if possible
+		 */
+		default void forEachChild(Consumer<? super Node> action) throws IOException {
+			for (final var child : getChilds()) {
+				action.accept(child);
+			}
+		}
+
 		List<DirectoryNode> getDirectories() throws IOException;
 
 		List<FileNode> getFiles() throws IOException;
@@ -43,6 +54,16 @@ public interface Node {
 		Node findLast(IdxPath path) throws IOException;
 
 		int countNodesInSubTree() throws IOException;
+
+		/**
+		 * Returns the block, in which this directory is stored by its index file. The block contains the names of all childs and the records of all files,
+		 * two directories with identical blocks contain the same files.
+		 *
+		 * @return the stored block, or empty if this directory was modified since it was stored or is not backed by a block
+		 */
+		default Optional<ByteBuffer> readStoredBlock() throws IOException {
+			return Optional.empty();
+		}
 	}
 
 	public static interface FileNode extends Node {
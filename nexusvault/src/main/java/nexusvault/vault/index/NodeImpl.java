@@ -12,11 +12,16 @@
 package nexusvault.vault.index;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -31,13 +36,18 @@ abstract class NodeImpl implements Node {
 	static class DirectoryNodeImpl extends NodeImpl implements DirectoryNode {
 
 		private final List<NodeImpl> childs = new ArrayList<>();
-		private boolean childsLoaded = false;
+		/** case-insensitive lookup of {@link #childs} by name, see {@link #indexKey(String)} */
+		private final Map<String, NodeImpl> childsByName = new HashMap<>();
+		private volatile boolean childsLoaded = false;
+		/** <code>true</code> once the childs are about to be loaded or if there is nothing to load, guarded by the index file */
+		boolean childsRequested = false;
 		protected int directoryIndex = 0;
 
 		protected DirectoryNodeImpl(DirectoryNodeImpl parent, String name, int directoryIndex) {
 			super(parent, name);
 			this.directoryIndex = directoryIndex;
 			this.childsLoaded = directoryIndex <= 0;
+			this.childsRequested = this.childsLoaded;
 			if (directoryIndex <= 0) {
 				setNeedUpdateFlag();
 			}
@@ -45,13 +55,52 @@ abstract class NodeImpl implements Node {
 
 		private List<NodeImpl> internalChilds() throws IOException {
 			if (!this.childsLoaded) {
-				this.childsLoaded = true;
-				final var childs = getIndexFile().loadChilds(this);
-				this.childs.addAll(childs);
+				synchronized (this.childs) { // concurrent readers may trigger the first load at the same time
+					if (!this.childsLoaded) {
+						final var childs = getIndexFile().loadChilds(this);
+						this.childs.addAll(childs);
+						for (final var child : childs) {
+							this.childsByName.putIfAbsent(indexKey(child.name), child);
+						}
+						this.childsLoaded = true;
+					}
+				}
 			}
 			return this.childs;
 		}
 
+		private void addChild(NodeImpl child) throws IOException {
+			internalChilds().add(child);
+			this.childsByName.put(indexKey(child.name), child);
+		}
+
+		private void removeChild(NodeImpl child) throws IOException {
+			internalChilds().remove(child);
+			this.childsByName.remove(indexKey(child.name), child);
+		}
+
+		private void renameChild(NodeImpl child, String oldName) throws IOException {
+			internalChilds(); // the index is only valid after all childs are loaded
+			this.childsByName.remove(indexKey(oldName), child);
+			this.childsByName.putIfAbsent(indexKey(child.name), child);
+		}
+
+		/**
+		 * Names are compared with {@link String#equalsIgnoreCase(String)}, which compares character by character. Folding each character the same way gives
+		 * equal keys for exactly those names. {@link String#toLowerCase(java.util.Locale)} is not enough for non-ascii names, e.g. it maps 'İ' to two
+		 * characters, while <code>equalsIgnoreCase</code> considers it equal to 'i'.
+		 */
+		private static String indexKey(String name) {
+			for (var i = 0; i < name.length(); ++i) {
+				if (name.charAt(i) >= 0x80) {
+					final var key = new StringBuilder(name.length());
+					name.codePoints().forEach(c -> key.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c))));
+					return key.toString();
+				}
+			}
+			return name.toLowerCase(Locale.ROOT);
+		}
+
 		@Override
 		public DirectoryNodeImpl newDirectory(String name) throws IOException {
 			if (name == null || name.isBlank()) {
@@ -63,7 +112,7 @@ abstract class NodeImpl implements Node {
 			}
 
 			final var child = new DirectoryNodeImpl(this, name, 0);
-			internalChilds().add(child);
+			addChild(child);
 			setNeedUpdateFlag();
 			return child;
 		}
@@ -80,7 +129,7 @@ abstract class NodeImpl implements Node {
 			}
 
 			final var child = new FileNodeImpl(this, name, flags, writeTime, uncompressedSize, compressedSize, hash, unk_034);
-			internalChilds().add(child);
+			addChild(child);
 			setNeedUpdateFlag();
 			return child;
 		}
@@ -92,36 +141,39 @@ abstract class NodeImpl implements Node {
 
 		@Override
 		public void delete(String name) throws IOException {
-			for (final var it = internalChilds().iterator(); it.hasNext();) {
-				final var child = it.next();
-				if (child.name.equalsIgnoreCase(name)) {
-					it.remove();
-					child.parent = null;
+			final var child = child(name);
+			if (child == null) {
+				return;
+			}
 
-					setNeedUpdateFlag();
+			removeChild(child);
+			child.parent = null;
 
-					if (child.isDirectory()) {
-						final var childIndex = ((DirectoryNodeImpl) child).directoryIndex;
-						if (childIndex > 0) {
-							final var indexFile = getIndexFile();
-							if (indexFile != null) {
-								indexFile.markDirectoryForDeletion(childIndex);
-							}
-						}
-					}
+			setNeedUpdateFlag();
 
-					break;
+			if (child.isDirectory()) {
+				final var childIndex = ((DirectoryNodeImpl) child).directoryIndex;
+				if (childIndex > 0) {
+					final var indexFile = getIndexFile();
+					if (indexFile != null) {
+						indexFile.markDirectoryForDeletion(childIndex);
+					}
 				}
 			}
 		}
 
-		private NodeImpl child(String name) throws IOException {
-			for (final var child : internalChilds()) {
-				if (child.name.equalsIgnoreCase(name)) {
-					return child;
-				}
+		@Override
+		public Optional<ByteBuffer> readStoredBlock() throws IOException {
+			final var indexFile = getIndexFile();
+			if (indexFile == null || this.directoryIndex <= 0 || hasNodeFlag(NODE_FLAG_UPDATE)) {
+				return Optional.empty();
 			}
-			return null;
+			return Optional.of(indexFile.readDirectoryBlock(this));
+		}
+
+		private NodeImpl child(String name) throws IOException {
+			internalChilds();
+			return this.childsByName.get(indexKey(name));
 		}
 
 		@Override
@@ -148,6 +200,17 @@ abstract class NodeImpl implements Node {
 		protected void setNeedUpdateFlag() {
 			setNodeFlag(NODE_FLAG_UPDATE);
 			notifyParentAboutChildUpdate();
+			notifyRootAboutChange();
+		}
+
+		/**
+		 * Called for each change in the subtree of this directory. The root of an index file uses this to track unsaved changes.
+		 */
+		protected void notifyRootAboutChange() {
+			final var parent = getParent();
+			if (parent != null) {
+				parent.notifyRootAboutChange();
+			}
 		}
 
 		private void notifyParentAboutChildUpdate() {
@@ -435,7 +498,15 @@ abstract class NodeImpl implements Node {
 			return;
 		}
 
+		final var oldName = this.name;
 		this.name = name;
+		if (this.parent != null) {
+			try {
+				this.parent.renameChild(this, oldName);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
 		informParentAboutUpdate();
 	}
 
@@ -469,11 +540,11 @@ abstract class NodeImpl implements Node {
 		}
 
 		final var oldParent = this.parent;
-		oldParent.internalChilds().remove(this);
+		oldParent.removeChild(this);
 		oldParent.setNeedUpdateFlag();
 
 		this.parent = newParent;
-		newParent.internalChilds().add(this);
+		newParent.addChild(this);
 		newParent.setNeedUpdateFlag();
 	}
 
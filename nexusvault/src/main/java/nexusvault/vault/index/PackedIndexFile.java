@@ -13,17 +13,24 @@ package nexusvault.vault.index;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
 import kreed.io.util.BinaryIOException;
 import kreed.io.util.BinaryWriter;
+import kreed.io.util.ByteBufferBinaryReader;
 import nexusvault.shared.exception.SignatureMismatchException;
 import nexusvault.shared.exception.VersionMismatchException;
 import nexusvault.vault.FileClosedIOException;
@@ -54,6 +61,14 @@ public final class PackedIndexFile implements Closeable {
 
 	private final Set<Integer> deletedDirectories = new HashSet<>();
 
+	private volatile PathIndex pathIndex;
+	private volatile CompactIndexTree compactTree;
+	/**
+	 * Directories which were resolved with the {@link PathIndex}, but whose parent has not loaded its childs yet. Keyed by their directory index and consumed
+	 * by {@link #loadChilds(DirectoryNodeImpl)}, so each directory is represented by exactly one node.
+	 */
+	private final Map<Integer, DirectoryNodeImpl> resolvedDirectories = new HashMap<>();
+
 	public PackedIndexFile(Path path) throws IOException {
 		open(path);
 	}
@@ -61,13 +76,24 @@ public final class PackedIndexFile implements Closeable {
 	public PackedIndexFile() {
 	}
 
+	/**
+	 * @return the root of the {@link #loadCompactTree() compact tree}, if loaded, otherwise the root of the regular tree
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
 	public DirectoryNode getRoot() throws IOException {
 		assertFileIsOpen();
-		return this.root;
+		final var compactTree = this.compactTree;
+		return compactTree != null ? compactTree.getRoot() : this.root;
 	}
 
 	public void open(Path path) throws IOException {
 		this.file.open(path);
+		this.pathIndex = null;
+		this.compactTree = null;
+		synchronized (this.resolvedDirectories) {
+			this.resolvedDirectories.clear();
+		}
 
 		if (this.file.getRootIndex() > 0) {
 			try (var reader = this.file.readEntry(this.file.getRootIndex())) {
@@ -103,6 +129,12 @@ public final class PackedIndexFile implements Closeable {
 				super.setNeedUpdateFlag();
 				PackedIndexFile.this.dirty = true;
 			}
+
+			@Override
+			protected void notifyRootAboutChange() {
+				PackedIndexFile.this.dirty = true;
+				PackedIndexFile.this.pathIndex = null;
+			}
 		};
 	}
 
@@ -110,6 +142,17 @@ public final class PackedIndexFile implements Closeable {
 		return this.file.isOpen();
 	}
 
+	/**
+	 * @see PackedFile#setMemoryMapped(boolean)
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.file.setMemoryMapped(memoryMapped);
+	}
+
+	public boolean isMemoryMapped() {
+		return this.file.isMemoryMapped();
+	}
+
 	private void assertFileIsOpen() throws IOException {
 		if (!isOpen()) {
 			throw new FileClosedIOException();
@@ -135,15 +178,179 @@ public final class PackedIndexFile implements Closeable {
 		this.file.close();
 	}
 
+	/**
+	 * Writes all changes and compacts the underlying file.
+	 *
+	 * @return number of bytes reclaimed
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see PackedFile#compact()
+	 */
+	public long compact() throws IOException {
+		writeToFile();
+		return this.file.compact();
+	}
+
+	/**
+	 * Identifies the stored state of this file, so data derived from it can be stored in a sidecar file and checked before it is reused. Unsaved changes are
+	 * written first.
+	 *
+	 * @return three values which identify the state of this file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public long[] getFileVersion() throws IOException {
+		assertFileIsOpen();
+		writeToFile();
+		return new long[] { Files.size(this.file.getPath()), Files.getLastModifiedTime(this.file.getPath()).toMillis(), this.rootElement.headerIdx };
+	}
+
+	/**
+	 * Builds a {@link PathIndex} over all entries of this file, which is used by {@link #find(IdxPath)} until this file is modified. Unsaved changes are
+	 * written first.
+	 * <p>
+	 * If <code>sidecar</code> is not null and contains an index for the current state of this file, the index is read from it. Otherwise the index is built
+	 * by reading all directories and written to <code>sidecar</code>.
+	 *
+	 * @param sidecar
+	 *            file to read the index from or to write it to, can be null
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void buildPathIndex(Path sidecar) throws IOException {
+		final var version = getFileVersion();
+
+		PathIndex index = null;
+		if (sidecar != null) {
+			index = PathIndex.read(sidecar, version);
+		}
+		if (index == null) {
+			index = PathIndex.build(this.file, this.rootElement.headerIdx, false);
+			if (sidecar != null) {
+				index.write(sidecar, version);
+			}
+		}
+		this.pathIndex = index;
+	}
+
+	/**
+	 * Loads all entries into a {@link CompactIndexTree}, which is used instead of the regular tree until this file is modified. Unsaved changes are written
+	 * first.
+	 * <p>
+	 * The nodes of the compact tree are read-only. Calling one of the modifying methods of this file discards the compact tree and continues with the regular
+	 * tree, nodes obtained from the compact tree stay readable.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void loadCompactTree() throws IOException {
+		assertFileIsOpen();
+		writeToFile();
+		this.compactTree = new CompactIndexTree(this.file, this.rootElement.headerIdx);
+	}
+
+	public void clearCompactTree() {
+		this.compactTree = null;
+	}
+
+	public boolean hasCompactTree() {
+		return this.compactTree != null;
+	}
+
+	public void clearPathIndex() {
+		this.pathIndex = null;
+	}
+
+	/**
+	 * @return <code>true</code> if a path index was built and this file was not modified since
+	 */
+	public boolean hasPathIndex() {
+		return this.pathIndex != null;
+	}
+
 	public Optional<Node> find(IdxPath path) throws IOException {
+		final var compactTree = this.compactTree;
+		if (compactTree != null) {
+			return compactTree.getRoot().find(path);
+		}
+
+		final var index = this.pathIndex;
+		if (index != null) {
+			final var id = index.lookup(path);
+			if (id == PathIndex.NOT_FOUND) {
+				return Optional.empty();
+			}
+			if (id != PathIndex.UNKNOWN) {
+				return Optional.of(resolve(index, id));
+			}
+		}
 		return getRoot().find(path);
 	}
 
+	private Node resolve(PathIndex index, int id) throws IOException {
+		if (index.isDirectory(id)) {
+			return resolveDirectory(index, id);
+		}
+		final var parent = resolveDirectory(index, index.getParent(id));
+		return parent.getChild(index.getName(id)).orElseThrow(() -> new IndexEntryNotFoundException(parent.toPath().resolve(index.getName(id)).getFullName()));
+	}
+
+	/**
+	 * Resolves a directory without loading the childs of its parents, as long as they were not loaded before.
+	 */
+	private DirectoryNodeImpl resolveDirectory(PathIndex index, int id) throws IOException {
+		if (id == PathIndex.ROOT) {
+			return this.root;
+		}
+
+		final var parent = resolveDirectory(index, index.getParent(id));
+		final var name = index.getName(id);
+		synchronized (this.resolvedDirectories) {
+			if (!parent.childsRequested) {
+				return this.resolvedDirectories.computeIfAbsent(index.getDirectoryIndex(id), directoryIndex -> new DirectoryNodeImpl(parent, name, directoryIndex));
+			}
+		}
+
+		final var child = parent.getChild(name).orElseThrow(() -> new IndexEntryNotFoundException(parent.toPath().resolve(name).getFullName()));
+		return (DirectoryNodeImpl) child.asDirectory();
+	}
+
 	public Node findLast(IdxPath path) throws IOException {
 		return getRoot().findLast(path);
 	}
 
+	/**
+	 * Same as {@link #find(IdxPath)}, but the returned node belongs to the regular tree and can be modified. Discards the {@link #loadCompactTree() compact
+	 * tree}.
+	 *
+	 * @param path
+	 *            path of the entry
+	 * @return the entry at the given path
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public Optional<Node> findForUpdate(IdxPath path) throws IOException {
+		clearCompactTree();
+		return find(path);
+	}
+
+	/**
+	 * Same as {@link #findLast(IdxPath)}, but the returned node belongs to the regular tree and can be modified. Discards the {@link #loadCompactTree()
+	 * compact tree}.
+	 *
+	 * @param path
+	 *            path of the entry
+	 * @return the entry at the given path or its last existing parent
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public Node findLastForUpdate(IdxPath path) throws IOException {
+		clearCompactTree();
+		return findLast(path);
+	}
+
 	public DirectoryNode findOrCreateDirectory(IdxPath path) throws IOException {
+		clearCompactTree();
 		if (path.isRoot()) {
 			return getRoot();
 		}
@@ -195,6 +402,7 @@ public final class PackedIndexFile implements Closeable {
 			throw new IllegalArgumentException("empty path");
 		}
 
+		clearCompactTree();
 		final var optional = find(path.getParent());
 		if (optional.isEmpty()) {
 			throw new IndexEntryNotFoundException(path.getFullName());
@@ -209,6 +417,7 @@ public final class PackedIndexFile implements Closeable {
 			throw new IllegalArgumentException("empty path");
 		}
 
+		clearCompactTree();
 		final var optionalFrom = find(from);
 		if (optionalFrom.isEmpty()) {
 			throw new IndexEntryNotFoundException(from.getFullName());
@@ -225,7 +434,7 @@ public final class PackedIndexFile implements Closeable {
 		StructIndexFile[] fileData;
 		String nameTwine;
 
-		try (var reader = this.file.readEntry(directoryNode.directoryIndex)) {
+		try (var reader = new ByteBufferBinaryReader(this.file.readEntryAsBuffer(directoryNode.directoryIndex))) {
 			directoryData = new StructIndexDirectory[(int) reader.readUInt32()];
 			fileData = new StructIndexFile[(int) reader.readUInt32()];
 			for (var i = 0; i < directoryData.length; ++i) {
@@ -242,11 +451,20 @@ public final class PackedIndexFile implements Closeable {
 
 		final var entries = new ArrayList<NodeImpl>(directoryData.length + fileData.length);
 
-		for (final StructIndexDirectory element : directoryData) {
-			final var nameOffset = element.nameOffset;
-			final var nullTerminator = nameTwine.indexOf(0, nameOffset);
-			final var name = nameTwine.substring(nameOffset, nullTerminator);
-			entries.add(new DirectoryNodeImpl(directoryNode, name, element.directoryIndex));
+		synchronized (this.resolvedDirectories) {
+			directoryNode.childsRequested = true;
+			for (final StructIndexDirectory element : directoryData) {
+				final var resolved = this.resolvedDirectories.remove(element.directoryIndex);
+				if (resolved != null) {
+					entries.add(resolved);
+					continue;
+				}
+
+				final var nameOffset = element.nameOffset;
+				final var nullTerminator = nameTwine.indexOf(0, nameOffset);
+				final var name = nameTwine.substring(nameOffset, nullTerminator);
+				entries.add(new DirectoryNodeImpl(directoryNode, name, element.directoryIndex));
+			}
 		}
 
 		for (final StructIndexFile element : fileData) {
@@ -260,6 +478,11 @@ public final class PackedIndexFile implements Closeable {
 		return entries;
 	}
 
+	protected ByteBuffer readDirectoryBlock(DirectoryNodeImpl directoryNode) throws IOException {
+		assertFileIsOpen();
+		return this.file.readEntryAsBuffer(directoryNode.directoryIndex);
+	}
+
 	protected void markDirectoryForDeletion(int directoryIndex) {
 		if (directoryIndex <= 0) {
 			return;
@@ -279,6 +502,17 @@ public final class PackedIndexFile implements Closeable {
 		}
 	}
 
+	/**
+	 * {@link #writeToFile() Writes} all changes and forces them to the storage device, so they are not lost if the system crashes.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void sync() throws IOException {
+		writeToFile();
+		this.file.sync();
+	}
+
 	public void writeToFile() throws IOException {
 		assertFileIsOpen();
 		if (!this.dirty) {
@@ -306,7 +540,7 @@ public final class PackedIndexFile implements Closeable {
 		final var updateNodes = new LinkedList<UpdateDirectory>();
 		{
 			final var visitNode = new LinkedList<DirectoryNodeImpl>();
-			visitNode.add((DirectoryNodeImpl) getRoot());
+			visitNode.add(this.root);
 
 			while (!visitNode.isEmpty()) {
 				final var directory = visitNode.pop();
@@ -330,6 +564,16 @@ public final class PackedIndexFile implements Closeable {
 				directory.clearNodeFlags();
 			}
 
+			// a directory which needs a new entry changes its index, which is stored by its parent
+			final var updatedDirectories = Collections.newSetFromMap(new IdentityHashMap<DirectoryNodeImpl, Boolean>());
+			updateNodes.forEach(updateNode -> updatedDirectories.add(updateNode.directory));
+			for (final var updateNode : new ArrayList<>(updateNodes)) {
+				final var parent = updateNode.directory.getParent();
+				if (updateNode.directory.directoryIndex == 0 && parent != null && updatedDirectories.add(parent)) {
+					updateNodes.push(new UpdateDirectory(computeDirectorySize(parent), parent));
+				}
+			}
+
 			updateNodes.sort((a, b) -> Long.compare(a.size, b.size));
 		}
 
@@ -343,7 +587,7 @@ public final class PackedIndexFile implements Closeable {
 			writeDirectory(updateNode.directory);
 		}
 
-		this.rootElement.headerIdx = ((DirectoryNodeImpl) getRoot()).directoryIndex;
+		this.rootElement.headerIdx = this.root.directoryIndex;
 		try (var writer = this.file.writeEntry(this.file.getRootIndex())) {
 			this.rootElement.write(writer);
 		}
@@ -0,0 +1,491 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import nexusvault.vault.IdxPath;
+import nexusvault.vault.pack.PackedFile;
+import nexusvault.vault.struct.StructIndexDirectory;
+import nexusvault.vault.struct.StructIndexFile;
+
+/**
+ * A compact index of all paths stored in a {@link PackedIndexFile}, which resolves a complete path with a single hash lookup.
+ * <p>
+ * Each entry is identified by an id and stored in a number of flat arrays: the id of its parent, the offset and length of its name in a shared byte arena and
+ * the index of its directory block, or {@value #NO_DIRECTORY} for files. Ids are assigned in breadth-first order, so the childs of a directory have
+ * consecutive ids, directories first. Paths are hashed case-insensitive into an open addressing table, so no string is created for a lookup.
+ * <p>
+ * Optionally, the remaining fields of each {@link StructIndexFile} are kept in a fixed-stride record table outside of the java heap, which allows
+ * {@link CompactIndexTree} to represent a complete index file without a single object per entry.
+ * <p>
+ * The index reflects the content of an index file at the moment it was built and is not updated. It can be written to and read from a sidecar file.
+ * <p>
+ * Instances are immutable and can be used by multiple threads.
+ */
+final class PathIndex {
+
+	private static final int SIGNATURE = 'P' << 24 | 'I' << 16 | 'D' << 8 | 'X';
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 2 * Integer.BYTES + 3 * Long.BYTES + 2 * Integer.BYTES;
+
+	static final int ROOT = 0;
+	/** returned by {@link #lookup(IdxPath)} if the path is not contained */
+	static final int NOT_FOUND = -1;
+	/** returned by {@link #lookup(IdxPath)} if the path contains characters this index can not compare */
+	static final int UNKNOWN = -2;
+	static final int NO_DIRECTORY = -1;
+
+	/** {@link StructIndexFile} without its name offset */
+	private static final int FILE_RECORD_SIZE = StructIndexFile.SIZE_IN_BYTES - Integer.BYTES;
+	private static final int RECORD_FLAGS = 0x00;
+	private static final int RECORD_WRITE_TIME = 0x04;
+	private static final int RECORD_UNCOMPRESSED_SIZE = 0x0C;
+	private static final int RECORD_COMPRESSED_SIZE = 0x14;
+	private static final int RECORD_HASH = 0x1C;
+	private static final int RECORD_UNK_034 = 0x30;
+
+	private static final int FNV_OFFSET = 0x811C9DC5;
+	private static final int FNV_PRIME = 0x01000193;
+
+	private int count;
+	private int[] parents;
+	private int[] nameOffsets;
+	private int[] nameLengths;
+	private int[] directoryIndices;
+	private int[] hashes;
+	private int[] firstChilds;
+	private int[] childCounts;
+	private int[] directoryCounts;
+
+	private byte[] arena;
+	private int arenaSize;
+
+	/** ids + 1, 0 marks an empty slot */
+	private int[] table;
+
+	/** file records, indexed by id, <code>null</code> if not requested */
+	private ByteBuffer records;
+
+	private PathIndex(int capacity, int arenaCapacity) {
+		this.parents = new int[capacity];
+		this.nameOffsets = new int[capacity];
+		this.nameLengths = new int[capacity];
+		this.directoryIndices = new int[capacity];
+		this.hashes = new int[capacity];
+		this.firstChilds = new int[capacity];
+		this.childCounts = new int[capacity];
+		this.directoryCounts = new int[capacity];
+		this.arena = new byte[arenaCapacity];
+	}
+
+	/**
+	 * Reads all directory blocks, starting at <code>rootDirectoryIndex</code>, and indexes their entries.
+	 *
+	 * @param file
+	 *            the file which contains the directory blocks
+	 * @param rootDirectoryIndex
+	 *            index of the root directory block
+	 * @param withRecords
+	 *            if true, the file records are kept as well
+	 * @return the index
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static PathIndex build(PackedFile file, int rootDirectoryIndex, boolean withRecords) throws IOException {
+		final var index = new PathIndex(1024, 16 << 10);
+		index.add(NO_DIRECTORY, FNV_OFFSET, null, 0, 0, rootDirectoryIndex);
+		var records = withRecords ? ByteBuffer.allocate(1024 * FILE_RECORD_SIZE) : null;
+
+		// ids are assigned in breadth-first order, each directory is visited once its parent has been read
+		for (var id = 0; id < index.count; ++id) {
+			final var directoryIndex = index.directoryIndices[id];
+			if (directoryIndex <= 0) {
+				continue; // file or directory without a block
+			}
+
+			final var block = file.readEntryAsBuffer(directoryIndex).order(ByteOrder.LITTLE_ENDIAN);
+			final var base = block.position();
+			final var directoryCount = block.getInt(base);
+			final var fileCount = block.getInt(base + Integer.BYTES);
+			final var directoryStart = base + 2 * Integer.BYTES;
+			final var fileStart = directoryStart + directoryCount * StructIndexDirectory.SIZE_IN_BYTES;
+			final var nameStart = fileStart + fileCount * StructIndexFile.SIZE_IN_BYTES;
+			final var parentHash = index.hashes[id];
+
+			index.firstChilds[id] = index.count;
+			index.childCounts[id] = directoryCount + fileCount;
+			index.directoryCounts[id] = directoryCount;
+
+			for (var i = 0; i < directoryCount; ++i) {
+				final var struct = directoryStart + i * StructIndexDirectory.SIZE_IN_BYTES;
+				final var nameOffset = nameStart + block.getInt(struct);
+				index.add(id, parentHash, block, nameOffset, nameLength(block, nameOffset), block.getInt(struct + Integer.BYTES));
+			}
+			for (var i = 0; i < fileCount; ++i) {
+				final var struct = fileStart + i * StructIndexFile.SIZE_IN_BYTES;
+				final var nameOffset = nameStart + block.getInt(struct);
+				index.add(id, parentHash, block, nameOffset, nameLength(block, nameOffset), NO_DIRECTORY);
+
+				if (records != null) {
+					final var recordOffset = (index.count - 1) * FILE_RECORD_SIZE;
+					if (records.capacity() < recordOffset + FILE_RECORD_SIZE) {
+						records = ByteBuffer.allocate(index.parents.length * FILE_RECORD_SIZE).put(records.flip());
+					}
+					records.position(recordOffset);
+					records.put(block.duplicate().position(struct + Integer.BYTES).limit(struct + StructIndexFile.SIZE_IN_BYTES));
+				}
+			}
+		}
+
+		if (records != null) {
+			final var size = index.count * FILE_RECORD_SIZE;
+			index.records = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+			index.records.put(records.clear().limit(Math.min(size, records.capacity()))).clear();
+		}
+
+		index.buildTable();
+		return index;
+	}
+
+	private static int nameLength(ByteBuffer block, int nameOffset) {
+		var end = nameOffset;
+		while (block.get(end) != 0) {
+			++end;
+		}
+		return end - nameOffset;
+	}
+
+	private void add(int parent, int parentHash, ByteBuffer names, int nameOffset, int nameLength, int directoryIndex) {
+		if (this.count == this.parents.length) {
+			final var capacity = this.count * 2;
+			this.parents = Arrays.copyOf(this.parents, capacity);
+			this.nameOffsets = Arrays.copyOf(this.nameOffsets, capacity);
+			this.nameLengths = Arrays.copyOf(this.nameLengths, capacity);
+			this.directoryIndices = Arrays.copyOf(this.directoryIndices, capacity);
+			this.hashes = Arrays.copyOf(this.hashes, capacity);
+			this.firstChilds = Arrays.copyOf(this.firstChilds, capacity);
+			this.childCounts = Arrays.copyOf(this.childCounts, capacity);
+			this.directoryCounts = Arrays.copyOf(this.directoryCounts, capacity);
+		}
+		if (this.arenaSize + nameLength > this.arena.length) {
+			this.arena = Arrays.copyOf(this.arena, Math.max(this.arena.length * 2, this.arenaSize + nameLength));
+		}
+
+		var hash = parentHash;
+		if (parent != NO_DIRECTORY) {
+			hash = (hash ^ '\\') * FNV_PRIME;
+			for (var i = 0; i < nameLength; ++i) {
+				final var value = names.get(nameOffset + i);
+				this.arena[this.arenaSize + i] = value;
+				hash = (hash ^ toLowerCase(value)) * FNV_PRIME;
+			}
+		}
+
+		this.parents[this.count] = parent;
+		this.nameOffsets[this.count] = this.arenaSize;
+		this.nameLengths[this.count] = nameLength;
+		this.directoryIndices[this.count] = directoryIndex;
+		this.hashes[this.count] = hash;
+		this.arenaSize += nameLength;
+		this.count += 1;
+	}
+
+	private void buildTable() {
+		final var capacity = Integer.highestOneBit(Math.max(16, this.count * 2 - 1)) << 1;
+		this.table = new int[capacity];
+		final var mask = capacity - 1;
+		for (var id = 1; id < this.count; ++id) { // the root is never looked up
+			var slot = this.hashes[id] & mask;
+			while (this.table[slot] != 0) {
+				slot = slot + 1 & mask;
+			}
+			this.table[slot] = id + 1;
+		}
+	}
+
+	private static int toLowerCase(int value) {
+		return 'A' <= value && value <= 'Z' ? value + ('a' - 'A') : value & 0xFF;
+	}
+
+	/**
+	 * @param path
+	 *            to look up, compared case-insensitive
+	 * @return the id of the entry, {@link #NOT_FOUND} if no entry with the given path exists or {@link #UNKNOWN} if this index is unable to decide
+	 */
+	int lookup(IdxPath path) {
+		if (path.isRoot()) {
+			return ROOT;
+		}
+
+		final var segments = new String[path.length()];
+		var hash = FNV_OFFSET;
+		var depth = 0;
+		for (final var segment : path) {
+			segments[depth++] = segment;
+			hash = (hash ^ '\\') * FNV_PRIME;
+			for (var i = 0; i < segment.length(); ++i) {
+				final var value = segment.charAt(i);
+				if (value > 0x7F) {
+					return UNKNOWN; // names are stored as bytes, only ascii can be compared without decoding
+				}
+				hash = (hash ^ toLowerCase(value)) * FNV_PRIME;
+			}
+		}
+
+		final var mask = this.table.length - 1;
+		for (var slot = hash & mask; this.table[slot] != 0; slot = slot + 1 & mask) {
+			final var id = this.table[slot] - 1;
+			if (this.hashes[id] == hash && matches(id, segments)) {
+				return id;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * @param parent
+	 *            id of a directory
+	 * @param name
+	 *            of the child, compared case-insensitive
+	 * @return the id of the child, {@link #NOT_FOUND} if the directory contains no entry with the given name or {@link #UNKNOWN} if this index is unable to
+	 *         decide
+	 */
+	int lookupChild(int parent, String name) {
+		var hash = (this.hashes[parent] ^ '\\') * FNV_PRIME;
+		for (var i = 0; i < name.length(); ++i) {
+			final var value = name.charAt(i);
+			if (value > 0x7F) {
+				return UNKNOWN;
+			}
+			hash = (hash ^ toLowerCase(value)) * FNV_PRIME;
+		}
+
+		final var mask = this.table.length - 1;
+		for (var slot = hash & mask; this.table[slot] != 0; slot = slot + 1 & mask) {
+			final var id = this.table[slot] - 1;
+			if (this.hashes[id] == hash && this.parents[id] == parent && nameEquals(id, name)) {
+				return id;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	private boolean matches(int id, String[] segments) {
+		for (var i = segments.length - 1; i >= 0; --i) {
+			if (id == ROOT || !nameEquals(id, segments[i])) {
+				return false;
+			}
+			id = this.parents[id];
+		}
+		return id == ROOT;
+	}
+
+	private boolean nameEquals(int id, String name) {
+		final var length = this.nameLengths[id];
+		if (length != name.length()) {
+			return false;
+		}
+		final var offset = this.nameOffsets[id];
+		for (var i = 0; i < length; ++i) {
+			if (toLowerCase(this.arena[offset + i]) != toLowerCase(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	int size() {
+		return this.count;
+	}
+
+	int getParent(int id) {
+		return this.parents[id];
+	}
+
+	String getName(int id) {
+		return new String(this.arena, this.nameOffsets[id], this.nameLengths[id], StandardCharsets.UTF_8);
+	}
+
+	boolean isDirectory(int id) {
+		return this.directoryIndices[id] != NO_DIRECTORY;
+	}
+
+	int getDirectoryIndex(int id) {
+		return this.directoryIndices[id];
+	}
+
+	int getFirstChild(int id) {
+		return this.firstChilds[id];
+	}
+
+	int getChildCount(int id) {
+		return this.childCounts[id];
+	}
+
+	/**
+	 * @return number of directories among the childs, which precede all files
+	 */
+	int getDirectoryCount(int id) {
+		return this.directoryCounts[id];
+	}
+
+	boolean hasRecords() {
+		return this.records != null;
+	}
+
+	int getFlags(int id) {
+		return this.records.getInt(id * FILE_RECORD_SIZE + RECORD_FLAGS);
+	}
+
+	long getWriteTime(int id) {
+		return this.records.getLong(id * FILE_RECORD_SIZE + RECORD_WRITE_TIME);
+	}
+
+	long getUncompressedSize(int id) {
+		return this.records.getLong(id * FILE_RECORD_SIZE + RECORD_UNCOMPRESSED_SIZE);
+	}
+
+	long getCompressedSize(int id) {
+		return this.records.getLong(id * FILE_RECORD_SIZE + RECORD_COMPRESSED_SIZE);
+	}
+
+	byte[] getHash(int id) {
+		final var hash = new byte[20];
+		this.records.duplicate().position(id * FILE_RECORD_SIZE + RECORD_HASH).get(hash);
+		return hash;
+	}
+
+	int getUnk_034(int id) {
+		return this.records.getInt(id * FILE_RECORD_SIZE + RECORD_UNK_034);
+	}
+
+	/**
+	 * Writes this index to the given file. <code>version</code> identifies the state of the index file this index was built from and is checked by
+	 * {@link #read(Path, long[])}.
+	 *
+	 * @param path
+	 *            of the sidecar file
+	 * @param version
+	 *            three values which identify the state of the index file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void write(Path path, long[] version) throws IOException {
+		final var buffer = ByteBuffer.allocate(HEADER_SIZE + this.count * 4 * Integer.BYTES + this.arenaSize).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(SIGNATURE).putInt(VERSION);
+		buffer.putLong(version[0]).putLong(version[1]).putLong(version[2]);
+		buffer.putInt(this.count).putInt(this.arenaSize);
+		buffer.asIntBuffer().put(this.parents, 0, this.count);
+		buffer.position(buffer.position() + this.count * Integer.BYTES);
+		buffer.asIntBuffer().put(this.nameOffsets, 0, this.count);
+		buffer.position(buffer.position() + this.count * Integer.BYTES);
+		buffer.asIntBuffer().put(this.nameLengths, 0, this.count);
+		buffer.position(buffer.position() + this.count * Integer.BYTES);
+		buffer.asIntBuffer().put(this.directoryIndices, 0, this.count);
+		buffer.position(buffer.position() + this.count * Integer.BYTES);
+		buffer.put(this.arena, 0, this.arenaSize);
+		buffer.flip();
+
+		try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Reads an index from the given file.
+	 *
+	 * @param path
+	 *            of the sidecar file
+	 * @param version
+	 *            three values which identify the current state of the index file
+	 * @return the index or <code>null</code> if the file does not exist, is not a valid sidecar or was built for a different state of the index file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static PathIndex read(Path path, long[] version) throws IOException {
+		if (!Files.exists(path)) {
+			return null;
+		}
+
+		final ByteBuffer buffer;
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+		}
+
+		if (buffer.getInt() != SIGNATURE || buffer.getInt() != VERSION) {
+			return null;
+		}
+		if (buffer.getLong() != version[0] || buffer.getLong() != version[1] || buffer.getLong() != version[2]) {
+			return null;
+		}
+
+		final var count = buffer.getInt();
+		final var arenaSize = buffer.getInt();
+		if (count <= 0 || arenaSize < 0 || buffer.remaining() != (long) count * 4 * Integer.BYTES + arenaSize) {
+			return null;
+		}
+
+		final var index = new PathIndex(count, arenaSize);
+		index.count = count;
+		index.arenaSize = arenaSize;
+		buffer.asIntBuffer().get(index.parents);
+		buffer.position(buffer.position() + count * Integer.BYTES);
+		buffer.asIntBuffer().get(index.nameOffsets);
+		buffer.position(buffer.position() + count * Integer.BYTES);
+		buffer.asIntBuffer().get(index.nameLengths);
+		buffer.position(buffer.position() + count * Integer.BYTES);
+		buffer.asIntBuffer().get(index.directoryIndices);
+		buffer.position(buffer.position() + count * Integer.BYTES);
+		buffer.get(index.arena);
+
+		// hashes and child ranges are not stored, parents always precede their childs
+		index.hashes[ROOT] = FNV_OFFSET;
+		for (var id = 1; id < count; ++id) {
+			final var parent = index.parents[id];
+			if (index.childCounts[parent]++ == 0) {
+				index.firstChilds[parent] = id;
+			}
+			if (index.isDirectory(id)) {
+				index.directoryCounts[parent] += 1;
+			}
+
+			var hash = (index.hashes[index.parents[id]] ^ '\\') * FNV_PRIME;
+			final var offset = index.nameOffsets[id];
+			for (var i = 0; i < index.nameLengths[id]; ++i) {
+				hash = (hash ^ toLowerCase(index.arena[offset + i])) * FNV_PRIME;
+			}
+			index.hashes[id] = hash;
+		}
+
+		index.buildTable();
+		return index;
+	}
+
+}
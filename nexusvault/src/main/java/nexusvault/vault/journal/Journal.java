@@ -0,0 +1,474 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.vault.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import nexusvault.shared.exception.SignatureMismatchException;
+import nexusvault.shared.exception.VersionMismatchException;
+import nexusvault.vault.FileClosedIOException;
+import nexusvault.vault.IdxPath;
+
+/**
+ * Append-only log of modifications, which were not yet written to the index and archive file of an archive. After a crash, the modifications are
+ * {@link #replay(Replay) replayed} on top of the last state which was written to both files.
+ * <p>
+ * Each {@link Record} is written as a whole. It starts with its length and a CRC32 checksum of its content. A record which is incomplete or does not match
+ * its checksum was not completely written before a crash and ends the journal.
+ * <p>
+ * Records can be {@link #append(Record) appended} by multiple threads at once. {@link #sync(long)} uses group commit: a thread which waits for its record
+ * to be stored, forces all records which were appended so far to the storage device, so a single sync covers the records of all waiting threads.
+ */
+public final class Journal implements Closeable {
+
+	private static final int SIGNATURE = 'J' << 24 | 'R' << 16 | 'N' << 8 | 'L';
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+	/** length and checksum */
+	private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+	private static final byte OPERATION_WRITE = 1;
+	private static final byte OPERATION_DELETE = 2;
+	private static final byte OPERATION_MOVE = 3;
+
+	/**
+	 * Receives the operations of all complete records in the order they were appended.
+	 */
+	public static interface Replay {
+		/**
+		 * @param data
+		 *            encoded data, <code>null</code> if the data was already stored when the operation was recorded
+		 */
+		void write(IdxPath path, int flags, long writeTime, long uncompressedSize, long compressedSize, byte[] hash, byte[] data) throws IOException;
+
+		void delete(IdxPath path) throws IOException;
+
+		void move(IdxPath from, IdxPath to) throws IOException;
+	}
+
+	/**
+	 * Collects operations, which are appended to the journal at once.
+	 */
+	public static final class Record {
+		private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN).position(RECORD_HEADER_SIZE);
+
+		/**
+		 * @param data
+		 *            encoded data, may be <code>null</code> if the data is already stored in the archive
+		 * @return this
+		 */
+		public Record write(IdxPath path, int flags, long writeTime, long uncompressedSize, long compressedSize, byte[] hash, byte[] data) {
+			ensureCapacity(1);
+			this.buffer.put(OPERATION_WRITE);
+			putPath(path);
+			ensureCapacity(Integer.BYTES + 3 * Long.BYTES);
+			this.buffer.putInt(flags).putLong(writeTime).putLong(uncompressedSize).putLong(compressedSize);
+			putBytes(hash);
+			putBytes(data);
+			return this;
+		}
+
+		public Record delete(IdxPath path) {
+			ensureCapacity(1);
+			this.buffer.put(OPERATION_DELETE);
+			putPath(path);
+			return this;
+		}
+
+		public Record move(IdxPath from, IdxPath to) {
+			ensureCapacity(1);
+			this.buffer.put(OPERATION_MOVE);
+			putPath(from);
+			putPath(to);
+			return this;
+		}
+
+		public boolean isEmpty() {
+			return this.buffer.position() == RECORD_HEADER_SIZE;
+		}
+
+		/**
+		 * @return size of this record in the journal
+		 */
+		public int size() {
+			return this.buffer.position();
+		}
+
+		private void putPath(IdxPath path) {
+			ensureCapacity(Integer.BYTES);
+			this.buffer.putInt(path.length());
+			for (final var name : path) {
+				putBytes(name.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+
+		private void putBytes(byte[] bytes) {
+			if (bytes == null) {
+				ensureCapacity(Integer.BYTES);
+				this.buffer.putInt(-1);
+			} else {
+				ensureCapacity(Integer.BYTES + bytes.length);
+				this.buffer.putInt(bytes.length).put(bytes);
+			}
+		}
+
+		private void ensureCapacity(int bytes) {
+			if (this.buffer.remaining() < bytes) {
+				final var capacity = Math.max(this.buffer.capacity() * 2, this.buffer.position() + bytes);
+				final var buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+				this.buffer = buffer.put(this.buffer.flip());
+			}
+		}
+
+		private ByteBuffer seal() {
+			final var buffer = this.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).flip();
+			final var crc = new CRC32();
+			crc.update(buffer.duplicate().position(RECORD_HEADER_SIZE));
+			buffer.putInt(0, buffer.limit() - RECORD_HEADER_SIZE);
+			buffer.putInt(Integer.BYTES, (int) crc.getValue());
+			return buffer;
+		}
+	}
+
+	private FileChannel channel;
+	private Path path;
+	/** End of the last appended record */
+	private long appended;
+	/** Number of bytes appended since the journal was opened, is not reset by {@link #clear()} */
+	private long sequence;
+
+	private final Object syncLock = new Object();
+	/** Value of {@link #sequence} known to be on the storage device. Guarded by {@link #syncLock} */
+	private long synced;
+	/** <code>true</code> while a thread forces the journal to the storage device. Guarded by {@link #syncLock} */
+	private boolean syncing;
+	private long syncCount;
+
+	public Journal() {
+	}
+
+	public Journal(Path path) throws IOException {
+		this();
+		open(path);
+	}
+
+	/**
+	 * Opens or creates the journal at the given path. New records are appended behind the last complete record.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws SignatureMismatchException
+	 *             if the file is not a journal
+	 * @throws VersionMismatchException
+	 *             if the journal has an unsupported version
+	 */
+	public synchronized void open(Path path) throws IOException {
+		close();
+
+		final var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() < HEADER_SIZE) {
+				final var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).putInt(SIGNATURE).putInt(VERSION).flip();
+				channel.truncate(0);
+				writeFully(channel, header, 0);
+				channel.force(false);
+			} else {
+				final var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				readFully(channel, header, 0);
+				final var signature = header.getInt(0);
+				final var version = header.getInt(Integer.BYTES);
+				if (signature != SIGNATURE) {
+					throw new SignatureMismatchException("Journal", SIGNATURE, signature);
+				}
+				if (version != VERSION) {
+					throw new VersionMismatchException("Journal", VERSION, version);
+				}
+			}
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+		this.channel = channel;
+		this.path = path;
+		this.appended = findEndOfRecords(null);
+		this.sequence = 0;
+		synchronized (this.syncLock) {
+			this.synced = 0;
+		}
+	}
+
+	public synchronized boolean isOpen() {
+		return this.channel != null;
+	}
+
+	public synchronized Path getPath() {
+		return this.path;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.channel == null) {
+			return;
+		}
+		try {
+			this.channel.close();
+		} finally {
+			this.channel = null;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the journal contains no records
+	 */
+	public synchronized boolean isEmpty() {
+		return this.appended <= HEADER_SIZE;
+	}
+
+	/**
+	 * @return size of all records in bytes
+	 */
+	public synchronized long size() {
+		return Math.max(0, this.appended - HEADER_SIZE);
+	}
+
+	/**
+	 * @return how often the journal was forced to the storage device by {@link #sync(long)}
+	 */
+	public long getSyncCount() {
+		synchronized (this.syncLock) {
+			return this.syncCount;
+		}
+	}
+
+	/**
+	 * Passes the operations of all complete records to <code>replay</code>. An incomplete record at the end of the journal is removed.
+	 *
+	 * @return number of replayed records
+	 * @throws IOException
+	 *             if an I/O error occurs or <code>replay</code> fails
+	 */
+	public synchronized int replay(Replay replay) throws IOException {
+		assertFileIsOpen();
+		final var records = new ArrayList<ByteBuffer>();
+		final var end = findEndOfRecords(records);
+		if (end < this.channel.size()) {
+			this.channel.truncate(end);
+			this.channel.force(false);
+		}
+		this.appended = end;
+
+		for (final var record : records) {
+			while (record.hasRemaining()) {
+				final var operation = record.get();
+				switch (operation) {
+					case OPERATION_WRITE:
+						replay.write(getPath(record), record.getInt(), record.getLong(), record.getLong(), record.getLong(), getBytes(record), getBytes(record));
+						break;
+					case OPERATION_DELETE:
+						replay.delete(getPath(record));
+						break;
+					case OPERATION_MOVE:
+						replay.move(getPath(record), getPath(record));
+						break;
+					default:
+						throw new IOException(String.format("Unknown operation %d in journal %s", operation, this.path));
+				}
+			}
+		}
+		return records.size();
+	}
+
+	/**
+	 * Appends a record to the journal. The record is not guaranteed to be stored until {@link #sync(long)} was called.
+	 *
+	 * @return position which needs to be passed to {@link #sync(long)}
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public synchronized long append(Record record) throws IOException {
+		assertFileIsOpen();
+		if (record.isEmpty()) {
+			return this.sequence;
+		}
+		final var buffer = record.seal();
+		writeFully(this.channel, buffer, this.appended);
+		this.appended += buffer.limit();
+		this.sequence += buffer.limit();
+		return this.sequence;
+	}
+
+	/**
+	 * Waits until all records up to the given position are stored on the storage device. If no other thread is currently syncing, the calling thread forces
+	 * all records which were appended so far, otherwise it waits for that thread to finish, which may already cover the given position. Returns immediately,
+	 * if the records were {@link #clear() cleared} in the meantime.
+	 *
+	 * @param position
+	 *            as returned by {@link #append(Record)}
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws InterruptedIOException
+	 *             if the calling thread is interrupted while waiting
+	 */
+	public void sync(long position) throws IOException {
+		synchronized (this.syncLock) {
+			while (this.synced < position) {
+				if (!this.syncing) {
+					this.syncing = true;
+					break;
+				}
+				try {
+					this.syncLock.wait();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("sync was interrupted");
+				}
+			}
+			if (this.synced >= position) {
+				return;
+			}
+		}
+
+		var success = false;
+		long target = 0;
+		try {
+			final FileChannel channel;
+			synchronized (this) {
+				assertFileIsOpen();
+				channel = this.channel;
+				target = this.sequence;
+			}
+			channel.force(false);
+			success = true;
+		} catch (final ClosedChannelException | FileClosedIOException e) {
+			synchronized (this.syncLock) {
+				if (this.synced >= position) { // cleared before the journal was closed
+					return;
+				}
+			}
+			throw e;
+		} finally {
+			synchronized (this.syncLock) {
+				this.syncing = false;
+				if (success) {
+					this.synced = Math.max(this.synced, target);
+					this.syncCount += 1;
+				}
+				this.syncLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Removes all records. Should only be called after all modifications are stored in the index and archive file.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public synchronized void clear() throws IOException {
+		assertFileIsOpen();
+		this.channel.truncate(HEADER_SIZE);
+		this.channel.force(false);
+		this.appended = HEADER_SIZE;
+		synchronized (this.syncLock) { // all records are stored elsewhere
+			this.synced = Math.max(this.synced, this.sequence);
+			this.syncLock.notifyAll();
+		}
+	}
+
+	/**
+	 * @param records
+	 *            receives the content of all complete records, may be <code>null</code>
+	 * @return position behind the last complete record
+	 */
+	private long findEndOfRecords(ArrayList<ByteBuffer> records) throws IOException {
+		final var size = this.channel.size();
+		final var header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		final var crc = new CRC32();
+		var position = (long) HEADER_SIZE;
+		while (position + RECORD_HEADER_SIZE <= size) {
+			readFully(this.channel, header.clear(), position);
+			final var length = header.getInt(0);
+			final var checksum = header.getInt(Integer.BYTES);
+			if (length <= 0 || position + RECORD_HEADER_SIZE + length > size) {
+				break;
+			}
+
+			final var content = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(this.channel, content, position + RECORD_HEADER_SIZE);
+			crc.reset();
+			crc.update(content.flip());
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+
+			if (records != null) {
+				records.add(content.rewind());
+			}
+			position += RECORD_HEADER_SIZE + length;
+		}
+		return position;
+	}
+
+	private static IdxPath getPath(ByteBuffer record) {
+		final var length = record.getInt();
+		final var names = new ArrayList<String>(length);
+		for (var i = 0; i < length; ++i) {
+			names.add(new String(getBytes(record), StandardCharsets.UTF_8));
+		}
+		return IdxPath.createPath(names);
+	}
+
+	private static byte[] getBytes(ByteBuffer record) {
+		final var length = record.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final var bytes = new byte[length];
+		record.get(bytes);
+		return bytes;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+		while (src.hasRemaining()) {
+			position += channel.write(src, position);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+		while (dst.hasRemaining()) {
+			final var read = channel.read(dst, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of journal");
+			}
+			position += read;
+		}
+	}
+
+	private void assertFileIsOpen() throws IOException {
+		if (this.channel == null) {
+			throw new FileClosedIOException();
+		}
+	}
+
+}
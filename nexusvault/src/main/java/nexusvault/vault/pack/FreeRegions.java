@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+
+package nexusvault.vault.pack;
+
+import java.util.Comparator;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps track of the free regions of a {@link PackedFile}, ordered by capacity for best fit allocations and by offset to find neighboring regions.
+ * <p>
+ * A region occupies its capacity plus one guard word in front and one behind it, so the region directly behind a region starts at
+ * <code>offset + capacity + 2 * GUARD_SIZE</code>.
+ */
+final class FreeRegions {
+
+	static final int GUARD_SIZE = Long.BYTES;
+
+	static final class Region {
+		final int index;
+		final long offset;
+		final long capacity;
+
+		Region(int index, long offset, long capacity) {
+			this.index = index;
+			this.offset = offset;
+			this.capacity = capacity;
+		}
+
+		/**
+		 * @return offset of the region directly behind this region
+		 */
+		long next() {
+			return this.offset + this.capacity + 2 * GUARD_SIZE;
+		}
+
+		@Override
+		public String toString() {
+			return "Region [index=" + this.index + ", offset=" + this.offset + ", capacity=" + this.capacity + "]";
+		}
+	}
+
+	private static final Comparator<Region> BY_CAPACITY = Comparator.<Region>comparingLong(r -> r.capacity).thenComparingLong(r -> r.offset);
+
+	private final TreeMap<Long, Region> byOffset = new TreeMap<>();
+	private final TreeSet<Region> byCapacity = new TreeSet<>(BY_CAPACITY);
+	private long totalCapacity;
+
+	public Region add(int index, long offset, long capacity) {
+		final var region = new Region(index, offset, capacity);
+		final var old = this.byOffset.put(offset, region);
+		if (old != null) {
+			this.byCapacity.remove(old);
+			this.totalCapacity -= old.capacity;
+		}
+		this.byCapacity.add(region);
+		this.totalCapacity += capacity;
+		return region;
+	}
+
+	public void remove(Region region) {
+		if (this.byOffset.remove(region.offset, region)) {
+			this.byCapacity.remove(region);
+			this.totalCapacity -= region.capacity;
+		}
+	}
+
+	/**
+	 * @param capacity
+	 *            minimal capacity
+	 * @return the smallest region with at least <code>capacity</code> bytes, the region with the lowest offset is preferred if multiple regions fit equally
+	 *         well. <code>null</code> if no region is large enough
+	 */
+	public Region bestFit(long capacity) {
+		return this.byCapacity.ceiling(new Region(0, Long.MIN_VALUE, capacity));
+	}
+
+	/**
+	 * @return the free region which starts at <code>offset</code>, or <code>null</code>
+	 */
+	public Region startingAt(long offset) {
+		return this.byOffset.get(offset);
+	}
+
+	/**
+	 * @return the free region which is directly in front of the region at <code>offset</code>, or <code>null</code>
+	 */
+	public Region precedingRegion(long offset) {
+		final var entry = this.byOffset.lowerEntry(offset);
+		if (entry == null || entry.getValue().next() != offset) {
+			return null;
+		}
+		return entry.getValue();
+	}
+
+	public int size() {
+		return this.byOffset.size();
+	}
+
+	public long getTotalCapacity() {
+		return this.totalCapacity;
+	}
+
+	public void clear() {
+		this.byOffset.clear();
+		this.byCapacity.clear();
+		this.totalCapacity = 0;
+	}
+
+}
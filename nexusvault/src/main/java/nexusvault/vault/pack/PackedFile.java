@@ -13,10 +13,15 @@ package nexusvault.vault.pack;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
@@ -34,20 +39,27 @@ import kreed.io.util.BinaryWriter;
 import kreed.io.util.BinaryWriterCounter;
 import kreed.io.util.BinaryWriterView;
 import kreed.io.util.ByteAlignmentUtil;
+import kreed.io.util.ByteBufferBinaryReader;
 import kreed.io.util.Seek;
 import nexusvault.shared.exception.IntegerOverflowException;
 import nexusvault.shared.exception.SignatureMismatchException;
 import nexusvault.shared.exception.VersionMismatchException;
 import nexusvault.vault.FileClosedIOException;
 import nexusvault.vault.file.BufferedFileAccess;
+import nexusvault.vault.file.RegionLease;
 import nexusvault.vault.pack.PackException.PackIndexCollisionException;
 import nexusvault.vault.pack.PackException.PackIndexInvalidException;
 import nexusvault.vault.pack.PackException.PackMalformedException;
 import nexusvault.vault.struct.StructPackEntry;
 import nexusvault.vault.struct.StructPackFileHeader;
 
-// TODO deletion is incomplete
-// TODO merge and split of file regions to not waste space
+/**
+ * A file, which stores entries in regions of 16 byte aligned capacity. Each region is surrounded by two guard words, which contain its capacity. A negative
+ * capacity marks a free region.
+ * <p>
+ * Free regions are reused with a best fit strategy. Regions larger than needed are split and neighboring free regions are merged when an entry is released.
+ * Space which is left between entries can be reclaimed with {@link #compact()}.
+ */
 public final class PackedFile implements Closeable {
 
 	private static final int SIGNATURE = StructPackFileHeader.SIGNATURE;
@@ -56,20 +68,41 @@ public final class PackedFile implements Closeable {
 	private static final int MINIMUM_GROW_VOLUME = 50;
 	private static final float GROW_FACTOR = 1.25f;
 
+	private static final int STREAM_WINDOW_SIZE = 64 << 10;
+	private static final int COMPACT_BUFFER_SIZE = 1 << 20;
+
+	/** A free region is only split, if the remaining region has at least this capacity */
+	private static final long MINIMUM_SPLIT_CAPACITY = 64;
+	private static final long FIRST_ENTRY_OFFSET = ByteAlignmentUtil.alignTo16Byte(StructPackFileHeader.SIZE_IN_BYTES + Long.BYTES);
+
 	private final class IndexEntry {
+		private final int index;
 		private long offset;
-		long size;
+		private long size;
 		long capacity;
 
+		public IndexEntry(int index) {
+			this.index = index;
+		}
+
 		public void setOffset(long offset) {
-			PackedFile.this.dirty |= this.offset != offset;
-			this.offset = offset;
+			if (this.offset != offset) {
+				this.offset = offset;
+				PackedFile.this.dirtyIndices.set(this.index);
+			}
 		}
 
 		public long getOffset() {
 			return this.offset;
 		}
 
+		public void setSize(long size) {
+			if (this.size != size) {
+				this.size = size;
+				PackedFile.this.dirtyIndices.set(this.index);
+			}
+		}
+
 		@Override
 		public String toString() {
 			final StringBuilder builder = new StringBuilder();
@@ -85,6 +118,9 @@ public final class PackedFile implements Closeable {
 	private final Set<Integer> unusedIndices = new HashSet<>();
 	private final Set<Integer> freeEntry = new HashSet<>();
 	private final Set<Integer> deletableEntry = new HashSet<>();
+	/** Contains all regions of {@link #freeEntry}, once {@link #loadFreeRegions()} was called */
+	private final FreeRegions freeRegions = new FreeRegions();
+	private boolean freeRegionsLoaded;
 	private int tableIndex;
 
 	private final BufferedFileAccess file = new BufferedFileAccess();
@@ -93,9 +129,11 @@ public final class PackedFile implements Closeable {
 
 	private boolean isFileOpen;
 	private boolean writeAppendingInProgress;
-	private boolean dirty;
+	/** Slots of {@link #indexTable} which need to be written */
+	private final BitSet dirtyIndices = new BitSet();
+	private boolean headerDirty;
 
-	private Path getPath() {
+	public Path getPath() {
 		return this.file.getPath();
 	}
 
@@ -121,8 +159,9 @@ public final class PackedFile implements Closeable {
 				this.fileHeader.signature = SIGNATURE;
 				this.fileHeader.version = VERSION;
 				this.fileHeader.endOfFile = StructPackFileHeader.SIZE_IN_BYTES + Long.BYTES;
-				this.indexTable.add(new IndexEntry());
-				this.dirty = true;
+				this.indexTable.add(new IndexEntry(0));
+				this.dirtyIndices.set(0);
+				this.headerDirty = true;
 			}
 			this.isFileOpen = true;
 		} catch (final Exception e) {
@@ -135,6 +174,44 @@ public final class PackedFile implements Closeable {
 		return this.isFileOpen;
 	}
 
+	/**
+	 * Enables or disables memory mapped reads. If enabled, entries are read directly from a memory mapping of the file, without copying them through an
+	 * intermediate buffer. This setting is kept when a different file is opened.
+	 *
+	 * @param memoryMapped
+	 *            <code>true</code> to read entries from a memory mapping
+	 * @see #readEntryAsBuffer(long)
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.file.setMemoryMapped(memoryMapped);
+	}
+
+	/**
+	 * @return <code>true</code> if entries are read from a memory mapping
+	 * @see BufferedFileAccess#isMemoryMapped()
+	 */
+	public boolean isMemoryMapped() {
+		return this.file.isMemoryMapped();
+	}
+
+	/**
+	 * @return <code>true</code> if an entry is {@link #leaseEntry(long) leased} from the memory mapping and not yet released
+	 */
+	public boolean hasLeasedEntries() {
+		return this.file.hasLeasedRegions();
+	}
+
+	/**
+	 * Waits until all {@link #leaseEntry(long) leased} entries are released.
+	 *
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while waiting
+	 * @see BufferedFileAccess#awaitLeasedRegions()
+	 */
+	public void awaitLeasedEntries() throws InterruptedIOException {
+		this.file.awaitLeasedRegions();
+	}
+
 	private void assertFileIsOpen() throws IOException {
 		if (!isOpen()) {
 			throw new FileClosedIOException();
@@ -169,7 +246,7 @@ public final class PackedFile implements Closeable {
 				this.indexTable.clear();
 				final var entryCount = this.fileHeader.indexCount;
 				for (int index = 0; index < entryCount; ++index) {
-					final var entry = new IndexEntry();
+					final var entry = new IndexEntry(index);
 					entry.offset = reader.readInt64();
 					entry.size = reader.readInt64();
 					this.indexTable.add(entry);
@@ -237,8 +314,8 @@ public final class PackedFile implements Closeable {
 			final var entry = this.indexTable.get(index);
 			final var guard = fileLayout.get(entry.offset);
 			if (guard == null) { // entry points to no valid file region
-				entry.offset = 0;
-				entry.size = 0;
+				entry.setOffset(0);
+				entry.setSize(0);
 				this.unusedIndices.add(index);
 				continue;
 			}
@@ -269,21 +346,43 @@ public final class PackedFile implements Closeable {
 				this.freeEntry.add(index);
 
 				final var entry = this.indexTable.get(index);
-				entry.offset = region.getKey();
-				entry.capacity = region.getValue();
-				entry.size = entry.capacity;
+				entry.setOffset(region.getKey());
+				entry.capacity = Math.abs(region.getValue());
+				entry.setSize(entry.capacity);
 			}
 		}
 
+		// free entries may have changed, the next allocation will pick them up
+		this.freeRegions.clear();
+		this.freeRegionsLoaded = false;
+
 		if (this.unusedIndices.contains(this.tableIndex)) {
 			throw new PackMalformedException("index is stored in invalid area");
 		}
 	}
 
+	/**
+	 * {@link #flush() Flushes} all changes and forces them to the storage device, so they are not lost if the system crashes.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void sync() throws IOException {
+		flush();
+		this.file.force();
+	}
+
+	/**
+	 * Writes all changes of the index table and the header. Only slots of the index table which changed since the last flush are written, unless the table
+	 * needs to be moved to a larger region.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
 	public void flush() throws BinaryIOException, IOException {
 		assertFileIsOpen();
 
-		if (!this.dirty) {
+		if (!this.headerDirty && this.dirtyIndices.isEmpty()) {
 			return;
 		}
 
@@ -293,6 +392,7 @@ public final class PackedFile implements Closeable {
 
 			if (this.fileHeader.indexOffset == 0) {
 				this.tableIndex = createNewEntry(newCapacity);
+				this.dirtyIndices.set(0, this.indexTable.size());
 			} else {
 				assertIndexIsValid(this.tableIndex);
 
@@ -301,13 +401,16 @@ public final class PackedFile implements Closeable {
 
 				final var expectedSize = this.indexTable.size() * StructPackEntry.SIZE_IN_BYTES;
 				if (entry.capacity < expectedSize) {
-					releaseEntry(this.tableIndex);
+					final var oldTableIndex = this.tableIndex;
+					this.tableIndex = 0; // the table can't be released while in use
+					releaseEntry(oldTableIndex);
 					this.tableIndex = createNewEntry(newCapacity);
+					this.dirtyIndices.set(0, this.indexTable.size());
 				}
 			}
 
 			final var entry = this.indexTable.get(this.tableIndex);
-			entry.size = this.indexTable.size() * StructPackEntry.SIZE_IN_BYTES;
+			entry.setSize(this.indexTable.size() * StructPackEntry.SIZE_IN_BYTES);
 		}
 
 		this.fileHeader.indexCount = this.indexTable.size();
@@ -315,67 +418,36 @@ public final class PackedFile implements Closeable {
 
 		try (final var writer = this.file.getFileWriter()) {
 			if (this.fileHeader.indexCount > 0) {
-				writer.seek(Seek.BEGIN, this.fileHeader.indexOffset);
-				for (final var entry : this.indexTable) {
-					writer.writeInt64(entry.offset);
-					writer.writeInt64(entry.size);
+				for (var index = this.dirtyIndices.nextSetBit(0); index >= 0 && index < this.indexTable.size();) {
+					final var end = Math.min(this.dirtyIndices.nextClearBit(index), this.indexTable.size());
+					writer.seek(Seek.BEGIN, this.fileHeader.indexOffset + (long) index * StructPackEntry.SIZE_IN_BYTES);
+					for (; index < end; ++index) {
+						final var entry = this.indexTable.get(index);
+						writer.writeInt64(entry.offset);
+						writer.writeInt64(entry.size);
+					}
+					index = this.dirtyIndices.nextSetBit(end);
 				}
 			}
-		}
 
-		for (int index = 1; index < this.indexTable.size(); index++) {
-			final var indexEntry = this.indexTable.get(index);
-			updateCapacity(indexEntry);
-		}
-
-		long lastWrittenByte = 0;
-		for (int index = 1; index < this.indexTable.size(); index++) {
-			final var entry = this.indexTable.get(index);
-			final var position = entry.offset + entry.capacity + Long.BYTES;
-			if (lastWrittenByte < position) {
-				lastWrittenByte = position;
-			}
-		}
-		this.fileHeader.endOfFile = lastWrittenByte;
-
-		// try (final var writer = this.file.getFileWriter()) {
-		// long lastWrittenPosition = 0;
-		// for (int index = 1; index < this.indexTable.size(); index++) {
-		// final var indexEntry = this.indexTable.get(index);
-		// if (this.unusedIndices.contains(index)) {
-		// continue;
-		// }
-		//
-		// final var guard = this.freeEntry.contains(index) ? -indexEntry.capacity : indexEntry.capacity;
-		// writer.seek(Seek.BEGIN, indexEntry.offset - Long.BYTES);
-		// writer.writeInt64(guard);
-		// writer.seek(Seek.BEGIN, indexEntry.offset + indexEntry.capacity);
-		// writer.writeInt64(guard);
-		//
-		// if (lastWrittenPosition < writer.position()) {
-		// lastWrittenPosition = writer.position();
-		// }
-		// }
-		// }
-
-		try (final var writer = this.file.getFileWriter()) {
+			// endOfFile is kept up to date by each operation which appends to the file
 			writer.seek(Seek.BEGIN, 0);
 			this.fileHeader.write(writer);
 		}
 
-		this.dirty = false;
-
-		// TODO delete entries in #deletableEntry
+		this.dirtyIndices.clear();
+		this.headerDirty = false;
 	}
 
 	private int getNextTableIndex() throws IntegerOverflowException {
 		if (this.unusedIndices.isEmpty()) {
 			final var index = this.indexTable.size();
-			this.indexTable.add(new IndexEntry());
+			this.indexTable.add(new IndexEntry(index));
 			if (index > Integer.MAX_VALUE) {
 				throw new IntegerOverflowException("upper limit of indices reached");
 			}
-			this.dirty = true;
+			this.dirtyIndices.set(index);
+			this.headerDirty = true;
 			return index;
 		} else { // reuse old index
 			final var it = this.unusedIndices.iterator();
@@ -426,11 +498,15 @@ public final class PackedFile implements Closeable {
 		this.indexTable.clear();
 		this.unusedIndices.clear();
 		this.freeEntry.clear();
+		this.deletableEntry.clear();
+		this.freeRegions.clear();
+		this.freeRegionsLoaded = false;
 		this.tableIndex = 0;
 
 		this.writeAppendingInProgress = false;
 		this.isFileOpen = false;
-		this.dirty = false;
+		this.dirtyIndices.clear();
+		this.headerDirty = false;
 
 		this.file.close();
 	}
@@ -447,7 +523,7 @@ public final class PackedFile implements Closeable {
 		assertIndexIsNotTable(index);
 		if (this.fileHeader.rootEntryIdx != index) {
 			this.fileHeader.rootEntryIdx = index;
-			this.dirty |= true;
+			this.headerDirty = true;
 		}
 	}
 
@@ -457,9 +533,55 @@ public final class PackedFile implements Closeable {
 		assertIndexIsClaimed(index);
 		assertIndexIsNotTable(index);
 		final var entry = this.indexTable.get((int) index);
+		if (this.file.isMemoryMapped()) {
+			return new ByteBufferBinaryReader(this.file.getMappedRegion(entry.offset, entry.size));
+		}
 		return new BinaryReaderView(this.file.getFileReader(), entry.offset, entry.size, true);
 	}
 
+	/**
+	 * Returns the content of the entry at the given index as a read-only {@link ByteBuffer} in little endian byte order.
+	 * <p>
+	 * If this file is {@link #setMemoryMapped(boolean) memory mapped}, the returned buffer is a slice of the mapping and no data is copied. In this case the
+	 * buffer stays valid after this file is closed, but will reflect later changes to the entry.
+	 *
+	 * @param index
+	 *            of entry
+	 * @return a read-only buffer with the content of the entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see #leaseEntry(long)
+	 */
+	public ByteBuffer readEntryAsBuffer(long index) throws IOException {
+		assertFileIsOpen();
+		assertIndexIsValid(index);
+		assertIndexIsClaimed(index);
+		assertIndexIsNotTable(index);
+
+		final var entry = this.indexTable.get((int) index);
+		return this.file.getMappedRegion(entry.offset, entry.size);
+	}
+
+	/**
+	 * Same as {@link #readEntryAsBuffer(long)}, but if the buffer is a slice of the mapping, {@link #compact()} waits until the returned lease is released.
+	 * The caller still needs to make sure the entry is not freed and overwritten while the lease is held.
+	 *
+	 * @param index
+	 *            of entry
+	 * @return a lease on a read-only buffer with the content of the entry, which needs to be released by the caller
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public RegionLease leaseEntry(long index) throws IOException {
+		assertFileIsOpen();
+		assertIndexIsValid(index);
+		assertIndexIsClaimed(index);
+		assertIndexIsNotTable(index);
+
+		final var entry = this.indexTable.get((int) index);
+		return this.file.leaseRegion(entry.offset, entry.size);
+	}
+
 	public byte[] readEntry(long index, byte[] data, int offset, int maxBytes) throws BinaryIOException, IOException {
 		assertFileIsOpen();
 		assertIndexIsValid(index);
@@ -475,14 +597,87 @@ public final class PackedFile implements Closeable {
 		}
 
 		final var length = Math.min(data.length - offset, maxBytes);
-		try (var reader = this.file.getFileReader()) {
-			reader.seek(Seek.BEGIN, entry.offset);
-			reader.readInt8(data, offset, length);
+		if (this.file.isMemoryMapped()) {
+			this.file.getMappedRegion(entry.offset, length).get(data, offset, length);
+		} else {
+			this.file.read(ByteBuffer.wrap(data, offset, length), entry.offset);
 		}
-
 		return data;
 	}
 
+	/**
+	 * Reads the content of the entry at the given index into <code>dst</code>, without an intermediate buffer. Reads at most <code>dst.remaining()</code>
+	 * bytes.
+	 *
+	 * @param index
+	 *            of entry
+	 * @param dst
+	 *            buffer to read into
+	 * @return number of bytes read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public int readEntry(long index, ByteBuffer dst) throws IOException {
+		assertFileIsOpen();
+		assertIndexIsValid(index);
+		assertIndexIsClaimed(index);
+		assertIndexIsNotTable(index);
+
+		final var entry = this.indexTable.get((int) index);
+		final var length = (int) Math.min(entry.size, dst.remaining());
+		final var view = dst.duplicate();
+		view.limit(view.position() + length);
+		if (this.file.isMemoryMapped()) {
+			view.put(this.file.getMappedRegion(entry.offset, length));
+		} else {
+			this.file.read(view, entry.offset);
+		}
+		dst.position(view.position());
+		return length;
+	}
+
+	/**
+	 * Returns a stream over the content of the entry at the given index. The content is read lazily in small windows, so large entries can be processed
+	 * without loading them into memory at once. If this file is {@link #setMemoryMapped(boolean) memory mapped}, the stream reads from the mapping and
+	 * {@link #compact()} waits until it is closed.
+	 *
+	 * @param index
+	 *            of entry
+	 * @return a stream over the content of the entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public InputStream openEntryStream(long index) throws IOException {
+		assertFileIsOpen();
+		assertIndexIsValid(index);
+		assertIndexIsClaimed(index);
+		assertIndexIsNotTable(index);
+
+		final var entry = this.indexTable.get((int) index);
+		return this.file.newInputStream(entry.offset, entry.size, STREAM_WINDOW_SIZE);
+	}
+
+	/**
+	 * Same as {@link #openEntryStream(long)}, but the stream ends after at most <code>length</code> bytes.
+	 *
+	 * @param index
+	 *            of entry
+	 * @param length
+	 *            maximal number of bytes to read
+	 * @return a stream over the content of the entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public InputStream openEntryStream(long index, long length) throws IOException {
+		assertFileIsOpen();
+		assertIndexIsValid(index);
+		assertIndexIsClaimed(index);
+		assertIndexIsNotTable(index);
+
+		final var entry = this.indexTable.get((int) index);
+		return this.file.newInputStream(entry.offset, Math.min(entry.size, length), STREAM_WINDOW_SIZE);
+	}
+
 	public BinaryWriter writeEntry(long index) throws IOException {
 		assertFileIsOpen();
 		assertIndexIsValid(index);
@@ -497,8 +692,7 @@ public final class PackedFile implements Closeable {
 			public void close() throws IOException {
 				super.close();
 				if (this.writtenBytes > 0) {
-					PackedFile.this.dirty |= entry.size != this.writeSize;
-					entry.size = this.writeSize;
+					entry.setSize(this.writeSize);
 				}
 			}
 		};
@@ -519,39 +713,147 @@ public final class PackedFile implements Closeable {
 			writer.writeInt8(data, offset, length);
 		}
 
-		this.dirty |= entry.size != length;
-		entry.size = length;
+		entry.setSize(length);
 	}
 
-	public long newEntry(long maxSize) throws IOException {
+	/**
+	 * Writes <code>length</code> bytes at <code>position</code> within the entry at the given index, the remaining content of the entry is not changed. The
+	 * size of the entry grows, if the written bytes end behind its current size.
+	 *
+	 * @param index
+	 *            of entry
+	 * @param position
+	 *            within the entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalArgumentException
+	 *             if the bytes do not fit into the capacity of the entry
+	 */
+	public void writeEntry(long index, long position, byte[] data, int offset, int length) throws BinaryIOException, IOException {
 		assertFileIsOpen();
-		return createNewEntry(maxSize);
+		assertIndexIsValid(index);
+		assertIndexIsClaimed(index);
+		assertIndexIsNotTable(index);
+
+		final var entry = this.indexTable.get((int) index);
+		updateCapacity(entry);
+		if (position < 0 || position + length > entry.capacity) {
+			throw new IllegalArgumentException(String.format("Unable to write %d bytes at %d into entry %d with a capacity of %d", length, position, index,
+					entry.capacity));
+		}
+
+		try (var writer = this.file.getFileWriter()) {
+			writer.seek(Seek.BEGIN, entry.offset + position);
+			writer.writeInt8(data, offset, length);
+		}
+
+		if (entry.size < position + length) {
+			entry.setSize(position + length);
+		}
 	}
 
-	private int searchFreeEntry(long maxSize) throws BinaryIOException, IOException {
-		int index = 0;
-		long prevCapacity = Long.MAX_VALUE;
+	/**
+	 * Copies the content of an entry into an entry of another file, without reading it into memory. The size of the target entry is set to the size of the
+	 * source entry.
+	 *
+	 * @param index
+	 *            of entry
+	 * @param target
+	 *            file to copy to
+	 * @param targetIndex
+	 *            of entry in <code>target</code>
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalArgumentException
+	 *             if the content does not fit into the capacity of the target entry
+	 */
+	public void transferEntry(long index, PackedFile target, long targetIndex) throws IOException {
+		assertFileIsOpen();
+		assertIndexIsValid(index);
+		assertIndexIsClaimed(index);
+		assertIndexIsNotTable(index);
+		target.assertFileIsOpen();
+		target.assertIndexIsValid(targetIndex);
+		target.assertIndexIsClaimed(targetIndex);
+		target.assertIndexIsNotTable(targetIndex);
 
-		for (final var idx : this.freeEntry) {
-			final var entry = this.indexTable.get(idx);
-			updateCapacity(entry);
+		final var entry = this.indexTable.get((int) index);
+		final var targetEntry = target.indexTable.get((int) targetIndex);
+		target.updateCapacity(targetEntry);
+		if (entry.size > targetEntry.capacity) {
+			throw new IllegalArgumentException(String.format("Unable to copy %d bytes into entry %d with a capacity of %d", entry.size, targetIndex,
+					targetEntry.capacity));
+		}
 
-			if (maxSize <= entry.capacity && entry.capacity < prevCapacity) {
-				index = idx;
-				prevCapacity = entry.capacity;
-			}
+		this.file.transferTo(entry.offset, entry.size, target.file, targetEntry.offset);
+		targetEntry.setSize(entry.size);
+	}
+
+	/**
+	 * Sets the size of the entry at the given index, without changing its content.
+	 *
+	 * @param index
+	 *            of entry
+	 * @param size
+	 *            new size, may not exceed the capacity of the entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void setEntrySize(long index, long size) throws IOException {
+		assertFileIsOpen();
+		assertIndexIsValid(index);
+		assertIndexIsClaimed(index);
+		assertIndexIsNotTable(index);
+
+		final var entry = this.indexTable.get((int) index);
+		updateCapacity(entry);
+		if (size < 0 || size > entry.capacity) {
+			throw new IllegalArgumentException(String.format("Size %d exceeds capacity of entry %d", size, index));
 		}
+		entry.setSize(size);
+	}
 
-		if (index > 0) {
-			claimEntry(index);
+	public long newEntry(long maxSize) throws IOException {
+		assertFileIsOpen();
+		return createNewEntry(maxSize);
+	}
+
+	/**
+	 * Claims the smallest free region with at least <code>capacity</code> bytes. If the region is larger than needed, the remaining bytes are split off as a
+	 * new free region.
+	 *
+	 * @return index of the claimed region or 0, if no free region is large enough
+	 */
+	private int claimFreeRegion(long capacity) throws IOException {
+		loadFreeRegions();
+		final var region = this.freeRegions.bestFit(capacity);
+		if (region == null) {
+			return 0;
 		}
 
-		return index;
+		removeFreeRegion(region);
+		final var entry = this.indexTable.get(region.index);
+		entry.capacity = region.capacity;
+		entry.setSize(0);
+
+		final var remainingCapacity = region.capacity - capacity - 2 * FreeRegions.GUARD_SIZE;
+		if (remainingCapacity >= MINIMUM_SPLIT_CAPACITY) {
+			entry.capacity = capacity;
+			final var splitIndex = getNextTableIndex();
+			final var split = this.indexTable.get(splitIndex);
+			split.setOffset(entry.offset + capacity + 2 * FreeRegions.GUARD_SIZE);
+			split.capacity = remainingCapacity;
+			split.setSize(0);
+			addFreeRegion(splitIndex, split);
+		}
+
+		writeGuards(entry, false);
+		return region.index;
 	}
 
 	private int createNewEntry(long maxSize) throws IOException {
 		{ // find an unused entry with at least 'capacity' bytes
-			final int index = searchFreeEntry(maxSize);
+			final int index = claimFreeRegion(ByteAlignmentUtil.alignTo16Byte(maxSize));
 			if (index > 0) {
 				return index;
 			}
@@ -564,11 +866,11 @@ public final class PackedFile implements Closeable {
 		final var index = getNextTableIndex();
 		final var entry = this.indexTable.get(index);
 		entry.capacity = ByteAlignmentUtil.alignTo16Byte(maxSize);
-		entry.offset = ByteAlignmentUtil.alignTo16Byte(this.fileHeader.endOfFile);
-		entry.size = 0;
+		entry.setOffset(ByteAlignmentUtil.alignTo16Byte(this.fileHeader.endOfFile));
+		entry.setSize(0);
 
 		try (var writer = this.file.getFileWriter()) {
-			this.dirty = true;
+			this.headerDirty = true;
 			writer.seek(Seek.BEGIN, entry.offset - Long.BYTES);
 			writer.writeInt64(entry.capacity);
 			writer.seek(Seek.BEGIN, entry.offset + entry.capacity);
@@ -600,13 +902,13 @@ public final class PackedFile implements Closeable {
 
 				final var idx = getNextTableIndex();
 				final var entry = PackedFile.this.indexTable.get(idx);
-				entry.offset = offset;
-				entry.size = this.writeSize;
+				entry.setOffset(offset);
+				entry.setSize(this.writeSize);
 				entry.capacity = ByteAlignmentUtil.alignTo16Byte(entry.size);
 				index.set(idx);
 
 				try (var writer = PackedFile.this.file.getFileWriter()) {
-					PackedFile.this.dirty = true;
+					PackedFile.this.headerDirty = true;
 					writer.seek(Seek.BEGIN, entry.offset - Long.BYTES);
 					writer.writeInt64(entry.capacity);
 					writer.seek(Seek.BEGIN, entry.offset + entry.capacity);
@@ -623,10 +925,20 @@ public final class PackedFile implements Closeable {
 		return index.longValue();
 	}
 
+	/**
+	 * Releases the entry at the given index, its region can be claimed by new entries. If the region borders on other free regions, they are merged into one
+	 * region. The index of the released entry stays valid, while the indices of merged regions become unused.
+	 *
+	 * @param index
+	 *            of entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
 	public void releaseEntry(long index) throws IOException {
 		assertFileIsOpen();
 		assertIndexIsValid(index);
 		assertIndexIsNotTable(index);
+		loadFreeRegions();
 		if (this.freeEntry.contains((int) index)) {
 			return;
 		}
@@ -634,36 +946,204 @@ public final class PackedFile implements Closeable {
 		final var entry = this.indexTable.get((int) index);
 		updateCapacity(entry);
 
-		try (var writer = this.file.getFileWriter()) {
-			writer.seek(Seek.BEGIN, entry.offset - Long.BYTES);
-			writer.writeInt64(-entry.capacity);
-			writer.seek(Seek.BEGIN, entry.offset + entry.capacity);
-			writer.writeInt64(-entry.capacity);
+		final var previous = this.freeRegions.precedingRegion(entry.offset);
+		if (previous != null) {
+			removeFreeRegion(previous);
+			dropIndex(previous.index);
+			entry.capacity += previous.capacity + 2 * FreeRegions.GUARD_SIZE;
+			entry.setOffset(previous.offset);
+		}
+
+		final var next = this.freeRegions.startingAt(entry.offset + entry.capacity + 2 * FreeRegions.GUARD_SIZE);
+		if (next != null) {
+			removeFreeRegion(next);
+			dropIndex(next.index);
+			entry.capacity += next.capacity + 2 * FreeRegions.GUARD_SIZE;
 		}
 
-		this.freeEntry.add((int) index);
+		addFreeRegion((int) index, entry);
 	}
 
 	public void claimEntry(long index) throws IOException {
 		assertFileIsOpen();
 		assertIndexIsValid(index);
 		assertIndexIsNotTable(index);
+		loadFreeRegions();
 		if (!this.freeEntry.contains((int) index)) {
 			return;
 		}
 
 		final var entry = this.indexTable.get((int) index);
-		updateCapacity(entry);
+		removeFreeRegion(this.freeRegions.startingAt(entry.offset));
+		writeGuards(entry, false);
+	}
+
+	/**
+	 * Moves all claimed entries towards the start of the file, so no space is left between them, and truncates the file. Free regions are discarded and
+	 * their indices become unused. Claimed entries keep their index and capacity.
+	 * <p>
+	 * Entries are never moved into a region which the index table on the storage device still refers to. Entries which need to be moved are first copied
+	 * behind the end of the file and the new offsets are {@link #sync() synced}, afterwards they are copied to their final offset and synced again. If this
+	 * operation is interrupted, the file refers either to the old or to the new offset of each entry, at the cost of temporarily growing the file by the
+	 * size of all moved entries. Waits until all {@link #leaseEntry(long) leased} entries are released, buffers previously returned by
+	 * {@link #readEntryAsBuffer(long)} must no longer be used.
+	 *
+	 * @return number of bytes the file shrunk
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public long compact() throws IOException {
+		assertFileIsOpen();
+		if (this.writeAppendingInProgress) {
+			throw new IOException("Unable to compact file while an entry is appended");
+		}
+		awaitLeasedEntries(); // entries are moved into regions which may be leased
+		loadFreeRegions();
+		flush(); // the index table has its final size
+		final var sizeBefore = this.file.size();
+
+		for (final var index : new ArrayList<>(this.freeEntry)) {
+			dropIndex(index);
+		}
+		this.freeRegions.clear();
 
+		final var claimed = new ArrayList<Integer>(this.indexTable.size());
+		for (var index = 1; index < this.indexTable.size(); ++index) {
+			if (!this.unusedIndices.contains(index) && this.indexTable.get(index).offset != 0) {
+				claimed.add(index);
+			}
+		}
+		claimed.sort((a, b) -> Long.compare(this.indexTable.get(a).offset, this.indexTable.get(b).offset));
+
+		final var moved = new ArrayList<Integer>();
+		final var destinations = new ArrayList<Long>();
+		var nextOffset = FIRST_ENTRY_OFFSET;
+		for (final int index : claimed) {
+			final var entry = this.indexTable.get(index);
+			updateCapacity(entry);
+			if (entry.offset < nextOffset) {
+				throw new PackMalformedException(String.format("Entry %d overlaps with a previous entry", index));
+			}
+			if (entry.offset != nextOffset) {
+				moved.add(index);
+				destinations.add(nextOffset);
+			}
+			nextOffset += entry.capacity + 2 * FreeRegions.GUARD_SIZE;
+		}
+		final var endOfFile = nextOffset - FreeRegions.GUARD_SIZE;
+
+		if (!moved.isEmpty()) {
+			final var buffer = ByteBuffer.allocate(COMPACT_BUFFER_SIZE);
+			// copy behind the current end of the file, which is not referred to by any entry
+			for (final int index : moved) {
+				final var entry = this.indexTable.get(index);
+				final var offset = ByteAlignmentUtil.alignTo16Byte(this.fileHeader.endOfFile);
+				moveRegion(entry.offset, offset, entry.size, buffer);
+				entry.setOffset(offset);
+				writeGuards(entry, false);
+				this.fileHeader.endOfFile = offset + entry.capacity + FreeRegions.GUARD_SIZE;
+			}
+			this.headerDirty = true;
+			this.file.force(); // the copies are stored before the index table refers to them
+			sync();
+
+			// the old regions are no longer referred to and can be overwritten
+			for (var i = 0; i < moved.size(); ++i) {
+				final var entry = this.indexTable.get(moved.get(i));
+				moveRegion(entry.offset, destinations.get(i), entry.size, buffer);
+				entry.setOffset(destinations.get(i));
+				writeGuards(entry, false);
+			}
+			this.file.force();
+		}
+
+		this.fileHeader.endOfFile = endOfFile;
+		this.headerDirty = true;
+		sync();
+		this.file.truncate(this.fileHeader.endOfFile);
+		return sizeBefore - this.file.size();
+	}
+
+	/**
+	 * Copies <code>length</code> bytes from <code>source</code> to <code>destination</code>. Both regions must not overlap, unless <code>destination</code> is
+	 * in front of <code>source</code>.
+	 */
+	private void moveRegion(long source, long destination, long length, ByteBuffer buffer) throws IOException {
+		for (long position = 0; position < length;) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), length - position));
+			this.file.read(buffer, source + position);
+			try (var writer = this.file.getFileWriter()) {
+				writer.seek(Seek.BEGIN, destination + position);
+				writer.writeInt8(buffer.array(), 0, buffer.position());
+			}
+			position += buffer.position();
+		}
+	}
+
+	/**
+	 * Reads the guards of all entries to find free regions, which are not known yet. Is only done once, before the first region is claimed or released.
+	 */
+	private void loadFreeRegions() throws IOException {
+		if (this.freeRegionsLoaded) {
+			return;
+		}
+
+		final var indices = new ArrayList<Integer>(this.indexTable.size());
+		for (var index = 1; index < this.indexTable.size(); ++index) {
+			if (index != this.tableIndex && !this.unusedIndices.contains(index) && this.indexTable.get(index).offset != 0) {
+				indices.add(index);
+			}
+		}
+		indices.sort((a, b) -> Long.compare(this.indexTable.get(a).offset, this.indexTable.get(b).offset));
+
+		final var guard = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		for (final int index : indices) {
+			final var entry = this.indexTable.get(index);
+			this.file.read(guard.clear(), entry.offset - FreeRegions.GUARD_SIZE);
+			final var capacity = guard.getLong(0);
+			entry.capacity = Math.abs(capacity);
+			if (capacity < 0 || this.freeEntry.contains(index)) {
+				this.freeEntry.add(index);
+				this.freeRegions.add(index, entry.offset, entry.capacity);
+			}
+		}
+		this.freeRegionsLoaded = true;
+	}
+
+	private void addFreeRegion(int index, IndexEntry entry) throws IOException {
+		writeGuards(entry, true);
+		this.freeEntry.add(index);
+		this.freeRegions.add(index, entry.offset, entry.capacity);
+	}
+
+	private void removeFreeRegion(FreeRegions.Region region) {
+		this.freeRegions.remove(region);
+		this.freeEntry.remove(region.index);
+		this.deletableEntry.remove(region.index);
+	}
+
+	/**
+	 * Marks the index as unused, so it can be reused for a different entry.
+	 */
+	private void dropIndex(int index) {
+		final var entry = this.indexTable.get(index);
+		entry.setOffset(0);
+		entry.setSize(0);
+		entry.capacity = 0;
+		this.freeEntry.remove(index);
+		this.deletableEntry.remove(index);
+		this.unusedIndices.add(index);
+	}
+
+	private void writeGuards(IndexEntry entry, boolean free) throws IOException {
+		final var guard = free ? -entry.capacity : entry.capacity;
 		try (var writer = this.file.getFileWriter()) {
-			writer.seek(Seek.BEGIN, entry.offset - Long.BYTES);
-			writer.writeInt64(entry.capacity);
+			writer.seek(Seek.BEGIN, entry.offset - FreeRegions.GUARD_SIZE);
+			writer.writeInt64(guard);
 			writer.seek(Seek.BEGIN, entry.offset + entry.capacity);
-			writer.writeInt64(entry.capacity);
+			writer.writeInt64(guard);
 		}
-
-		this.freeEntry.remove((int) index);
-		this.deletableEntry.remove((int) index);
 	}
 
 	public Set<Long> getEntries() throws IOException {
@@ -702,6 +1182,21 @@ public final class PackedFile implements Closeable {
 		return this.indexTable.get((int) index).size;
 	}
 
+	/**
+	 * Returns the position of the first byte of the entry at the given index within the file. Entries with a lower offset are located closer to the start of
+	 * the file, which allows to order reads sequentially.
+	 *
+	 * @param index
+	 *            of entry
+	 * @return the offset (in bytes)
+	 * @throws IOException
+	 */
+	public long entryOffset(long index) throws IOException {
+		assertFileIsOpen();
+		assertIndexIsValid(index);
+		return this.indexTable.get((int) index).getOffset();
+	}
+
 	public boolean isIndexValid(long index) {
 		if (index <= 0 && this.indexTable.size() <= index) {
 			return false;
@@ -713,14 +1208,22 @@ public final class PackedFile implements Closeable {
 	}
 
 	public Set<Long> getUnclaimedEntries() throws IOException {
+		assertFileIsOpen();
+		loadFreeRegions();
 		return this.freeEntry.stream().map(Integer::longValue).collect(Collectors.toSet());
 	}
 
+	/**
+	 * Same as {@link #releaseEntry(long)}. The index is discarded with the next {@link #compact()}.
+	 *
+	 * @param index
+	 *            of entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
 	public void deleteEntry(long index) throws IOException {
-		// TODO
 		releaseEntry(index);
 		this.deletableEntry.add((int) index);
-		this.dirty = true;
 	}
 
 }
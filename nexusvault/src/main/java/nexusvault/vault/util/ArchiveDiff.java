@@ -0,0 +1,400 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.vault.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import nexusvault.vault.IdxEntry;
+import nexusvault.vault.IdxEntry.IdxDirectory;
+import nexusvault.vault.IdxEntry.IdxFileLink;
+import nexusvault.vault.IdxPath;
+import nexusvault.vault.NexusArchive;
+
+/**
+ * Compares the files of two archives, e.g. two builds of the game client, by their stored hashes and sizes. No file content is read.
+ * <p>
+ * Both trees are walked in lockstep, directories which exist in both trees are compared by name. If a directory is stored in the same block in both index
+ * files, its files are not compared one by one.
+ * <p>
+ * {@link #applyDelta(NexusArchive, NexusArchive)} uses the differences to update one archive to the state of the other, only data which is not stored yet
+ * is {@link NexusArchive#copyRaw(Map) copied}.
+ */
+public final class ArchiveDiff {
+
+	public static enum ChangeType {
+		/** The file only exists in the new tree */
+		ADDED,
+		/** The file only exists in the old tree */
+		REMOVED,
+		/** The file exists in both trees, but its hash or size differs */
+		CHANGED,
+		/** The file was removed from the old tree and added to the new tree at a different path, with the same hash and size */
+		MOVED
+	}
+
+	public static final class Change {
+		private final ChangeType type;
+		private final IdxFileLink oldFile;
+		private final IdxFileLink newFile;
+
+		private Change(ChangeType type, IdxFileLink oldFile, IdxFileLink newFile) {
+			this.type = type;
+			this.oldFile = oldFile;
+			this.newFile = newFile;
+		}
+
+		public ChangeType getType() {
+			return this.type;
+		}
+
+		/**
+		 * @return the file in the old tree, <code>null</code> for {@link ChangeType#ADDED}
+		 */
+		public IdxFileLink getOldFile() {
+			return this.oldFile;
+		}
+
+		/**
+		 * @return the file in the new tree, <code>null</code> for {@link ChangeType#REMOVED}
+		 */
+		public IdxFileLink getNewFile() {
+			return this.newFile;
+		}
+
+		/**
+		 * @return path of the file in the new tree, or in the old tree for {@link ChangeType#REMOVED}
+		 */
+		public IdxPath getPath() {
+			return this.newFile != null ? this.newFile.getPath() : this.oldFile.getPath();
+		}
+
+		@Override
+		public String toString() {
+			switch (this.type) {
+				case MOVED:
+					return String.format("%s %s -> %s", this.type, this.oldFile.getFullName(), this.newFile.getFullName());
+				default:
+					return String.format("%s %s", this.type, getPath().getFullName());
+			}
+		}
+	}
+
+	private ArchiveDiff() {
+	}
+
+	/**
+	 * Same as {@link #compare(IdxDirectory, IdxDirectory)} for the root directories of both archives.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static Stream<Change> compare(NexusArchive oldArchive, NexusArchive newArchive) throws IOException {
+		return compare(oldArchive.getRootDirectory(), newArchive.getRootDirectory());
+	}
+
+	/**
+	 * Returns a lazily populated stream of all differences between two trees. Changed files are reported as soon as their directory is reached. Added and
+	 * removed files are reported after both trees were walked, because only then a removed and an added file with the same hash and size can be reported as
+	 * {@link ChangeType#MOVED moved}.
+	 * <p>
+	 * Names are compared case-insensitive, like {@link IdxPath}. I/O errors are thrown as {@link UncheckedIOException}.
+	 *
+	 * @param oldTree
+	 *            directory to compare against
+	 * @param newTree
+	 *            directory to compare
+	 * @return stream of differences, in no particular order
+	 */
+	public static Stream<Change> compare(IdxDirectory oldTree, IdxDirectory newTree) {
+		Objects.requireNonNull(oldTree, "oldTree");
+		Objects.requireNonNull(newTree, "newTree");
+		return StreamSupport.stream(new DiffSpliterator(oldTree, newTree), false);
+	}
+
+	/**
+	 * Updates <code>target</code> to contain the same files as <code>source</code>. Added, changed and moved files are
+	 * {@link NexusArchive#copyRaw(Map) copied} from <code>source</code> at once, which only transfers data that <code>target</code> does not store yet. Removed
+	 * files are deleted afterwards, except for files and directories which are in the way of a copied file, e.g. a file which was replaced by a directory.
+	 * These are deleted before the copy.
+	 *
+	 * @param target
+	 *            archive to update
+	 * @param source
+	 *            archive with the wanted state
+	 * @return all applied changes
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static List<Change> applyDelta(NexusArchive target, NexusArchive source) throws IOException {
+		final List<Change> changes;
+		try {
+			changes = compare(target, source).collect(Collectors.toList());
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		final var copies = new LinkedHashMap<IdxPath, IdxFileLink>();
+		final var newDirectories = new HashSet<IdxPath>();
+		for (final var change : changes) {
+			if (change.getType() != ChangeType.REMOVED) {
+				final var path = change.getNewFile().getPath();
+				copies.put(path, change.getNewFile());
+				for (var parent = path.getParent(); !parent.isRoot(); parent = parent.getParent()) {
+					newDirectories.add(parent);
+				}
+			}
+		}
+
+		// files which are in the way of a copy: a file which becomes a directory or a file within a directory which becomes a file
+		final var deleted = new LinkedHashSet<Change>();
+		final var replacedDirectories = new LinkedHashSet<IdxPath>();
+		for (final var change : changes) {
+			if (change.getType() != ChangeType.REMOVED && change.getType() != ChangeType.MOVED) {
+				continue;
+			}
+			final var path = change.getOldFile().getPath();
+			if (newDirectories.contains(path)) {
+				deleted.add(change);
+				continue;
+			}
+			for (var parent = path.getParent(); !parent.isRoot(); parent = parent.getParent()) {
+				if (copies.containsKey(parent)) {
+					deleted.add(change);
+					replacedDirectories.add(parent);
+					break;
+				}
+			}
+		}
+		for (final var change : deleted) {
+			target.delete(change.getOldFile().getPath());
+		}
+		for (final var path : copies.keySet()) { // directories without files are not part of the changes
+			final var entry = target.find(path);
+			if (entry.isPresent() && entry.get().isDirectory()) {
+				replacedDirectories.add(path);
+			}
+		}
+		for (final var path : replacedDirectories) {
+			final var entry = target.find(path);
+			if (entry.isPresent() && entry.get().isDirectory()) {
+				deleteDirectories(target, entry.get().asDirectory());
+			}
+		}
+
+		target.copyRaw(copies);
+		// data of moved files is shared with their copy, so it is deleted last
+		for (final var change : changes) {
+			if ((change.getType() == ChangeType.REMOVED || change.getType() == ChangeType.MOVED) && !deleted.contains(change)) {
+				target.delete(change.getOldFile().getPath());
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Deletes a directory, which contains no files, and all its sub directories
+	 */
+	private static void deleteDirectories(NexusArchive target, IdxDirectory directory) throws IOException {
+		for (final var child : directory.getDirectories()) {
+			deleteDirectories(target, child);
+		}
+		target.delete(directory.getPath());
+	}
+
+	private static final class DirectoryPair {
+		private final IdxDirectory oldDirectory;
+		private final IdxDirectory newDirectory;
+
+		public DirectoryPair(IdxDirectory oldDirectory, IdxDirectory newDirectory) {
+			this.oldDirectory = oldDirectory;
+			this.newDirectory = newDirectory;
+		}
+	}
+
+	private static final class DiffSpliterator extends Spliterators.AbstractSpliterator<Change> {
+		private final Deque<DirectoryPair> pairs = new ArrayDeque<>();
+		private final Deque<Change> changes = new ArrayDeque<>();
+		private final List<IdxFileLink> added = new ArrayList<>();
+		private final List<IdxFileLink> removed = new ArrayList<>();
+		private boolean finished;
+
+		public DiffSpliterator(IdxDirectory oldTree, IdxDirectory newTree) {
+			super(Long.MAX_VALUE, Spliterator.NONNULL | Spliterator.DISTINCT);
+			this.pairs.add(new DirectoryPair(oldTree, newTree));
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Change> action) {
+			while (this.changes.isEmpty()) {
+				final var pair = this.pairs.pollFirst();
+				if (pair != null) {
+					try {
+						compare(pair.oldDirectory, pair.newDirectory);
+					} catch (final IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				} else if (!this.finished) {
+					this.finished = true;
+					pairMovedFiles();
+				} else {
+					return false;
+				}
+			}
+			action.accept(this.changes.pollFirst());
+			return true;
+		}
+
+		private void compare(IdxDirectory oldDirectory, IdxDirectory newDirectory) throws IOException {
+			if (hasSameBlock(oldDirectory, newDirectory)) { // same files, only sub directories need to be compared
+				final var newDirectories = new HashMap<String, IdxDirectory>();
+				for (final var directory : newDirectory.getDirectories()) {
+					newDirectories.put(key(directory), directory);
+				}
+				for (final var directory : oldDirectory.getDirectories()) {
+					final var match = newDirectories.get(key(directory));
+					if (match != null) {
+						this.pairs.addLast(new DirectoryPair(directory, match));
+					} else {
+						collect(directory, this.removed);
+					}
+				}
+				return;
+			}
+
+			final var oldEntries = new LinkedHashMap<String, IdxEntry>();
+			oldDirectory.forEachEntry(entry -> oldEntries.put(key(entry), entry));
+			final var newEntries = new ArrayList<IdxEntry>();
+			newDirectory.forEachEntry(newEntries::add);
+
+			for (final var newEntry : newEntries) {
+				final var oldEntry = oldEntries.remove(key(newEntry));
+				if (oldEntry == null) {
+					collect(newEntry, this.added);
+				} else if (oldEntry.isDirectory() && newEntry.isDirectory()) {
+					this.pairs.addLast(new DirectoryPair(oldEntry.asDirectory(), newEntry.asDirectory()));
+				} else if (oldEntry.isFile() && newEntry.isFile()) {
+					final var oldFile = oldEntry.asFile();
+					final var newFile = newEntry.asFile();
+					if (!isSameContent(oldFile, newFile)) {
+						this.changes.addLast(new Change(ChangeType.CHANGED, oldFile, newFile));
+					}
+				} else { // a file was replaced by a directory or the other way around
+					collect(oldEntry, this.removed);
+					collect(newEntry, this.added);
+				}
+			}
+			for (final var oldEntry : oldEntries.values()) {
+				collect(oldEntry, this.removed);
+			}
+		}
+
+		private static boolean hasSameBlock(IdxDirectory oldDirectory, IdxDirectory newDirectory) throws IOException {
+			final Optional<ByteBuffer> oldBlock = oldDirectory.readStoredBlock();
+			if (oldBlock.isEmpty()) {
+				return false;
+			}
+			final Optional<ByteBuffer> newBlock = newDirectory.readStoredBlock();
+			return newBlock.isPresent() && oldBlock.get().equals(newBlock.get());
+		}
+
+		/**
+		 * Adds <code>entry</code> or all files of its sub tree to <code>files</code>
+		 */
+		private static void collect(IdxEntry entry, List<IdxFileLink> files) {
+			if (entry.isFile()) {
+				files.add(entry.asFile());
+			} else {
+				IdxDirectoryTraverser.streamFiles(entry.asDirectory()).forEach(files::add);
+			}
+		}
+
+		private void pairMovedFiles() {
+			final var removedByContent = new HashMap<ContentKey, Deque<IdxFileLink>>();
+			for (final var file : this.removed) {
+				removedByContent.computeIfAbsent(new ContentKey(file), k -> new ArrayDeque<>()).addLast(file);
+			}
+
+			for (final var file : this.added) {
+				final var candidates = removedByContent.get(new ContentKey(file));
+				final var oldFile = candidates == null ? null : candidates.pollFirst();
+				if (oldFile != null) {
+					this.changes.addLast(new Change(ChangeType.MOVED, oldFile, file));
+				} else {
+					this.changes.addLast(new Change(ChangeType.ADDED, null, file));
+				}
+			}
+			for (final var candidates : removedByContent.values()) {
+				for (final var file : candidates) {
+					this.changes.addLast(new Change(ChangeType.REMOVED, file, null));
+				}
+			}
+			this.added.clear();
+			this.removed.clear();
+		}
+
+		private static String key(IdxEntry entry) {
+			return entry.getName().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	private static boolean isSameContent(IdxFileLink a, IdxFileLink b) {
+		return a.getUncompressedSize() == b.getUncompressedSize() && Arrays.equals(a.getHash(), b.getHash());
+	}
+
+	private static final class ContentKey {
+		private final IdxFileLink file;
+		private final int hashCode;
+
+		public ContentKey(IdxFileLink file) {
+			this.file = file;
+			this.hashCode = 31 * Arrays.hashCode(file.getHash()) + Long.hashCode(file.getUncompressedSize());
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof ContentKey)) {
+				return false;
+			}
+			return isSameContent(this.file, ((ContentKey) obj).file);
+		}
+	}
+
+}
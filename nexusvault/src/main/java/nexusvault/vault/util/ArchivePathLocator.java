@@ -29,6 +29,36 @@ public final class ArchivePathLocator {
 		}
 	}
 
+	/**
+	 * @param archiveOrIndex
+	 *            path to an index- or an archive-file
+	 * @return path to the sidecar file, which stores the path index of the index-file
+	 */
+	public static Path getPathIndexPath(Path archiveOrIndex) {
+		final var indexPath = getIndexPath(archiveOrIndex);
+		return indexPath.resolveSibling(indexPath.getFileName().toString() + ".paths");
+	}
+
+	/**
+	 * @param archiveOrIndex
+	 *            path to an index- or an archive-file
+	 * @return path to the sidecar file, which stores how many files of the index-file refer to each data block
+	 */
+	public static Path getReferencesPath(Path archiveOrIndex) {
+		final var indexPath = getIndexPath(archiveOrIndex);
+		return indexPath.resolveSibling(indexPath.getFileName().toString() + ".refs");
+	}
+
+	/**
+	 * @param archiveOrIndex
+	 *            path to an index- or an archive-file
+	 * @return path to the journal, which records modifications of the index- and archive-file which were not written to them yet
+	 */
+	public static Path getJournalPath(Path archiveOrIndex) {
+		final var indexPath = getIndexPath(archiveOrIndex);
+		return indexPath.resolveSibling(indexPath.getFileName().toString() + ".journal");
+	}
+
 	public static Path getIndexPath(Path archiveOrIndex) {
 		String fileName = archiveOrIndex.getFileName().toString();
 		if (fileName.endsWith(".index")) {
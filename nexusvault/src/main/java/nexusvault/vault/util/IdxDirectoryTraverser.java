@@ -12,9 +12,19 @@
 package nexusvault.vault.util;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
-import java.util.LinkedList;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import nexusvault.vault.IdxEntry;
 import nexusvault.vault.IdxEntry.IdxDirectory;
 import nexusvault.vault.IdxEntry.IdxFileLink;
 import nexusvault.vault.util.IdxDirectoryTraverser.IdxEntryVisitor.EntryFilterResult;
@@ -22,6 +32,9 @@ import nexusvault.vault.util.IdxDirectoryTraverser.IdxEntryVisitor.EntryFilterRe
 /**
  * Traverses a given file structure, calling for each {@link IdxDirectory directory} or {@link IdxFileLink file} it encounters the respective method on the
  * given {@link IdxEntryVisitor visitor} and acts accordingly to its return {@link EntryFilterResult value}.
+ * <p>
+ * Thread-safe visitors can traverse sub trees in parallel with {@link #visitEntriesInParallel(IdxDirectory, ConcurrentIdxEntryVisitor)}. Files can also be
+ * processed as a {@link #streamFiles(IdxDirectory) stream}.
  *
  * @see EntryFilterResult
  * @see IdxEntryVisitor
@@ -75,6 +88,100 @@ public final class IdxDirectoryTraverser {
 		EntryFilterResult visitFile(IdxFileLink file);
 	}
 
+	/**
+	 * Marks a {@link IdxEntryVisitor visitor} as thread-safe. Its methods may be called by multiple threads at once, see
+	 * {@link IdxDirectoryTraverser#visitEntriesInParallel(IdxDirectory, ConcurrentIdxEntryVisitor, ForkJoinPool)}
+	 */
+	public static interface ConcurrentIdxEntryVisitor extends IdxEntryVisitor {
+	}
+
+	/**
+	 * Visits a single directory. Files are passed to the visitor as they are encountered, sub directories are added to the end of a queue and removed again
+	 * if the visitor decides to skip them.
+	 */
+	private static final class DirectoryWalker implements Consumer<IdxEntry> {
+		private final IdxEntryVisitor visitor;
+		private final Deque<IdxDirectory> unvisited;
+		private boolean skipFiles;
+		private boolean skipDirs;
+		private boolean terminated;
+		private int foundDirectories;
+
+		public DirectoryWalker(IdxEntryVisitor visitor, Deque<IdxDirectory> unvisited) {
+			this.visitor = visitor;
+			this.unvisited = unvisited;
+		}
+
+		/**
+		 * @return <code>false</code> if the traversal was terminated
+		 */
+		public boolean visit(IdxDirectory dir) throws IOException {
+			final EntryFilterResult preVisitResult = this.visitor.preVisitDirectory(dir);
+			if (EntryFilterResult.TERMINATE == preVisitResult) {
+				return false;
+			}
+
+			if (EntryFilterResult.SKIP_SUBTREE == preVisitResult) {
+				return true;
+			}
+
+			this.skipFiles = EntryFilterResult.SKIP_FILES == preVisitResult;
+			this.skipDirs = EntryFilterResult.SKIP_DIRECTORIES == preVisitResult;
+			this.foundDirectories = 0;
+			dir.forEachEntry(this);
+			if (this.terminated) {
+				return false;
+			}
+
+			final EntryFilterResult postVisitResult = this.visitor.postVisitDirectory(dir);
+			if (EntryFilterResult.TERMINATE == postVisitResult) {
+				return false;
+			} else if (EntryFilterResult.SKIP_SUBTREE == postVisitResult) {
+				this.skipDirs = true;
+			} else if (EntryFilterResult.SKIP_DIRECTORIES == postVisitResult) {
+				this.skipDirs = true;
+			}
+
+			if (this.skipDirs) {
+				for (; this.foundDirectories > 0; --this.foundDirectories) {
+					this.unvisited.pollLast();
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void accept(IdxEntry entry) {
+			if (this.terminated) {
+				return;
+			}
+
+			if (entry.isDirectory()) {
+				if (!this.skipDirs) {
+					this.unvisited.addLast(entry.asDirectory());
+					this.foundDirectories += 1;
+				}
+				return;
+			}
+
+			if (this.skipFiles) {
+				return;
+			}
+
+			final EntryFilterResult fileResult = this.visitor.visitFile(entry.asFile());
+			if (EntryFilterResult.TERMINATE == fileResult) {
+				this.terminated = true;
+			} else if (EntryFilterResult.SKIP_FILES == fileResult) {
+				this.skipFiles = true;
+			} else if (EntryFilterResult.SKIP_SUBTREE == fileResult) {
+				this.skipFiles = true;
+				this.skipDirs = true;
+			} else if (EntryFilterResult.SKIP_DIRECTORIES == fileResult) {
+				this.skipDirs = true;
+			}
+		}
+	}
+
 	public static <T extends IdxEntryVisitor> T visitEntries(IdxDirectory start, T visitor) throws IOException {
 		if (start == null) {
 			throw new IllegalArgumentException("'start' must not be null");
@@ -83,57 +190,195 @@ public final class IdxDirectoryTraverser {
 			throw new IllegalArgumentException("'visitor' must not be null");
 		}
 
-		final Deque<IdxDirectory> unvisited = new LinkedList<>();
+		final Deque<IdxDirectory> unvisited = new ArrayDeque<>();
 		unvisited.add(start);
 
+		final var walker = new DirectoryWalker(visitor, unvisited);
 		while (!unvisited.isEmpty()) {
-			final IdxDirectory dir = unvisited.pollFirst();
-
-			final EntryFilterResult preVisitResult = visitor.preVisitDirectory(dir);
-			if (EntryFilterResult.TERMINATE == preVisitResult) {
+			if (!walker.visit(unvisited.pollFirst())) {
 				return visitor;
 			}
+		}
 
-			if (EntryFilterResult.SKIP_SUBTREE == preVisitResult) {
-				continue;
+		return visitor;
+	}
+
+	/**
+	 * Same as {@link #visitEntriesInParallel(IdxDirectory, ConcurrentIdxEntryVisitor, ForkJoinPool)}, but uses the {@link ForkJoinPool#commonPool() common
+	 * pool}
+	 */
+	public static <T extends ConcurrentIdxEntryVisitor> T visitEntriesInParallel(IdxDirectory start, T visitor) throws IOException {
+		return visitEntriesInParallel(start, visitor, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Like {@link #visitEntries(IdxDirectory, IdxEntryVisitor)}, but each directory is visited by its own task, so sub trees are traversed in parallel. The
+	 * visitor is called for the entries of a directory by one thread at a time, but entries of different directories are visited at the same time.
+	 * <p>
+	 * Directories are not visited in any particular order. If the visitor terminates the traversal, no new directories are visited, but directories which are
+	 * visited at that time are finished.
+	 *
+	 * @param start
+	 *            directory to start with
+	 * @param visitor
+	 *            a thread-safe visitor
+	 * @param pool
+	 *            executes the traversal
+	 * @return <code>visitor</code>
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static <T extends ConcurrentIdxEntryVisitor> T visitEntriesInParallel(IdxDirectory start, T visitor, ForkJoinPool pool) throws IOException {
+		if (start == null) {
+			throw new IllegalArgumentException("'start' must not be null");
+		}
+		if (visitor == null) {
+			throw new IllegalArgumentException("'visitor' must not be null");
+		}
+		if (pool == null) {
+			throw new IllegalArgumentException("'pool' must not be null");
+		}
+
+		try {
+			pool.invoke(new VisitTask(start, visitor, new AtomicBoolean()));
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return visitor;
+	}
+
+	private static final class VisitTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final IdxDirectory directory;
+		private final IdxEntryVisitor visitor;
+		private final AtomicBoolean terminated;
+
+		public VisitTask(IdxDirectory directory, IdxEntryVisitor visitor, AtomicBoolean terminated) {
+			this.directory = directory;
+			this.visitor = visitor;
+			this.terminated = terminated;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.terminated.get()) {
+				return;
 			}
 
-			boolean skipDirs = EntryFilterResult.SKIP_DIRECTORIES == preVisitResult;
+			final var subDirectories = new ArrayDeque<IdxDirectory>();
+			try {
+				if (!new DirectoryWalker(this.visitor, subDirectories).visit(this.directory)) {
+					this.terminated.set(true);
+					return;
+				}
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
 
-			if (EntryFilterResult.SKIP_FILES != preVisitResult) {
-				for (final IdxFileLink child : dir.getFiles()) {
-					final EntryFilterResult fileResult = visitor.visitFile(child);
+			final var tasks = new ArrayList<VisitTask>(subDirectories.size());
+			for (final var subDirectory : subDirectories) {
+				tasks.add(new VisitTask(subDirectory, this.visitor, this.terminated));
+			}
+			invokeAll(tasks);
+		}
+	}
 
-					if (EntryFilterResult.TERMINATE == fileResult) {
-						return visitor;
-					} else if (EntryFilterResult.SKIP_FILES == fileResult) {
-						break;
-					} else if (EntryFilterResult.SKIP_SUBTREE == fileResult) {
-						skipDirs = true;
-						break;
-					} else if (EntryFilterResult.SKIP_DIRECTORIES == fileResult) {
-						skipDirs = true;
+	/**
+	 * Returns a lazily populated stream over all files of <code>start</code> and its sub directories. A directory is only read, once the stream reaches it.
+	 * <p>
+	 * The stream supports {@link Stream#parallel() parallel} processing, in which case the sub directories are split between threads. I/O errors are thrown
+	 * as {@link UncheckedIOException}.
+	 *
+	 * @param start
+	 *            directory to start with
+	 * @return a stream over all files in no particular order
+	 */
+	public static Stream<IdxFileLink> streamFiles(IdxDirectory start) {
+		if (start == null) {
+			throw new IllegalArgumentException("'start' must not be null");
+		}
+		final var directories = new ArrayDeque<IdxDirectory>();
+		directories.add(start);
+		return StreamSupport.stream(new FileSpliterator(directories), false);
+	}
+
+	/**
+	 * Reads directories one after another. Files of the directory which was read last are buffered if the stream is consumed one element at a time. Splits by
+	 * handing over half of the directories which were not read yet.
+	 */
+	private static final class FileSpliterator implements Spliterator<IdxFileLink> {
+		private final Deque<IdxDirectory> directories;
+		private final Deque<IdxFileLink> files = new ArrayDeque<>();
+
+		public FileSpliterator(Deque<IdxDirectory> directories) {
+			this.directories = directories;
+		}
+
+		private void read(IdxDirectory directory, Consumer<? super IdxFileLink> action) {
+			try {
+				directory.forEachEntry(entry -> {
+					if (entry.isDirectory()) {
+						this.directories.addLast(entry.asDirectory());
+					} else {
+						action.accept(entry.asFile());
 					}
+				});
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super IdxFileLink> action) {
+			while (this.files.isEmpty()) {
+				final var directory = this.directories.pollFirst();
+				if (directory == null) {
+					return false;
 				}
+				read(directory, this.files::addLast);
 			}
+			action.accept(this.files.pollFirst());
+			return true;
+		}
 
-			final EntryFilterResult postVisitResult = visitor.postVisitDirectory(dir);
-			if (EntryFilterResult.TERMINATE == postVisitResult) {
-				return visitor;
-			} else if (EntryFilterResult.SKIP_SUBTREE == postVisitResult) {
-				skipDirs = true;
-			} else if (EntryFilterResult.SKIP_DIRECTORIES == postVisitResult) {
-				skipDirs = true;
+		@Override
+		public void forEachRemaining(Consumer<? super IdxFileLink> action) {
+			while (!this.files.isEmpty()) {
+				action.accept(this.files.pollFirst());
+			}
+			IdxDirectory directory;
+			while ((directory = this.directories.pollFirst()) != null) {
+				read(directory, action);
+			}
+		}
+
+		@Override
+		public Spliterator<IdxFileLink> trySplit() {
+			if (this.directories.size() == 1 && this.files.isEmpty()) { // look into the directory to find something to split
+				read(this.directories.pollFirst(), this.files::addLast);
 			}
 
-			if (!skipDirs) {
-				for (final IdxDirectory child : dir.getDirectories()) {
-					unvisited.addLast(child);
-				}
+			final var splitSize = this.files.isEmpty() ? this.directories.size() / 2 : this.directories.size();
+			if (splitSize == 0) {
+				return null;
 			}
+			final var split = new ArrayDeque<IdxDirectory>(splitSize);
+			for (var i = 0; i < splitSize; ++i) {
+				split.addLast(this.directories.pollFirst());
+			}
+			return new FileSpliterator(split);
 		}
 
-		return visitor;
+		@Override
+		public long estimateSize() {
+			return this.directories.isEmpty() ? this.files.size() : Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.NONNULL | Spliterator.DISTINCT;
+		}
 	}
 
 }
@@ -12,7 +12,6 @@
 package nexusvault.vault.util;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Predicate;
 
@@ -44,7 +43,7 @@ public class IdxFileCollector implements IdxEntryVisitor {
 			throw new IllegalArgumentException("'predicate' must not be null");
 		}
 		this.predicate = predicate;
-		this.result = new LinkedList<>();
+		this.result = new ArrayList<>();
 		this.maxNumberOfResults = maxNumberOfResults;
 	}
 
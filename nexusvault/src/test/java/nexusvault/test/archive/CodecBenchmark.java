@@ -0,0 +1,138 @@
+package nexusvault.test.archive;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import nexusvault.test.Constants;
+import nexusvault.vault.codec.LzmaCodec;
+import nexusvault.vault.codec.LzmaEncoderOptions;
+import nexusvault.vault.codec.ZipCodec;
+
+/**
+ * Compares the LZMA presets and zlib levels by throughput and ratio. Not part of the regular test run, start it with <code>-Dtest=CodecBenchmark</code>.
+ */
+class CodecBenchmark {
+
+	static final int WARMUP_ROUNDS = 2;
+	static final int MEASURED_ROUNDS = 3;
+
+	static final Map<String, byte[]> assets = new LinkedHashMap<>();
+
+	@BeforeAll
+	static void loadAssets() throws IOException {
+		assets.put("table (tbl)", Files.readAllBytes(Constants.RESOURCE_DIRECTORY.resolve(Path.of("in", "Table.tbl"))));
+		assets.put("table (csv)", Files.readAllBytes(Constants.RESOURCE_DIRECTORY.resolve(Path.of("in", "Table.tbl.csv"))));
+		assets.put("texture (dxt)", createTexture(512, 512));
+	}
+
+	/**
+	 * Block compressed textures are the bulk of the game assets. Each 4x4 block has two colors of a smooth gradient and a noisy index table.
+	 */
+	private static byte[] createTexture(int width, int height) {
+		final var random = new Random(42);
+		final var data = new byte[width / 4 * height / 4 * 8];
+		var i = 0;
+		for (var y = 0; y < height / 4; ++y) {
+			for (var x = 0; x < width / 4; ++x) {
+				final var color = (x + y) * 31 / (width / 4);
+				data[i++] = (byte) color;
+				data[i++] = (byte) (color >> 8);
+				data[i++] = (byte) (color + 2);
+				data[i++] = (byte) (color + 2 >> 8);
+				for (var j = 0; j < 4; ++j) {
+					data[i++] = (byte) (random.nextInt(4) == 0 ? random.nextInt() : 0x55);
+				}
+			}
+		}
+		return data;
+	}
+
+	@Test
+	void compareLzmaPresets() {
+		for (final var level : new int[] { 0, 1, 3, 5, 7, 9 }) {
+			final var options = LzmaEncoderOptions.preset(level);
+			measure("lzma preset " + level, data -> LzmaCodec.encode(data, options), (encoded, length) -> LzmaCodec.decode(encoded, length));
+		}
+	}
+
+	@Test
+	void compareZipLevels() {
+		for (final var level : new int[] { Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION }) {
+			measure("zip level " + level, data -> ZipCodec.encode(data, level), (encoded, length) -> ZipCodec.decode(encoded, length));
+		}
+	}
+
+	@Test
+	void compareParallelLzma() {
+		final var blocks = new ArrayList<byte[]>();
+		for (var i = 0; i < 4; ++i) {
+			blocks.addAll(assets.values());
+		}
+		final var totalBytes = blocks.stream().mapToLong(b -> b.length).sum();
+		final var options = LzmaEncoderOptions.preset(5);
+
+		for (final var threads : new int[] { 1, 2, 4 }) {
+			final var executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<byte[]> encoded = null;
+				var nanos = 0L;
+				for (var round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; ++round) {
+					final var start = System.nanoTime();
+					encoded = LzmaCodec.encode(blocks, options, executor);
+					if (round >= WARMUP_ROUNDS) {
+						nanos += System.nanoTime() - start;
+					}
+				}
+				final var seconds = nanos / 1e9 / MEASURED_ROUNDS;
+				System.out.println(String.format("lzma preset 5, %d thread(s): %d blocks, %.1f MB/s", threads, encoded.size(), totalBytes / 1e6 / seconds));
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private static interface Decoder {
+		byte[] decode(byte[] encoded, int length);
+	}
+
+	private static void measure(String name, UnaryOperator<byte[]> encoder, Decoder decoder) {
+		for (final var asset : assets.entrySet()) {
+			final var data = asset.getValue();
+			byte[] encoded = null;
+			var encodeNanos = 0L;
+			var decodeNanos = 0L;
+			for (var round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; ++round) {
+				final var encodeStart = System.nanoTime();
+				encoded = encoder.apply(data);
+				final var decodeStart = System.nanoTime();
+				final var decoded = decoder.decode(encoded, data.length);
+				final var decodeEnd = System.nanoTime();
+				if (round >= WARMUP_ROUNDS) {
+					encodeNanos += decodeStart - encodeStart;
+					decodeNanos += decodeEnd - decodeStart;
+				}
+				assertArrayEquals(data, decoded);
+			}
+
+			final var megabytes = data.length / 1e6 * MEASURED_ROUNDS;
+			System.out.println(String.format("%-16s %-14s ratio %5.1f%%, encode %6.1f MB/s, decode %6.1f MB/s", name, asset.getKey(),
+					100f * encoded.length / data.length, megabytes / (encodeNanos / 1e9), megabytes / (decodeNanos / 1e9)));
+		}
+	}
+
+}
@@ -0,0 +1,156 @@
+package nexusvault.test.archive;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+
+import nexusvault.vault.codec.LzmaCodec;
+import nexusvault.vault.codec.LzmaEncoderOptions;
+import nexusvault.vault.codec.LzmaEncoderOptions.MatchFinder;
+import nexusvault.vault.codec.ZipCodec;
+
+class CodecsTest {
+
+	private static final String content = "There once was a old man called ralf.\nHe said, \"See the miniature golf!\"\nIt was rather same,But not very ballgame,He couldn't resist the miniature golf.";
+
+	@Test
+	public void testLzma() {
+		final var bytes = content.getBytes(StandardCharsets.UTF_8);
+		final var encoded = LzmaCodec.encode(bytes);
+		final var decoded = LzmaCodec.decode(encoded, bytes.length);
+		assertEquals(content, new String(decoded, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testZip() {
+		final var bytes = content.getBytes(StandardCharsets.UTF_8);
+		final var encoded = ZipCodec.encode(bytes);
+		final var decoded = ZipCodec.decode(encoded, bytes.length);
+		assertEquals(content, new String(decoded, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testLzmaStream() throws IOException {
+		final var bytes = createLargeContent();
+		final var encoded = LzmaCodec.encode(bytes);
+
+		try (var stream = LzmaCodec.decodeStream(new ByteArrayInputStream(encoded), bytes.length)) {
+			assertArrayEquals(bytes, readFully(stream));
+		}
+
+		final var dst = ByteBuffer.allocateDirect(bytes.length);
+		LzmaCodec.decodeInto(new ByteArrayInputStream(encoded), bytes.length, dst);
+		assertEquals(bytes.length, dst.position());
+		assertEquals(ByteBuffer.wrap(bytes), dst.flip());
+	}
+
+	@Test
+	public void testZipStream() throws IOException {
+		final var bytes = createLargeContent();
+		final var encoded = ZipCodec.encode(bytes);
+
+		try (var stream = ZipCodec.decodeStream(new ByteArrayInputStream(encoded), bytes.length)) {
+			assertArrayEquals(bytes, readFully(stream));
+		}
+
+		final var dst = ByteBuffer.allocateDirect(bytes.length);
+		ZipCodec.decodeInto(new ByteArrayInputStream(encoded), bytes.length, dst);
+		assertEquals(bytes.length, dst.position());
+		assertEquals(ByteBuffer.wrap(bytes), dst.flip());
+	}
+
+	@Test
+	public void testLzmaPresets() {
+		final var bytes = createLargeContent();
+		final var block = Arrays.copyOf(bytes, 256 << 10);
+		for (var level = LzmaEncoderOptions.MIN_LEVEL; level <= LzmaEncoderOptions.MAX_LEVEL; ++level) {
+			final var encoded = LzmaCodec.encode(block, LzmaEncoderOptions.preset(level));
+			assertArrayEquals(block, LzmaCodec.decode(encoded, block.length), "level " + level);
+		}
+
+		final var options = new LzmaEncoderOptions().setDictionarySize(1 << 16).setFastBytes(128).setMatchFinder(MatchFinder.BT2).setLcLpPb(0, 2, 0);
+		assertArrayEquals(bytes, LzmaCodec.decode(LzmaCodec.encode(bytes, options), bytes.length));
+		assertArrayEquals(new byte[0], LzmaCodec.decode(LzmaCodec.encode(new byte[0], options), 0));
+	}
+
+	@Test
+	public void testLzmaParallel() {
+		final var bytes = createLargeContent();
+		final var blocks = new ArrayList<byte[]>();
+		for (var i = 0; i < 16; ++i) {
+			blocks.add(Arrays.copyOfRange(bytes, i * 1000, i * 1000 + (i + 1) * 4000));
+		}
+
+		final var executor = Executors.newFixedThreadPool(4);
+		try {
+			final var options = LzmaEncoderOptions.preset(3);
+			final var encoded = LzmaCodec.encode(blocks, options, executor);
+			assertEquals(blocks.size(), encoded.size());
+			for (var i = 0; i < blocks.size(); ++i) {
+				assertArrayEquals(LzmaCodec.encode(blocks.get(i), options), encoded.get(i));
+				assertArrayEquals(blocks.get(i), LzmaCodec.decode(encoded.get(i), blocks.get(i).length));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testZipLevels() {
+		final var bytes = Arrays.copyOf(createLargeContent(), 256 << 10);
+		for (var level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; ++level) {
+			assertArrayEquals(bytes, ZipCodec.decode(ZipCodec.encode(bytes, level), bytes.length), "level " + level);
+		}
+		assertArrayEquals(new byte[0], ZipCodec.decode(ZipCodec.encode(new byte[0]), 0));
+	}
+
+	/**
+	 * Larger than the default LZMA dictionary, so the streaming decoder has to wrap its window
+	 */
+	private static byte[] createLargeContent() {
+		final var random = new Random(7);
+		final var bytes = new byte[5 << 20];
+		final var line = content.getBytes(StandardCharsets.UTF_8);
+		for (var i = 0; i < bytes.length; ++i) {
+			bytes[i] = i % 509 == 0 ? (byte) random.nextInt() : line[i % line.length];
+		}
+		return bytes;
+	}
+
+	private static byte[] readFully(InputStream stream) throws IOException {
+		final var result = new ByteArrayOutputStream();
+		final var buffer = new byte[1000];
+		var length = 1;
+		while (true) { // mix single byte reads with reads of varying length
+			if (length == 1) {
+				final var value = stream.read();
+				if (value < 0) {
+					break;
+				}
+				result.write(value);
+			} else {
+				final var read = stream.read(buffer, 0, length);
+				if (read < 0) {
+					break;
+				}
+				result.write(buffer, 0, read);
+			}
+			length = length * 7 % buffer.length + 1;
+		}
+		return result.toByteArray();
+	}
+
+}
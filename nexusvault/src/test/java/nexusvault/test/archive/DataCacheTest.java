@@ -0,0 +1,110 @@
+package nexusvault.test.archive;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import nexusvault.test.Constants;
+import nexusvault.vault.DataCache;
+import nexusvault.vault.IdxPath;
+import nexusvault.vault.NexusArchive;
+import nexusvault.vault.NexusArchive.CompressionType;
+import nexusvault.vault.archive.Hash;
+
+class DataCacheTest {
+
+	static final Path indexFilePath = Constants.RESOURCE_OUT_DIRECTORY.resolve("DataCache.index");
+	static final Path archiveFilePath = indexFilePath.resolveSibling("DataCache.archive");
+
+	private static byte[] content(int length, int seed) {
+		final var data = new byte[length];
+		for (var i = 0; i < data.length; ++i) {
+			data[i] = (byte) (i * 13 + seed);
+		}
+		return data;
+	}
+
+	@Test
+	void testLeastRecentlyUsedIsEvicted() {
+		final var cache = new DataCache(300);
+		final var a = content(100, 1);
+		final var b = content(100, 2);
+		final var c = content(100, 3);
+		final var d = content(100, 4);
+
+		cache.put(Hash.computeHash(a), a);
+		cache.put(Hash.computeHash(b), b);
+		cache.put(Hash.computeHash(c), c);
+		assertArrayEquals(a, cache.get(Hash.computeHash(a))); // b is now the least recently used
+		cache.put(Hash.computeHash(d), d);
+
+		assertNull(cache.get(Hash.computeHash(b)));
+		assertArrayEquals(a, cache.get(Hash.computeHash(a)));
+		assertArrayEquals(c, cache.get(Hash.computeHash(c)));
+		assertArrayEquals(d, cache.get(Hash.computeHash(d)));
+
+		assertEquals(300, cache.getHeapSize());
+		assertEquals(3, cache.getEntryCount());
+		assertEquals(4, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test
+	void testOffHeapTier() {
+		final var cache = new DataCache(100, 250);
+		final var a = content(100, 1);
+		final var b = content(100, 2);
+		final var c = content(200, 3);
+
+		cache.put(Hash.computeHash(a), a);
+		cache.put(Hash.computeHash(b), b); // moves a off heap
+		assertEquals(100, cache.getHeapSize());
+		assertEquals(100, cache.getOffHeapSize());
+		assertArrayEquals(a, cache.get(Hash.computeHash(a)));
+
+		cache.put(Hash.computeHash(c), c); // too large for the heap, evicts a
+		assertEquals(200, cache.getOffHeapSize());
+		assertNull(cache.get(Hash.computeHash(a)));
+		assertArrayEquals(b, cache.get(Hash.computeHash(b)));
+		assertArrayEquals(c, cache.get(Hash.computeHash(c)));
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test
+	void testArchiveUsesCache() throws IOException {
+		Files.deleteIfExists(indexFilePath);
+		Files.deleteIfExists(archiveFilePath);
+
+		final var entry = IdxPath.createPath("test", "cached.txt");
+		final var text = "An old silent pond\nA frog jumps into the pond\nSplash! Silence again";
+
+		final var archive = NexusArchive.open(indexFilePath);
+		try {
+			archive.write(entry, text.getBytes(StandardCharsets.UTF_8), CompressionType.LZMA);
+			archive.setDataCache(new DataCache(1 << 20));
+
+			final var file = archive.find(entry).get().asFile();
+			final var first = file.getData();
+			final var second = file.getData();
+			assertEquals(text, new String(first, StandardCharsets.UTF_8));
+			assertArrayEquals(first, second);
+			assertNotSame(first, second);
+			assertEquals(1, archive.getDataCache().getMissCount());
+			assertEquals(1, archive.getDataCache().getHitCount());
+		} finally {
+			archive.close();
+			Files.deleteIfExists(indexFilePath);
+			Files.deleteIfExists(archiveFilePath);
+		}
+	}
+
+}
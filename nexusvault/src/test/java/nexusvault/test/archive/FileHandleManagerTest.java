@@ -0,0 +1,109 @@
+package nexusvault.test.archive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+import org.junit.jupiter.api.Test;
+
+import nexusvault.test.Constants;
+import nexusvault.vault.file.FileAccessCache;
+import nexusvault.vault.file.FileHandleManager;
+
+class FileHandleManagerTest {
+
+	private static FileAccessCache createCache(FileHandleManager manager, String name) {
+		final var path = Constants.RESOURCE_OUT_DIRECTORY.resolve("FileHandleManager").resolve(name);
+		return new FileAccessCache(path, EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE), manager);
+	}
+
+	@Test
+	void testLeastRecentlyUsedIsClosed() throws IOException, InterruptedException {
+		final var manager = new FileHandleManager();
+		manager.setMaxOpenHandles(2);
+
+		final var caches = new ArrayList<FileAccessCache>();
+		for (var i = 0; i < 3; ++i) {
+			caches.add(createCache(manager, "file" + i + ".bin"));
+		}
+
+		try {
+			final var first = caches.get(0).acquireFileAccess();
+			caches.get(0).releaseFileAccess();
+			Thread.sleep(5);
+			caches.get(1).acquireFileAccess();
+			caches.get(1).releaseFileAccess();
+			caches.get(2).acquireFileAccess(); // in use, exceeds the limit
+
+			assertFalse(first.isOpen());
+			assertEquals(2, manager.getOpenHandles());
+			assertEquals(3, manager.getOpenCount());
+			assertEquals(1, manager.getCloseCount());
+			assertEquals(1, manager.getEvictionCount());
+
+			final var second = caches.get(1).acquireFileAccess();
+			assertSame(second, caches.get(1).acquireFileAccess());
+			assertNotSame(first, caches.get(0).acquireFileAccess()); // reopened, but the other two are in use
+			assertEquals(3, manager.getOpenHandles());
+		} finally {
+			for (final var cache : caches) {
+				cache.dispose();
+			}
+		}
+		assertEquals(0, manager.getOpenHandles());
+		assertEquals(manager.getOpenCount(), manager.getCloseCount());
+	}
+
+	@Test
+	void testHandleInUseByOtherCallerIsNotClosed() throws IOException {
+		final var manager = new FileHandleManager();
+		final var cache = createCache(manager, "shared.bin");
+		try {
+			final var first = cache.acquireFileAccess();
+			final var second = cache.acquireFileAccess();
+			assertSame(first, second);
+			assertEquals(2, cache.getUsers());
+
+			cache.releaseFileAccess(); // the other caller still reads
+			manager.closeIdleHandles();
+			assertTrue(second.isOpen());
+			assertEquals(1, manager.getOpenHandles());
+
+			cache.releaseFileAccess();
+			manager.closeIdleHandles();
+			assertFalse(second.isOpen());
+			assertEquals(0, manager.getOpenHandles());
+		} finally {
+			cache.dispose();
+		}
+	}
+
+	@Test
+	void testIdleHandlesExpire() throws IOException, InterruptedException {
+		final var manager = new FileHandleManager();
+		manager.setIdleTimeout(10);
+
+		final var cache = createCache(manager, "expire.bin");
+		try {
+			final var channel = cache.acquireFileAccess();
+			cache.releaseFileAccess();
+			for (var i = 0; i < 50 && channel.isOpen(); ++i) {
+				Thread.sleep(100);
+			}
+			assertFalse(channel.isOpen());
+			assertEquals(0, manager.getOpenHandles());
+			assertTrue(cache.acquireFileAccess().isOpen());
+			assertEquals(2, manager.getOpenCount());
+		} finally {
+			cache.dispose();
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+package nexusvault.test.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import nexusvault.test.Constants;
+import nexusvault.vault.archive.Hash;
+import nexusvault.vault.archive.PackedArchiveFile;
+
+/**
+ * Measures the latency of writing a single block and flushing the archive, depending on the number of blocks the archive already contains. Since only
+ * changed slots of the hash table are written, the latency should not grow with the size of the archive. Not part of the regular test run, start it with
+ * <code>-Dtest=FlushBenchmark</code>.
+ */
+class FlushBenchmark {
+
+	static final Path filePath = Constants.RESOURCE_OUT_DIRECTORY.resolve("Flush.archive");
+
+	static final int WARMUP_ROUNDS = 200;
+	static final int MEASURED_ROUNDS = 1000;
+
+	@Test
+	void measureWriteThenFlush() throws IOException {
+		for (final var size : new int[] { 1_000, 10_000, 100_000 }) {
+			Files.deleteIfExists(filePath);
+			try (var file = new PackedArchiveFile(filePath)) {
+				for (var i = 0; i < size; ++i) {
+					write(file, i);
+				}
+				file.flush();
+
+				var nanos = 0L;
+				for (var round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; ++round) {
+					final var start = System.nanoTime();
+					write(file, size + round);
+					file.flush();
+					if (round >= WARMUP_ROUNDS) {
+						nanos += System.nanoTime() - start;
+					}
+				}
+				System.out.println(String.format("%,9d blocks: write then flush %8.1f us", size, nanos / 1e3 / MEASURED_ROUNDS));
+			}
+		}
+		Files.deleteIfExists(filePath);
+	}
+
+	private static void write(PackedArchiveFile file, int i) throws IOException {
+		final var data = ByteBuffer.allocate(Integer.BYTES).putInt(i).array();
+		file.writeData(Hash.computeHash(data), data, false);
+	}
+
+}
@@ -0,0 +1,78 @@
+package nexusvault.test.archive;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import nexusvault.vault.ExtractOptions;
+import nexusvault.vault.NexusArchive;
+import nexusvault.vault.util.IdxDirectoryTraverser;
+import nexusvault.vault.util.IdxFileCollector;
+
+/**
+ * Measures the throughput of reading the archive generated by {@link NexusArchiveConcurrencyTest} from 1, 4 and 8 threads, and of a bulk extraction. Not
+ * part of the regular test run, start it with <code>-Dtest=NexusArchiveConcurrencyBenchmark</code>.
+ */
+class NexusArchiveConcurrencyBenchmark {
+
+	@BeforeAll
+	static void generateArchive() throws IOException {
+		NexusArchiveConcurrencyTest.generateArchive();
+	}
+
+	@AfterAll
+	static void cleanup() throws IOException {
+		NexusArchiveConcurrencyTest.cleanup();
+	}
+
+	@Test
+	void measureConcurrentReads() throws IOException, InterruptedException, ExecutionException {
+		for (final var numberOfThreads : new int[] { 1, 4, 8 }) {
+			final var archive = NexusArchive.open(NexusArchiveConcurrencyTest.indexFilePath);
+			final var executor = Executors.newFixedThreadPool(numberOfThreads);
+			try {
+				final var tasks = new ArrayList<Callable<Long>>();
+				for (var thread = 0; thread < numberOfThreads; ++thread) {
+					tasks.add(NexusArchiveConcurrencyTest.readAll(archive, thread));
+				}
+
+				final var start = System.nanoTime();
+				long readBytes = 0;
+				for (final Future<Long> result : executor.invokeAll(tasks)) {
+					readBytes += result.get();
+				}
+				final var seconds = (System.nanoTime() - start) / 1e9;
+
+				System.out.println(String.format("%d thread(s): read %d files (%.1f MB) in %.3fs, %.1f MB/s", numberOfThreads,
+						NexusArchiveConcurrencyTest.NUMBER_OF_FILES * NexusArchiveConcurrencyTest.ROUNDS * numberOfThreads, readBytes / 1e6, seconds,
+						readBytes / 1e6 / seconds));
+			} finally {
+				executor.shutdownNow();
+				archive.close();
+			}
+		}
+	}
+
+	@Test
+	void measureBulkExtract() throws IOException {
+		final var archive = NexusArchive.open(NexusArchiveConcurrencyTest.indexFilePath);
+		final var executor = Executors.newFixedThreadPool(4);
+		try {
+			final var files = IdxDirectoryTraverser.visitEntries(archive.getRootDirectory(), new IdxFileCollector(file -> true)).getAndClearResult();
+			final var options = new ExtractOptions().setExecutor(executor).setMaxBytesInFlight(64 * 1024);
+			System.out.println(archive.extract(files, (file, data) -> {
+			}, options));
+		} finally {
+			executor.shutdownNow();
+			archive.close();
+		}
+	}
+
+}
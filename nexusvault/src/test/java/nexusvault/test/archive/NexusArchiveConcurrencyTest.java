@@ -0,0 +1,159 @@
+package nexusvault.test.archive;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import nexusvault.test.Constants;
+import nexusvault.vault.ExtractOptions;
+import nexusvault.vault.IdxPath;
+import nexusvault.vault.NexusArchive;
+import nexusvault.vault.NexusArchive.CompressionType;
+import nexusvault.vault.util.IdxDirectoryTraverser;
+import nexusvault.vault.util.IdxFileCollector;
+
+class NexusArchiveConcurrencyTest {
+
+	static final Path indexFilePath = Constants.RESOURCE_OUT_DIRECTORY.resolve("Concurrent.index");
+	static final Path archiveFilePath = indexFilePath.resolveSibling("Concurrent.archive");
+
+	static final int NUMBER_OF_FILES = 500;
+	static final int ROUNDS = 2;
+
+	static final List<IdxPath> paths = new ArrayList<>();
+	static final List<byte[]> contents = new ArrayList<>();
+
+	@BeforeAll
+	static void generateArchive() throws IOException {
+		Files.deleteIfExists(indexFilePath);
+		Files.deleteIfExists(archiveFilePath);
+		paths.clear();
+		contents.clear();
+
+		final var random = new Random(42);
+		final var archive = NexusArchive.open(indexFilePath);
+		for (var i = 0; i < NUMBER_OF_FILES; ++i) {
+			final var path = IdxPath.createPath("dir" + i % 16, "sub" + i % 7, "file" + i + ".bin");
+			final var content = new byte[512 + random.nextInt(8 * 1024)];
+			for (var j = 0; j < content.length; ++j) { // compressible, but unique
+				content[j] = (byte) (j % 64 == 0 ? random.nextInt() : j / 64);
+			}
+			archive.write(path, content, i % 4 == 0 ? CompressionType.UNCOMPRESSED : i % 4 == 1 ? CompressionType.ZIP : CompressionType.LZMA);
+			paths.add(path);
+			contents.add(content);
+		}
+		archive.close();
+	}
+
+	@AfterAll
+	static void cleanup() throws IOException {
+		Files.deleteIfExists(indexFilePath);
+		Files.deleteIfExists(archiveFilePath);
+	}
+
+	@Test
+	void testConcurrentReads() throws IOException, InterruptedException, ExecutionException {
+		final var numberOfThreads = 8;
+		final var archive = NexusArchive.open(indexFilePath);
+		final var executor = Executors.newFixedThreadPool(numberOfThreads);
+		try {
+			final var tasks = new ArrayList<Callable<Long>>();
+			for (var thread = 0; thread < numberOfThreads; ++thread) {
+				tasks.add(readAll(archive, thread));
+			}
+
+			long readBytes = 0;
+			for (final Future<Long> result : executor.invokeAll(tasks)) {
+				readBytes += result.get();
+			}
+			assertEquals(numberOfThreads * ROUNDS * contents.stream().mapToLong(content -> content.length).sum(), readBytes);
+		} finally {
+			executor.shutdownNow();
+			archive.close();
+		}
+	}
+
+	/**
+	 * @return a task which reads all files of the generated archive {@value #ROUNDS} times, starting at a different file for each <code>offset</code>, and
+	 *         returns the number of bytes read
+	 */
+	static Callable<Long> readAll(NexusArchive archive, int offset) {
+		return () -> {
+			long readBytes = 0;
+			for (var round = 0; round < ROUNDS; ++round) {
+				for (var i = 0; i < NUMBER_OF_FILES; ++i) {
+					final var index = (i + offset * 97) % NUMBER_OF_FILES;
+					final var file = archive.find(paths.get(index));
+					assertTrue(file.isPresent(), "entry not found");
+					final var data = file.get().asFile().getData();
+					assertArrayEquals(contents.get(index), data);
+					readBytes += data.length;
+				}
+			}
+			return readBytes;
+		};
+	}
+
+	@Test
+	void testBulkExtract() throws IOException {
+		final var archive = NexusArchive.open(indexFilePath);
+		final var executor = Executors.newFixedThreadPool(4);
+		try {
+			final var files = IdxDirectoryTraverser.visitEntries(archive.getRootDirectory(), new IdxFileCollector(file -> true)).getAndClearResult();
+			assertEquals(NUMBER_OF_FILES, files.size());
+
+			final var extracted = new ConcurrentHashMap<String, byte[]>();
+			final var options = new ExtractOptions().setExecutor(executor).setMaxBytesInFlight(64 * 1024);
+			final var report = archive.extract(files, (file, data) -> extracted.put(file.getFullName(), data), options);
+
+			assertFalse(report.hasFailures(), "extraction failed");
+			assertEquals(NUMBER_OF_FILES, report.getExtractedFiles());
+			for (var i = 0; i < NUMBER_OF_FILES; ++i) {
+				assertArrayEquals(contents.get(i), extracted.get(paths.get(i).getFullName()));
+			}
+		} finally {
+			executor.shutdownNow();
+			archive.close();
+		}
+	}
+
+	@Test
+	void testBulkExtractWithShutDownExecutor() throws IOException {
+		final var archive = NexusArchive.open(indexFilePath);
+		final var executor = Executors.newFixedThreadPool(1);
+		executor.shutdown();
+		try {
+			final var files = IdxDirectoryTraverser.visitEntries(archive.getRootDirectory(), new IdxFileCollector(file -> true)).getAndClearResult();
+			final var options = new ExtractOptions().setExecutor(executor).setMaxBytesInFlight(16 * 1024);
+			final var report = archive.extract(files, (file, data) -> {
+			}, options);
+
+			assertEquals(0, report.getExtractedFiles());
+			assertEquals(NUMBER_OF_FILES, report.getFailures().size());
+			for (final var failure : report.getFailures().values()) {
+				assertTrue(failure instanceof RejectedExecutionException);
+			}
+		} finally {
+			archive.close();
+		}
+	}
+
+}
@@ -1,13 +1,33 @@
 package nexusvault.test.archive;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.MethodOrderer;
@@ -16,9 +36,24 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 
 import nexusvault.test.Constants;
+import nexusvault.vault.AsyncNexusArchive;
+import nexusvault.vault.IdxEntry;
+import nexusvault.vault.IdxEntry.IdxDirectory;
 import nexusvault.vault.IdxPath;
 import nexusvault.vault.NexusArchive;
 import nexusvault.vault.NexusArchive.CompressionType;
+import nexusvault.vault.archive.Hash;
+import nexusvault.vault.archive.PackedArchiveFile;
+import nexusvault.vault.index.IndexException.IndexEntryNotADirectoryException;
+import nexusvault.vault.index.IndexException.IndexEntryNotAFileException;
+import nexusvault.vault.index.IndexException.IndexEntryNotFoundException;
+import nexusvault.vault.util.ArchiveDiff;
+import nexusvault.vault.util.ArchiveDiff.ChangeType;
+import nexusvault.vault.util.ArchivePathLocator;
+import nexusvault.vault.util.IdxDirectoryTraverser;
+import nexusvault.vault.util.IdxDirectoryTraverser.ConcurrentIdxEntryVisitor;
+import nexusvault.vault.util.IdxDirectoryTraverser.IdxEntryVisitor.EntryFilterResult;
+import nexusvault.vault.util.IdxFileCollector;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 class NexusArchiveTest {
@@ -30,6 +65,7 @@ class NexusArchiveTest {
 	void cleanupArchives() throws IOException {
 		Files.deleteIfExists(indexFilePath);
 		Files.deleteIfExists(archiveFilePath);
+		Files.deleteIfExists(ArchivePathLocator.getReferencesPath(indexFilePath));
 	}
 
 	@Test
@@ -81,4 +117,835 @@ class NexusArchiveTest {
 		}
 	}
 
+	@Test
+	@Order(3)
+	void testMemoryMappedRead() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		final var entryA = IdxPath.createPath("test", "poem", "Moon - A Haiku.txt");
+		final var entryB = IdxPath.createPath("test", "poem", "Moon - A Haiku.lzma");
+		final var poemA = "Thick fog on the lake\nA gloomy, pale moon sinks down\nwatching the heron";
+		final var poemB = "Old moon on the pond\nA silent, lonely frog waits\nunder the willow";
+
+		var archive = NexusArchive.open(indexFilePath);
+		archive.write(entryA, poemA.getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+		archive.write(entryB, poemB.getBytes(StandardCharsets.UTF_8), CompressionType.LZMA);
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.setMemoryMappedReads(true);
+		assertTrue(archive.isMemoryMappedReads());
+
+		assertEquals(poemA, new String(archive.find(entryA).get().asFile().getData(), StandardCharsets.UTF_8));
+		assertEquals(poemB, new String(archive.find(entryB).get().asFile().getData(), StandardCharsets.UTF_8));
+
+		// content leased from the mapping must not change, its region is neither reused nor truncated until the stream is closed
+		final var entryC = IdxPath.createPath("test", "poem", "Reversed.txt");
+		final var executor = Executors.newSingleThreadExecutor();
+		try {
+			final var stream = archive.find(entryA).get().asFile().openStream();
+			archive.write(entryA, poemB.getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+			archive.write(entryC, new StringBuilder(poemA).reverse().toString().getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+			final var archiveToCompact = archive;
+			final var compaction = executor.submit(() -> archiveToCompact.compact());
+			assertThrows(TimeoutException.class, () -> compaction.get(200, TimeUnit.MILLISECONDS));
+			assertEquals(poemA, new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+			stream.close();
+			assertTrue(compaction.get(10, TimeUnit.SECONDS) > 0, "data released by the stream is reclaimed");
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(poemB, new String(archive.find(entryA).get().asFile().getData(), StandardCharsets.UTF_8));
+		archive.validateArchive();
+
+		archive.close();
+	}
+
+	@Test
+	@Order(4)
+	void testStreamedRead() throws IOException {
+		final var entries = new IdxPath[] { IdxPath.createPath("test", "stream", "raw.bin"), IdxPath.createPath("test", "stream", "zip.bin"),
+				IdxPath.createPath("test", "stream", "lzma.bin") };
+		final var compressions = new CompressionType[] { CompressionType.UNCOMPRESSED, CompressionType.ZIP, CompressionType.LZMA };
+		final var contents = new byte[entries.length][];
+
+		var archive = NexusArchive.open(indexFilePath);
+		for (var i = 0; i < entries.length; ++i) {
+			contents[i] = new byte[200 * 1024 + i];
+			for (var j = 0; j < contents[i].length; ++j) {
+				contents[i][j] = (byte) (j * 31 / 7 + i);
+			}
+			archive.write(entries[i], contents[i], compressions[i]);
+		}
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		for (var i = 0; i < entries.length; ++i) {
+			final var file = archive.find(entries[i]).get().asFile();
+			try (var stream = file.openStream()) {
+				assertArrayEquals(contents[i], stream.readAllBytes());
+			}
+
+			final var dst = ByteBuffer.allocate(contents[i].length + 8);
+			dst.position(4);
+			file.decodeInto(dst);
+			assertEquals(4 + contents[i].length, dst.position());
+			assertArrayEquals(contents[i], Arrays.copyOfRange(dst.array(), 4, dst.position()));
+		}
+		archive.close();
+	}
+
+	@Test
+	@Order(5)
+	void testWriteIntoExistingDirectory() throws IOException {
+		final var entryA = IdxPath.createPath("test", "existing", "a.txt");
+		final var entryB = IdxPath.createPath("test", "existing", "b.txt");
+
+		var archive = NexusArchive.open(indexFilePath);
+		archive.write(entryA, "a".getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.write(entryB, "b".getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		assertTrue(archive.find(entryA).isPresent());
+		assertTrue(archive.find(entryB).isPresent());
+		archive.close();
+	}
+
+	@Test
+	@Order(6)
+	void testPathIndex() throws IOException {
+		final var sidecarPath = ArchivePathLocator.getPathIndexPath(indexFilePath);
+		Files.deleteIfExists(sidecarPath);
+
+		var archive = NexusArchive.open(indexFilePath);
+		for (var i = 0; i < 20; ++i) {
+			archive.write(IdxPath.createPath("art", "dir" + i % 4, "sub" + i % 3, "file" + i + ".txt"), ("content " + i).getBytes(StandardCharsets.UTF_8),
+					CompressionType.UNCOMPRESSED);
+		}
+		archive.close();
+
+		for (var round = 0; round < 2; ++round) { // builds the index in the first round, reads it from the sidecar in the second
+			archive = NexusArchive.open(indexFilePath);
+			archive.setPathIndexEnabled(true);
+			assertTrue(Files.exists(sidecarPath));
+
+			final var file = archive.find(IdxPath.createPath("ART", "Dir1", "sub2", "FILE5.txt"));
+			assertTrue(file.isPresent());
+			assertEquals("content 5", new String(file.get().asFile().getData(), StandardCharsets.UTF_8));
+			assertEquals(IdxPath.createPath("art", "dir1", "sub2", "file5.txt"), file.get().getPath());
+			assertTrue(archive.find(IdxPath.createPath("art", "dir3")).get().isDirectory());
+			assertFalse(archive.find(IdxPath.createPath("art", "dir3", "missing.txt")).isPresent());
+			assertFalse(archive.find(IdxPath.createPath("art", "dir1", "sub2", "file5.txt", "deeper")).isPresent());
+
+			// nodes resolved by the index are shared with the tree
+			final var files = IdxDirectoryTraverser.visitEntries(archive.getRootDirectory(), new IdxFileCollector(f -> true)).getAndClearResult();
+			assertEquals(20 + round, files.size());
+
+			// writing discards the index and is visible to later lookups
+			final var newEntry = IdxPath.createPath("art", "dir1", "sub2", "new" + round + ".txt");
+			archive.write(newEntry, ("new " + round).getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+			assertTrue(archive.find(newEntry).isPresent());
+			archive.close();
+		}
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.setPathIndexEnabled(true);
+		assertTrue(archive.find(IdxPath.createPath("art", "dir1", "sub2", "new0.txt")).isPresent());
+		assertTrue(archive.find(IdxPath.createPath("art", "dir1", "sub2", "new1.txt")).isPresent());
+		archive.close();
+		Files.deleteIfExists(sidecarPath);
+	}
+
+	@Test
+	@Order(7)
+	void testCompactIndex() throws IOException {
+		var archive = NexusArchive.open(indexFilePath);
+		for (var i = 0; i < 30; ++i) {
+			archive.write(IdxPath.createPath("art", "dir" + i % 4, "sub" + i % 3, "file" + i + ".txt"), ("content " + i).getBytes(StandardCharsets.UTF_8),
+					i % 2 == 0 ? CompressionType.LZMA : CompressionType.UNCOMPRESSED);
+		}
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		final var regular = IdxDirectoryTraverser.visitEntries(archive.getRootDirectory(), new IdxFileCollector(f -> true)).getAndClearResult();
+		archive.setCompactIndexEnabled(true);
+		final var compact = IdxDirectoryTraverser.visitEntries(archive.getRootDirectory(), new IdxFileCollector(f -> true)).getAndClearResult();
+
+		assertEquals(regular.size(), compact.size());
+		assertEquals(archive.getRootDirectory().countNodesInSubTree(), 1 + 1 + 4 + 4 * 3 + 30);
+		for (final var expected : regular) {
+			final var actual = archive.find(expected.getPath()).get().asFile();
+			assertEquals(expected.getPath(), actual.getPath());
+			assertArrayEquals(expected.getHash(), actual.getHash());
+			assertEquals(expected.getFlags(), actual.getFlags());
+			assertEquals(expected.getWriteTime(), actual.getWriteTime());
+			assertEquals(expected.getUncompressedSize(), actual.getUncompressedSize());
+			assertEquals(expected.getCompressedSize(), actual.getCompressedSize());
+			assertArrayEquals(expected.getData(), actual.getData());
+			assertEquals(actual, archive.find(IdxPath.createPathFrom(expected.getFullName().toUpperCase())).get());
+		}
+		assertFalse(archive.find(IdxPath.createPath("art", "dir1", "missing.txt")).isPresent());
+		assertEquals("sub2", archive.find(IdxPath.createPath("art", "dir1", "sub2", "file5.txt")).get().getParent().getName());
+
+		// writing continues with the regular index
+		final var newEntry = IdxPath.createPath("art", "dir1", "new.txt");
+		archive.write(newEntry, "new".getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+		assertTrue(archive.find(newEntry).isPresent());
+
+		// modifications of existing entries resolve them in the regular index
+		final var overwritten = IdxPath.createPath("art", "dir0", "sub0", "file0.txt");
+		archive.setCompactIndexEnabled(true);
+		archive.write(overwritten, "overwritten".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+		assertEquals("overwritten", new String(archive.find(overwritten).get().asFile().getData(), StandardCharsets.UTF_8));
+
+		final var copied = IdxPath.createPath("art", "dir0", "sub1", "file4.txt");
+		archive.setCompactIndexEnabled(true);
+		archive.copyRaw(archive.find(IdxPath.createPath("art", "dir1", "sub1", "file1.txt")).get().asFile(), copied);
+		assertEquals("content 1", new String(archive.find(copied).get().asFile().getData(), StandardCharsets.UTF_8));
+
+		final var deleted = IdxPath.createPath("art", "dir0", "sub2", "file8.txt");
+		archive.setCompactIndexEnabled(true);
+		archive.delete(deleted);
+		assertFalse(archive.find(deleted).isPresent());
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.validateArchive();
+		assertEquals("overwritten", new String(archive.find(overwritten).get().asFile().getData(), StandardCharsets.UTF_8));
+		assertEquals("content 1", new String(archive.find(copied).get().asFile().getData(), StandardCharsets.UTF_8));
+		assertFalse(archive.find(deleted).isPresent());
+		archive.close();
+	}
+
+	@Test
+	@Order(8)
+	void testWriteBatch() throws IOException {
+		var archive = NexusArchive.open(indexFilePath);
+		final var existing = IdxPath.createPath("batch", "existing.txt");
+		archive.write(existing, "old".getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		final var numberOfFiles = archive.getNumberOfFiles();
+		try (var batch = archive.beginBatch()) {
+			batch.write(IdxPath.createPath("batch", "aborted.txt"), "aborted".getBytes(StandardCharsets.UTF_8), CompressionType.LZMA);
+			batch.abort();
+			assertThrows(IllegalStateException.class, () -> batch.commit());
+		}
+		assertFalse(archive.find(IdxPath.createPath("batch", "aborted.txt")).isPresent());
+
+		try (var batch = archive.beginBatch()) { // uses an existing file as directory, nothing is written
+			batch.write(IdxPath.createPath("batch", "new.txt"), "new".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+			batch.write(existing.resolve("child.txt"), "child".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+			assertThrows(IndexEntryNotADirectoryException.class, () -> batch.commit());
+		}
+		assertFalse(archive.find(IdxPath.createPath("batch", "new.txt")).isPresent());
+		assertEquals(numberOfFiles, archive.getNumberOfFiles());
+
+		final var contents = new HashMap<IdxPath, byte[]>();
+		try (var batch = archive.beginBatch()) {
+			for (var i = 0; i < 200; ++i) {
+				final var path = IdxPath.createPath("batch", "dir" + i % 5, "file" + i + ".txt");
+				final var content = ("batch content " + i).repeat(i + 1).getBytes(StandardCharsets.UTF_8);
+				batch.write(path, content, CompressionType.values()[i % 3]);
+				contents.put(path, content);
+			}
+			final var updated = "updated".getBytes(StandardCharsets.UTF_8);
+			batch.write(IdxPath.createPath("BATCH", "EXISTING.txt"), "replaced by the next write".getBytes(StandardCharsets.UTF_8), CompressionType.LZMA);
+			batch.write(existing, updated, CompressionType.LZMA);
+			contents.put(existing, updated);
+			assertEquals(201, batch.size());
+			batch.commit();
+		}
+		assertEquals(numberOfFiles + 200, archive.getNumberOfFiles());
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.validateArchive();
+		for (final var content : contents.entrySet()) {
+			assertArrayEquals(content.getValue(), archive.find(content.getKey()).get().asFile().getData(), content.getKey().getFullName());
+		}
+
+		// replaced files are resolved in the regular index, even if the compact index is loaded
+		archive.setCompactIndexEnabled(true);
+		try (var batch = archive.beginBatch()) {
+			batch.write(existing, "compact".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+			batch.commit();
+		}
+		assertEquals("compact", new String(archive.find(existing).get().asFile().getData(), StandardCharsets.UTF_8));
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.validateArchive();
+		assertEquals("compact", new String(archive.find(existing).get().asFile().getData(), StandardCharsets.UTF_8));
+		archive.close();
+	}
+
+	@Test
+	@Order(9)
+	void testCompact() throws IOException {
+		var archive = NexusArchive.open(indexFilePath);
+		final var random = new Random(11);
+		final var contents = new HashMap<IdxPath, byte[]>();
+		for (var round = 0; round < 5; ++round) { // overwritten files leave free regions of different sizes behind
+			for (var i = 0; i < 20; ++i) {
+				final var path = IdxPath.createPath("compact", "dir" + i % 3, "file" + i + ".bin");
+				final var content = new byte[1000 + random.nextInt(20000)];
+				random.nextBytes(content);
+				archive.write(path, content, CompressionType.UNCOMPRESSED);
+				contents.put(path, content);
+			}
+		}
+		archive.delete(IdxPath.createPath("compact", "dir0", "file0.bin"));
+		contents.remove(IdxPath.createPath("compact", "dir0", "file0.bin"));
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		final var sizeBefore = Files.size(indexFilePath) + Files.size(archiveFilePath);
+		final var reclaimed = archive.compact();
+		assertTrue(reclaimed > 0, "nothing reclaimed");
+		assertEquals(sizeBefore - reclaimed, Files.size(indexFilePath) + Files.size(archiveFilePath));
+		for (final var content : contents.entrySet()) {
+			assertArrayEquals(content.getValue(), archive.find(content.getKey()).get().asFile().getData());
+		}
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.validateArchive();
+		assertEquals(contents.size(), archive.getNumberOfFiles());
+		for (final var content : contents.entrySet()) {
+			assertArrayEquals(content.getValue(), archive.find(content.getKey()).get().asFile().getData());
+		}
+		archive.close();
+	}
+
+	@Test
+	@Order(10)
+	void testDeduplication() throws IOException {
+		final var shared = "shared content".repeat(100).getBytes(StandardCharsets.UTF_8);
+		final var first = IdxPath.createPath("dedup", "first.txt");
+		final var second = IdxPath.createPath("dedup", "other", "second.txt");
+		final var third = IdxPath.createPath("dedup", "third.txt");
+
+		var archive = NexusArchive.open(indexFilePath);
+		archive.write(first, shared, CompressionType.LZMA);
+		archive.write(second, shared, CompressionType.UNCOMPRESSED); // shares the compressed data of the first file
+		assertEquals(1, archive.getNumberOfFiles());
+		final var secondFile = archive.find(second).get().asFile();
+		assertEquals(CompressionType.LZMA.flag, secondFile.getFlags());
+		assertArrayEquals(shared, secondFile.getData());
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.write(first, "changed".getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED); // data is still used by the second file
+		assertEquals(2, archive.getNumberOfFiles());
+		assertArrayEquals(shared, archive.find(second).get().asFile().getData());
+
+		try (var batch = archive.beginBatch()) {
+			batch.write(third, shared, CompressionType.ZIP);
+			batch.write(third.pathToSibling("fourth.txt"), "batch".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+			batch.write(third.pathToSibling("fifth.txt"), "batch".getBytes(StandardCharsets.UTF_8), CompressionType.LZMA);
+			batch.commit();
+		}
+		assertEquals(3, archive.getNumberOfFiles());
+		assertArrayEquals(shared, archive.find(third).get().asFile().getData());
+		assertEquals(CompressionType.ZIP.flag, archive.find(third.pathToSibling("fifth.txt")).get().asFile().getFlags());
+
+		archive.delete(second);
+		assertEquals(3, archive.getNumberOfFiles());
+		archive.delete(third);
+		assertEquals(2, archive.getNumberOfFiles());
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.validateArchive();
+		assertArrayEquals("changed".getBytes(StandardCharsets.UTF_8), archive.find(first).get().asFile().getData());
+		assertArrayEquals("batch".getBytes(StandardCharsets.UTF_8), archive.find(third.pathToSibling("fifth.txt")).get().asFile().getData());
+		archive.close();
+
+		// references are stored next to the index, a sidecar which belongs to a different state of the index is not used
+		final var referencesPath = ArchivePathLocator.getReferencesPath(indexFilePath);
+		assertTrue(Files.exists(referencesPath));
+		final var staleReferences = Files.readAllBytes(referencesPath);
+		archive = NexusArchive.open(indexFilePath);
+		archive.write(second, "batch".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+		archive.close();
+		Files.write(referencesPath, staleReferences);
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.delete(third.pathToSibling("fourth.txt"));
+		archive.delete(third.pathToSibling("fifth.txt"));
+		assertArrayEquals("batch".getBytes(StandardCharsets.UTF_8), archive.find(second).get().asFile().getData());
+		archive.close();
+
+		// without a sidecar the references are counted before the first modification
+		Files.delete(referencesPath);
+		archive = NexusArchive.open(indexFilePath);
+		archive.write(third, "changed".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+		archive.close();
+		Files.delete(referencesPath);
+		archive = NexusArchive.open(indexFilePath);
+		archive.delete(first);
+		assertArrayEquals("changed".getBytes(StandardCharsets.UTF_8), archive.find(third).get().asFile().getData());
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.validateArchive();
+		assertTrue(archive.verifyContents(1).isValid());
+		archive.close();
+	}
+
+	@Test
+	@Order(11)
+	void testVerifyContents() throws IOException {
+		var archive = NexusArchive.open(indexFilePath);
+		final var random = new Random(14);
+		for (var i = 0; i < 50; ++i) {
+			final var content = new byte[100 + random.nextInt(5000)];
+			random.nextBytes(content);
+			archive.write(IdxPath.createPath("verify", "file" + i + ".bin"), content, CompressionType.values()[i % 3]);
+		}
+		archive.write(IdxPath.createPath("verify", "copy.bin"), archive.find(IdxPath.createPath("verify", "file0.bin")).get().asFile().getData(),
+				CompressionType.UNCOMPRESSED);
+
+		var report = archive.verifyContents(2);
+		assertTrue(report.isValid(), report.toString());
+		assertEquals(50, report.getVerifiedBlobs());
+		assertEquals(0, report.getUnreferencedBlobs());
+		final var corruptHash = archive.find(IdxPath.createPath("verify", "file3.bin")).get().asFile().getHash();
+		final var missingHash = archive.find(IdxPath.createPath("verify", "file4.bin")).get().asFile().getHash();
+		archive.close();
+
+		try (var archiveFile = new PackedArchiveFile(archiveFilePath)) {
+			archiveFile.writeData(corruptHash, "corrupt".getBytes(StandardCharsets.UTF_8), true);
+			archiveFile.deleteData(missingHash);
+			archiveFile.writeData(Hash.computeHash(new byte[] { 1 }), new byte[] { 1 }, false);
+		}
+
+		archive = NexusArchive.open(indexFilePath);
+		report = archive.verifyContents(2);
+		assertFalse(report.isValid());
+		assertEquals(48, report.getVerifiedBlobs());
+		assertEquals(1, report.getUnreferencedBlobs());
+		assertEquals(1, report.getCorrupt().size());
+		assertEquals("file3.bin", report.getCorrupt().keySet().iterator().next().getName());
+		assertEquals(1, report.getMissing().size());
+		assertEquals("file4.bin", report.getMissing().keySet().iterator().next().getName());
+		archive.close();
+	}
+
+	@Test
+	@Order(12)
+	void testParallelTraversal() throws IOException {
+		var archive = NexusArchive.open(indexFilePath);
+		try (var batch = archive.beginBatch()) {
+			for (var i = 0; i < 300; ++i) {
+				batch.write(IdxPath.createPath("walk", "dir" + i % 7, "sub" + i % 5, "file" + i + ".txt"), ("walk " + i).getBytes(StandardCharsets.UTF_8),
+						CompressionType.UNCOMPRESSED);
+			}
+			batch.write(IdxPath.createPath("walk", "root.txt"), "root".getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+			batch.commit();
+		}
+		archive.close();
+
+		for (final var compact : new boolean[] { false, true }) {
+			archive = NexusArchive.open(indexFilePath);
+			archive.setCompactIndexEnabled(compact);
+			final var root = archive.getRootDirectory();
+			final var expected = IdxDirectoryTraverser.visitEntries(root, new IdxFileCollector(f -> true)).getAndClearResult().stream()
+					.map(IdxEntry::getPath).collect(Collectors.toSet());
+			assertEquals(301, expected.size());
+
+			assertEquals(expected, IdxDirectoryTraverser.streamFiles(root).map(IdxEntry::getPath).collect(Collectors.toSet()));
+			assertEquals(expected, IdxDirectoryTraverser.streamFiles(root).parallel().map(IdxEntry::getPath).collect(Collectors.toSet()));
+			assertEquals(9, IdxDirectoryTraverser.streamFiles(root).parallel().filter(f -> f.getName().matches("file\\d0\\.txt")).count());
+
+			final var visited = ConcurrentHashMap.<IdxPath>newKeySet();
+			IdxDirectoryTraverser.visitEntriesInParallel(root, (ConcurrentIdxEntryVisitor) file -> {
+				assertTrue(visited.add(file.getPath()), "visited twice");
+				return EntryFilterResult.CONTINUE;
+			});
+			assertEquals(expected, visited);
+
+			// skips dir0 and everything below
+			final var skipped = IdxDirectoryTraverser.visitEntries(root, new IdxFileCollector(f -> true) {
+				@Override
+				public EntryFilterResult preVisitDirectory(IdxDirectory nextDir) {
+					return "dir0".equals(nextDir.getName()) ? EntryFilterResult.SKIP_SUBTREE : EntryFilterResult.CONTINUE;
+				}
+			}).getAndClearResult();
+			assertEquals(301 - 43, skipped.size());
+			assertEquals(5, IdxDirectoryTraverser.visitEntries(root, new IdxFileCollector(f -> true, 5)).getAndClearResult().size());
+			archive.close();
+		}
+	}
+
+	@Test
+	@Order(13)
+	void testJournal() throws IOException, InterruptedException {
+		final var journalPath = ArchivePathLocator.getJournalPath(indexFilePath);
+		final var crashedIndexPath = indexFilePath.resolveSibling("Crashed.index");
+		final var crashedJournalPath = ArchivePathLocator.getJournalPath(crashedIndexPath);
+		final var shared = "shared".getBytes(StandardCharsets.UTF_8);
+
+		final var archive = NexusArchive.open(indexFilePath);
+		archive.write(IdxPath.createPath("journal", "before.txt"), shared, CompressionType.UNCOMPRESSED);
+		archive.setJournalEnabled(true);
+		assertTrue(Files.exists(journalPath));
+
+		final var failures = ConcurrentHashMap.<Exception>newKeySet();
+		final var threads = new ArrayList<Thread>();
+		for (var t = 0; t < 4; ++t) {
+			final var thread = t;
+			threads.add(new Thread(() -> {
+				try {
+					for (var i = 0; i < 25; ++i) {
+						archive.write(IdxPath.createPath("journal", "t" + thread, "file" + i + ".txt"),
+								("thread " + thread + " file " + i).getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+					}
+				} catch (final Exception e) {
+					failures.add(e);
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (final var thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.isEmpty(), () -> failures.toString());
+
+		final var numberOfFiles = archive.getNumberOfFiles();
+		archive.delete(IdxPath.createPath("journal", "t0", "file0.txt"));
+		assertEquals(numberOfFiles, archive.getNumberOfFiles(), "data is released by the next checkpoint");
+		archive.checkpoint();
+		assertEquals(numberOfFiles - 1, archive.getNumberOfFiles());
+
+		archive.move(IdxPath.createPath("journal", "t1", "file0.txt"), IdxPath.createPath("journal", "moved"));
+		archive.delete(IdxPath.createPath("journal", "before.txt")); // data is still referenced by the last checkpoint
+		try (var batch = archive.beginBatch()) {
+			batch.write(IdxPath.createPath("journal", "batch", "a.txt"), "batch".getBytes(StandardCharsets.UTF_8), CompressionType.LZMA);
+			batch.write(IdxPath.createPath("journal", "batch", "b.txt"), "batch".getBytes(StandardCharsets.UTF_8), CompressionType.LZMA);
+			batch.write(IdxPath.createPath("journal", "batch", "c.txt"), shared, CompressionType.LZMA);
+			batch.commit();
+		}
+
+		// files as they are on disk, as if the process crashed
+		Files.copy(indexFilePath, crashedIndexPath, StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(archiveFilePath, ArchivePathLocator.getArchivePath(crashedIndexPath), StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(journalPath, crashedJournalPath, StandardCopyOption.REPLACE_EXISTING);
+		// power loss while a record was appended
+		Files.write(crashedJournalPath, new byte[] { 100, 0, 0, 0, 1, 2, 3, 4, 5 }, StandardOpenOption.APPEND);
+		archive.close();
+		assertFalse(Files.exists(journalPath));
+
+		for (final var path : new Path[] { indexFilePath, crashedIndexPath }) {
+			final var recovered = NexusArchive.open(path);
+			assertFalse(Files.exists(ArchivePathLocator.getJournalPath(path)));
+			recovered.validateArchive();
+			assertTrue(recovered.find(IdxPath.createPath("journal", "t0", "file0.txt")).isEmpty());
+			assertTrue(recovered.find(IdxPath.createPath("journal", "before.txt")).isEmpty());
+			assertTrue(recovered.find(IdxPath.createPath("journal", "t1", "file0.txt")).isEmpty());
+			assertArrayEquals("thread 1 file 0".getBytes(StandardCharsets.UTF_8),
+					recovered.find(IdxPath.createPath("journal", "moved", "file0.txt")).get().asFile().getData());
+			assertArrayEquals("thread 3 file 24".getBytes(StandardCharsets.UTF_8),
+					recovered.find(IdxPath.createPath("journal", "t3", "file24.txt")).get().asFile().getData());
+			assertArrayEquals("batch".getBytes(StandardCharsets.UTF_8), recovered.find(IdxPath.createPath("journal", "batch", "b.txt")).get().asFile().getData());
+			assertArrayEquals(shared, recovered.find(IdxPath.createPath("journal", "batch", "c.txt")).get().asFile().getData());
+			assertTrue(recovered.verifyContents(1).isValid());
+			recovered.close();
+		}
+
+		Files.deleteIfExists(crashedIndexPath);
+		Files.deleteIfExists(ArchivePathLocator.getArchivePath(crashedIndexPath));
+	}
+
+	@Test
+	@Order(14)
+	void testArchiveDiff() throws IOException {
+		final var newIndexPath = indexFilePath.resolveSibling("NewBuild.index");
+		final var newArchivePath = ArchivePathLocator.getArchivePath(newIndexPath);
+
+		var oldArchive = NexusArchive.open(indexFilePath);
+		try (var batch = oldArchive.beginBatch()) {
+			for (var i = 0; i < 20; ++i) {
+				batch.write(IdxPath.createPath("diff", "same", "deep", "file" + i + ".txt"), ("same " + i).getBytes(StandardCharsets.UTF_8),
+						CompressionType.ZIP);
+				batch.write(IdxPath.createPath("diff", "other", "file" + i + ".txt"), ("other " + i).getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+			}
+			batch.write(IdxPath.createPath("diff", "moved.txt"), "moved".getBytes(StandardCharsets.UTF_8), CompressionType.LZMA);
+			batch.write(IdxPath.createPath("diff", "removed.txt"), "removed".getBytes(StandardCharsets.UTF_8), CompressionType.LZMA);
+			batch.commit();
+		}
+		oldArchive.close();
+
+		Files.copy(indexFilePath, newIndexPath, StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(archiveFilePath, newArchivePath, StandardCopyOption.REPLACE_EXISTING);
+		oldArchive = NexusArchive.open(indexFilePath);
+		var newArchive = NexusArchive.open(newIndexPath);
+		assertEquals(0, ArchiveDiff.compare(oldArchive, newArchive).count()); // all directories are stored in identical blocks
+		oldArchive.close();
+		newArchive.write(IdxPath.createPath("diff", "other", "file3.txt"), "changed".getBytes(StandardCharsets.UTF_8), CompressionType.LZMA);
+		newArchive.write(IdxPath.createPath("diff", "added", "file.txt"), "added".getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+		newArchive.copyRaw(newArchive.find(IdxPath.createPath("diff", "moved.txt")).get().asFile(), IdxPath.createPath("diff", "other", "moved.txt"));
+		newArchive.delete(IdxPath.createPath("diff", "moved.txt"));
+		newArchive.delete(IdxPath.createPath("diff", "removed.txt"));
+		newArchive.close();
+
+		oldArchive = NexusArchive.open(indexFilePath);
+		newArchive = NexusArchive.open(newIndexPath);
+		final var changes = ArchiveDiff.compare(oldArchive, newArchive)
+				.collect(Collectors.toMap(change -> change.getPath().getFullName(), change -> change.getType()));
+		assertEquals(Map.of( //
+				"diff\\other\\file3.txt", ChangeType.CHANGED, //
+				"diff\\added\\file.txt", ChangeType.ADDED, //
+				"diff\\other\\moved.txt", ChangeType.MOVED, //
+				"diff\\removed.txt", ChangeType.REMOVED), changes);
+
+		final var numberOfFiles = oldArchive.getNumberOfFiles();
+		assertEquals(4, ArchiveDiff.applyDelta(oldArchive, newArchive).size());
+		assertEquals(0, ArchiveDiff.compare(oldArchive, newArchive).count());
+		assertEquals(numberOfFiles, oldArchive.getNumberOfFiles(), "two blobs added, two blobs removed");
+		assertArrayEquals("changed".getBytes(StandardCharsets.UTF_8),
+				oldArchive.find(IdxPath.createPath("diff", "other", "file3.txt")).get().asFile().getData());
+		assertArrayEquals("moved".getBytes(StandardCharsets.UTF_8), oldArchive.find(IdxPath.createPath("diff", "other", "moved.txt")).get().asFile().getData());
+		oldArchive.close();
+		newArchive.close();
+
+		oldArchive = NexusArchive.open(indexFilePath);
+		oldArchive.validateArchive();
+		assertTrue(oldArchive.verifyContents(1).isValid());
+
+		// files replaced by directories and the other way around
+		newArchive = NexusArchive.open(newIndexPath);
+		oldArchive.write(IdxPath.createPath("swap", "file"), "file".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+		oldArchive.write(IdxPath.createPath("swap", "moved"), "moved".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+		oldArchive.write(IdxPath.createPath("swap", "directory", "deep", "file.txt"), "deep".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+		oldArchive.write(IdxPath.createPath("swap", "empty", "file.txt"), "empty".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+		oldArchive.delete(IdxPath.createPath("swap", "empty", "file.txt"));
+		newArchive.write(IdxPath.createPath("swap", "file", "file.txt"), "directory".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+		newArchive.write(IdxPath.createPath("swap", "moved", "moved.txt"), "moved".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+		newArchive.write(IdxPath.createPath("swap", "directory"), "file".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+		newArchive.write(IdxPath.createPath("swap", "empty"), "empty".getBytes(StandardCharsets.UTF_8), CompressionType.ZIP);
+
+		ArchiveDiff.applyDelta(oldArchive, newArchive);
+		assertEquals(0, ArchiveDiff.compare(oldArchive, newArchive).count());
+		assertEquals("directory", new String(oldArchive.find(IdxPath.createPath("swap", "file", "file.txt")).get().asFile().getData(), StandardCharsets.UTF_8));
+		assertEquals("moved", new String(oldArchive.find(IdxPath.createPath("swap", "moved", "moved.txt")).get().asFile().getData(), StandardCharsets.UTF_8));
+		assertEquals("file", new String(oldArchive.find(IdxPath.createPath("swap", "directory")).get().asFile().getData(), StandardCharsets.UTF_8));
+		assertEquals("empty", new String(oldArchive.find(IdxPath.createPath("swap", "empty")).get().asFile().getData(), StandardCharsets.UTF_8));
+		oldArchive.close();
+		newArchive.close();
+
+		oldArchive = NexusArchive.open(indexFilePath);
+		oldArchive.validateArchive();
+		assertTrue(oldArchive.verifyContents(1).isValid());
+		oldArchive.close();
+
+		Files.deleteIfExists(newIndexPath);
+		Files.deleteIfExists(newArchivePath);
+	}
+
+	@Test
+	@Order(15)
+	void testCopyRaw() throws IOException {
+		final var otherIndexPath = indexFilePath.resolveSibling("CopyRaw.index");
+		final var otherArchivePath = ArchivePathLocator.getArchivePath(otherIndexPath);
+		Files.deleteIfExists(otherIndexPath);
+		Files.deleteIfExists(otherArchivePath);
+
+		final var shared = "shared".repeat(100).getBytes(StandardCharsets.UTF_8);
+		final var source = NexusArchive.open(indexFilePath);
+		try (var batch = source.beginBatch()) {
+			for (var i = 0; i < 10; ++i) {
+				batch.write(IdxPath.createPath("copy", "file" + i + ".txt"), ("copy " + i).repeat(50).getBytes(StandardCharsets.UTF_8),
+						i % 2 == 0 ? CompressionType.LZMA : CompressionType.ZIP);
+			}
+			batch.write(IdxPath.createPath("copy", "shared1.txt"), shared, CompressionType.ZIP);
+			batch.write(IdxPath.createPath("copy", "shared2.txt"), shared, CompressionType.ZIP);
+			batch.commit();
+		}
+
+		final var target = NexusArchive.open(otherIndexPath);
+		target.setJournalEnabled(true);
+		final var files = new HashMap<IdxPath, IdxEntry.IdxFileLink>();
+		for (final var file : source.find(IdxPath.createPath("copy")).get().asDirectory().getFiles()) {
+			files.put(IdxPath.createPath("raw").resolve(file.getName()), file);
+		}
+		target.copyRaw(files);
+		assertEquals(11, target.getNumberOfFiles(), "shared data is copied once");
+
+		final var existing = target.find(IdxPath.createPath("raw", "file0.txt")).get().asFile();
+		assertThrows(IllegalArgumentException.class, () -> target.copyRaw(existing, IdxPath.createPath("raw")));
+		assertThrows(IndexEntryNotADirectoryException.class, () -> target.copyRaw(existing, IdxPath.createPath("raw", "file1.txt", "inside.txt")));
+		target.close();
+
+		final var reopened = NexusArchive.open(otherIndexPath);
+		for (final var entry : files.entrySet()) {
+			final var copy = reopened.find(entry.getKey()).get().asFile();
+			final var original = entry.getValue();
+			assertEquals(original.getFlags(), copy.getFlags());
+			assertEquals(original.getCompressedSize(), copy.getCompressedSize());
+			assertEquals(original.getUncompressedSize(), copy.getUncompressedSize());
+			assertArrayEquals(original.getHash(), copy.getHash());
+			assertArrayEquals(original.getData(), copy.getData());
+		}
+		reopened.validateArchive();
+		assertTrue(reopened.verifyContents(1).isValid());
+		reopened.close();
+		source.close();
+
+		Files.deleteIfExists(otherIndexPath);
+		Files.deleteIfExists(otherArchivePath);
+	}
+
+	@Test
+	@Order(16)
+	void testReadAsync() throws IOException, InterruptedException, ExecutionException {
+		final var archive = NexusArchive.open(indexFilePath);
+		final var content = "async".repeat(1000).getBytes(StandardCharsets.UTF_8);
+		archive.write(IdxPath.createPath("async", "file1.txt"), content, CompressionType.LZMA);
+		archive.write(IdxPath.createPath("async", "file2.txt"), content, CompressionType.LZMA);
+
+		final var readExecutor = Executors.newSingleThreadExecutor();
+		final var decodeExecutor = Executors.newFixedThreadPool(2);
+		try (var async = new AsyncNexusArchive(archive, readExecutor, decodeExecutor)) {
+			// block the reader until all requests are issued, so they overlap
+			final var gate = new CountDownLatch(1);
+			readExecutor.execute(() -> {
+				try {
+					gate.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+
+			final var file1 = archive.find(IdxPath.createPath("async", "file1.txt")).get().asFile();
+			final var file2 = archive.find(IdxPath.createPath("async", "file2.txt")).get().asFile();
+			final var reads = new ArrayList<CompletableFuture<ByteBuffer>>();
+			for (var i = 0; i < 10; ++i) {
+				reads.add(async.readAsync(i % 2 == 0 ? file1 : file2));
+			}
+			gate.countDown();
+
+			for (final var read : reads) {
+				final var data = read.get();
+				final var bytes = new byte[data.remaining()];
+				data.get(bytes);
+				assertArrayEquals(content, bytes);
+			}
+			assertEquals(1, async.getDiskReadCount(), "identical content is read once");
+			assertEquals(9, async.getCoalescedReadCount());
+
+			final var byPath = async.readAsync(IdxPath.createPath("async", "file1.txt")).get();
+			assertEquals(content.length, byPath.remaining());
+			assertEquals(2, async.getDiskReadCount());
+
+			final var missing = assertThrows(ExecutionException.class, () -> async.readAsync(IdxPath.createPath("async", "missing.txt")).get());
+			assertTrue(missing.getCause() instanceof IndexEntryNotFoundException);
+			final var directory = assertThrows(ExecutionException.class, () -> async.readAsync(IdxPath.createPath("async")).get());
+			assertTrue(directory.getCause() instanceof IndexEntryNotAFileException);
+
+			// reads after shutdown fail and are not left in flight
+			readExecutor.shutdown();
+			for (var i = 0; i < 2; ++i) {
+				final var rejected = assertThrows(ExecutionException.class, () -> async.readAsync(file1).get(10, TimeUnit.SECONDS));
+				assertTrue(rejected.getCause() instanceof RejectedExecutionException);
+			}
+		} finally {
+			readExecutor.shutdown();
+			decodeExecutor.shutdown();
+		}
+		archive.close();
+	}
+
+	@Test
+	@Order(17)
+	void testDelete() throws IOException {
+		final var journalPath = ArchivePathLocator.getJournalPath(indexFilePath);
+		final var crashedIndexPath = indexFilePath.resolveSibling("Deleted.index");
+		final var file = IdxPath.createPath("delete", "dir", "file.txt");
+		final var directory = file.getParent();
+
+		final var archive = NexusArchive.open(indexFilePath);
+		archive.write(file, "content".getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+		archive.write(IdxPath.createPath("delete", "kept.txt"), "kept".getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+		archive.setJournalEnabled(true);
+
+		assertThrows(IndexEntryNotAFileException.class, () -> archive.delete(directory), "directory is not empty");
+		assertThrows(IndexEntryNotFoundException.class, () -> archive.delete(directory.resolve("missing.txt")));
+		archive.delete(file);
+		assertTrue(archive.find(directory).get().asDirectory().getEntries().isEmpty());
+		archive.delete(directory);
+		assertTrue(archive.find(directory).isEmpty());
+		assertThrows(IndexEntryNotFoundException.class, () -> archive.delete(directory));
+
+		// the deletions are only recorded in the journal, as if the process crashed
+		Files.copy(indexFilePath, crashedIndexPath, StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(archiveFilePath, ArchivePathLocator.getArchivePath(crashedIndexPath), StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(journalPath, ArchivePathLocator.getJournalPath(crashedIndexPath), StandardCopyOption.REPLACE_EXISTING);
+		archive.close();
+
+		for (final var path : new Path[] { indexFilePath, crashedIndexPath }) {
+			final var reopened = NexusArchive.open(path);
+			reopened.validateArchive();
+			assertTrue(reopened.find(directory).isEmpty());
+			assertEquals(1, reopened.find(directory.getParent()).get().asDirectory().getEntries().size());
+			assertEquals(1, reopened.getNumberOfFiles());
+			reopened.close();
+		}
+
+		Files.deleteIfExists(crashedIndexPath);
+		Files.deleteIfExists(ArchivePathLocator.getArchivePath(crashedIndexPath));
+	}
+
+	@Test
+	@Order(18)
+	void testPreloadReferenceCounts() throws IOException {
+		final var referencesPath = ArchivePathLocator.getReferencesPath(indexFilePath);
+		final var shared = "shared".getBytes(StandardCharsets.UTF_8);
+		final var first = IdxPath.createPath("preload", "first.txt");
+		final var second = IdxPath.createPath("preload", "second.txt");
+		final var unique = IdxPath.createPath("preload", "unique.txt");
+
+		var archive = NexusArchive.open(indexFilePath);
+		archive.write(first, shared, CompressionType.UNCOMPRESSED);
+		archive.close();
+		final var staleReferences = Files.readAllBytes(referencesPath);
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.write(second, shared, CompressionType.UNCOMPRESSED);
+		archive.write(unique, "unique".getBytes(StandardCharsets.UTF_8), CompressionType.UNCOMPRESSED);
+		archive.close();
+
+		// the sidecar does not match the index and is ignored, the counts are determined on load
+		Files.write(referencesPath, staleReferences);
+		archive = NexusArchive.create();
+		archive.setPreloadReferenceCounts(true);
+		archive.load(indexFilePath);
+		assertEquals(2, archive.getNumberOfFiles());
+		archive.delete(first);
+		assertEquals(2, archive.getNumberOfFiles(), "data is still used by the second file");
+		assertArrayEquals(shared, archive.find(second).get().asFile().getData());
+		archive.delete(unique);
+		assertEquals(1, archive.getNumberOfFiles());
+
+		// without a sidecar, the setting is kept on reload
+		archive.close();
+		Files.delete(referencesPath);
+		archive.reload();
+		assertTrue(archive.isPreloadReferenceCounts());
+		archive.write(first, shared, CompressionType.ZIP);
+		archive.delete(second);
+		assertEquals(1, archive.getNumberOfFiles());
+		assertArrayEquals(shared, archive.find(first).get().asFile().getData());
+		archive.close();
+
+		archive = NexusArchive.open(indexFilePath);
+		archive.validateArchive();
+		assertTrue(archive.verifyContents(1).isValid());
+		archive.close();
+	}
+
 }
@@ -5,10 +5,14 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -17,6 +21,7 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 
+import kreed.io.util.ByteBufferBinaryReader;
 import nexusvault.test.Constants;
 import nexusvault.vault.archive.ArchiveException.ArchiveHashCollisionException;
 import nexusvault.vault.archive.Hash;
@@ -46,6 +51,21 @@ class PackedArchiveTest {
 		packedFile.close();
 	}
 
+	@Test
+	void testHash() throws IOException {
+		final var data = new byte[200_000]; // larger than the read buffer
+		for (var i = 0; i < data.length; ++i) {
+			data[i] = (byte) (i * 31 + i / 7);
+		}
+		final var expected = Hash.computeHash(data);
+		assertEquals(20, expected.length);
+		assertArrayEquals(expected, Hash.computeHash(ByteBuffer.wrap(data)));
+		assertArrayEquals(expected, Hash.computeHash(new ByteArrayInputStream(data)));
+		assertArrayEquals(expected, Hash.computeHash(new ByteBufferBinaryReader(ByteBuffer.wrap(data))));
+		assertArrayEquals(Hash.computeHash(data, 100, 5000), Hash.computeHash(ByteBuffer.wrap(data, 100, 5000)));
+		assertArrayEquals(expected, Hash.computeHash(data), "digest was not reset");
+	}
+
 	@Test
 	void testCreateIndexFileB() throws IOException {
 		var packedFile = new PackedArchiveFile(filePath);
@@ -95,6 +115,43 @@ class PackedArchiveTest {
 			assertArrayEquals(data, this.file.getData(hash));
 			assertEquals(1, this.file.getNumberOfEntries());
 		}
+
+		@Test
+		void testIncrementalFlush() throws IOException {
+			final var expected = new HashMap<ByteBuffer, byte[]>();
+			final var hashes = new ArrayList<byte[]>();
+			for (var i = 0; i < 1100; ++i) { // grows the hash table beyond its initial capacity
+				final var data = (text + i).getBytes(StandardCharsets.UTF_8);
+				final var hash = Hash.computeHash(data);
+				this.file.writeData(hash, data, false);
+				hashes.add(hash);
+				expected.put(ByteBuffer.wrap(hash), data);
+				if (i == 600) {
+					this.file.flush();
+				}
+			}
+			this.file.flush();
+
+			for (var i = 0; i < 1100; i += 7) { // removed slots are filled by the last slot
+				this.file.deleteData(hashes.get(i));
+				expected.remove(ByteBuffer.wrap(hashes.get(i)));
+			}
+			final var overwritten = "overwritten".getBytes(StandardCharsets.UTF_8);
+			this.file.writeData(hashes.get(1), overwritten, true);
+			expected.put(ByteBuffer.wrap(hashes.get(1)), overwritten);
+			final var replacement = Hash.computeHash(overwritten);
+			this.file.replaceHash(hashes.get(2), replacement);
+			expected.put(ByteBuffer.wrap(replacement), expected.remove(ByteBuffer.wrap(hashes.get(2))));
+			this.file.flush();
+			this.file.close();
+
+			this.file.open(filePath);
+			this.file.validateFile();
+			assertEquals(expected.size(), this.file.getNumberOfEntries());
+			for (final var entry : expected.entrySet()) {
+				assertArrayEquals(entry.getValue(), this.file.getData(entry.getKey().array()));
+			}
+		}
 	}
 
 }
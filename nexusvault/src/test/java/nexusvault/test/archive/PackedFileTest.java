@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.Set;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -52,6 +54,70 @@ class PackedFileTest {
 		packedFile.close();
 	}
 
+	@Test
+	@Order(2)
+	@DisplayName("Split, merge & compact free regions")
+	void testFreeRegions() throws IOException {
+		final var packedFile = new PackedFile();
+		packedFile.open(filePath);
+
+		final var a = writeEntry(packedFile, 1000, 1);
+		final var b = writeEntry(packedFile, 1000, 2);
+		final var c = writeEntry(packedFile, 1000, 3);
+		final var d = writeEntry(packedFile, 100, 4);
+
+		packedFile.releaseEntry(b);
+		final var e = packedFile.newEntry(200); // best fit, split
+		assertEquals(packedFile.entryOffset(b), packedFile.entryOffset(e));
+		assertEquals(208, packedFile.entryCapacity(e));
+		assertEquals(1, packedFile.getUnclaimedEntries().size());
+
+		packedFile.releaseEntry(a);
+		packedFile.releaseEntry(e); // merges with a and the remainder of b
+		assertEquals(Set.of(e), packedFile.getUnclaimedEntries());
+		assertEquals(packedFile.entryOffset(c) - 16, packedFile.entryOffset(e) + packedFile.entryCapacity(e));
+		packedFile.close();
+
+		packedFile.open(filePath);
+		packedFile.validateFile();
+		assertEquals(1, packedFile.getUnclaimedEntries().size()); // the index table was split off on close
+		assertEntry(packedFile, c, 1000, 3);
+		assertEntry(packedFile, d, 100, 4);
+
+		final var sizeBefore = Files.size(filePath);
+		final var reclaimed = packedFile.compact();
+		assertTrue(reclaimed > 1000, "compaction should reclaim the free region");
+		assertEquals(sizeBefore - reclaimed, Files.size(filePath));
+		assertTrue(packedFile.getUnclaimedEntries().isEmpty(), "compaction should remove all free regions");
+		assertEntry(packedFile, c, 1000, 3);
+		assertEntry(packedFile, d, 100, 4);
+		packedFile.close();
+
+		packedFile.open(filePath);
+		packedFile.validateFile();
+		assertTrue(packedFile.getUnclaimedEntries().isEmpty(), "compaction should remove all free regions");
+		assertEntry(packedFile, c, 1000, 3);
+		assertEntry(packedFile, d, 100, 4);
+		assertEquals(0, packedFile.compact());
+		packedFile.close();
+	}
+
+	private static long writeEntry(PackedFile packedFile, int size, int seed) throws IOException {
+		final var index = packedFile.newEntry(size);
+		packedFile.writeEntry(index, createContent(size, seed), 0, size);
+		return index;
+	}
+
+	private static void assertEntry(PackedFile packedFile, long index, int size, int seed) throws IOException {
+		assertArrayEquals(createContent(size, seed), packedFile.readEntry(index, null, 0, Integer.MAX_VALUE));
+	}
+
+	private static byte[] createContent(int size, int seed) {
+		final var data = new byte[size];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
 	@Nested
 	@DisplayName("Reading existing file")
 	class Reading {
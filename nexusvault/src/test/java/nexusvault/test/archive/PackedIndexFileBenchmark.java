@@ -0,0 +1,50 @@
+package nexusvault.test.archive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import nexusvault.test.Constants;
+import nexusvault.vault.index.PackedIndexFile;
+
+/**
+ * Measures how long it takes to create and look up files in a single directory, depending on the number of files in it. Since childs are indexed by name,
+ * the time per file should not grow with the size of the directory. Not part of the regular test run, start it with
+ * <code>-Dtest=PackedIndexFileBenchmark</code>.
+ */
+class PackedIndexFileBenchmark {
+
+	static final Path filePath = Constants.RESOURCE_OUT_DIRECTORY.resolve("Benchmark.index");
+
+	@Test
+	void measureLargeDirectory() throws IOException {
+		for (final var numberOfFiles : new int[] { 1_000, 10_000, 100_000 }) {
+			Files.deleteIfExists(filePath);
+
+			var packedFile = new PackedIndexFile(filePath);
+			final var directory = packedFile.getRoot().newDirectory("data");
+			var start = System.nanoTime();
+			for (var i = 0; i < numberOfFiles; ++i) {
+				directory.newFile("File" + i + ".bin", 0, 0, 0, 0, new byte[20], 0);
+			}
+			final var createNanos = System.nanoTime() - start;
+			packedFile.close();
+
+			packedFile = new PackedIndexFile(filePath);
+			final var loaded = packedFile.getRoot().getChild("data").get().asDirectory();
+			start = System.nanoTime();
+			for (var i = 0; i < numberOfFiles; ++i) {
+				loaded.hasChild("file" + i + ".BIN");
+			}
+			final var lookupNanos = System.nanoTime() - start;
+			packedFile.close();
+
+			System.out.println(String.format("%,9d files: create %6.2f us, look up %6.2f us per file", numberOfFiles, createNanos / 1e3 / numberOfFiles,
+					lookupNanos / 1e3 / numberOfFiles));
+		}
+		Files.deleteIfExists(filePath);
+	}
+
+}
@@ -1,5 +1,6 @@
 package nexusvault.test.archive;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -98,4 +99,95 @@ class PackedIndexFileTest {
 		packedFile.close();
 	}
 
+	@Test
+	@Order(5)
+	void testLargeDirectory() throws IOException {
+		final var numberOfFiles = 5_000;
+
+		var packedFile = new PackedIndexFile(filePath);
+		final var directory = packedFile.getRoot().newDirectory("data");
+
+		for (var i = 0; i < numberOfFiles; ++i) {
+			directory.newFile("File" + i + ".bin", 0, 0, 0, 0, new byte[20], 0);
+		}
+
+		assertEquals(numberOfFiles, directory.getChilds().size());
+		assertTrue(directory.hasChild("FILE0.BIN"));
+		assertThrows(IndexNameCollisionException.class, () -> directory.newFile("file42.bin", 0, 0, 0, 0, new byte[20], 0));
+
+		directory.delete("file1.bin");
+		assertFalse(directory.hasChild("File1.bin"));
+		directory.getChild("file2.bin").get().setName("Renamed.bin");
+		assertFalse(directory.hasChild("File2.bin"));
+		assertTrue(directory.hasChild("renamed.bin"));
+		directory.getChild("file3.bin").get().moveTo(packedFile.getRoot());
+		assertFalse(directory.hasChild("File3.bin"));
+		assertTrue(packedFile.getRoot().hasChild("file3.bin"));
+		packedFile.close();
+
+		packedFile = new PackedIndexFile(filePath);
+		packedFile.validateFile();
+		final var loaded = packedFile.getRoot().getChild("DATA").get().asDirectory();
+		for (var i = 4; i < numberOfFiles; ++i) {
+			assertTrue(loaded.hasChild("file" + i + ".BIN"));
+		}
+		assertFalse(loaded.hasChild("file" + numberOfFiles + ".bin"));
+		assertEquals(numberOfFiles - 2, loaded.getChilds().size());
+		packedFile.close();
+	}
+
+	@Test
+	@Order(6)
+	void testAddToStoredDirectory() throws IOException {
+		var packedFile = new PackedIndexFile(filePath);
+		packedFile.getRoot().newDirectory("data").newDirectory("small").newFile("file0.bin", 0, 0, 0, 0, new byte[20], 0);
+		packedFile.close();
+
+		// the change is below a directory which was read from the file
+		packedFile = new PackedIndexFile(filePath);
+		packedFile.getRoot().getChild("data").get().asDirectory().newFile("added.bin", 0, 0, 0, 0, new byte[20], 0);
+		packedFile.close();
+
+		packedFile = new PackedIndexFile(filePath);
+		packedFile.validateFile();
+		assertTrue(packedFile.getRoot().getChild("data").get().asDirectory().hasChild("added.bin"));
+		packedFile.close();
+
+		// the directory outgrows its entry and is moved, its parent needs to store the new location
+		packedFile = new PackedIndexFile(filePath);
+		final var small = packedFile.getRoot().getChild("data").get().asDirectory().getChild("small").get().asDirectory();
+		for (var i = 1; i < 100; ++i) {
+			small.newFile("file" + i + ".bin", 0, 0, 0, 0, new byte[20], 0);
+		}
+		packedFile.close();
+
+		packedFile = new PackedIndexFile(filePath);
+		packedFile.validateFile();
+		final var loaded = packedFile.getRoot().getChild("data").get().asDirectory().getChild("small").get().asDirectory();
+		assertEquals(100, loaded.getChilds().size());
+		packedFile.close();
+	}
+
+	@Test
+	@Order(7)
+	void testNonAsciiLookup() throws IOException {
+		var packedFile = new PackedIndexFile(filePath);
+		final var directory = packedFile.getRoot().newDirectory("names");
+		for (final var name : new String[] { "istanbul.bin", "strasse.bin", "kelvin.bin" }) {
+			directory.newFile(name, 0, 0, 0, 0, new byte[20], 0);
+		}
+		packedFile.close();
+
+		// lookups agree with String.equalsIgnoreCase, also for characters whose lower case differs
+		packedFile = new PackedIndexFile(filePath);
+		final var loaded = packedFile.getRoot().getChild("names").get().asDirectory();
+		assertTrue(loaded.hasChild("\u0130STANBUL.bin"));
+		assertTrue(loaded.hasChild("\u0131stanbul.bin"));
+		assertTrue(loaded.hasChild("\u017Ftra\u017F\u017Fe.bin"));
+		assertTrue(loaded.hasChild("\u212Aelvin.bin"));
+		assertFalse(loaded.hasChild("stra\u00DFe.bin"));
+		assertThrows(IndexNameCollisionException.class, () -> loaded.newFile("\u0130stanbul.bin", 0, 0, 0, 0, new byte[20], 0));
+		packedFile.close();
+	}
+
 }
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.test.m3;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import kreed.io.util.ByteBufferUtil;
+import nexusvault.shared.FloatConversion;
+
+class FloatConversionTest {
+
+	@Test
+	void testHalfToFloatMatchesByteBufferUtil() {
+		final var buffer = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 1 << 16; ++i) {
+			buffer.putShort(0, (short) i).position(0);
+			final var expected = ByteBufferUtil.getFloat16(buffer);
+			assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(FloatConversion.halfToFloat((short) i)), Integer.toHexString(i));
+		}
+	}
+
+	@Test
+	void testStridedConversion() {
+		final int stride = 11;
+		final int count = 100;
+		final var data = new byte[stride * count];
+		new Random(3).nextBytes(data);
+		final var buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+
+		final var halfs = new float[count * 2 + 1];
+		final var int16s = new float[count * 3 + 1];
+		final var uint8s = new float[count * 4 + 1];
+		final var unorm8s = new float[count * 4 + 1];
+		FloatConversion.halfToFloat(buffer, 1, stride, 2, count, halfs, 1);
+		FloatConversion.int16ToFloat(buffer, 1, stride, 3, count, 0.5f, int16s, 1);
+		FloatConversion.uint8ToFloat(buffer, 7, stride, 4, count, false, uint8s, 1);
+		FloatConversion.uint8ToFloat(buffer, 7, stride, 4, count, true, unorm8s, 1);
+
+		final var expectedHalfs = new float[halfs.length];
+		final var expectedInt16s = new float[int16s.length];
+		final var expectedUint8s = new float[uint8s.length];
+		final var expectedUnorm8s = new float[unorm8s.length];
+		for (int i = 0; i < count; ++i) {
+			buffer.position(i * stride + 1);
+			for (int c = 0; c < 2; ++c) {
+				expectedHalfs[1 + i * 2 + c] = ByteBufferUtil.getFloat16(buffer);
+			}
+			buffer.position(i * stride + 1);
+			for (int c = 0; c < 3; ++c) {
+				expectedInt16s[1 + i * 3 + c] = ByteBufferUtil.getInt16(buffer) / 2f;
+			}
+			for (int c = 0; c < 4; ++c) {
+				final int value = ByteBufferUtil.getUInt8(buffer);
+				expectedUint8s[1 + i * 4 + c] = value;
+				expectedUnorm8s[1 + i * 4 + c] = value / 255f;
+			}
+		}
+
+		assertArrayEquals(expectedHalfs, halfs);
+		assertArrayEquals(expectedInt16s, int16s);
+		assertArrayEquals(expectedUint8s, uint8s);
+		assertArrayEquals(expectedUnorm8s, unorm8s);
+	}
+
+	@Test
+	void testBounds() {
+		final var buffer = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+		assertThrows(IndexOutOfBoundsException.class, () -> FloatConversion.halfToFloat(buffer, 0, 10, 2, 3, new float[6], 0));
+		assertThrows(IndexOutOfBoundsException.class, () -> FloatConversion.halfToFloat(buffer, 0, 10, 2, 2, new float[3], 0));
+		FloatConversion.halfToFloat(buffer, 0, 10, 5, 2, new float[10], 0);
+	}
+
+}
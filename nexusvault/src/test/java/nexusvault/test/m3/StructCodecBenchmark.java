@@ -0,0 +1,69 @@
+package nexusvault.test.m3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+
+import org.junit.jupiter.api.Test;
+
+import kreed.reflection.struct.DataReadDelegator;
+import kreed.reflection.struct.StructFactory;
+import kreed.reflection.struct.StructReader;
+import kreed.reflection.struct.StructUtil;
+import kreed.reflection.struct.reader.ByteBufferReader;
+import nexusvault.format.m3.struct.StructBones;
+import nexusvault.format.m3.struct.StructGeometry;
+import nexusvault.format.m3.struct.StructMaterial;
+import nexusvault.format.m3.struct.StructMesh;
+import nexusvault.shared.StructCodec;
+
+/**
+ * Compares the time needed to decode M3 structs with the reflective {@link StructReader} and with {@link StructCodec}. Not part of the regular test run,
+ * start it with <code>-Dtest=StructCodecBenchmark</code>.
+ */
+class StructCodecBenchmark {
+
+	static final int STRUCTS_PER_ROUND = 10_000;
+	static final int WARMUP_ROUNDS = 20;
+	static final int MEASURED_ROUNDS = 20;
+
+	static final List<Class<?>> STRUCTS = List.of(StructMesh.class, StructMaterial.class, StructBones.class, StructGeometry.class);
+
+	/** prevents the JIT from removing the decoding */
+	static int sink;
+
+	@Test
+	void compareDecoding() {
+		final var reflective = StructReader.build(StructFactory.build(), DataReadDelegator.build(new ByteBufferReader()), false);
+		for (final var type : STRUCTS) {
+			final var size = StructUtil.sizeOf(type);
+			final var input = new byte[size * STRUCTS_PER_ROUND];
+			new Random(1).nextBytes(input);
+			final var data = ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN);
+
+			final var reflectionNanos = measure(data, type, (t, buffer) -> reflective.read(t, buffer));
+			final var codec = StructCodec.of(type);
+			final var codecNanos = measure(data, type, (t, buffer) -> codec.read(buffer));
+			System.out.println(String.format("%-16s %4d bytes: reflection %8.1f ns/struct, codec %8.1f ns/struct, %5.1fx", type.getSimpleName(), size,
+					reflectionNanos, codecNanos, reflectionNanos / codecNanos));
+		}
+	}
+
+	private static double measure(ByteBuffer data, Class<?> type, BiFunction<Class<?>, ByteBuffer, Object> reader) {
+		var nanos = 0L;
+		for (var round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; ++round) {
+			data.clear();
+			final var start = System.nanoTime();
+			for (var i = 0; i < STRUCTS_PER_ROUND; ++i) {
+				sink += System.identityHashCode(reader.apply(type, data));
+			}
+			if (round >= WARMUP_ROUNDS) {
+				nanos += System.nanoTime() - start;
+			}
+		}
+		return (double) nanos / MEASURED_ROUNDS / STRUCTS_PER_ROUND;
+	}
+
+}
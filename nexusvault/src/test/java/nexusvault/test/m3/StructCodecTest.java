@@ -0,0 +1,84 @@
+package nexusvault.test.m3;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import kreed.reflection.struct.DataReadDelegator;
+import kreed.reflection.struct.DataWriteDelegator;
+import kreed.reflection.struct.StructFactory;
+import kreed.reflection.struct.StructReader;
+import kreed.reflection.struct.StructUtil;
+import kreed.reflection.struct.StructWriter;
+import kreed.reflection.struct.reader.ByteBufferReader;
+import kreed.reflection.struct.writer.ByteBufferWriter;
+import nexusvault.format.m3.pointer.ATP_S4;
+import nexusvault.format.m3.pointer.DATP_S4_S1;
+import nexusvault.format.m3.struct.StructBones;
+import nexusvault.format.m3.struct.StructGeometry;
+import nexusvault.format.m3.struct.StructM3Header;
+import nexusvault.format.m3.struct.StructMaterial;
+import nexusvault.format.m3.struct.StructMaterialDescriptor;
+import nexusvault.format.m3.struct.StructMesh;
+import nexusvault.format.m3.struct.StructModel2Display;
+import nexusvault.format.m3.struct.StructTexture;
+import nexusvault.format.m3.struct.StructUnk152;
+import nexusvault.format.m3.struct.StructUnk184;
+import nexusvault.format.m3.struct.StructUnk48;
+import nexusvault.shared.StructCodec;
+
+class StructCodecTest {
+
+	static final List<Class<?>> STRUCTS = List.of(StructM3Header.class, StructGeometry.class, StructMesh.class, StructMaterial.class,
+			StructMaterialDescriptor.class, StructBones.class, StructTexture.class, StructModel2Display.class, StructUnk48.class, StructUnk152.class,
+			StructUnk184.class, ATP_S4.class, DATP_S4_S1.class);
+
+	static final StructReader<ByteBuffer> reflectiveReader = StructReader.build(StructFactory.build(), DataReadDelegator.build(new ByteBufferReader()),
+			false);
+	static final StructWriter<ByteBuffer> reflectiveWriter = StructWriter.build(StructFactory.build(), DataWriteDelegator.build(new ByteBufferWriter()),
+			false);
+
+	@Test
+	void testSameResultAsReflection() {
+		final var random = new Random(42);
+		for (final var type : STRUCTS) {
+			final var size = StructUtil.sizeOf(type);
+			for (var round = 0; round < 20; ++round) {
+				final var input = new byte[size];
+				random.nextBytes(input);
+
+				final var expected = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+				reflectiveWriter.write(reflectiveReader.read(type, ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN)), expected);
+
+				final var data = ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN);
+				final var struct = readWithCodec(type, data);
+				assertEquals(size, data.position(), type.getSimpleName());
+
+				final var actual = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+				reflectiveWriter.write(struct, actual);
+				assertArrayEquals(expected.array(), actual.array(), type.getSimpleName() + ": read");
+
+				final var written = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+				writeWithCodec(reflectiveReader.read(type, ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN)), written);
+				assertEquals(size, written.position(), type.getSimpleName());
+				assertArrayEquals(expected.array(), written.array(), type.getSimpleName() + ": write");
+			}
+		}
+	}
+
+	private static <T> T readWithCodec(Class<T> type, ByteBuffer data) {
+		return StructCodec.of(type).read(data);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void writeWithCodec(T struct, ByteBuffer data) {
+		StructCodec.of((Class<T>) struct.getClass()).write(struct, data);
+	}
+
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.test.m3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import kreed.io.util.ByteBufferUtil;
+import nexusvault.format.m3.struct.StructM3Header;
+import nexusvault.format.m3.struct.StructMesh;
+
+/**
+ * Builds a minimal m3 file which only contains a geometry with random vertices. Each vertex has a location, bone indices, bone weights and two uv maps.
+ */
+final class SyntheticModel {
+
+	private static final int HEADER_GEOMETRY = 0x250;
+	private static final int GEOMETRY_START = 0x630;
+	private static final int GEOMETRY_DATA = 0x700;
+
+	private SyntheticModel() {
+	}
+
+	/**
+	 * @param meshCount
+	 *            number of meshes
+	 * @param verticesPerMesh
+	 *            number of vertices of each mesh
+	 * @param floatLocation
+	 *            true to store locations as 3 x float32, false to store them as 3 x int16
+	 * @param seed
+	 *            seed of the random vertex data
+	 * @return the m3 file
+	 */
+	public static ByteBuffer build(int meshCount, int verticesPerMesh, boolean floatLocation, long seed) {
+		final var random = new Random(seed);
+		final int locationSize = floatLocation ? 12 : 6;
+		final int vertexSize = locationSize + 16;
+		final int vertexCount = meshCount * verticesPerMesh;
+		final int meshOffset = vertexCount * vertexSize + 15 & ~15;
+
+		final var data = ByteBuffer.allocate(GEOMETRY_DATA + meshOffset + meshCount * StructMesh.SIZE_IN_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		data.putInt(0, StructM3Header.SIGNATURE);
+		data.putInt(4, 100);
+		putPointer(data, HEADER_GEOMETRY, 1, 0);
+
+		data.putInt(GEOMETRY_START + 0x18, vertexCount);
+		data.putShort(GEOMETRY_START + 0x1C, (short) vertexSize);
+		data.putShort(GEOMETRY_START + 0x1E, (short) (1 | 1 << 4 | 1 << 5 | 1 << 8 | 1 << 9));
+		final byte[] types = { (byte) (floatLocation ? 1 : 2), 0, 0, 0, 4, 4, 0, 0, 5, 5, 0 };
+		final byte[] positions = { 0, 0, 0, 0, (byte) locationSize, (byte) (locationSize + 4), 0, 0, (byte) (locationSize + 8), (byte) (locationSize + 12), 0 };
+		data.position(GEOMETRY_START + 0x20).put(types).put(positions);
+		putPointer(data, GEOMETRY_START + 0x38, vertexCount * vertexSize, 0);
+		putPointer(data, GEOMETRY_START + 0x80, meshCount, meshOffset);
+
+		data.position(GEOMETRY_DATA);
+		for (int i = 0; i < vertexCount; ++i) {
+			for (int j = 0; j < 3; ++j) {
+				if (floatLocation) {
+					data.putFloat((random.nextFloat() - 0.5f) * 100);
+				} else {
+					data.putShort((short) random.nextInt());
+				}
+			}
+			for (int j = 0; j < 8; ++j) {
+				data.put((byte) random.nextInt());
+			}
+			for (int j = 0; j < 4; ++j) {
+				ByteBufferUtil.setFloat16(data, random.nextFloat());
+			}
+		}
+
+		for (int i = 0; i < meshCount; ++i) {
+			final int meshStart = GEOMETRY_DATA + meshOffset + i * StructMesh.SIZE_IN_BYTES;
+			data.putInt(meshStart + 0x04, i * verticesPerMesh);
+			data.putInt(meshStart + 0x0C, verticesPerMesh);
+		}
+
+		return data.clear();
+	}
+
+	private static void putPointer(ByteBuffer data, int position, long elements, long offset) {
+		data.putLong(position, elements);
+		data.putLong(position + 8, offset);
+	}
+
+}
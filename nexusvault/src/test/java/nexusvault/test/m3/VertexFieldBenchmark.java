@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.test.m3;
+
+import java.nio.FloatBuffer;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import nexusvault.format.m3.Mesh;
+import nexusvault.format.m3.Model;
+import nexusvault.format.m3.Vertex;
+import nexusvault.format.m3.VertexField;
+
+/**
+ * Compares the time needed to extract locations and uv coordinates of a model with 200k vertices through {@link Mesh#getVertices()} and through
+ * {@link Mesh#readField(VertexField, FloatBuffer)}. Not part of the regular test run, start it with <code>-Dtest=VertexFieldBenchmark</code>.
+ */
+class VertexFieldBenchmark {
+
+	static final int MESHES = 4;
+	static final int VERTICES_PER_MESH = 50_000;
+	static final int WARMUP_ROUNDS = 10;
+	static final int MEASURED_ROUNDS = 10;
+
+	/** prevents the JIT from removing the decoding */
+	static float sink;
+
+	@Test
+	void compareDecoding() {
+		final var vertexCount = MESHES * VERTICES_PER_MESH;
+		final var model = Model.read(SyntheticModel.build(MESHES, VERTICES_PER_MESH, false, 1));
+
+		final var locations = new float[vertexCount * 3];
+		final var uvs = new float[vertexCount * 2];
+
+		final var perVertex = measure(model, mesh -> {
+			var idx = mesh.getMeshIndex() * VERTICES_PER_MESH;
+			for (final Vertex vertex : mesh.getVertices()) {
+				vertex.getLocation(locations, idx * 3);
+				uvs[idx * 2] = vertex.getTextureCoordU1();
+				uvs[idx * 2 + 1] = vertex.getTextureCoordV1();
+				idx += 1;
+			}
+			return locations[0] + uvs[0];
+		});
+
+		final var locationBuffer = FloatBuffer.wrap(locations);
+		final var uvBuffer = FloatBuffer.wrap(uvs);
+		final var perField = measure(model, mesh -> {
+			if (mesh.getMeshIndex() == 0) {
+				locationBuffer.clear();
+				uvBuffer.clear();
+			}
+			mesh.readField(VertexField.LOCATION_B, locationBuffer);
+			mesh.readField(VertexField.UV_MAP_1, uvBuffer);
+			return locations[0] + uvs[0];
+		});
+
+		System.out.println(String.format("%d vertices: per vertex %8.2f ms, per field %8.2f ms, %5.1fx", vertexCount, perVertex / 1e6, perField / 1e6,
+				perVertex / perField));
+	}
+
+	private static double measure(Model model, Function<Mesh, Float> decoder) {
+		final var meshes = model.getGeometry().getMeshes();
+		var nanos = 0L;
+		for (var round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; ++round) {
+			final var start = System.nanoTime();
+			for (final var mesh : meshes) {
+				sink += decoder.apply(mesh);
+			}
+			if (round >= WARMUP_ROUNDS) {
+				nanos += System.nanoTime() - start;
+			}
+		}
+		return (double) nanos / MEASURED_ROUNDS;
+	}
+
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (C) 2018-2022 MarbleBag
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see <https://www.gnu.org/licenses/>
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *******************************************************************************/
+
+package nexusvault.test.m3;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import nexusvault.format.m3.Mesh;
+import nexusvault.format.m3.Model;
+import nexusvault.format.m3.Vertex;
+import nexusvault.format.m3.VertexField;
+import nexusvault.format.m3.struct.VertexBlockFieldNotFoundException;
+
+class VertexFieldTest {
+
+	static final List<VertexField> FIELDS = List.of(VertexField.BONE_MAP, VertexField.BONE_WEIGHTS, VertexField.UV_MAP_1, VertexField.UV_MAP_2);
+
+	@Test
+	void testReadFieldMatchesVertex() {
+		for (final var floatLocation : new boolean[] { true, false }) {
+			final var model = Model.read(SyntheticModel.build(3, 50, floatLocation, 7));
+			final var location = floatLocation ? VertexField.LOCATION_A : VertexField.LOCATION_B;
+			for (final var mesh : model.getGeometry().getMeshes()) {
+				assertArrayEquals(expected(mesh, location), mesh.readField(location, FloatBuffer.allocate(3 * 50)).array());
+				for (final var field : FIELDS) {
+					final var actual = mesh.readField(field, FloatBuffer.allocate(field.getNumberOfElements() * 50));
+					assertArrayEquals(expected(mesh, field), actual.array(), field.name());
+				}
+			}
+		}
+	}
+
+	@Test
+	void testReadFieldOfGeometry() {
+		final var geometry = Model.read(SyntheticModel.build(3, 50, false, 11)).getGeometry();
+		final var all = geometry.readField(VertexField.UV_MAP_1, FloatBuffer.allocate(2 * 150 + 1));
+		assertEquals(2 * 150, all.position());
+
+		final var byMesh = FloatBuffer.allocate(2 * 150 + 1);
+		for (final var mesh : geometry.getMeshes()) {
+			mesh.readField(VertexField.UV_MAP_1, byMesh);
+		}
+		assertArrayEquals(byMesh.array(), all.array());
+	}
+
+	@Test
+	void testReadFieldErrors() {
+		final var mesh = Model.read(SyntheticModel.build(1, 10, false, 3)).getGeometry().getMesh(0);
+		assertThrows(VertexBlockFieldNotFoundException.class, () -> mesh.readField(VertexField.LOCATION_A, FloatBuffer.allocate(3 * 10)));
+		assertThrows(BufferOverflowException.class, () -> mesh.readField(VertexField.LOCATION_B, FloatBuffer.allocate(3 * 10 - 1)));
+	}
+
+	private static float[] expected(Mesh mesh, VertexField field) {
+		final var vertices = mesh.getVertices();
+		final var result = new float[vertices.size() * field.getNumberOfElements()];
+		var idx = 0;
+		for (final Vertex vertex : vertices) {
+			switch (field) {
+				case LOCATION_A:
+				case LOCATION_B:
+					vertex.getLocation(result, idx);
+					break;
+				case BONE_MAP:
+					result[idx] = vertex.getBoneIndex1();
+					result[idx + 1] = vertex.getBoneIndex2();
+					result[idx + 2] = vertex.getBoneIndex3();
+					result[idx + 3] = vertex.getBoneIndex4();
+					break;
+				case BONE_WEIGHTS:
+					result[idx] = vertex.getBoneWeight1();
+					result[idx + 1] = vertex.getBoneWeight2();
+					result[idx + 2] = vertex.getBoneWeight3();
+					result[idx + 3] = vertex.getBoneWeight4();
+					break;
+				case UV_MAP_1:
+					result[idx] = vertex.getTextureCoordU1();
+					result[idx + 1] = vertex.getTextureCoordV1();
+					break;
+				case UV_MAP_2:
+					result[idx] = vertex.getTextureCoordU2();
+					result[idx + 1] = vertex.getTextureCoordV2();
+					break;
+				default:
+					throw new IllegalArgumentException(field.name());
+			}
+			idx += field.getNumberOfElements();
+		}
+		return result;
+	}
+
+}